@@ -1,26 +1,79 @@
 package com.gitlab.rurouniwallace.notes;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
+import com.gitlab.rurouniwallace.notes.config.ConcurrencyLimitConfiguration;
+import com.gitlab.rurouniwallace.notes.config.DaoConfiguration;
+import com.gitlab.rurouniwallace.notes.config.EmailFilterConfiguration;
+import com.gitlab.rurouniwallace.notes.config.FallbackConfiguration;
 import com.gitlab.rurouniwallace.notes.config.NotesApiConfiguration;
 import com.gitlab.rurouniwallace.notes.config.SqlFactory;
 import com.gitlab.rurouniwallace.notes.config.YamlFileConfigurationSourceProvider;
+import com.gitlab.rurouniwallace.notes.command.CommandFallbacks;
+import com.gitlab.rurouniwallace.notes.command.CommandRunner;
+import com.gitlab.rurouniwallace.notes.command.PasswordRehasher;
+import com.gitlab.rurouniwallace.notes.command.RegistrationSpool;
+import com.gitlab.rurouniwallace.notes.command.UserLookupCollapser;
 import com.gitlab.rurouniwallace.notes.controllers.UserController;
+import com.gitlab.rurouniwallace.notes.controllers.UserImporter;
+import com.gitlab.rurouniwallace.notes.controllers.UserLister;
+import com.gitlab.rurouniwallace.notes.dao.AsyncUserDao;
 import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsersAsync;
+import com.gitlab.rurouniwallace.notes.dao.InstrumentedDataSource;
+import com.gitlab.rurouniwallace.notes.dao.KnownEmailFilter;
+import com.gitlab.rurouniwallace.notes.dao.RandomUuidGenerator;
+import com.gitlab.rurouniwallace.notes.dao.ReplicaRouter;
 import com.gitlab.rurouniwallace.notes.dao.SqlDao;
+import com.gitlab.rurouniwallace.notes.dao.TimeOrderedUuidGenerator;
+import com.gitlab.rurouniwallace.notes.dao.UserProfileCache;
+import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.filters.LoadSheddingFilter;
+import com.gitlab.rurouniwallace.notes.filters.TokenAuthenticationFilter;
 import com.gitlab.rurouniwallace.notes.resources.HealthResource;
 import com.gitlab.rurouniwallace.notes.resources.UserResource;
+import com.gitlab.rurouniwallace.notes.security.BcryptPasswordHasher;
+import com.gitlab.rurouniwallace.notes.security.DelegatingPasswordHasher;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.SaltGenerator;
+import com.gitlab.rurouniwallace.notes.security.SessionTokenService;
+import com.gitlab.rurouniwallace.notes.security.VerifiedCredentialCache;
+import com.gitlab.rurouniwallace.notes.tenacity.DeadlineConcurrencyStrategy;
+import com.gitlab.rurouniwallace.notes.tenacity.DeadlineExecutionHook;
+import com.gitlab.rurouniwallace.notes.tenacity.FallbackMetrics;
 import com.gitlab.rurouniwallace.notes.tenacity.NotesApiTenacityBundleConfigurationFactory;
+import com.gitlab.rurouniwallace.notes.throttling.AdaptiveConcurrencyLimit;
+import com.gitlab.rurouniwallace.notes.throttling.DisconnectWatcher;
+import com.gitlab.rurouniwallace.notes.throttling.LoginThrottle;
+import com.gitlab.rurouniwallace.notes.throttling.PriorityLoadShedder;
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.yammer.tenacity.core.bundle.TenacityBundleBuilder;
+import com.yammer.tenacity.core.config.TenacityConfiguration;
+import com.yammer.tenacity.core.config.ThreadPoolConfiguration;
+import com.yammer.tenacity.core.properties.TenacityPropertyKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.dropwizard.Application;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import io.federecio.dropwizard.swagger.SwaggerBundle;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 import liquibase.Contexts;
@@ -34,6 +87,11 @@ import liquibase.exception.LiquibaseException;
 import liquibase.resource.ClassLoaderResourceAccessor;
 
 public class NotesApiApplication extends Application<NotesApiConfiguration> {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(NotesApiApplication.class);
 
     public static void main(final String[] args) throws Exception {
         new NotesApiApplication().run(args);
@@ -56,30 +114,227 @@ public class NotesApiApplication extends Application<NotesApiConfiguration> {
 			}
     	});
     	
-    	bootstrap.addBundle(TenacityBundleBuilder.<NotesApiConfiguration>newBuilder().configurationFactory(new NotesApiTenacityBundleConfigurationFactory()).build());
+    	bootstrap.addBundle(TenacityBundleBuilder.<NotesApiConfiguration>newBuilder().configurationFactory(new NotesApiTenacityBundleConfigurationFactory())
+    			.commandExecutionHook(new DeadlineExecutionHook()).build());
     }
 
     @Override
     public void run(final NotesApiConfiguration configuration,
-                    final Environment environment) throws SQLException, LiquibaseException {
+                    final Environment environment) throws SQLException, LiquibaseException, DataAccessException, IOException {
     	
-        final HealthResource healthResource = new HealthResource(environment);
-        environment.jersey().register(healthResource);
+        environment.jersey().register(new LoadSheddingFilter(new PriorityLoadShedder(configuration.getLoadShedding(), environment.metrics())));
         
         final SqlFactory sqlFactory = configuration.getSql();
         
-        final DataSource sqlDataSource = sqlFactory.buildDataSource();
+        final InstrumentedDataSource sqlDataSource = sqlFactory.buildDataSource(environment);
+        
+        final ReplicaRouter replicaRouter = sqlFactory.buildReplicaRouter(sqlDataSource, environment);
+        
+        final List<InstrumentedDataSource> dataSources = new ArrayList<>();
+        dataSources.add(sqlDataSource);
+        dataSources.addAll(replicaRouter.getReplicaDataSources());
+        final HealthResource healthResource = new HealthResource(environment, dataSources);
+        environment.jersey().register(healthResource);
         
         // since right now we're using an in-memory database, we'll use Liquibase to
         // bootstrap the database at runtime
         initLiquibase(sqlDataSource);
         
-        final IAccessesUsers userDao = new SqlDao(sqlDataSource, configuration.getSecurity());
-        final UserController userController = new UserController(userDao);
-        final UserResource userResource = new UserResource(userController);
+        final SaltGenerator saltGenerator = new SaltGenerator(configuration.getSecurity(), environment.metrics());
+        environment.lifecycle().manage(saltGenerator);
+        
+        final IHashesPasswords passwordHasher = new DelegatingPasswordHasher(configuration.getSecurity().getHashAlgorithm(),
+        		Arrays.asList(new BcryptPasswordHasher(configuration.getSecurity(), saltGenerator)));
+        final VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(configuration.getSecurity(), environment.metrics());
+        final KnownEmailFilter knownEmailFilter = new KnownEmailFilter(configuration.getEmailFilter(), environment.metrics());
+        final SqlDao sqlDao = new SqlDao(sqlDataSource, passwordHasher, credentialCache, knownEmailFilter, replicaRouter,
+        		configuration.getDao().getUuidScheme() == DaoConfiguration.UuidScheme.TIME_ORDERED ? new TimeOrderedUuidGenerator() : new RandomUuidGenerator());
+        sqlDao.rebuildKnownEmailFilter();
+        scheduleKnownEmailFilterRebuilds(configuration.getEmailFilter(), environment, sqlDao);
+        startEmailHashBackfill(configuration.getDao(), environment, sqlDao);
+        final IAccessesUsers userDao = sqlDao;
+        
+        final CommandFallbacks fallbacks = new CommandFallbacks(configuration.getFallback(),
+        		buildRegistrationSpool(configuration.getFallback(), environment, userDao), environment.metrics());
+        HystrixPlugins.getInstance().registerEventNotifier(new FallbackMetrics(environment.metrics()));
+        HystrixPlugins.getInstance().registerConcurrencyStrategy(new DeadlineConcurrencyStrategy());
+        CommandRunner.reportCancellations(environment.metrics());
+        limitConcurrency(configuration, environment);
+        
+        final SessionTokenService tokenService = new SessionTokenService(configuration.getSecurity());
+        environment.jersey().register(new TokenAuthenticationFilter(tokenService));
+        
+        final UserController userController = new UserController(userDao, passwordHasher, tokenService, credentialCache,
+        		new LoginThrottle(configuration.getLoginThrottle(), environment.metrics()), knownEmailFilter,
+        		new PasswordRehasher(passwordHasher, userDao, environment.metrics()),
+        		buildAsyncUserDao(configuration.getDao(), environment, userDao),
+        		new UserProfileCache(configuration.getDao(), environment.metrics()),
+        		configuration.getDao().getMaxLookupKeys(),
+        		new UserLookupCollapser(userDao, fallbacks.getStaleLookups(), configuration.getDao(), environment.metrics()),
+        		fallbacks,
+        		UserController.maxBatchSize(configuration.getRequestDeadline().getBatchRegistrationTimeoutMillis(), configuration.getSecurity().getHashTargetMillis()),
+        		configuration.getSecurity().getAdminUserUuids());
+        final UserResource userResource = new UserResource(userController,
+        		new UserImporter(userDao, passwordHasher, environment.getObjectMapper(), configuration.getSecurity().getAdminUserUuids()),
+        		new UserLister(userDao, environment.getObjectMapper(), configuration.getSecurity().getAdminUserUuids()),
+        		configuration.getRequestDeadline(),
+        		buildDisconnectWatcher(environment));
         environment.jersey().register(userResource);
     }
     
+    /**
+     * Build the watcher for clients that disconnect before their response is sent, which
+     * runs as long as the application does
+     * 
+     * @param environment application environment
+     * @return the watcher
+     */
+    private DisconnectWatcher buildDisconnectWatcher(final Environment environment) {
+    	final ExecutorService executor = environment.lifecycle().executorService("request-cancellation-%d")
+    			.minThreads(1)
+    			.maxThreads(1)
+    			.build();
+    	final DisconnectWatcher disconnectWatcher = new DisconnectWatcher(executor, environment.metrics());
+    	environment.lifecycle().manage(disconnectWatcher);
+    	return disconnectWatcher;
+    }
+    
+    /**
+     * Admit commands by adaptive concurrency limits, if enabled, one per dependency key. The
+     * capacity of each key's bulkhead is the most its limit may grow to.
+     * 
+     * @param configuration application configuration
+     * @param environment application environment
+     */
+    private void limitConcurrency(final NotesApiConfiguration configuration, final Environment environment) {
+    	final ConcurrencyLimitConfiguration limitConfig = configuration.getConcurrencyLimit();
+    	if (!limitConfig.isEnabled()) {
+    		return;
+    	}
+    	
+    	final Map<TenacityPropertyKey, AdaptiveConcurrencyLimit> limits = new HashMap<>();
+    	for (final Map.Entry<TenacityPropertyKey, TenacityConfiguration> dependency
+    			: new NotesApiTenacityBundleConfigurationFactory().getTenacityConfigurations(configuration).entrySet()) {
+    		final TenacityConfiguration tenacityConfig = dependency.getValue();
+    		final int capacity;
+    		if (tenacityConfig.getExecutionIsolationStrategy() == ExecutionIsolationStrategy.SEMAPHORE) {
+    			capacity = tenacityConfig.getSemaphore().getMaxConcurrentRequests();
+    		} else {
+    			final ThreadPoolConfiguration threadPoolConfig = tenacityConfig.getThreadpool();
+    			capacity = threadPoolConfig.getThreadPoolCoreSize()
+    					+ (threadPoolConfig.getMaxQueueSize() > 0 ? threadPoolConfig.getQueueSizeRejectionThreshold() : 0);
+    		}
+    		limits.put(dependency.getKey(), new AdaptiveConcurrencyLimit(dependency.getKey().name(), limitConfig, capacity, environment.metrics()));
+    	}
+    	CommandRunner.limitConcurrency(limits);
+    }
+    
+    /**
+     * Periodically rebuild the known email filter, so that addresses registered through
+     * other instances are picked up and the false positive rate stays near its target
+     * 
+     * @param emailFilterConfig filter settings
+     * @param environment application environment
+     * @param sqlDao DAO that streams the registered email addresses
+     * @throws IllegalArgumentException if the filter is enabled without a rebuild interval
+     */
+    private void scheduleKnownEmailFilterRebuilds(final EmailFilterConfiguration emailFilterConfig,
+    		final Environment environment, final SqlDao sqlDao) {
+    	if (!emailFilterConfig.isEnabled()) {
+    		return;
+    	}
+    	
+    	final long intervalMinutes = emailFilterConfig.getRebuildIntervalMinutes();
+    	if (intervalMinutes <= 0) {
+    		throw new IllegalArgumentException("emailFilter.rebuildIntervalMinutes must be positive while the filter is enabled");
+    	}
+    	
+    	final ScheduledExecutorService rebuilder = environment.lifecycle()
+    			.scheduledExecutorService("known-email-filter-%d").threads(1).build();
+    	rebuilder.scheduleWithFixedDelay(() -> {
+    		try {
+    			sqlDao.rebuildKnownEmailFilter();
+    		} catch (final DataAccessException e) {
+    			LOGGER.error("Failed to rebuild known email filter", e);
+    		}
+    	}, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Backfill the normalized emails and email hashes of existing users in the background
+     * 
+     * @param daoConfiguration user data access settings
+     * @param environment application environment
+     * @param sqlDao DAO that backfills the email hashes
+     */
+    private void startEmailHashBackfill(final DaoConfiguration daoConfiguration, final Environment environment, final SqlDao sqlDao) {
+    	final ScheduledExecutorService backfiller = environment.lifecycle()
+    			.scheduledExecutorService("email-hash-backfill-%d").threads(1).build();
+    	backfiller.execute(() -> {
+    		try {
+    			sqlDao.backfillEmailHashes(daoConfiguration.getEmailBackfillBatchSize(), daoConfiguration.getEmailBackfillPauseMillis());
+    		} catch (final DataAccessException e) {
+    			LOGGER.error("Failed to backfill email hashes", e);
+    		}
+    	});
+    }
+    
+    /**
+     * Build the spool that registrations fall back to, if one is configured, and replay it
+     * periodically
+     * 
+     * @param fallbackConfig fallback settings
+     * @param environment application environment
+     * @param userDao DAO that spooled registrations are replayed to
+     * @return the registration spool, which spools nothing if no directory is configured
+     * @throws IOException if the spool directory could not be read or created
+     */
+    private RegistrationSpool buildRegistrationSpool(final FallbackConfiguration fallbackConfig, final Environment environment, final IAccessesUsers userDao) throws IOException {
+    	if (fallbackConfig.getSpoolDirectory() == null || fallbackConfig.getSpoolDirectory().isEmpty()) {
+    		return new RegistrationSpool();
+    	}
+    	
+    	final RegistrationSpool spool = new RegistrationSpool(fallbackConfig, userDao, environment.getObjectMapper(), environment.metrics());
+    	final long intervalSeconds = fallbackConfig.getSpoolReplayIntervalSeconds();
+    	final ScheduledExecutorService replayer = environment.lifecycle()
+    			.scheduledExecutorService("registration-spool-%d").threads(1).build();
+    	replayer.scheduleWithFixedDelay(() -> {
+    		try {
+    			final int replayed = spool.replay();
+    			if (replayed > 0) {
+    				LOGGER.info("Replayed " + replayed + " spooled registrations");
+    			}
+    		} catch (final RuntimeException e) {
+    			LOGGER.error("Failed to replay spooled registrations", e);
+    		}
+    	}, 0, intervalSeconds, TimeUnit.SECONDS);
+    	return spool;
+    }
+    
+    /**
+     * Build the asynchronous user DAO, if user data access is configured to run through it.
+     * Its threads are created on demand, up to the configured concurrency, and exit when idle.
+     * 
+     * @param daoConfiguration user data access execution settings
+     * @param environment application environment
+     * @param userDao the blocking user DAO
+     * @return the asynchronous user DAO, or null if user data access runs as Tenacity commands
+     */
+    private IAccessesUsersAsync buildAsyncUserDao(final DaoConfiguration daoConfiguration, final Environment environment, final IAccessesUsers userDao) {
+    	if (daoConfiguration.getExecutionMode() != DaoConfiguration.ExecutionMode.ASYNC) {
+    		return null;
+    	}
+    	
+    	final ExecutorService executor = environment.lifecycle().executorService("user-dao-%d")
+    			.minThreads(daoConfiguration.getMaxConcurrency())
+    			.maxThreads(daoConfiguration.getMaxConcurrency())
+    			.keepAliveTime(Duration.seconds(daoConfiguration.getIdleThreadTimeoutSeconds()))
+    			.allowCoreThreadTimeOut(true)
+    			.build();
+    	
+    	return new AsyncUserDao(userDao, executor, daoConfiguration.getMaxConcurrency(), environment.metrics());
+    }
+    
     private void initLiquibase(final DataSource sqlDataSource) throws SQLException, LiquibaseException {
     	final Connection connection = sqlDataSource.getConnection();
 		
@@ -1,28 +1,49 @@
 package com.gitlab.rurouniwallace.notes.command;
 
-import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
-import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationDeniedException;
+import java.util.Optional;
+
 import com.gitlab.rurouniwallace.notes.models.User;
 import com.gitlab.rurouniwallace.notes.responses.StatusCode;
 import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.SessionTokenService;
+import com.gitlab.rurouniwallace.notes.security.VerifiedCredentialCache;
 import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
 import com.yammer.tenacity.core.TenacityCommand;
 
 /**
- * Tenacity command to authenticate a user
+ * Tenacity command to authenticate a user. Runs on the password hashing pool against
+ * a user already looked up by {@link LookupUserCommand}, so no database connection is
+ * held while the password is checked.
  *
  */
 public class AuthenticateUserCommand extends TenacityCommand<UserResponse> {
 
 	/**
-	 * User access DAO
+	 * Password hashing algorithm
+	 */
+	final IHashesPasswords passwordHasher;
+	
+	/**
+	 * Session token issuer
+	 */
+	final SessionTokenService tokenService;
+	
+	/**
+	 * Recently verified credentials
 	 */
-	final IAccessesUsers userDao;
+	final VerifiedCredentialCache credentialCache;
 	
 	/**
-	 * User email address
+	 * Background rehashing of outdated password hashes
 	 */
-	final String email;
+	final PasswordRehasher passwordRehasher;
+	
+	/**
+	 * User looked up by email address
+	 */
+	final Optional<User> user;
 	
 	/**
 	 * User password
@@ -32,29 +53,43 @@ public class AuthenticateUserCommand extends TenacityCommand<UserResponse> {
 	/**
 	 * Construct a new instance
 	 * 
-	 * @param userDao user access DAO
-	 * @param email user email address
+	 * @param passwordHasher password hashing algorithm
+	 * @param tokenService session token issuer
+	 * @param credentialCache recently verified credentials
+	 * @param passwordRehasher background rehashing of outdated password hashes
+	 * @param user user looked up by email address, or empty if not found
 	 * @param password user password
 	 */
-	public AuthenticateUserCommand(final IAccessesUsers userDao, final String email, final String password) {
-		super(NotesApiDependencyKeys.SQL_DB);
-		this.userDao = userDao;
-		this.email = email;
+	public AuthenticateUserCommand(final IHashesPasswords passwordHasher, final SessionTokenService tokenService, final VerifiedCredentialCache credentialCache, final PasswordRehasher passwordRehasher, final Optional<User> user, final String password) {
+		super(NotesApiDependencyKeys.PASSWORD_VERIFY);
+		this.passwordHasher = passwordHasher;
+		this.tokenService = tokenService;
+		this.credentialCache = credentialCache;
+		this.passwordRehasher = passwordRehasher;
+		this.user = user;
 		this.password = password;
 	}
 
 	/**
-	 * Execute the command
+	 * Execute the command. A successful authentication is answered with a session token
+	 * that callers can present instead of their password, and moves an outdated stored
+	 * hash to the current parameters in the background.
 	 */
 	@Override
 	protected UserResponse run() throws Exception {
-		User user;
-		try {
-			user = userDao.authenticateUser(email, password);
-		} catch (final AuthenticationDeniedException e) {
+		Deadline.current().check("Password check");
+		
+		final long hashStart = System.nanoTime();
+		if (!user.isPresent() || !passwordHasher.checkPassword(password, user.get().getPassword())) {
 			return new UserResponse("Authentication failed", StatusCode.DENY);
 		}
 		
-		return new UserResponse(user, StatusCode.ALLOW);
+		credentialCache.putVerifiedUser(user.get(), password, System.nanoTime() - hashStart);
+		passwordRehasher.rehashIfNeeded(user.get(), password);
+		
+		final UserResponse response = new UserResponse(user.get(), StatusCode.ALLOW);
+		response.setToken(tokenService.issueToken(user.get().getUuid()));
+		
+		return response;
 	}
 }
@@ -0,0 +1,86 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.FallbackConfiguration;
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * What commands fall back to when they fail, time out or are rejected: last good results
+ * for reads, served stale, and a durable spool for registrations
+ *
+ */
+public class CommandFallbacks {
+	
+	/**
+	 * Last profiles read, by UUID
+	 */
+	private final StaleValueCache<UUID, Optional<User>> staleProfiles;
+	
+	/**
+	 * Last login lookups, by normalized email address
+	 */
+	private final StaleValueCache<String, Optional<User>> staleLookups;
+	
+	/**
+	 * Spool of registrations that could not be inserted
+	 */
+	private final RegistrationSpool registrationSpool;
+	
+	/**
+	 * Construct an instance with no fallbacks, so that failed commands fail
+	 */
+	public CommandFallbacks() {
+		this(new StaleValueCache<>(), new StaleValueCache<>(), new RegistrationSpool());
+	}
+	
+	/**
+	 * Construct an instance whose stale reads are configured by the fallback settings
+	 *
+	 * @param config fallback settings
+	 * @param registrationSpool spool of registrations that could not be inserted
+	 * @param metrics registry to report fallback metrics to
+	 */
+	public CommandFallbacks(final FallbackConfiguration config, final RegistrationSpool registrationSpool, final MetricRegistry metrics) {
+		this(new StaleValueCache<>("profiles", config.getStaleReadMaxSize(), config.getStaleReadTtlSeconds(), metrics),
+				new StaleValueCache<>("lookups", config.getStaleReadMaxSize(), config.getStaleReadTtlSeconds(), metrics),
+				registrationSpool);
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param staleProfiles last profiles read, by UUID
+	 * @param staleLookups last login lookups, by normalized email address
+	 * @param registrationSpool spool of registrations that could not be inserted
+	 */
+	public CommandFallbacks(final StaleValueCache<UUID, Optional<User>> staleProfiles, final StaleValueCache<String, Optional<User>> staleLookups,
+			final RegistrationSpool registrationSpool) {
+		this.staleProfiles = staleProfiles;
+		this.staleLookups = staleLookups;
+		this.registrationSpool = registrationSpool;
+	}
+	
+	/**
+	 * @return last profiles read, by UUID
+	 */
+	public StaleValueCache<UUID, Optional<User>> getStaleProfiles() {
+		return staleProfiles;
+	}
+	
+	/**
+	 * @return last login lookups, by normalized email address
+	 */
+	public StaleValueCache<String, Optional<User>> getStaleLookups() {
+		return staleLookups;
+	}
+	
+	/**
+	 * @return spool of registrations that could not be inserted
+	 */
+	public RegistrationSpool getRegistrationSpool() {
+		return registrationSpool;
+	}
+}
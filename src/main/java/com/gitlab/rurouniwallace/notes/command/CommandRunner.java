@@ -1,19 +1,221 @@
 package com.gitlab.rurouniwallace.notes.command;
 
+import rx.Observable;
 import rx.Observer;
+import rx.subscriptions.CompositeSubscription;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
 import org.slf4j.Logger;
 
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.exceptions.ConcurrencyLimitExceededException;
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
+import com.gitlab.rurouniwallace.notes.responses.StandardResponse;
+import com.gitlab.rurouniwallace.notes.responses.StatusCode;
+import com.gitlab.rurouniwallace.notes.throttling.AdaptiveConcurrencyLimit;
+import com.gitlab.rurouniwallace.notes.throttling.AdaptiveConcurrencyLimit.Permit;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.exception.HystrixRuntimeException.FailureType;
 import com.yammer.tenacity.core.TenacityCommand;
+import com.yammer.tenacity.core.properties.TenacityPropertyKey;
 
 /**
- * Facilitates running a Tenacity command
+ * Facilitates running a Tenacity command. Commands started through {@link #observe} and
+ * {@link #toObservable}, and other work started through {@link #admit}, are admitted by
+ * the adaptive concurrency limit of their dependency key, if one is set; those over the
+ * limit fail at once, and the response is 503 Service Unavailable. Given a request
+ * deadline, they are skipped once it has passed and fail when it passes, and the
+ * response is 504 Gateway Timeout. A response run within a deadline
+ * times out when it passes, and once the deadline passes that way or is cancelled, as when
+ * the client disconnects, the rest of the response's pipeline is abandoned and the commands
+ * still running for it are interrupted.
  */
 public class CommandRunner {
+	
+	/**
+	 * Seconds a client shed for being over a concurrency limit is asked to wait
+	 */
+	private static final int OVERLOADED_RETRY_AFTER_SECONDS = 1;
+	
+	/**
+	 * Adaptive concurrency limits, by dependency key name
+	 */
+	private static volatile Map<String, AdaptiveConcurrencyLimit> concurrencyLimits = Collections.emptyMap();
+	
+	/**
+	 * Registry to count cancelled responses in, or null if they are not counted
+	 */
+	private static volatile MetricRegistry cancellationMetrics;
+	
+	/**
+	 * Set the adaptive concurrency limits commands are admitted by. Commands of keys without
+	 * a limit are left to their bulkheads alone.
+	 * 
+	 * @param limits the limits, by dependency key
+	 */
+	public static void limitConcurrency(final Map<? extends TenacityPropertyKey, AdaptiveConcurrencyLimit> limits) {
+		final Map<String, AdaptiveConcurrencyLimit> limitsByName = new HashMap<>();
+		for (final Map.Entry<? extends TenacityPropertyKey, AdaptiveConcurrencyLimit> limit : limits.entrySet()) {
+			limitsByName.put(limit.getKey().name(), limit.getValue());
+		}
+		concurrencyLimits = Collections.unmodifiableMap(limitsByName);
+	}
+	
+	/**
+	 * Count, per response name, the responses whose work was cancelled and the commands
+	 * interrupted as they ran
+	 * 
+	 * @param metrics registry to count them in
+	 */
+	public static void reportCancellations(final MetricRegistry metrics) {
+		cancellationMetrics = metrics;
+	}
+	
+	/**
+	 * Start a command now, if its concurrency limit admits it, as {@link TenacityCommand#observe()} does
+	 * 
+	 * @param <T> response type
+	 * @param command the Tenacity command
+	 * @return the command's result, or a {@link ConcurrencyLimitExceededException} if it was shed
+	 */
+	public static <T> Observable<T> observe(final TenacityCommand<T> command) {
+		return observe(command, Deadline.none());
+	}
+	
+	/**
+	 * Start a command now within a request deadline, if its concurrency limit admits it, as
+	 * {@link TenacityCommand#observe()} does. The command is skipped if the deadline has
+	 * passed, and runs with the deadline current, so that its queries are bounded by it.
+	 * 
+	 * @param <T> response type
+	 * @param command the Tenacity command
+	 * @param deadline the request deadline
+	 * @return the command's result, a {@link ConcurrencyLimitExceededException} if it was
+	 * shed, or a {@link DeadlineExceededException} if the deadline passed first
+	 */
+	public static <T> Observable<T> observe(final TenacityCommand<T> command, final Deadline deadline) {
+		if (deadline.isExpired()) {
+			return Observable.error(new DeadlineExceededException(command.getCommandKey().name() + " skipped; the request deadline passed"));
+		}
+		
+		final AdaptiveConcurrencyLimit limit = concurrencyLimits.get(command.getCommandKey().name());
+		final Optional<Permit> permit = limit == null ? Optional.empty() : limit.tryAcquire();
+		if (limit != null && !permit.isPresent()) {
+			return Observable.error(new ConcurrencyLimitExceededException(command.getCommandKey().name() + " is over its concurrency limit"));
+		}
+		
+		final Observable<T> execution;
+		try (final Deadline.Scope scope = deadline.enter()) {
+			execution = command.observe();
+		}
+		if (permit.isPresent()) {
+			// the result is replayed, so this subscription releases the permit whether or not anyone else subscribes
+			execution.subscribe(value -> { }, error -> release(command, permit.get()), () -> release(command, permit.get()));
+		}
+		return withDeadline(execution, deadline, command.getCommandKey().name());
+	}
+	
+	/**
+	 * Start a command on subscription, if its concurrency limit admits it, as
+	 * {@link TenacityCommand#toObservable()} does
+	 * 
+	 * @param <T> response type
+	 * @param command the Tenacity command
+	 * @return the command's result, or a {@link ConcurrencyLimitExceededException} if it was shed
+	 */
+	public static <T> Observable<T> toObservable(final TenacityCommand<T> command) {
+		return toObservable(command, Deadline.none());
+	}
+	
+	/**
+	 * Start a command on subscription within a request deadline, if its concurrency limit
+	 * admits it, as {@link TenacityCommand#toObservable()} does. The command is skipped if the
+	 * deadline has passed by then, and runs with the deadline current, so that its queries
+	 * are bounded by it.
+	 * 
+	 * @param <T> response type
+	 * @param command the Tenacity command
+	 * @param deadline the request deadline
+	 * @return the command's result, a {@link ConcurrencyLimitExceededException} if it was
+	 * shed, or a {@link DeadlineExceededException} if the deadline passed first
+	 */
+	public static <T> Observable<T> toObservable(final TenacityCommand<T> command, final Deadline deadline) {
+		final AdaptiveConcurrencyLimit limit = concurrencyLimits.get(command.getCommandKey().name());
+		if (limit == null && !deadline.isCancellable()) {
+			return command.toObservable();
+		}
+		
+		return Observable.defer(() -> {
+			if (deadline.isExpired()) {
+				return Observable.error(new DeadlineExceededException(command.getCommandKey().name() + " skipped; the request deadline passed"));
+			}
+			
+			final Optional<Permit> permit = limit == null ? Optional.empty() : limit.tryAcquire();
+			if (limit != null && !permit.isPresent()) {
+				return Observable.error(new ConcurrencyLimitExceededException(command.getCommandKey().name() + " is over its concurrency limit"));
+			}
+			
+			Observable<T> execution = command.toObservable();
+			if (permit.isPresent()) {
+				execution = execution.doOnTerminate(() -> release(command, permit.get()))
+						.doOnUnsubscribe(permit.get()::releaseIgnored);
+			}
+			final Observable<T> started = execution;
+			return withDeadline(Observable.<T>create(subscriber -> {
+				try (final Deadline.Scope scope = deadline.enter()) {
+					started.unsafeSubscribe(subscriber);
+				}
+			}), deadline, command.getCommandKey().name());
+		});
+	}
 
+	/**
+	 * Start work of a dependency key that does not run as a command of its own, such as a
+	 * lookup batched with others, if the key's concurrency limit admits it. The work holds
+	 * a permit until it finishes; as with {@link #observe}, it must start at once and replay
+	 * its result.
+	 * 
+	 * @param <T> response type
+	 * @param key the dependency key
+	 * @param work starts the work, once admitted
+	 * @return the work's result, or a {@link ConcurrencyLimitExceededException} if it was shed
+	 */
+	public static <T> Observable<T> admit(final TenacityPropertyKey key, final Supplier<Observable<T>> work) {
+		final AdaptiveConcurrencyLimit limit = concurrencyLimits.get(key.name());
+		if (limit == null) {
+			return work.get();
+		}
+		
+		final Optional<Permit> permit = limit.tryAcquire();
+		if (!permit.isPresent()) {
+			return Observable.error(new ConcurrencyLimitExceededException(key.name() + " is over its concurrency limit"));
+		}
+		
+		final Observable<T> execution;
+		try {
+			execution = work.get();
+		} catch (final RuntimeException e) {
+			permit.get().releaseIgnored();
+			throw e;
+		}
+		execution.subscribe(value -> { }, error -> release(error, permit.get()), permit.get()::release);
+		return execution;
+	}
+	
 	/**
 	 * Run the command asynchronously
 	 * 
@@ -23,7 +225,24 @@ public class CommandRunner {
 	 * @param logger the event logger
 	 */
 	public static <T> void run(final AsyncResponse response, final TenacityCommand<T> command, final Logger logger) {
-		command.observe().subscribe(new Observer<T>() {
+		run(response, observe(command), Deadline.none(), String.format("%s %s", command.getClass().getSimpleName(), command.getCommandKey()), logger);
+	}
+	
+	/**
+	 * Run a pipeline of chained commands asynchronously. Each stage of the pipeline runs
+	 * on the pool of its own command, and the final value is used as the response.
+	 * 
+	 * @param <T> response type
+	 * @param response the asynchronous API response
+	 * @param pipeline the observable emitted by the last stage of the pipeline
+	 * @param deadline the request deadline the pipeline's commands run within
+	 * @param name name of the pipeline, used for logging and metrics
+	 * @param logger the event logger
+	 */
+	public static <T> void run(final AsyncResponse response, final Observable<T> pipeline, final Deadline deadline, final String name, final Logger logger) {
+		final CompositeSubscription subscription = new CompositeSubscription();
+		cancelWith(response, deadline, name, subscription::unsubscribe);
+		subscription.add(pipeline.subscribe(new Observer<T>() {
 
 			/**
 			 * Actions to take upon completion
@@ -38,8 +257,11 @@ public class CommandRunner {
 			 */
 			@Override
 			public void onError(final Throwable e) {
-				response.resume(e);
-				
+				resumeWithError(response, e);
+				if (e instanceof DeadlineExceededException) {
+					// nothing still running for the response is of use to anyone now
+					deadline.cancel();
+				}
 			}
 
 			/**
@@ -50,9 +272,168 @@ public class CommandRunner {
 			 */
 			@Override
 			public void onNext(final T value) {
-				logger.info(String.format("%s %s returned value: %s", command.getClass().getSimpleName(), command.getCommandKey(), value));
+				logger.info(String.format("%s returned value: %s", name, value));
 				response.resume(value);
 			}
+		}));
+	}
+	
+	/**
+	 * Complete a response with the result of an asynchronous pipeline
+	 * 
+	 * @param <T> response type
+	 * @param response the asynchronous API response
+	 * @param pipeline the future completed by the last stage of the pipeline
+	 * @param deadline the request deadline the pipeline's commands run within
+	 * @param name name of the pipeline, used for logging and metrics
+	 * @param logger the event logger
+	 */
+	public static <T> void run(final AsyncResponse response, final CompletableFuture<T> pipeline, final Deadline deadline, final String name, final Logger logger) {
+		cancelWith(response, deadline, name, () -> pipeline.cancel(false));
+		pipeline.whenComplete((value, error) -> {
+			if (error != null) {
+				final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				resumeWithError(response, cause);
+				if (cause instanceof DeadlineExceededException) {
+					deadline.cancel();
+				}
+				return;
+			}
+			
+			logger.info(String.format("%s returned value: %s", name, value));
+			response.resume(value);
+		});
+	}
+	
+	/**
+	 * Subscribe to a single-valued observable, such as a command, as a future
+	 * 
+	 * @param <T> value type
+	 * @param observable the observable
+	 * @return future completed with the value the observable emits
+	 */
+	public static <T> CompletableFuture<T> toFuture(final Observable<T> observable) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		observable.single().subscribe(future::complete, future::completeExceptionally);
+		return future;
+	}
+	
+	/**
+	 * Fail a result with a {@link DeadlineExceededException} if it is not done by the request
+	 * deadline. Hystrix timeouts are set per dependency key, so this is what bounds a single
+	 * command by what is left of its request's time.
+	 * 
+	 * @param <T> response type
+	 * @param result the result
+	 * @param deadline the request deadline
+	 * @param work the work producing the result, for the error message
+	 * @return the bounded result
+	 */
+	public static <T> Observable<T> withDeadline(final Observable<T> result, final Deadline deadline, final String work) {
+		if (!deadline.isBounded()) {
+			return result;
+		}
+		
+		return result.timeout(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS,
+				Observable.defer(() -> Observable.error(new DeadlineExceededException(work + " ran past the request deadline"))));
+	}
+	
+	/**
+	 * Abandon a response's pipeline once its deadline is cancelled, and cancel the deadline
+	 * if the response times out. Cancelling the deadline is what interrupts the commands
+	 * still running for the response; a response not yet sent is first sent as timed out,
+	 * which also lets the server find out about a client that has gone.
+	 * 
+	 * @param response the asynchronous API response
+	 * @param deadline the request deadline
+	 * @param name name of the pipeline, used for metrics
+	 * @param abandon action abandoning the pipeline
+	 */
+	private static void cancelWith(final AsyncResponse response, final Deadline deadline, final String name, final Runnable abandon) {
+		if (!deadline.isCancellable()) {
+			return;
+		}
+		
+		deadline.whenCancelled(() -> {
+			if (!response.isDone()) {
+				resumeWithError(response, new DeadlineExceededException(name + " cancelled"));
+			}
+			abandon.run();
+			
+			final MetricRegistry metrics = cancellationMetrics;
+			if (metrics != null) {
+				metrics.meter(MetricRegistry.name(CommandRunner.class, name, "cancelled")).mark();
+				metrics.meter(MetricRegistry.name(CommandRunner.class, name, "interrupted")).mark(deadline.getInterrupted());
+			}
 		});
+		
+		if (deadline.isBounded()) {
+			response.setTimeoutHandler(timedOut -> deadline.cancel());
+			response.setTimeout(Math.max(1, deadline.remaining(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Release a command's concurrency limit permit, sampling its latency if it completed
+	 * 
+	 * @param command the finished command
+	 * @param permit its permit
+	 */
+	private static void release(final TenacityCommand<?> command, final Permit permit) {
+		if (command.isResponseTimedOut() || command.isResponseRejected()) {
+			permit.releaseDropped();
+		} else if (command.isSuccessfulExecution()) {
+			permit.release();
+		} else {
+			permit.releaseIgnored();
+		}
+	}
+	
+	/**
+	 * Release the permit of work that failed, cutting the limit if a command it ran timed out
+	 * or was rejected
+	 * 
+	 * @param error the work's error
+	 * @param permit its permit
+	 */
+	private static void release(final Throwable error, final Permit permit) {
+		final FailureType failureType = error instanceof HystrixRuntimeException ? ((HystrixRuntimeException) error).getFailureType() : null;
+		if (failureType == FailureType.TIMEOUT || failureType == FailureType.REJECTED_THREAD_EXECUTION
+				|| failureType == FailureType.REJECTED_SEMAPHORE_EXECUTION) {
+			permit.releaseDropped();
+		} else {
+			permit.releaseIgnored();
+		}
+	}
+	
+	/**
+	 * Complete a response with an error. Work shed for being over a concurrency limit gets
+	 * 503 Service Unavailable, and work whose request deadline passed gets 504 Gateway
+	 * Timeout; other errors are left to the exception mappers.
+	 * 
+	 * @param response the asynchronous API response
+	 * @param error the error
+	 */
+	private static void resumeWithError(final AsyncResponse response, final Throwable error) {
+		if (error instanceof DeadlineExceededException) {
+			final StandardResponse timedOut = new StandardResponse();
+			timedOut.setMessage("Request deadline exceeded");
+			timedOut.setStatus(StatusCode.DEADLINE_EXCEEDED);
+			response.resume(Response.status(Status.GATEWAY_TIMEOUT).entity(timedOut).build());
+			return;
+		}
+		
+		if (!(error instanceof ConcurrencyLimitExceededException)) {
+			response.resume(error);
+			return;
+		}
+		
+		final StandardResponse overloaded = new StandardResponse();
+		overloaded.setMessage("Service overloaded");
+		overloaded.setStatus(StatusCode.OVERLOADED);
+		response.resume(Response.status(Status.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, OVERLOADED_RETRY_AFTER_SECONDS)
+				.entity(overloaded)
+				.build());
 	}
 }
@@ -1,5 +1,8 @@
 package com.gitlab.rurouniwallace.notes.command;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
 import com.gitlab.rurouniwallace.notes.exceptions.EntityAlreadyExistsException;
 import com.gitlab.rurouniwallace.notes.models.User;
@@ -9,7 +12,10 @@ import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
 import com.yammer.tenacity.core.TenacityCommand;
 
 /**
- * Tenacity command to create a user
+ * Tenacity command to create a user whose password was hashed by {@link HashPasswordCommand}.
+ * If the user cannot be inserted, the registration is spooled for replay and accepted as
+ * queued. Replay is safe even when a timed out insert did commit, since the email address
+ * is then already registered and the spooled registration is dropped.
  */
 public class CreateUserCommand extends TenacityCommand<UserResponse> {
 
@@ -23,16 +29,30 @@ public class CreateUserCommand extends TenacityCommand<UserResponse> {
 	 */
 	private final User userToCreate;
 	
+	/**
+	 * Hashed password of the user to create
+	 */
+	private final String hashedPassword;
+	
+	/**
+	 * Spool of registrations that could not be inserted
+	 */
+	private final RegistrationSpool registrationSpool;
+	
 	/**
 	 * Construct a new instance
 	 * 
 	 * @param userDao user persistence layer
 	 * @param userToCreate user to create
+	 * @param hashedPassword hashed password of the user to create
+	 * @param registrationSpool spool of registrations that could not be inserted
 	 */
-	public CreateUserCommand(final IAccessesUsers userDao, final User userToCreate) {
-		super(NotesApiDependencyKeys.SQL_DB);
+	public CreateUserCommand(final IAccessesUsers userDao, final User userToCreate, final String hashedPassword, final RegistrationSpool registrationSpool) {
+		super(NotesApiDependencyKeys.USER_REGISTRATION);
 		this.userDao = userDao;
 		this.userToCreate = userToCreate;
+		this.hashedPassword = hashedPassword;
+		this.registrationSpool = registrationSpool;
 	}
 
 	/**
@@ -42,11 +62,28 @@ public class CreateUserCommand extends TenacityCommand<UserResponse> {
 	protected UserResponse run() throws Exception {
 		User user;
 		try {
-			user = userDao.registerUser(userToCreate);
+			user = userDao.insertUser(userToCreate, hashedPassword);
 		} catch (final EntityAlreadyExistsException e) {
 			return new UserResponse("A user with the specified email address already exists", StatusCode.ENTITY_ALREADY_EXISTS);
 		}
 		
 		return new UserResponse(user, StatusCode.SUCCESS);
 	}
+	
+	/**
+	 * Spool the registration for replay
+	 * 
+	 * @throws UnsupportedOperationException if registrations are not spooled
+	 * @throws UncheckedIOException if the registration could not be spooled
+	 */
+	@Override
+	protected UserResponse getFallback() {
+		try {
+			registrationSpool.spool(userToCreate, hashedPassword);
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Failed to spool registration", e);
+		}
+		
+		return new UserResponse("Registration queued; it completes once the database recovers", StatusCode.QUEUED);
+	}
 }
@@ -0,0 +1,56 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.yammer.tenacity.core.TenacityCommand;
+
+/**
+ * Tenacity command to insert one chunk of a batch registration, whose passwords were
+ * hashed by {@link HashPasswordCommand}
+ */
+public class CreateUsersCommand extends TenacityCommand<List<Optional<User>>> {
+
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Users to create
+	 */
+	private final List<User> usersToCreate;
+	
+	/**
+	 * Hashed password of each user to create, in the same order
+	 */
+	private final List<String> hashedPasswords;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user persistence layer
+	 * @param usersToCreate users to create
+	 * @param hashedPasswords hashed password of each user to create, in the same order
+	 */
+	public CreateUsersCommand(final IAccessesUsers userDao, final List<User> usersToCreate, final List<String> hashedPasswords) {
+		super(NotesApiDependencyKeys.BULK_REGISTRATION);
+		this.userDao = userDao;
+		this.usersToCreate = usersToCreate;
+		this.hashedPasswords = hashedPasswords;
+	}
+
+	/**
+	 * Execute the command
+	 * 
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 */
+	@Override
+	protected List<Optional<User>> run() throws Exception {
+		return userDao.insertUsers(usersToCreate, hashedPasswords);
+	}
+}
@@ -0,0 +1,47 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+
+/**
+ * Tenacity command to find a user's profile by UUID. Serves the last profile read stale
+ * if the database cannot be read.
+ *
+ */
+public class FindUserCommand extends StaleReadCommand<UUID, Optional<User>> {
+	
+	/**
+	 * User access DAO
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * The user's UUID
+	 */
+	private final UUID uuid;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user access DAO
+	 * @param uuid the user's UUID
+	 * @param staleProfiles last profiles read, by UUID
+	 */
+	public FindUserCommand(final IAccessesUsers userDao, final UUID uuid, final StaleValueCache<UUID, Optional<User>> staleProfiles) {
+		super(NotesApiDependencyKeys.PROFILE_READ, staleProfiles, uuid);
+		this.userDao = userDao;
+		this.uuid = uuid;
+	}
+	
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected Optional<User> read() throws Exception {
+		return userDao.findByUuid(uuid);
+	}
+}
@@ -0,0 +1,47 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.yammer.tenacity.core.TenacityCommand;
+
+/**
+ * Tenacity command to find several users by UUID, in one round trip per chunk
+ *
+ */
+public class FindUsersCommand extends TenacityCommand<List<Optional<User>>> {
+	
+	/**
+	 * User access DAO
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * User UUIDs
+	 */
+	private final List<UUID> uuids;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user access DAO
+	 * @param uuids user UUIDs
+	 */
+	public FindUsersCommand(final IAccessesUsers userDao, final List<UUID> uuids) {
+		super(NotesApiDependencyKeys.PROFILE_READ);
+		this.userDao = userDao;
+		this.uuids = uuids;
+	}
+	
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected List<Optional<User>> run() throws Exception {
+		return userDao.findByUuids(uuids);
+	}
+}
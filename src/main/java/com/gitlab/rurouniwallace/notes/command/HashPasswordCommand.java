@@ -0,0 +1,45 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.yammer.tenacity.core.TenacityCommand;
+
+/**
+ * Tenacity command to hash a new user's password. This is the hashing stage of
+ * registration; the user is inserted afterwards by {@link CreateUserCommand}.
+ */
+public class HashPasswordCommand extends TenacityCommand<String> {
+
+	/**
+	 * Password hashing algorithm
+	 */
+	private final IHashesPasswords passwordHasher;
+	
+	/**
+	 * Password to hash
+	 */
+	private final String password;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param passwordHasher password hashing algorithm
+	 * @param password password to hash
+	 */
+	public HashPasswordCommand(final IHashesPasswords passwordHasher, final String password) {
+		super(NotesApiDependencyKeys.PASSWORD_HASH);
+		this.passwordHasher = passwordHasher;
+		this.password = password;
+	}
+
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected String run() throws Exception {
+		Deadline.current().check("Password hashing");
+		
+		return passwordHasher.hashPassword(password);
+	}
+}
@@ -1,11 +1,16 @@
 package com.gitlab.rurouniwallace.notes.command;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.health.HealthCheck.Result;
+import com.gitlab.rurouniwallace.notes.dao.InstrumentedDataSource;
+import com.gitlab.rurouniwallace.notes.health.ConnectionPoolStats;
 import com.gitlab.rurouniwallace.notes.health.Health;
 import com.gitlab.rurouniwallace.notes.health.HealthCheck;
 import com.gitlab.rurouniwallace.notes.messages.HealthMessages;
@@ -29,21 +34,28 @@ public class HealthCommand extends TenacityCommand<Health>{
 	 * Dropwizard environment handle
 	 */
 	private final Environment environment;
+	
+	/**
+	 * SQL connection pools to report usage of
+	 */
+	private final Collection<InstrumentedDataSource> dataSources;
 
 	/**
 	 * Construct a new instance
 	 * 
 	 * @param environment dropwizard environment handle
+	 * @param dataSources SQL connection pools to report usage of
 	 */
-	public HealthCommand(final Environment environment) {
+	public HealthCommand(final Environment environment, final Collection<InstrumentedDataSource> dataSources) {
 		super(NotesApiDependencyKeys.HEALTH);
 		this.environment = environment;
+		this.dataSources = dataSources;
 	}
 
 	/**
 	 * Run the command
 	 * 
-	 * @return health checks
+	 * @return health checks, with a usage snapshot of each SQL connection pool
 	 */
 	@Override
 	protected Health run() throws Exception {
@@ -65,6 +77,12 @@ public class HealthCommand extends TenacityCommand<Health>{
 			health.addCheck(key, check);
 		}
 		
+		final Map<String, ConnectionPoolStats> connectionPools = new TreeMap<>();
+		for (final InstrumentedDataSource dataSource : dataSources) {
+			connectionPools.put(dataSource.getPoolName(), dataSource.getStats());
+		}
+		health.getAdditionalProperties().put("connectionPools", connectionPools);
+		
 		return health;
 	}
 
@@ -0,0 +1,49 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.Optional;
+
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+
+/**
+ * Tenacity command to look up a user by email address. This is the database stage
+ * of authentication; the password is checked afterwards by {@link AuthenticateUserCommand}.
+ * Serves the last lookup of the address stale if the database cannot be read, so that
+ * users can keep logging in through an outage.
+ *
+ */
+public class LookupUserCommand extends StaleReadCommand<String, Optional<User>> {
+
+	/**
+	 * User access DAO
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * User email address
+	 */
+	private final String email;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user access DAO
+	 * @param email user email address
+	 * @param staleLookups last lookups, by normalized email address
+	 */
+	public LookupUserCommand(final IAccessesUsers userDao, final String email, final StaleValueCache<String, Optional<User>> staleLookups) {
+		super(NotesApiDependencyKeys.USER_LOOKUP, staleLookups, EmailKeys.normalize(email));
+		this.userDao = userDao;
+		this.email = email;
+	}
+	
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected Optional<User> read() throws Exception {
+		return userDao.lookupUserByEmail(email);
+	}
+}
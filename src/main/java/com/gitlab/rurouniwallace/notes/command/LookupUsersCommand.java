@@ -0,0 +1,76 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.yammer.tenacity.core.TenacityCommand;
+
+/**
+ * Tenacity command to look up several users by email address, in one round trip per chunk.
+ * Shares its last good lookups with {@link LookupUserCommand}, and serves them stale if the
+ * database cannot be read and every address has one.
+ *
+ */
+public class LookupUsersCommand extends TenacityCommand<List<Optional<User>>> {
+	
+	/**
+	 * User access DAO
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * User email addresses
+	 */
+	private final List<String> emails;
+	
+	/**
+	 * Last lookups, by normalized email address
+	 */
+	private final StaleValueCache<String, Optional<User>> staleLookups;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user access DAO
+	 * @param emails user email addresses
+	 * @param staleLookups last lookups, by normalized email address
+	 */
+	public LookupUsersCommand(final IAccessesUsers userDao, final List<String> emails, final StaleValueCache<String, Optional<User>> staleLookups) {
+		super(NotesApiDependencyKeys.USER_LOOKUP);
+		this.userDao = userDao;
+		this.emails = emails;
+		this.staleLookups = staleLookups;
+	}
+	
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected List<Optional<User>> run() throws Exception {
+		final List<Optional<User>> users = userDao.lookupUsersByEmail(emails);
+		for (int i = 0; i < emails.size(); i++) {
+			staleLookups.put(EmailKeys.normalize(emails.get(i)), users.get(i));
+		}
+		return users;
+	}
+	
+	/**
+	 * Serve the last lookups stale
+	 * 
+	 * @throws UnsupportedOperationException if any address has no last lookup young enough
+	 */
+	@Override
+	protected List<Optional<User>> getFallback() {
+		final List<Optional<User>> users = new ArrayList<>(emails.size());
+		for (final String email : emails) {
+			users.add(staleLookups.get(EmailKeys.normalize(email))
+					.orElseThrow(() -> new UnsupportedOperationException("No stale lookup of every address to serve")));
+		}
+		return users;
+	}
+}
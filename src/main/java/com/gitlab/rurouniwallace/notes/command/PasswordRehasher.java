@@ -0,0 +1,97 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+
+/**
+ * Moves stored password hashes to the current algorithm and parameters after successful
+ * logins, the only time the plain password is known. The rehash runs in the background
+ * on the password hashing and database pools, so it never delays the login itself; if
+ * either pool rejects it, the hash is simply left for the next login. It runs detached
+ * from the login's request deadline, so a short deadline or a client that disconnects
+ * does not cut it short.
+ */
+public class PasswordRehasher {
+
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(PasswordRehasher.class);
+	
+	/**
+	 * Password hashing algorithm
+	 */
+	private final IHashesPasswords passwordHasher;
+	
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Rehashes started
+	 */
+	private final Meter started;
+	
+	/**
+	 * Rehashes stored
+	 */
+	private final Meter updated;
+	
+	/**
+	 * Rehashes that failed or lost a race with another update
+	 */
+	private final Meter skipped;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param passwordHasher password hashing algorithm
+	 * @param userDao user persistence layer
+	 * @param metrics registry to report rehash counts to
+	 */
+	public PasswordRehasher(final IHashesPasswords passwordHasher, final IAccessesUsers userDao, final MetricRegistry metrics) {
+		this.passwordHasher = passwordHasher;
+		this.userDao = userDao;
+		this.started = metrics.meter(MetricRegistry.name(PasswordRehasher.class, "started"));
+		this.updated = metrics.meter(MetricRegistry.name(PasswordRehasher.class, "updated"));
+		this.skipped = metrics.meter(MetricRegistry.name(PasswordRehasher.class, "skipped"));
+	}
+	
+	/**
+	 * Start rehashing a user's password in the background, if their stored hash is outdated
+	 * 
+	 * @param user user who just logged in, with their stored password hash
+	 * @param password the password they logged in with
+	 */
+	public void rehashIfNeeded(final User user, final String password) {
+		final String currentHashedPassword = user.getPassword();
+		if (!passwordHasher.needsRehash(currentHashedPassword)) {
+			return;
+		}
+		
+		started.mark();
+		// the commands capture the deadline current when they start, which would otherwise be the login's
+		try (final Deadline.Scope scope = Deadline.none().enter()) {
+			new HashPasswordCommand(passwordHasher, password).toObservable()
+				.flatMap(newHashedPassword -> new UpdatePasswordHashCommand(userDao, user.getUuid(), currentHashedPassword, newHashedPassword).toObservable())
+				.subscribe(stored -> {
+					if (stored) {
+						updated.mark();
+					} else {
+						skipped.mark();
+					}
+				}, error -> {
+					skipped.mark();
+					LOGGER.warn("Failed to rehash password for user " + user.getUuid(), error);
+				});
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gitlab.rurouniwallace.notes.config.FallbackConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.exceptions.EntityAlreadyExistsException;
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * Durable local spool of registrations that could not be inserted, replayed in order once
+ * the database recovers. Each registration is one file, written in full and synced before
+ * it is renamed into the spool, so a crash never leaves a partial entry behind and a
+ * spooled registration survives a restart. Only the hashed password is spooled, but the
+ * rest of the registration is personal data, so on POSIX file systems the spool directory
+ * and its entries are readable by their owner alone.
+ *
+ * A registration that fails to replay stops the replay, since the database is most likely
+ * still down; one that keeps failing is set aside, with a .failed suffix, for an operator.
+ *
+ */
+public class RegistrationSpool {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(RegistrationSpool.class);
+	
+	/**
+	 * Suffix of spooled registrations
+	 */
+	private static final String SPOOLED_SUFFIX = ".json";
+	
+	/**
+	 * Suffix of registrations still being written
+	 */
+	private static final String PARTIAL_SUFFIX = ".partial";
+	
+	/**
+	 * Suffix of registrations set aside after failing to replay
+	 */
+	private static final String FAILED_SUFFIX = ".failed";
+	
+	/**
+	 * Permissions of the spool directory, rwx------
+	 */
+	private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+	
+	/**
+	 * Permissions of spooled registrations, rw-------
+	 */
+	private static final Set<PosixFilePermission> ENTRY_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+	
+	/**
+	 * Spool directory, or null if registrations are not spooled
+	 */
+	private final Path directory;
+	
+	/**
+	 * Whether the spool directory supports POSIX permissions
+	 */
+	private final boolean posix;
+	
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Spooled registration serializer
+	 */
+	private final ObjectMapper objectMapper;
+	
+	/**
+	 * Failed replays of a spooled registration before it is set aside
+	 */
+	private final int maxReplayAttempts;
+	
+	/**
+	 * Sequence that orders registrations spooled within the same millisecond
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	
+	/**
+	 * Registrations waiting to be replayed
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	/**
+	 * Failed replays of each spooled registration, since startup
+	 */
+	private final Map<Path, Integer> replayFailures = new HashMap<>();
+	
+	/**
+	 * Registrations spooled
+	 */
+	private final Meter spooled;
+	
+	/**
+	 * Spooled registrations inserted
+	 */
+	private final Meter replayed;
+	
+	/**
+	 * Spooled registrations dropped because the email address was registered meanwhile
+	 */
+	private final Meter duplicates;
+	
+	/**
+	 * Spooled registrations set aside
+	 */
+	private final Meter setAside;
+	
+	/**
+	 * Construct an instance that spools nothing, so that failed registrations fail
+	 */
+	public RegistrationSpool() {
+		this.directory = null;
+		this.posix = false;
+		this.userDao = null;
+		this.objectMapper = null;
+		this.maxReplayAttempts = 0;
+		this.spooled = new Meter();
+		this.replayed = new Meter();
+		this.duplicates = new Meter();
+		this.setAside = new Meter();
+	}
+	
+	/**
+	 * Construct a new instance, creating the spool directory if needed and restricting it
+	 * to its owner
+	 *
+	 * @param config spool settings
+	 * @param userDao user persistence layer to replay registrations to
+	 * @param objectMapper spooled registration serializer
+	 * @param metrics registry to report spool metrics to
+	 * @throws IOException if the spool directory could not be read or created
+	 */
+	public RegistrationSpool(final FallbackConfiguration config, final IAccessesUsers userDao, final ObjectMapper objectMapper, final MetricRegistry metrics) throws IOException {
+		this.directory = Paths.get(config.getSpoolDirectory());
+		this.posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+		this.userDao = userDao;
+		this.objectMapper = objectMapper;
+		this.maxReplayAttempts = config.getSpoolMaxReplayAttempts();
+		this.spooled = metrics.meter(MetricRegistry.name(RegistrationSpool.class, "spooled"));
+		this.replayed = metrics.meter(MetricRegistry.name(RegistrationSpool.class, "replayed"));
+		this.duplicates = metrics.meter(MetricRegistry.name(RegistrationSpool.class, "duplicates"));
+		this.setAside = metrics.meter(MetricRegistry.name(RegistrationSpool.class, "set-aside"));
+		metrics.register(MetricRegistry.name(RegistrationSpool.class, "pending"), (Gauge<Integer>) pending::get);
+		
+		if (posix) {
+			Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+			// also tightens a directory that already existed, and one the umask loosened
+			Files.setPosixFilePermissions(directory, DIRECTORY_PERMISSIONS);
+		} else {
+			Files.createDirectories(directory);
+		}
+		try (final DirectoryStream<Path> partials = Files.newDirectoryStream(directory, "*" + PARTIAL_SUFFIX)) {
+			for (final Path partial : partials) {
+				Files.delete(partial);
+			}
+		}
+		pending.set(listSpooled().size());
+	}
+	
+	/**
+	 * @return true if registrations are spooled
+	 */
+	public boolean isEnabled() {
+		return directory != null;
+	}
+	
+	/**
+	 * Spool a registration for replay. Returns once the registration is on disk.
+	 *
+	 * @param user the user to register
+	 * @param hashedPassword the hashed password to store for the user
+	 * @throws IOException if the registration could not be written
+	 * @throws UnsupportedOperationException if registrations are not spooled
+	 */
+	public void spool(final User user, final String hashedPassword) throws IOException {
+		if (!isEnabled()) {
+			throw new UnsupportedOperationException("Registration spool disabled");
+		}
+		
+		final String name = String.format("%013d-%010d", System.currentTimeMillis(), sequence.incrementAndGet());
+		final Path partial = directory.resolve(name + PARTIAL_SUFFIX);
+		final byte[] content = objectMapper.writeValueAsBytes(new SpooledRegistration(user, hashedPassword));
+		final FileAttribute<?>[] attributes = posix ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(ENTRY_PERMISSIONS) } : new FileAttribute<?>[0];
+		try (final FileChannel channel = FileChannel.open(partial, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+			final ByteBuffer buffer = ByteBuffer.wrap(content);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(partial, directory.resolve(name + SPOOLED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory();
+		
+		pending.incrementAndGet();
+		spooled.mark();
+	}
+	
+	/**
+	 * Insert spooled registrations, oldest first, until one fails or the spool is empty
+	 *
+	 * @return number of registrations inserted
+	 */
+	public synchronized int replay() {
+		if (!isEnabled()) {
+			return 0;
+		}
+		
+		final List<Path> entries;
+		try {
+			entries = listSpooled();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to list spooled registrations", e);
+			return 0;
+		}
+		
+		int inserted = 0;
+		for (final Path entry : entries) {
+			final SpooledRegistration registration;
+			try {
+				registration = objectMapper.readValue(entry.toFile(), SpooledRegistration.class);
+			} catch (final IOException e) {
+				LOGGER.error("Spooled registration " + entry.getFileName() + " is unreadable; setting it aside", e);
+				setAside(entry);
+				continue;
+			}
+			
+			try {
+				userDao.insertUser(registration.user, registration.hashedPassword);
+				replayed.mark();
+				inserted++;
+			} catch (final EntityAlreadyExistsException e) {
+				LOGGER.warn("Email address of spooled registration " + entry.getFileName() + " was registered meanwhile; dropping it");
+				duplicates.mark();
+			} catch (final DataAccessException e) {
+				final int failures = replayFailures.merge(entry, 1, Integer::sum);
+				if (failures < maxReplayAttempts) {
+					LOGGER.warn("Replay of spooled registrations stopped at " + entry.getFileName() + "; retrying later", e);
+					break;
+				}
+				
+				LOGGER.error("Spooled registration " + entry.getFileName() + " failed to replay " + failures + " times; setting it aside", e);
+				setAside(entry);
+				continue;
+			}
+			
+			remove(entry);
+		}
+		return inserted;
+	}
+	
+	/**
+	 * List the spooled registrations, oldest first
+	 *
+	 * @return paths of the spooled registrations
+	 * @throws IOException if the spool directory could not be read
+	 */
+	private List<Path> listSpooled() throws IOException {
+		final List<Path> entries = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SPOOLED_SUFFIX)) {
+			for (final Path entry : stream) {
+				entries.add(entry);
+			}
+		}
+		Collections.sort(entries);
+		return entries;
+	}
+	
+	/**
+	 * Remove a replayed registration from the spool
+	 *
+	 * @param entry path of the spooled registration
+	 */
+	private void remove(final Path entry) {
+		replayFailures.remove(entry);
+		try {
+			Files.delete(entry);
+			pending.decrementAndGet();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to remove replayed registration " + entry.getFileName() + " from the spool", e);
+		}
+	}
+	
+	/**
+	 * Set a registration that cannot be replayed aside, out of the spool
+	 *
+	 * @param entry path of the spooled registration
+	 */
+	private void setAside(final Path entry) {
+		replayFailures.remove(entry);
+		try {
+			Files.move(entry, entry.resolveSibling(entry.getFileName() + FAILED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+			pending.decrementAndGet();
+			setAside.mark();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to set spooled registration " + entry.getFileName() + " aside", e);
+		}
+	}
+	
+	/**
+	 * Sync the spool directory, so that a rename into it survives a crash. Not every
+	 * platform can open a directory for syncing; there the rename is left to the file system.
+	 */
+	private void syncDirectory() {
+		try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {
+			LOGGER.debug("Could not sync spool directory", e);
+		}
+	}
+	
+	/**
+	 * A registration as spooled to disk
+	 */
+	private static class SpooledRegistration {
+		
+		/**
+		 * The user to register
+		 */
+		@JsonProperty
+		private User user;
+		
+		/**
+		 * The hashed password to store for the user
+		 */
+		@JsonProperty
+		private String hashedPassword;
+		
+		/**
+		 * Construct an empty instance, for deserialization
+		 */
+		SpooledRegistration() {
+			// empty constructor
+		}
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param user the user to register
+		 * @param hashedPassword the hashed password to store for the user
+		 */
+		SpooledRegistration(final User user, final String hashedPassword) {
+			this.user = user;
+			this.hashedPassword = hashedPassword;
+		}
+	}
+}
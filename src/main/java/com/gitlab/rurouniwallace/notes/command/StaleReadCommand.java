@@ -0,0 +1,82 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import com.yammer.tenacity.core.TenacityCommand;
+import com.yammer.tenacity.core.properties.TenacityPropertyKey;
+
+/**
+ * A read that remembers its last good result, and serves it stale when the read fails,
+ * times out, is rejected by its bulkhead or is short-circuited. With no last good result
+ * the fallback fails, and the command fails with the original error.
+ *
+ * @param <K> key of the read
+ * @param <R> result of the read
+ */
+public abstract class StaleReadCommand<K, R> extends TenacityCommand<R> {
+	
+	/**
+	 * Last good results of the read
+	 */
+	private final StaleValueCache<K, R> staleValues;
+	
+	/**
+	 * Key of the read
+	 */
+	private final K key;
+	
+	/**
+	 * Whether the result was served stale
+	 */
+	private volatile boolean stale;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param tenacityPropertyKey dependency key of the read
+	 * @param staleValues last good results of the read
+	 * @param key key of the read
+	 */
+	protected StaleReadCommand(final TenacityPropertyKey tenacityPropertyKey, final StaleValueCache<K, R> staleValues, final K key) {
+		super(tenacityPropertyKey);
+		this.staleValues = staleValues;
+		this.key = key;
+	}
+	
+	/**
+	 * Read the result, and remember it as the last good one
+	 */
+	@Override
+	protected final R run() throws Exception {
+		final R value = read();
+		staleValues.put(key, value);
+		return value;
+	}
+	
+	/**
+	 * Serve the last good result
+	 *
+	 * @throws UnsupportedOperationException if there is none young enough
+	 */
+	@Override
+	protected R getFallback() {
+		final R value = staleValues.get(key)
+				.orElseThrow(() -> new UnsupportedOperationException("No stale result of " + getCommandKey().name() + " to serve"));
+		stale = true;
+		return value;
+	}
+	
+	/**
+	 * @return true if the result was served stale by the fallback. Set before the result is
+	 * emitted.
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+	
+	/**
+	 * Read the result
+	 *
+	 * @return the result
+	 * @throws Exception if the read failed
+	 */
+	protected abstract R read() throws Exception;
+}
@@ -0,0 +1,79 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Last good results of a read, kept so that a read command that fails, times out or is
+ * rejected can serve a stale result instead of an error. Bounded in both size and age,
+ * so memory stays flat and nothing is served stale indefinitely.
+ *
+ * @param <K> key of a read
+ * @param <V> result of a read
+ */
+public class StaleValueCache<K, V> {
+	
+	/**
+	 * Last good results, by key
+	 */
+	private final Cache<K, V> values;
+	
+	/**
+	 * Stale results served
+	 */
+	private final Meter served;
+	
+	/**
+	 * Construct an instance that keeps nothing, so that reads have no stale fallback
+	 */
+	public StaleValueCache() {
+		this("disabled", 0, 0, new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param name name of the read, for metrics
+	 * @param maxSize most last good results kept
+	 * @param ttlSeconds how long a result may be served stale after it was read, in seconds
+	 * @param metrics registry to report cache metrics to
+	 */
+	public StaleValueCache(final String name, final long maxSize, final long ttlSeconds, final MetricRegistry metrics) {
+		this.values = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.build();
+		this.served = metrics.meter(MetricRegistry.name(StaleValueCache.class, name, "served"));
+		metrics.register(MetricRegistry.name(StaleValueCache.class, name, "size"), (Gauge<Long>) values::size);
+	}
+	
+	/**
+	 * Remember the result of a read that succeeded
+	 *
+	 * @param key key of the read
+	 * @param value its result
+	 */
+	public void put(final K key, final V value) {
+		values.put(key, value);
+	}
+	
+	/**
+	 * Take the last good result of a read, to serve stale
+	 *
+	 * @param key key of the read
+	 * @return the last good result, or empty if there is none young enough
+	 */
+	public Optional<V> get(final K key) {
+		final Optional<V> value = Optional.ofNullable(values.getIfPresent(key));
+		if (value.isPresent()) {
+			served.mark();
+		}
+		return value;
+	}
+}
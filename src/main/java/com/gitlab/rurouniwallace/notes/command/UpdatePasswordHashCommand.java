@@ -0,0 +1,58 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.UUID;
+
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.yammer.tenacity.core.TenacityCommand;
+
+/**
+ * Tenacity command to replace a user's stored password hash, if it has not changed
+ * since it was read
+ */
+public class UpdatePasswordHashCommand extends TenacityCommand<Boolean> {
+
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * UUID of the user to update
+	 */
+	private final UUID uuid;
+	
+	/**
+	 * Stored hash the replacement was computed against
+	 */
+	private final String currentHashedPassword;
+	
+	/**
+	 * Replacement hash
+	 */
+	private final String newHashedPassword;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao user persistence layer
+	 * @param uuid UUID of the user to update
+	 * @param currentHashedPassword stored hash the replacement was computed against
+	 * @param newHashedPassword replacement hash
+	 */
+	public UpdatePasswordHashCommand(final IAccessesUsers userDao, final UUID uuid, final String currentHashedPassword, final String newHashedPassword) {
+		super(NotesApiDependencyKeys.PASSWORD_UPDATE);
+		this.userDao = userDao;
+		this.uuid = uuid;
+		this.currentHashedPassword = currentHashedPassword;
+		this.newHashedPassword = newHashedPassword;
+	}
+
+	/**
+	 * Execute the command
+	 */
+	@Override
+	protected Boolean run() throws Exception {
+		return userDao.updatePasswordHash(uuid, currentHashedPassword, newHashedPassword);
+	}
+}
@@ -0,0 +1,287 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.gitlab.rurouniwallace.notes.config.DaoConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+
+import rx.Observable;
+
+/**
+ * Collapses concurrent lookups of users by email address, so that a burst of logins,
+ * such as a retry storm, costs a handful of queries rather than one per login.
+ *
+ * Identical lookups share the one already in flight, whichever window it was started
+ * in. Distinct lookups arriving within the same short window are batched, across all
+ * requests, into one multi-row query on the database pool. Every lookup is admitted by
+ * the user lookup concurrency limit, as a lookup run as its own command would be.
+ *
+ */
+public class UserLookupCollapser {
+	
+	/**
+	 * Hystrix key of the collapser
+	 */
+	private static final HystrixCollapserKey COLLAPSER_KEY = HystrixCollapserKey.Factory.asKey("LookupUserByEmail");
+	
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Last lookups, by normalized email address, served stale if a lookup fails
+	 */
+	private final StaleValueCache<String, Optional<User>> staleLookups;
+	
+	/**
+	 * True to collapse lookups, false to run each as its own command
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Settings of the Hystrix collapser
+	 */
+	private final HystrixCollapser.Setter collapserSetter;
+	
+	/**
+	 * Lookups in flight, keyed by normalized email address
+	 */
+	private final ConcurrentMap<String, Observable<Optional<User>>> inFlight = new ConcurrentHashMap<>();
+	
+	/**
+	 * Lookups requested
+	 */
+	private final Meter lookups;
+	
+	/**
+	 * Lookups that joined an identical lookup already in flight
+	 */
+	private final Meter shared;
+	
+	/**
+	 * Queries run for batches of lookups
+	 */
+	private final Meter queries;
+	
+	/**
+	 * Distinct lookups per query
+	 */
+	private final Histogram batchSize;
+	
+	/**
+	 * Time lookups wait for their window to close before their query starts
+	 */
+	private final Timer windowLatency;
+	
+	/**
+	 * Construct an instance that runs each lookup as its own command
+	 *
+	 * @param userDao user persistence layer
+	 */
+	public UserLookupCollapser(final IAccessesUsers userDao) {
+		this(userDao, new StaleValueCache<>(), new DaoConfiguration(), new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param userDao user persistence layer
+	 * @param staleLookups last lookups, by normalized email address, served stale if a lookup fails
+	 * @param config lookup collapsing settings
+	 * @param metrics registry to report collapsing metrics to
+	 */
+	public UserLookupCollapser(final IAccessesUsers userDao, final StaleValueCache<String, Optional<User>> staleLookups, final DaoConfiguration config, final MetricRegistry metrics) {
+		this.userDao = userDao;
+		this.staleLookups = staleLookups;
+		this.enabled = config.isLookupCollapsingEnabled();
+		this.collapserSetter = HystrixCollapser.Setter.withCollapserKey(COLLAPSER_KEY)
+				.andScope(HystrixCollapser.Scope.GLOBAL)
+				.andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter()
+						.withTimerDelayInMilliseconds(config.getLookupCollapseWindowMillis())
+						.withMaxRequestsInBatch(config.getLookupCollapseMaxBatch())
+						.withRequestCacheEnabled(false));
+		
+		this.lookups = metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "lookups"));
+		this.shared = metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "shared"));
+		this.queries = metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "queries"));
+		this.batchSize = metrics.histogram(MetricRegistry.name(UserLookupCollapser.class, "batch-size"));
+		this.windowLatency = metrics.timer(MetricRegistry.name(UserLookupCollapser.class, "window-latency"));
+		metrics.register(MetricRegistry.name(UserLookupCollapser.class, "collapse-ratio"), new RatioGauge() {
+			
+			/**
+			 * Lookups per query over the last minute
+			 */
+			@Override
+			protected Ratio getRatio() {
+				return Ratio.of(lookups.getOneMinuteRate(), queries.getOneMinuteRate());
+			}
+		});
+	}
+	
+	/**
+	 * Look up a user by email address within a request deadline, if the user lookup
+	 * concurrency limit admits it. Each lookup holds a permit, whether it runs in a batch or
+	 * shares one in flight, so that collapsed lookups are shed as lookups run as their own
+	 * commands are. A lookup shared with other requests runs to completion for them, but
+	 * this request stops waiting for it at the deadline.
+	 *
+	 * @param email user email address
+	 * @param deadline the request deadline
+	 * @return the user data, or empty if no user has the email address
+	 */
+	public Observable<Optional<User>> lookupUserByEmail(final String email, final Deadline deadline) {
+		if (!enabled) {
+			return CommandRunner.observe(new LookupUserCommand(userDao, email, staleLookups), deadline);
+		}
+		
+		if (deadline.isExpired()) {
+			return Observable.error(new DeadlineExceededException("User lookup skipped; the request deadline passed"));
+		}
+		
+		final Observable<Optional<User>> lookup = CommandRunner.admit(NotesApiDependencyKeys.USER_LOOKUP, () -> collapse(email));
+		return CommandRunner.withDeadline(lookup, deadline, "User lookup");
+	}
+	
+	/**
+	 * Start a lookup in the current window, or join an identical one in flight
+	 *
+	 * @param email user email address
+	 * @return the lookup, started, which replays its result
+	 */
+	private Observable<Optional<User>> collapse(final String email) {
+		lookups.mark();
+		final String normalizedEmail = EmailKeys.normalize(email);
+		final Observable<Optional<User>> existing = inFlight.get(normalizedEmail);
+		if (existing != null) {
+			shared.mark();
+			return existing;
+		}
+		
+		final AtomicReference<Observable<Optional<User>>> self = new AtomicReference<>();
+		final Observable<Optional<User>> lookup = new BatchingCollapser(new PendingLookup(email)).toObservable()
+				.doOnTerminate(() -> inFlight.remove(normalizedEmail, self.get()))
+				.cache();
+		self.set(lookup);
+		
+		final Observable<Optional<User>> raced = inFlight.putIfAbsent(normalizedEmail, lookup);
+		if (raced != null) {
+			shared.mark();
+			return raced;
+		}
+		
+		// start the lookup now, as a command's observe() would
+		lookup.subscribe(user -> { }, error -> { });
+		return lookup;
+	}
+	
+	/**
+	 * A lookup waiting for its window to close
+	 */
+	private static class PendingLookup {
+		
+		/**
+		 * User email address
+		 */
+		private final String email;
+		
+		/**
+		 * When the lookup was submitted, in nanoseconds
+		 */
+		private final long submittedAt = System.nanoTime();
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param email user email address
+		 */
+		PendingLookup(final String email) {
+			this.email = email;
+		}
+	}
+	
+	/**
+	 * Hystrix collapser that batches the lookups submitted in one window into a
+	 * {@link LookupUsersCommand}
+	 */
+	private class BatchingCollapser extends HystrixCollapser<List<Optional<User>>, Optional<User>, PendingLookup> {
+		
+		/**
+		 * The lookup to batch
+		 */
+		private final PendingLookup pendingLookup;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param pendingLookup the lookup to batch
+		 */
+		BatchingCollapser(final PendingLookup pendingLookup) {
+			super(collapserSetter);
+			this.pendingLookup = pendingLookup;
+		}
+		
+		/**
+		 * @return the lookup to batch
+		 */
+		@Override
+		public PendingLookup getRequestArgument() {
+			return pendingLookup;
+		}
+		
+		/**
+		 * Build the query for a window's lookups
+		 *
+		 * @param requests the lookups submitted in the window
+		 * @return command to look up all of them
+		 */
+		@Override
+		protected HystrixCommand<List<Optional<User>>> createCommand(final Collection<CollapsedRequest<Optional<User>, PendingLookup>> requests) {
+			final long now = System.nanoTime();
+			final List<String> emails = new ArrayList<>(requests.size());
+			for (final CollapsedRequest<Optional<User>, PendingLookup> request : requests) {
+				emails.add(request.getArgument().email);
+				windowLatency.update(now - request.getArgument().submittedAt, TimeUnit.NANOSECONDS);
+			}
+			
+			queries.mark();
+			batchSize.update(emails.size());
+			return new LookupUsersCommand(userDao, emails, staleLookups);
+		}
+		
+		/**
+		 * Hand each lookup its user
+		 *
+		 * @param batchResponse for each lookup, in order, the user found, or empty
+		 * @param requests the lookups submitted in the window
+		 */
+		@Override
+		protected void mapResponseToRequests(final List<Optional<User>> batchResponse, final Collection<CollapsedRequest<Optional<User>, PendingLookup>> requests) {
+			int i = 0;
+			for (final CollapsedRequest<Optional<User>, PendingLookup> request : requests) {
+				request.setResponse(batchResponse.get(i++));
+			}
+		}
+	}
+}
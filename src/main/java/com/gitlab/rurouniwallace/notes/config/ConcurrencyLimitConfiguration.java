@@ -0,0 +1,126 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Adaptive concurrency limit settings. Each dependency key's limit moves between the minimum
+ * and the capacity of its bulkhead, as configured under upstreamTenacity, following the
+ * latency its commands see.
+ *
+ */
+public class ConcurrencyLimitConfiguration {
+	
+	/**
+	 * True to limit commands adaptively, shedding those over the limit with 503 Service
+	 * Unavailable, false to leave them to their bulkheads alone
+	 */
+	private boolean enabled = false;
+	
+	/**
+	 * Limit each key starts at, capped at the capacity of its bulkhead
+	 */
+	private int initialLimit = 4;
+	
+	/**
+	 * Lowest limit of a key
+	 */
+	private int minLimit = 1;
+	
+	/**
+	 * Factor a key's limit is cut by when one of its commands times out or is rejected
+	 */
+	private double backoffRatio = 0.9;
+	
+	/**
+	 * How often a key's no-load latency is measured afresh, in seconds, so that its limit
+	 * recovers after a lasting latency shift
+	 */
+	private long rttProbeIntervalSeconds = 30;
+	
+	/**
+	 * Per-second samples of each key's limit kept as its history
+	 */
+	private int historySize = 60;
+	
+	/**
+	 * @return the enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * @param enabled the enabled to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @return the initialLimit
+	 */
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+	
+	/**
+	 * @param initialLimit the initialLimit to set
+	 */
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+	
+	/**
+	 * @return the minLimit
+	 */
+	public int getMinLimit() {
+		return minLimit;
+	}
+	
+	/**
+	 * @param minLimit the minLimit to set
+	 */
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+	
+	/**
+	 * @return the backoffRatio
+	 */
+	public double getBackoffRatio() {
+		return backoffRatio;
+	}
+	
+	/**
+	 * @param backoffRatio the backoffRatio to set
+	 */
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+	
+	/**
+	 * @return the rttProbeIntervalSeconds
+	 */
+	public long getRttProbeIntervalSeconds() {
+		return rttProbeIntervalSeconds;
+	}
+	
+	/**
+	 * @param rttProbeIntervalSeconds the rttProbeIntervalSeconds to set
+	 */
+	public void setRttProbeIntervalSeconds(long rttProbeIntervalSeconds) {
+		this.rttProbeIntervalSeconds = rttProbeIntervalSeconds;
+	}
+	
+	/**
+	 * @return the historySize
+	 */
+	public int getHistorySize() {
+		return historySize;
+	}
+	
+	/**
+	 * @param historySize the historySize to set
+	 */
+	public void setHistorySize(int historySize) {
+		this.historySize = historySize;
+	}
+}
@@ -0,0 +1,288 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Settings for how user data access work is executed and how new users are keyed
+ *
+ */
+public class DaoConfiguration {
+	
+	/**
+	 * How user data access work is executed
+	 */
+	public enum ExecutionMode {
+		
+		/**
+		 * As Tenacity commands on the database command pool
+		 */
+		COMMAND,
+		
+		/**
+		 * Through the asynchronous DAO, on an elastic executor bounded by a semaphore
+		 */
+		ASYNC
+	}
+	
+	/**
+	 * How UUIDs of new users are generated
+	 */
+	public enum UuidScheme {
+		
+		/**
+		 * Random (version 4) UUIDs
+		 */
+		RANDOM,
+		
+		/**
+		 * Time-ordered (version 7) UUIDs, appended to the end of the primary key index
+		 */
+		TIME_ORDERED
+	}
+	
+	/**
+	 * How user data access work is executed
+	 */
+	private ExecutionMode executionMode = ExecutionMode.COMMAND;
+	
+	/**
+	 * Most DAO calls run at once in asynchronous mode. Calls beyond this wait in a queue
+	 * without holding a thread.
+	 */
+	private int maxConcurrency = 16;
+	
+	/**
+	 * How long an idle asynchronous DAO thread is kept before it exits, in seconds
+	 */
+	private long idleThreadTimeoutSeconds = 60;
+	
+	/**
+	 * How UUIDs of new users are generated
+	 */
+	private UuidScheme uuidScheme = UuidScheme.RANDOM;
+	
+	/**
+	 * Users read per page by the email hash backfill
+	 */
+	private int emailBackfillBatchSize = 500;
+	
+	/**
+	 * Pause between pages of the email hash backfill, in milliseconds
+	 */
+	private long emailBackfillPauseMillis = 100;
+	
+	/**
+	 * True to cache user profiles read by UUID
+	 */
+	private boolean profileCacheEnabled = false;
+	
+	/**
+	 * Most user profiles cached
+	 */
+	private long profileCacheMaxSize = 100000;
+	
+	/**
+	 * How long a user profile is cached, in seconds
+	 */
+	private long profileCacheTtlSeconds = 60;
+	
+	/**
+	 * Most UUIDs or email addresses a single multi-get lookup may ask for
+	 */
+	private int maxLookupKeys = 500;
+	
+	/**
+	 * True to collapse concurrent login lookups into shared and batched queries
+	 */
+	private boolean lookupCollapsingEnabled = false;
+	
+	/**
+	 * How long lookups are collected for a batch, in milliseconds
+	 */
+	private int lookupCollapseWindowMillis = 5;
+	
+	/**
+	 * Most lookups batched into one query
+	 */
+	private int lookupCollapseMaxBatch = 64;
+	
+	/**
+	 * @return the executionMode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+	
+	/**
+	 * @param executionMode the executionMode to set
+	 */
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+	
+	/**
+	 * @return the maxConcurrency
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+	
+	/**
+	 * @param maxConcurrency the maxConcurrency to set
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	/**
+	 * @return the idleThreadTimeoutSeconds
+	 */
+	public long getIdleThreadTimeoutSeconds() {
+		return idleThreadTimeoutSeconds;
+	}
+	
+	/**
+	 * @param idleThreadTimeoutSeconds the idleThreadTimeoutSeconds to set
+	 */
+	public void setIdleThreadTimeoutSeconds(long idleThreadTimeoutSeconds) {
+		this.idleThreadTimeoutSeconds = idleThreadTimeoutSeconds;
+	}
+	
+	/**
+	 * @return the uuidScheme
+	 */
+	public UuidScheme getUuidScheme() {
+		return uuidScheme;
+	}
+	
+	/**
+	 * @param uuidScheme the uuidScheme to set
+	 */
+	public void setUuidScheme(UuidScheme uuidScheme) {
+		this.uuidScheme = uuidScheme;
+	}
+
+	/**
+	 * @return the emailBackfillBatchSize
+	 */
+	public int getEmailBackfillBatchSize() {
+		return emailBackfillBatchSize;
+	}
+
+	/**
+	 * @param emailBackfillBatchSize the emailBackfillBatchSize to set
+	 */
+	public void setEmailBackfillBatchSize(int emailBackfillBatchSize) {
+		this.emailBackfillBatchSize = emailBackfillBatchSize;
+	}
+
+	/**
+	 * @return the emailBackfillPauseMillis
+	 */
+	public long getEmailBackfillPauseMillis() {
+		return emailBackfillPauseMillis;
+	}
+
+	/**
+	 * @param emailBackfillPauseMillis the emailBackfillPauseMillis to set
+	 */
+	public void setEmailBackfillPauseMillis(long emailBackfillPauseMillis) {
+		this.emailBackfillPauseMillis = emailBackfillPauseMillis;
+	}
+
+	/**
+	 * @return the profileCacheEnabled
+	 */
+	public boolean isProfileCacheEnabled() {
+		return profileCacheEnabled;
+	}
+
+	/**
+	 * @param profileCacheEnabled the profileCacheEnabled to set
+	 */
+	public void setProfileCacheEnabled(boolean profileCacheEnabled) {
+		this.profileCacheEnabled = profileCacheEnabled;
+	}
+
+	/**
+	 * @return the profileCacheMaxSize
+	 */
+	public long getProfileCacheMaxSize() {
+		return profileCacheMaxSize;
+	}
+
+	/**
+	 * @param profileCacheMaxSize the profileCacheMaxSize to set
+	 */
+	public void setProfileCacheMaxSize(long profileCacheMaxSize) {
+		this.profileCacheMaxSize = profileCacheMaxSize;
+	}
+
+	/**
+	 * @return the profileCacheTtlSeconds
+	 */
+	public long getProfileCacheTtlSeconds() {
+		return profileCacheTtlSeconds;
+	}
+
+	/**
+	 * @param profileCacheTtlSeconds the profileCacheTtlSeconds to set
+	 */
+	public void setProfileCacheTtlSeconds(long profileCacheTtlSeconds) {
+		this.profileCacheTtlSeconds = profileCacheTtlSeconds;
+	}
+
+	/**
+	 * @return the maxLookupKeys
+	 */
+	public int getMaxLookupKeys() {
+		return maxLookupKeys;
+	}
+
+	/**
+	 * @param maxLookupKeys the maxLookupKeys to set
+	 */
+	public void setMaxLookupKeys(int maxLookupKeys) {
+		this.maxLookupKeys = maxLookupKeys;
+	}
+
+	/**
+	 * @return the lookupCollapsingEnabled
+	 */
+	public boolean isLookupCollapsingEnabled() {
+		return lookupCollapsingEnabled;
+	}
+
+	/**
+	 * @param lookupCollapsingEnabled the lookupCollapsingEnabled to set
+	 */
+	public void setLookupCollapsingEnabled(boolean lookupCollapsingEnabled) {
+		this.lookupCollapsingEnabled = lookupCollapsingEnabled;
+	}
+
+	/**
+	 * @return the lookupCollapseWindowMillis
+	 */
+	public int getLookupCollapseWindowMillis() {
+		return lookupCollapseWindowMillis;
+	}
+
+	/**
+	 * @param lookupCollapseWindowMillis the lookupCollapseWindowMillis to set
+	 */
+	public void setLookupCollapseWindowMillis(int lookupCollapseWindowMillis) {
+		this.lookupCollapseWindowMillis = lookupCollapseWindowMillis;
+	}
+
+	/**
+	 * @return the lookupCollapseMaxBatch
+	 */
+	public int getLookupCollapseMaxBatch() {
+		return lookupCollapseMaxBatch;
+	}
+
+	/**
+	 * @param lookupCollapseMaxBatch the lookupCollapseMaxBatch to set
+	 */
+	public void setLookupCollapseMaxBatch(int lookupCollapseMaxBatch) {
+		this.lookupCollapseMaxBatch = lookupCollapseMaxBatch;
+	}
+}
@@ -0,0 +1,88 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Registered email Bloom filter settings
+ *
+ */
+public class EmailFilterConfiguration {
+
+	/**
+	 * True to answer lookups of unregistered email addresses from an in-memory filter. The
+	 * filter only learns of registrations made on this instance between rebuilds, so with
+	 * several instances, a user registered on another one is refused logins here until the
+	 * next rebuild. Requires a positive rebuild interval.
+	 */
+	private boolean enabled = false;
+	
+	/**
+	 * Number of email addresses the filter is sized for
+	 */
+	private long expectedInsertions = 10000000;
+	
+	/**
+	 * False positive rate at the expected number of email addresses
+	 */
+	private double falsePositiveRate = 0.01;
+	
+	/**
+	 * How often the filter is rebuilt from the database, in minutes, which bounds how long
+	 * registrations made on other instances are refused logins here
+	 */
+	private long rebuildIntervalMinutes = 5;
+
+	/**
+	 * @return the enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled the enabled to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return the expectedInsertions
+	 */
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	/**
+	 * @param expectedInsertions the expectedInsertions to set
+	 */
+	public void setExpectedInsertions(long expectedInsertions) {
+		this.expectedInsertions = expectedInsertions;
+	}
+
+	/**
+	 * @return the falsePositiveRate
+	 */
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	/**
+	 * @param falsePositiveRate the falsePositiveRate to set
+	 */
+	public void setFalsePositiveRate(double falsePositiveRate) {
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	/**
+	 * @return the rebuildIntervalMinutes
+	 */
+	public long getRebuildIntervalMinutes() {
+		return rebuildIntervalMinutes;
+	}
+
+	/**
+	 * @param rebuildIntervalMinutes the rebuildIntervalMinutes to set
+	 */
+	public void setRebuildIntervalMinutes(long rebuildIntervalMinutes) {
+		this.rebuildIntervalMinutes = rebuildIntervalMinutes;
+	}
+}
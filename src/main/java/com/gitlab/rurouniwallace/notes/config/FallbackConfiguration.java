@@ -0,0 +1,105 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Settings for what commands fall back to when they fail, time out or are rejected
+ *
+ */
+public class FallbackConfiguration {
+	
+	/**
+	 * Most last good results kept per read, for serving stale when a read command fails.
+	 * Zero keeps none, so failed reads fail.
+	 */
+	private long staleReadMaxSize = 0;
+	
+	/**
+	 * How long a last good result may be served stale after it was read, in seconds
+	 */
+	private long staleReadTtlSeconds = 3600;
+	
+	/**
+	 * Directory registrations are spooled to when they cannot be inserted, for replay once
+	 * the database recovers. Unset, the default, fails such registrations instead.
+	 */
+	private String spoolDirectory;
+	
+	/**
+	 * How often spooled registrations are replayed, in seconds
+	 */
+	private long spoolReplayIntervalSeconds = 10;
+	
+	/**
+	 * Failed replays of a spooled registration before it is set aside for an operator
+	 */
+	private int spoolMaxReplayAttempts = 100;
+	
+	/**
+	 * @return the staleReadMaxSize
+	 */
+	public long getStaleReadMaxSize() {
+		return staleReadMaxSize;
+	}
+	
+	/**
+	 * @param staleReadMaxSize the staleReadMaxSize to set
+	 */
+	public void setStaleReadMaxSize(long staleReadMaxSize) {
+		this.staleReadMaxSize = staleReadMaxSize;
+	}
+	
+	/**
+	 * @return the staleReadTtlSeconds
+	 */
+	public long getStaleReadTtlSeconds() {
+		return staleReadTtlSeconds;
+	}
+	
+	/**
+	 * @param staleReadTtlSeconds the staleReadTtlSeconds to set
+	 */
+	public void setStaleReadTtlSeconds(long staleReadTtlSeconds) {
+		this.staleReadTtlSeconds = staleReadTtlSeconds;
+	}
+	
+	/**
+	 * @return the spoolDirectory
+	 */
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+	
+	/**
+	 * @param spoolDirectory the spoolDirectory to set
+	 */
+	public void setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+	
+	/**
+	 * @return the spoolReplayIntervalSeconds
+	 */
+	public long getSpoolReplayIntervalSeconds() {
+		return spoolReplayIntervalSeconds;
+	}
+	
+	/**
+	 * @param spoolReplayIntervalSeconds the spoolReplayIntervalSeconds to set
+	 */
+	public void setSpoolReplayIntervalSeconds(long spoolReplayIntervalSeconds) {
+		this.spoolReplayIntervalSeconds = spoolReplayIntervalSeconds;
+	}
+	
+	/**
+	 * @return the spoolMaxReplayAttempts
+	 */
+	public int getSpoolMaxReplayAttempts() {
+		return spoolMaxReplayAttempts;
+	}
+	
+	/**
+	 * @param spoolMaxReplayAttempts the spoolMaxReplayAttempts to set
+	 */
+	public void setSpoolMaxReplayAttempts(int spoolMaxReplayAttempts) {
+		this.spoolMaxReplayAttempts = spoolMaxReplayAttempts;
+	}
+}
@@ -0,0 +1,163 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Priority load shedding settings. Load is the greater of requests in flight over
+ * maxInFlight and mean request latency over targetLatencyMillis; each priority class is shed
+ * once load reaches its share. Health checks are never shed.
+ *
+ */
+public class LoadSheddingConfiguration {
+	
+	/**
+	 * True to shed requests by priority class under load, false to admit every request
+	 */
+	private boolean enabled = false;
+	
+	/**
+	 * Requests in flight at which the service counts as fully loaded
+	 */
+	private int maxInFlight = 200;
+	
+	/**
+	 * Mean request latency at which the service counts as fully loaded, in milliseconds
+	 */
+	private long targetLatencyMillis = 1000;
+	
+	/**
+	 * Time constant of the mean request latency, in milliseconds. Older requests weigh less, and
+	 * with no requests finishing the mean decays over about this long.
+	 */
+	private long latencyWindowMillis = 1000;
+	
+	/**
+	 * Load, as a share of full, from which authentication requests are shed
+	 */
+	private double authenticationShedLoad = 0.9;
+	
+	/**
+	 * Load, as a share of full, from which standard requests are shed
+	 */
+	private double standardShedLoad = 0.75;
+	
+	/**
+	 * Load, as a share of full, from which registration requests are shed
+	 */
+	private double registrationShedLoad = 0.5;
+	
+	/**
+	 * Longest wait a shed request is told to retry after, in seconds
+	 */
+	private long maxRetryAfterSeconds = 30;
+	
+	/**
+	 * @return the enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * @param enabled the enabled to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @return the maxInFlight
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+	
+	/**
+	 * @param maxInFlight the maxInFlight to set
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * @return the targetLatencyMillis
+	 */
+	public long getTargetLatencyMillis() {
+		return targetLatencyMillis;
+	}
+	
+	/**
+	 * @param targetLatencyMillis the targetLatencyMillis to set
+	 */
+	public void setTargetLatencyMillis(long targetLatencyMillis) {
+		this.targetLatencyMillis = targetLatencyMillis;
+	}
+	
+	/**
+	 * @return the latencyWindowMillis
+	 */
+	public long getLatencyWindowMillis() {
+		return latencyWindowMillis;
+	}
+	
+	/**
+	 * @param latencyWindowMillis the latencyWindowMillis to set
+	 */
+	public void setLatencyWindowMillis(long latencyWindowMillis) {
+		this.latencyWindowMillis = latencyWindowMillis;
+	}
+	
+	/**
+	 * @return the authenticationShedLoad
+	 */
+	public double getAuthenticationShedLoad() {
+		return authenticationShedLoad;
+	}
+	
+	/**
+	 * @param authenticationShedLoad the authenticationShedLoad to set
+	 */
+	public void setAuthenticationShedLoad(double authenticationShedLoad) {
+		this.authenticationShedLoad = authenticationShedLoad;
+	}
+	
+	/**
+	 * @return the standardShedLoad
+	 */
+	public double getStandardShedLoad() {
+		return standardShedLoad;
+	}
+	
+	/**
+	 * @param standardShedLoad the standardShedLoad to set
+	 */
+	public void setStandardShedLoad(double standardShedLoad) {
+		this.standardShedLoad = standardShedLoad;
+	}
+	
+	/**
+	 * @return the registrationShedLoad
+	 */
+	public double getRegistrationShedLoad() {
+		return registrationShedLoad;
+	}
+	
+	/**
+	 * @param registrationShedLoad the registrationShedLoad to set
+	 */
+	public void setRegistrationShedLoad(double registrationShedLoad) {
+		this.registrationShedLoad = registrationShedLoad;
+	}
+	
+	/**
+	 * @return the maxRetryAfterSeconds
+	 */
+	public long getMaxRetryAfterSeconds() {
+		return maxRetryAfterSeconds;
+	}
+	
+	/**
+	 * @param maxRetryAfterSeconds the maxRetryAfterSeconds to set
+	 */
+	public void setMaxRetryAfterSeconds(long maxRetryAfterSeconds) {
+		this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+	}
+}
@@ -0,0 +1,122 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Login admission control settings
+ *
+ */
+public class LoginThrottleConfiguration {
+
+	/**
+	 * True to throttle login attempts
+	 */
+	private boolean enabled = true;
+	
+	/**
+	 * Number of keys tracked per limit. Least recently refilled keys are evicted beyond this.
+	 */
+	private int tableSize = 65536;
+	
+	/**
+	 * Login attempts allowed in a burst for one email address
+	 */
+	private double emailBurst = 10;
+	
+	/**
+	 * Sustained login attempts allowed per minute for one email address
+	 */
+	private double emailPerMinute = 5;
+	
+	/**
+	 * Login attempts allowed in a burst from one client address
+	 */
+	private double addressBurst = 50;
+	
+	/**
+	 * Sustained login attempts allowed per minute from one client address
+	 */
+	private double addressPerMinute = 30;
+
+	/**
+	 * @return the enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled the enabled to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return the tableSize
+	 */
+	public int getTableSize() {
+		return tableSize;
+	}
+
+	/**
+	 * @param tableSize the tableSize to set
+	 */
+	public void setTableSize(int tableSize) {
+		this.tableSize = tableSize;
+	}
+
+	/**
+	 * @return the emailBurst
+	 */
+	public double getEmailBurst() {
+		return emailBurst;
+	}
+
+	/**
+	 * @param emailBurst the emailBurst to set
+	 */
+	public void setEmailBurst(double emailBurst) {
+		this.emailBurst = emailBurst;
+	}
+
+	/**
+	 * @return the emailPerMinute
+	 */
+	public double getEmailPerMinute() {
+		return emailPerMinute;
+	}
+
+	/**
+	 * @param emailPerMinute the emailPerMinute to set
+	 */
+	public void setEmailPerMinute(double emailPerMinute) {
+		this.emailPerMinute = emailPerMinute;
+	}
+
+	/**
+	 * @return the addressBurst
+	 */
+	public double getAddressBurst() {
+		return addressBurst;
+	}
+
+	/**
+	 * @param addressBurst the addressBurst to set
+	 */
+	public void setAddressBurst(double addressBurst) {
+		this.addressBurst = addressBurst;
+	}
+
+	/**
+	 * @return the addressPerMinute
+	 */
+	public double getAddressPerMinute() {
+		return addressPerMinute;
+	}
+
+	/**
+	 * @param addressPerMinute the addressPerMinute to set
+	 */
+	public void setAddressPerMinute(double addressPerMinute) {
+		this.addressPerMinute = addressPerMinute;
+	}
+}
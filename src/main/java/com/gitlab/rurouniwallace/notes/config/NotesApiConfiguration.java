@@ -31,6 +31,41 @@ public class NotesApiConfiguration extends Configuration {
 	 * SQL configurations
 	 */
 	private SqlFactory sql;
+	
+	/**
+	 * Login admission control settings
+	 */
+	private LoginThrottleConfiguration loginThrottle = new LoginThrottleConfiguration();
+	
+	/**
+	 * Registered email Bloom filter settings
+	 */
+	private EmailFilterConfiguration emailFilter = new EmailFilterConfiguration();
+	
+	/**
+	 * User data access execution settings
+	 */
+	private DaoConfiguration dao = new DaoConfiguration();
+	
+	/**
+	 * Command fallback settings
+	 */
+	private FallbackConfiguration fallback = new FallbackConfiguration();
+	
+	/**
+	 * Adaptive concurrency limit settings
+	 */
+	private ConcurrencyLimitConfiguration concurrencyLimit = new ConcurrencyLimitConfiguration();
+
+	/**
+	 * Priority load shedding settings
+	 */
+	private LoadSheddingConfiguration loadShedding = new LoadSheddingConfiguration();
+
+	/**
+	 * Request deadline settings
+	 */
+	private RequestDeadlineConfiguration requestDeadline = new RequestDeadlineConfiguration();
 
 	/**
 	 * @return the upstreamTenacity
@@ -87,4 +122,102 @@ public class NotesApiConfiguration extends Configuration {
 	public void setSql(SqlFactory sql) {
 		this.sql = sql;
 	}
+
+	/**
+	 * @return the loginThrottle
+	 */
+	public LoginThrottleConfiguration getLoginThrottle() {
+		return loginThrottle;
+	}
+
+	/**
+	 * @param loginThrottle the loginThrottle to set
+	 */
+	public void setLoginThrottle(LoginThrottleConfiguration loginThrottle) {
+		this.loginThrottle = loginThrottle;
+	}
+
+	/**
+	 * @return the emailFilter
+	 */
+	public EmailFilterConfiguration getEmailFilter() {
+		return emailFilter;
+	}
+
+	/**
+	 * @param emailFilter the emailFilter to set
+	 */
+	public void setEmailFilter(EmailFilterConfiguration emailFilter) {
+		this.emailFilter = emailFilter;
+	}
+
+	/**
+	 * @return the dao
+	 */
+	public DaoConfiguration getDao() {
+		return dao;
+	}
+
+	/**
+	 * @param dao the dao to set
+	 */
+	public void setDao(DaoConfiguration dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * @return the fallback
+	 */
+	public FallbackConfiguration getFallback() {
+		return fallback;
+	}
+
+	/**
+	 * @param fallback the fallback to set
+	 */
+	public void setFallback(FallbackConfiguration fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * @return the concurrencyLimit
+	 */
+	public ConcurrencyLimitConfiguration getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @param concurrencyLimit the concurrencyLimit to set
+	 */
+	public void setConcurrencyLimit(ConcurrencyLimitConfiguration concurrencyLimit) {
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	/**
+	 * @return the loadShedding
+	 */
+	public LoadSheddingConfiguration getLoadShedding() {
+		return loadShedding;
+	}
+
+	/**
+	 * @param loadShedding the loadShedding to set
+	 */
+	public void setLoadShedding(LoadSheddingConfiguration loadShedding) {
+		this.loadShedding = loadShedding;
+	}
+
+	/**
+	 * @return the requestDeadline
+	 */
+	public RequestDeadlineConfiguration getRequestDeadline() {
+		return requestDeadline;
+	}
+
+	/**
+	 * @param requestDeadline the requestDeadline to set
+	 */
+	public void setRequestDeadline(RequestDeadlineConfiguration requestDeadline) {
+		this.requestDeadline = requestDeadline;
+	}
 }
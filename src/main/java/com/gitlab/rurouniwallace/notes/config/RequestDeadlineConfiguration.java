@@ -0,0 +1,168 @@
+package com.gitlab.rurouniwallace.notes.config;
+
+/**
+ * Request deadline settings. A request's deadline bounds the commands and database queries
+ * run for it, and work still to start once it has passed is skipped. The deadline is also
+ * cancelled if the client disconnects, which interrupts the work still running.
+ *
+ */
+public class RequestDeadlineConfiguration {
+	
+	/**
+	 * True to give each request a deadline, from its X-Request-Timeout header or the default
+	 * of its endpoint, false to let its work run to completion
+	 */
+	private boolean enabled = false;
+	
+	/**
+	 * Longest timeout a request may ask for, in milliseconds
+	 */
+	private long maxTimeoutMillis = 30000;
+	
+	/**
+	 * Default timeout of logins, in milliseconds
+	 */
+	private long authenticationTimeoutMillis = 2000;
+	
+	/**
+	 * Default timeout of profile reads, in milliseconds
+	 */
+	private long profileReadTimeoutMillis = 2000;
+	
+	/**
+	 * Default timeout of multi-get lookups, in milliseconds
+	 */
+	private long lookupTimeoutMillis = 2000;
+	
+	/**
+	 * Default timeout of registrations, in milliseconds
+	 */
+	private long registrationTimeoutMillis = 4000;
+	
+	/**
+	 * Default timeout of batch registrations, in milliseconds
+	 */
+	private long batchRegistrationTimeoutMillis = 10000;
+	
+	/**
+	 * True to cancel the work of requests whose clients disconnect, whether or not requests
+	 * are given deadlines. Only plain HTTP/1.x connections can be watched; over TLS or
+	 * HTTP/2 the connection is not a ChannelEndPoint carrying an HttpConnection, so this
+	 * does nothing and work runs on until the response is written. A client that half-closes
+	 * its side after sending the request, or pipelines another request behind it, looks the
+	 * same as one that disconnected, and has its work cancelled.
+	 */
+	private boolean cancelOnDisconnect = true;
+	
+	/**
+	 * @return the enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * @param enabled the enabled to set
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @return the maxTimeoutMillis
+	 */
+	public long getMaxTimeoutMillis() {
+		return maxTimeoutMillis;
+	}
+	
+	/**
+	 * @param maxTimeoutMillis the maxTimeoutMillis to set
+	 */
+	public void setMaxTimeoutMillis(long maxTimeoutMillis) {
+		this.maxTimeoutMillis = maxTimeoutMillis;
+	}
+	
+	/**
+	 * @return the authenticationTimeoutMillis
+	 */
+	public long getAuthenticationTimeoutMillis() {
+		return authenticationTimeoutMillis;
+	}
+	
+	/**
+	 * @param authenticationTimeoutMillis the authenticationTimeoutMillis to set
+	 */
+	public void setAuthenticationTimeoutMillis(long authenticationTimeoutMillis) {
+		this.authenticationTimeoutMillis = authenticationTimeoutMillis;
+	}
+	
+	/**
+	 * @return the profileReadTimeoutMillis
+	 */
+	public long getProfileReadTimeoutMillis() {
+		return profileReadTimeoutMillis;
+	}
+	
+	/**
+	 * @param profileReadTimeoutMillis the profileReadTimeoutMillis to set
+	 */
+	public void setProfileReadTimeoutMillis(long profileReadTimeoutMillis) {
+		this.profileReadTimeoutMillis = profileReadTimeoutMillis;
+	}
+	
+	/**
+	 * @return the lookupTimeoutMillis
+	 */
+	public long getLookupTimeoutMillis() {
+		return lookupTimeoutMillis;
+	}
+	
+	/**
+	 * @param lookupTimeoutMillis the lookupTimeoutMillis to set
+	 */
+	public void setLookupTimeoutMillis(long lookupTimeoutMillis) {
+		this.lookupTimeoutMillis = lookupTimeoutMillis;
+	}
+	
+	/**
+	 * @return the registrationTimeoutMillis
+	 */
+	public long getRegistrationTimeoutMillis() {
+		return registrationTimeoutMillis;
+	}
+	
+	/**
+	 * @param registrationTimeoutMillis the registrationTimeoutMillis to set
+	 */
+	public void setRegistrationTimeoutMillis(long registrationTimeoutMillis) {
+		this.registrationTimeoutMillis = registrationTimeoutMillis;
+	}
+	
+	/**
+	 * @return the batchRegistrationTimeoutMillis
+	 */
+	public long getBatchRegistrationTimeoutMillis() {
+		return batchRegistrationTimeoutMillis;
+	}
+	
+	/**
+	 * @param batchRegistrationTimeoutMillis the batchRegistrationTimeoutMillis to set
+	 */
+	public void setBatchRegistrationTimeoutMillis(long batchRegistrationTimeoutMillis) {
+		this.batchRegistrationTimeoutMillis = batchRegistrationTimeoutMillis;
+	}
+	
+	/**
+	 * @return the cancelOnDisconnect
+	 */
+	public boolean isCancelOnDisconnect() {
+		return cancelOnDisconnect;
+	}
+	
+	/**
+	 * @param cancelOnDisconnect the cancelOnDisconnect to set
+	 */
+	public void setCancelOnDisconnect(boolean cancelOnDisconnect) {
+		this.cancelOnDisconnect = cancelOnDisconnect;
+	}
+}
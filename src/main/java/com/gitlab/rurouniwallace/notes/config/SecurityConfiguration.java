@@ -1,5 +1,9 @@
 package com.gitlab.rurouniwallace.notes.config;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
 /**
  * Security configuration data
  *
@@ -7,10 +11,74 @@ package com.gitlab.rurouniwallace.notes.config;
 public class SecurityConfiguration {
 	
 	/**
-	 * Bcrypt hash cost factor. The higher the cost, the slower and more secure the algorithm
+	 * Id of the algorithm new password hashes are generated with
+	 */
+	private String hashAlgorithm = "bcrypt";
+	
+	/**
+	 * Bcrypt hash cost factor. The higher the cost, the slower and more secure the algorithm.
+	 * If not set, the cost is calibrated at startup to meet {@link #hashTargetMillis}.
 	 */
 	private Integer hashCost;
 	
+	/**
+	 * Target time to hash one password on this machine, in milliseconds, used when the
+	 * cost factor is calibrated
+	 */
+	private long hashTargetMillis = 250;
+	
+	/**
+	 * Lowest cost factor calibration may choose, however fast the machine
+	 */
+	private int minHashCost = 10;
+	
+	/**
+	 * Number of password salts to generate ahead of demand
+	 */
+	private int saltPoolSize = 256;
+	
+	/**
+	 * How often fresh seed material is gathered for salt generation, in seconds
+	 */
+	private int saltReseedIntervalSeconds = 300;
+	
+	/**
+	 * Base64-encoded secret that session token signing keys are derived from. If not set,
+	 * a secret is generated at startup.
+	 */
+	private String tokenSecret;
+	
+	/**
+	 * How long session tokens are valid for, in seconds
+	 */
+	private long tokenTtlSeconds = 3600;
+	
+	/**
+	 * How often the session token signing key rotates, in seconds
+	 */
+	private long tokenKeyRotationSeconds = 86400;
+	
+	/**
+	 * True to cache successful password verifications so repeat logins skip the hash
+	 */
+	private boolean credentialCacheEnabled = false;
+	
+	/**
+	 * Maximum number of cached password verifications
+	 */
+	private long credentialCacheMaxSize = 10000;
+	
+	/**
+	 * How long a cached password verification is trusted for, in seconds
+	 */
+	private long credentialCacheTtlSeconds = 300;
+	
+	/**
+	 * Users whose sessions may use administrative operations, such as listing, importing or
+	 * batch registering users
+	 */
+	private List<UUID> adminUserUuids = new ArrayList<>();
+	
 	/**
 	 * Construct a new instance
 	 */
@@ -40,4 +108,172 @@ public class SecurityConfiguration {
 	public void setHashCost(Integer hashCost) {
 		this.hashCost = hashCost;
 	}
+
+	/**
+	 * @return the hashAlgorithm
+	 */
+	public String getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+
+	/**
+	 * @param hashAlgorithm the hashAlgorithm to set
+	 */
+	public void setHashAlgorithm(String hashAlgorithm) {
+		this.hashAlgorithm = hashAlgorithm;
+	}
+
+	/**
+	 * @return the hashTargetMillis
+	 */
+	public long getHashTargetMillis() {
+		return hashTargetMillis;
+	}
+
+	/**
+	 * @param hashTargetMillis the hashTargetMillis to set
+	 */
+	public void setHashTargetMillis(long hashTargetMillis) {
+		this.hashTargetMillis = hashTargetMillis;
+	}
+
+	/**
+	 * @return the minHashCost
+	 */
+	public int getMinHashCost() {
+		return minHashCost;
+	}
+
+	/**
+	 * @param minHashCost the minHashCost to set
+	 */
+	public void setMinHashCost(int minHashCost) {
+		this.minHashCost = minHashCost;
+	}
+
+	/**
+	 * @return the saltPoolSize
+	 */
+	public int getSaltPoolSize() {
+		return saltPoolSize;
+	}
+
+	/**
+	 * @param saltPoolSize the saltPoolSize to set
+	 */
+	public void setSaltPoolSize(int saltPoolSize) {
+		this.saltPoolSize = saltPoolSize;
+	}
+
+	/**
+	 * @return the saltReseedIntervalSeconds
+	 */
+	public int getSaltReseedIntervalSeconds() {
+		return saltReseedIntervalSeconds;
+	}
+
+	/**
+	 * @param saltReseedIntervalSeconds the saltReseedIntervalSeconds to set
+	 */
+	public void setSaltReseedIntervalSeconds(int saltReseedIntervalSeconds) {
+		this.saltReseedIntervalSeconds = saltReseedIntervalSeconds;
+	}
+
+	/**
+	 * @return the tokenSecret
+	 */
+	public String getTokenSecret() {
+		return tokenSecret;
+	}
+
+	/**
+	 * @param tokenSecret the tokenSecret to set
+	 */
+	public void setTokenSecret(String tokenSecret) {
+		this.tokenSecret = tokenSecret;
+	}
+
+	/**
+	 * @return the tokenTtlSeconds
+	 */
+	public long getTokenTtlSeconds() {
+		return tokenTtlSeconds;
+	}
+
+	/**
+	 * @param tokenTtlSeconds the tokenTtlSeconds to set
+	 */
+	public void setTokenTtlSeconds(long tokenTtlSeconds) {
+		this.tokenTtlSeconds = tokenTtlSeconds;
+	}
+
+	/**
+	 * @return the tokenKeyRotationSeconds
+	 */
+	public long getTokenKeyRotationSeconds() {
+		return tokenKeyRotationSeconds;
+	}
+
+	/**
+	 * @param tokenKeyRotationSeconds the tokenKeyRotationSeconds to set
+	 */
+	public void setTokenKeyRotationSeconds(long tokenKeyRotationSeconds) {
+		this.tokenKeyRotationSeconds = tokenKeyRotationSeconds;
+	}
+
+	/**
+	 * @return the credentialCacheEnabled
+	 */
+	public boolean isCredentialCacheEnabled() {
+		return credentialCacheEnabled;
+	}
+
+	/**
+	 * @param credentialCacheEnabled the credentialCacheEnabled to set
+	 */
+	public void setCredentialCacheEnabled(boolean credentialCacheEnabled) {
+		this.credentialCacheEnabled = credentialCacheEnabled;
+	}
+
+	/**
+	 * @return the credentialCacheMaxSize
+	 */
+	public long getCredentialCacheMaxSize() {
+		return credentialCacheMaxSize;
+	}
+
+	/**
+	 * @param credentialCacheMaxSize the credentialCacheMaxSize to set
+	 */
+	public void setCredentialCacheMaxSize(long credentialCacheMaxSize) {
+		this.credentialCacheMaxSize = credentialCacheMaxSize;
+	}
+
+	/**
+	 * @return the credentialCacheTtlSeconds
+	 */
+	public long getCredentialCacheTtlSeconds() {
+		return credentialCacheTtlSeconds;
+	}
+
+	/**
+	 * @param credentialCacheTtlSeconds the credentialCacheTtlSeconds to set
+	 */
+	public void setCredentialCacheTtlSeconds(long credentialCacheTtlSeconds) {
+		this.credentialCacheTtlSeconds = credentialCacheTtlSeconds;
+	}
+
+	/**
+	 * @return the adminUserUuids
+	 */
+	public List<UUID> getAdminUserUuids() {
+		return adminUserUuids;
+	}
+
+	/**
+	 * @param adminUserUuids the adminUserUuids to set
+	 */
+	public void setAdminUserUuids(List<UUID> adminUserUuids) {
+		this.adminUserUuids = adminUserUuids;
+	}
 }
@@ -1,18 +1,34 @@
 package com.gitlab.rurouniwallace.notes.config;
 
-import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.dbcp2.ConnectionFactory;
 import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.PoolableConnectionFactory;
-import org.apache.commons.dbcp2.PoolingDataSource;
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.gitlab.rurouniwallace.notes.dao.InstrumentedDataSource;
+import com.gitlab.rurouniwallace.notes.dao.ReplicaRouter;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
 
 public class SqlFactory {
+	
+	/**
+	 * Name of the pool of primary database connections
+	 */
+	private static final String PRIMARY_POOL_NAME = "primary";
+	
+	/**
+	 * Prefix of the names of the pools of read replica connections
+	 */
+	private static final String REPLICA_POOL_NAME_PREFIX = "replica-";
 
 	/**
 	 * The SQL connection URL
@@ -20,6 +36,102 @@ public class SqlFactory {
 	@JsonProperty
 	private String connectionUrl;
 
+	/**
+	 * SQL connection URLs of read replicas, each given a pool configured like the primary's
+	 */
+	@JsonProperty
+	private List<String> replicaConnectionUrls = new ArrayList<>();
+
+	/**
+	 * How long a failed read replica is skipped before it is tried again, in milliseconds
+	 */
+	@JsonProperty
+	private long replicaRetryMillis = 5000;
+
+	/**
+	 * Most connections the pool will open
+	 */
+	@JsonProperty
+	private int maxTotal = 8;
+
+	/**
+	 * Most connections kept idle in the pool
+	 */
+	@JsonProperty
+	private int maxIdle = 8;
+
+	/**
+	 * Fewest connections kept idle in the pool, topped up by the evictor
+	 */
+	@JsonProperty
+	private int minIdle = 0;
+
+	/**
+	 * How long a caller waits for a connection before failing, in milliseconds, or -1 to wait indefinitely
+	 */
+	@JsonProperty
+	private long maxWaitMillis = -1;
+
+	/**
+	 * Query run to validate connections, or null to use the driver's validity check
+	 */
+	@JsonProperty
+	private String validationQuery;
+
+	/**
+	 * Timeout for the validation query, in seconds, or -1 for none
+	 */
+	@JsonProperty
+	private int validationQueryTimeoutSeconds = -1;
+
+	/**
+	 * True to validate connections before they are handed out
+	 */
+	@JsonProperty
+	private boolean testOnBorrow = true;
+
+	/**
+	 * True to validate idle connections during eviction runs
+	 */
+	@JsonProperty
+	private boolean testWhileIdle = false;
+
+	/**
+	 * True to pool prepared statements per connection
+	 */
+	@JsonProperty
+	private boolean poolPreparedStatements = false;
+
+	/**
+	 * Most pooled prepared statements per connection, or -1 for no limit
+	 */
+	@JsonProperty
+	private int maxOpenPreparedStatements = -1;
+
+	/**
+	 * How often the evictor runs, in milliseconds, or -1 to disable it
+	 */
+	@JsonProperty
+	private long timeBetweenEvictionRunsMillis = -1;
+
+	/**
+	 * How long a connection may sit idle before the evictor closes it, in milliseconds
+	 */
+	@JsonProperty
+	private long minEvictableIdleTimeMillis = 1800000;
+
+	/**
+	 * Idle connections examined per eviction run
+	 */
+	@JsonProperty
+	private int numTestsPerEvictionRun = 3;
+
+	/**
+	 * How long a connection may be held before the stack that borrowed it is logged, in milliseconds, or 0 to disable leak detection
+	 */
+	@JsonProperty
+	private long leakDetectionThresholdMillis = 0;
+
 	/**
 	 * @return the connectionUrl
 	 */
@@ -35,17 +147,311 @@ public class SqlFactory {
 	}
 	
 	/**
-	 * Build a datasource to create SQL database connections
+	 * @return the replicaConnectionUrls
+	 */
+	public List<String> getReplicaConnectionUrls() {
+		return replicaConnectionUrls;
+	}
+
+	/**
+	 * @param replicaConnectionUrls the replicaConnectionUrls to set
+	 */
+	public void setReplicaConnectionUrls(List<String> replicaConnectionUrls) {
+		this.replicaConnectionUrls = replicaConnectionUrls;
+	}
+
+	/**
+	 * @return the replicaRetryMillis
+	 */
+	public long getReplicaRetryMillis() {
+		return replicaRetryMillis;
+	}
+
+	/**
+	 * @param replicaRetryMillis the replicaRetryMillis to set
+	 */
+	public void setReplicaRetryMillis(long replicaRetryMillis) {
+		this.replicaRetryMillis = replicaRetryMillis;
+	}
+	
+	/**
+	 * @return the maxTotal
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * @param maxTotal the maxTotal to set
+	 */
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * @return the maxIdle
+	 */
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	/**
+	 * @param maxIdle the maxIdle to set
+	 */
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return the minIdle
+	 */
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * @param minIdle the minIdle to set
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * @return the maxWaitMillis
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis the maxWaitMillis to set
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * @return the validationQuery
+	 */
+	public String getValidationQuery() {
+		return validationQuery;
+	}
+
+	/**
+	 * @param validationQuery the validationQuery to set
+	 */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * @return the validationQueryTimeoutSeconds
+	 */
+	public int getValidationQueryTimeoutSeconds() {
+		return validationQueryTimeoutSeconds;
+	}
+
+	/**
+	 * @param validationQueryTimeoutSeconds the validationQueryTimeoutSeconds to set
+	 */
+	public void setValidationQueryTimeoutSeconds(int validationQueryTimeoutSeconds) {
+		this.validationQueryTimeoutSeconds = validationQueryTimeoutSeconds;
+	}
+
+	/**
+	 * @return the testOnBorrow
+	 */
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	/**
+	 * @param testOnBorrow the testOnBorrow to set
+	 */
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	/**
+	 * @return the testWhileIdle
+	 */
+	public boolean isTestWhileIdle() {
+		return testWhileIdle;
+	}
+
+	/**
+	 * @param testWhileIdle the testWhileIdle to set
+	 */
+	public void setTestWhileIdle(boolean testWhileIdle) {
+		this.testWhileIdle = testWhileIdle;
+	}
+
+	/**
+	 * @return the poolPreparedStatements
+	 */
+	public boolean isPoolPreparedStatements() {
+		return poolPreparedStatements;
+	}
+
+	/**
+	 * @param poolPreparedStatements the poolPreparedStatements to set
+	 */
+	public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+		this.poolPreparedStatements = poolPreparedStatements;
+	}
+
+	/**
+	 * @return the maxOpenPreparedStatements
+	 */
+	public int getMaxOpenPreparedStatements() {
+		return maxOpenPreparedStatements;
+	}
+
+	/**
+	 * @param maxOpenPreparedStatements the maxOpenPreparedStatements to set
+	 */
+	public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+		this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+	}
+
+	/**
+	 * @return the timeBetweenEvictionRunsMillis
+	 */
+	public long getTimeBetweenEvictionRunsMillis() {
+		return timeBetweenEvictionRunsMillis;
+	}
+
+	/**
+	 * @param timeBetweenEvictionRunsMillis the timeBetweenEvictionRunsMillis to set
+	 */
+	public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+		this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+	}
+
+	/**
+	 * @return the minEvictableIdleTimeMillis
+	 */
+	public long getMinEvictableIdleTimeMillis() {
+		return minEvictableIdleTimeMillis;
+	}
+
+	/**
+	 * @param minEvictableIdleTimeMillis the minEvictableIdleTimeMillis to set
+	 */
+	public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+		this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+	}
+
+	/**
+	 * @return the numTestsPerEvictionRun
+	 */
+	public int getNumTestsPerEvictionRun() {
+		return numTestsPerEvictionRun;
+	}
+
+	/**
+	 * @param numTestsPerEvictionRun the numTestsPerEvictionRun to set
+	 */
+	public void setNumTestsPerEvictionRun(int numTestsPerEvictionRun) {
+		this.numTestsPerEvictionRun = numTestsPerEvictionRun;
+	}
+
+	/**
+	 * @return the leakDetectionThresholdMillis
+	 */
+	public long getLeakDetectionThresholdMillis() {
+		return leakDetectionThresholdMillis;
+	}
+
+	/**
+	 * @param leakDetectionThresholdMillis the leakDetectionThresholdMillis to set
+	 */
+	public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+		this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+	}
+
+	/**
+	 * Build a pooled, instrumented datasource to create SQL database connections. The pool
+	 * is closed when the application stops, and its metrics are registered with the
+	 * environment.
+	 * 
+	 * @param environment application environment
+	 * @return the SQL datasource
+	 */
+	public InstrumentedDataSource buildDataSource(final Environment environment) {
+		return buildDataSource(PRIMARY_POOL_NAME, connectionUrl, environment);
+	}
+	
+	/**
+	 * Build a pool for each read replica, and a router that sends read-only work to them.
+	 * With no replicas configured, every read goes to the primary.
 	 * 
+	 * @param primary datasource of the primary database
+	 * @param environment application environment
+	 * @return the replica router
+	 */
+	public ReplicaRouter buildReplicaRouter(final InstrumentedDataSource primary, final Environment environment) {
+		final List<InstrumentedDataSource> replicas = new ArrayList<>(replicaConnectionUrls.size());
+		for (int i = 0; i < replicaConnectionUrls.size(); i++) {
+			replicas.add(buildDataSource(REPLICA_POOL_NAME_PREFIX + i, replicaConnectionUrls.get(i), environment));
+		}
+		
+		return new ReplicaRouter(primary, replicas, replicaRetryMillis, environment.metrics());
+	}
+	
+	/**
+	 * Build a pooled, instrumented datasource
+	 * 
+	 * @param poolName name of the pool, used in metric names
+	 * @param url the SQL connection URL
+	 * @param environment application environment
 	 * @return the SQL datasource
 	 */
-	public DataSource buildDataSource() {
-		final ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(connectionUrl);
+	private InstrumentedDataSource buildDataSource(final String poolName, final String url, final Environment environment) {
+		final ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(url);
 		
 		final PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
+		poolableConnectionFactory.setValidationQuery(validationQuery);
+		poolableConnectionFactory.setValidationQueryTimeout(validationQueryTimeoutSeconds);
+		poolableConnectionFactory.setPoolStatements(poolPreparedStatements);
+		poolableConnectionFactory.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+		
+		final GenericObjectPoolConfig<PoolableConnection> poolConfig = new GenericObjectPoolConfig<>();
+		poolConfig.setMaxTotal(maxTotal);
+		poolConfig.setMaxIdle(maxIdle);
+		poolConfig.setMinIdle(minIdle);
+		poolConfig.setMaxWaitMillis(maxWaitMillis);
+		poolConfig.setTestOnBorrow(testOnBorrow);
+		poolConfig.setTestWhileIdle(testWhileIdle);
+		poolConfig.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+		poolConfig.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+		poolConfig.setNumTestsPerEvictionRun(numTestsPerEvictionRun);
+		poolConfig.setJmxEnabled(false);
 	
-		final ObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<PoolableConnection>(poolableConnectionFactory);
+		final GenericObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<>(poolableConnectionFactory, poolConfig);
+		poolableConnectionFactory.setPool(connectionPool);
+		
+		final InstrumentedDataSource dataSource = new InstrumentedDataSource(poolName, connectionPool, leakDetectionThresholdMillis, environment.metrics());
+		
+		environment.lifecycle().manage(new Managed() {
+			
+			@Override
+			public void start() throws Exception {
+				// pool opens connections on demand
+			}
+			
+			@Override
+			public void stop() throws Exception {
+				dataSource.close();
+			}
+		});
+		
+		if (dataSource.isLeakDetectionEnabled()) {
+			final long checkIntervalMillis = Math.max(leakDetectionThresholdMillis / 2, 100);
+			environment.lifecycle().scheduledExecutorService("sql-leak-detector-" + poolName).threads(1).build()
+				.scheduleWithFixedDelay(dataSource::checkForLeaks, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		}
 	
-		return new PoolingDataSource<PoolableConnection>(connectionPool);
+		return dataSource;
 	}
 }
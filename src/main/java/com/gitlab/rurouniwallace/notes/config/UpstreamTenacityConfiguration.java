@@ -1,48 +1,41 @@
 package com.gitlab.rurouniwallace.notes.config;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.yammer.tenacity.core.config.TenacityConfiguration;
 
 /**
- * Tenacity/Hystrix settings
+ * Tenacity/Hystrix settings, one entry per dependency key, named in lower camel case
+ * (userLookup for USER_LOOKUP). Each entry sets the key's timeout, its thread pool or,
+ * with executionIsolationStrategy SEMAPHORE, its semaphore, and its circuit breaker. A
+ * thread pool core size of zero or less sizes the pool to the number of available
+ * processors.
  *
  */
 public class UpstreamTenacityConfiguration {
-
-	/**
-	 * Health check Tenacity configurations
-	 */
-	private TenacityConfiguration health;
 	
 	/**
-	 * SQL database Tenacity configurations
-	 */
-	private TenacityConfiguration sqlDb;
-
-	/**
-	 * @return the health
-	 */
-	public TenacityConfiguration getHealth() {
-		return health;
-	}
-
-	/**
-	 * @param health the health to set
+	 * Tenacity configurations by dependency key name
 	 */
-	public void setHealth(TenacityConfiguration health) {
-		this.health = health;
-	}
+	private final Map<String, TenacityConfiguration> dependencies = new LinkedHashMap<>();
 
 	/**
-	 * @return the sqlDb
+	 * @return the Tenacity configurations by dependency key name
 	 */
-	public TenacityConfiguration getSqlDb() {
-		return sqlDb;
+	@JsonAnyGetter
+	public Map<String, TenacityConfiguration> getDependencies() {
+		return dependencies;
 	}
 
 	/**
-	 * @param sqlDb the sqlDb to set
+	 * @param name the dependency key name, in lower camel case
+	 * @param tenacityConfig the Tenacity configuration to set for the key
 	 */
-	public void setSqlDb(TenacityConfiguration sqlDb) {
-		this.sqlDb = sqlDb;
+	@JsonAnySetter
+	public void setDependency(final String name, final TenacityConfiguration tenacityConfig) {
+		dependencies.put(name, tenacityConfig);
 	}
 }
@@ -1,6 +1,21 @@
 package com.gitlab.rurouniwallace.notes.controllers;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -9,13 +24,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.gitlab.rurouniwallace.notes.command.AuthenticateUserCommand;
+import com.gitlab.rurouniwallace.notes.command.CommandFallbacks;
 import com.gitlab.rurouniwallace.notes.command.CommandRunner;
 import com.gitlab.rurouniwallace.notes.command.CreateUserCommand;
+import com.gitlab.rurouniwallace.notes.command.CreateUsersCommand;
+import com.gitlab.rurouniwallace.notes.command.FindUserCommand;
+import com.gitlab.rurouniwallace.notes.command.FindUsersCommand;
+import com.gitlab.rurouniwallace.notes.command.HashPasswordCommand;
+import com.gitlab.rurouniwallace.notes.command.LookupUsersCommand;
+import com.gitlab.rurouniwallace.notes.command.PasswordRehasher;
+import com.gitlab.rurouniwallace.notes.command.UserLookupCollapser;
 import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsersAsync;
+import com.gitlab.rurouniwallace.notes.dao.KnownEmailFilter;
+import com.gitlab.rurouniwallace.notes.dao.SqlDao;
+import com.gitlab.rurouniwallace.notes.dao.UserProfileCache;
+import com.gitlab.rurouniwallace.notes.dao.UserProfileCache.CachedProfile;
+import com.gitlab.rurouniwallace.notes.exceptions.EntityAlreadyExistsException;
 import com.gitlab.rurouniwallace.notes.models.User;
 import com.gitlab.rurouniwallace.notes.requests.AuthenticationRequest;
+import com.gitlab.rurouniwallace.notes.requests.BatchUserRequest;
+import com.gitlab.rurouniwallace.notes.requests.UserLookupRequest;
+import com.gitlab.rurouniwallace.notes.responses.BatchUserResponse;
 import com.gitlab.rurouniwallace.notes.responses.StatusCode;
 import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+import com.gitlab.rurouniwallace.notes.security.SessionTokenService;
+import com.gitlab.rurouniwallace.notes.security.VerifiedCredentialCache;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.gitlab.rurouniwallace.notes.throttling.LoginThrottle;
+
+import rx.Observable;
 
 /**
  * User resource logic controller
@@ -27,58 +67,553 @@ public class UserController {
 	 */
 	private static final Logger LOGGER = LoggerFactory.getLogger(UserController.class);
 	
+	/**
+	 * Most users that can be registered in one batch, however long its deadline
+	 */
+	private static final int MAX_BATCH_SIZE = 1000;
+	
+	/**
+	 * Passwords of a batch registration hashed at once. Matches the default size of the
+	 * password hashing pool, so a batch keeps the pool busy without overflowing its queue.
+	 */
+	private static final int BATCH_HASH_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Warning header of a response served stale
+	 */
+	private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+	
 	/**
 	 * User data access interface
 	 */
 	private final IAccessesUsers userDao;
 	
+	/**
+	 * Password hashing algorithm
+	 */
+	private final IHashesPasswords passwordHasher;
+	
+	/**
+	 * Session token issuer
+	 */
+	private final SessionTokenService tokenService;
+	
+	/**
+	 * Recently verified credentials
+	 */
+	private final VerifiedCredentialCache credentialCache;
+	
+	/**
+	 * Login admission control
+	 */
+	private final LoginThrottle loginThrottle;
+	
+	/**
+	 * Filter of registered email addresses
+	 */
+	private final KnownEmailFilter knownEmailFilter;
+	
+	/**
+	 * Background rehashing of outdated password hashes
+	 */
+	private final PasswordRehasher passwordRehasher;
+	
+	/**
+	 * Asynchronous user data access, or null to run user data access as Tenacity commands
+	 */
+	private final IAccessesUsersAsync asyncUserDao;
+	
+	/**
+	 * Recently read user profiles
+	 */
+	private final UserProfileCache profileCache;
+	
+	/**
+	 * Most UUIDs or email addresses a single multi-get lookup may ask for
+	 */
+	private final int maxLookupKeys;
+	
+	/**
+	 * Login lookups, collapsed into shared and batched queries when enabled
+	 */
+	private final UserLookupCollapser lookupCollapser;
+	
+	/**
+	 * What commands fall back to when they fail
+	 */
+	private final CommandFallbacks fallbacks;
+	
+	/**
+	 * Most users that can be registered in one batch
+	 */
+	private final int maxBatchSize;
+	
+	/**
+	 * Users whose sessions may register users in batches
+	 */
+	private final Set<UUID> adminUserUuids;
+	
 	/**
 	 * Construct a new instance
 	 * 
 	 * @param userDao the user data access interface
+	 * @param passwordHasher password hashing algorithm
+	 * @param tokenService session token issuer
+	 * @param credentialCache recently verified credentials
+	 * @param loginThrottle login admission control
+	 * @param knownEmailFilter filter of registered email addresses
+	 * @param passwordRehasher background rehashing of outdated password hashes
+	 * @param asyncUserDao asynchronous user data access, used for logins and registrations
+	 * instead of Tenacity commands, or null to use Tenacity commands
+	 * @param profileCache recently read user profiles
+	 * @param maxLookupKeys most UUIDs or email addresses a single multi-get lookup may ask for
+	 * @param lookupCollapser login lookups, run through Tenacity commands when there is no
+	 * asynchronous DAO
+	 * @param fallbacks what commands fall back to when they fail
+	 * @param maxBatchSize most users that can be registered in one batch
+	 * @param adminUserUuids users whose sessions may register users in batches
 	 */
-	public UserController(final IAccessesUsers userDao) {
+	public UserController(final IAccessesUsers userDao, final IHashesPasswords passwordHasher, final SessionTokenService tokenService, final VerifiedCredentialCache credentialCache, final LoginThrottle loginThrottle, final KnownEmailFilter knownEmailFilter, final PasswordRehasher passwordRehasher,
+			final IAccessesUsersAsync asyncUserDao, final UserProfileCache profileCache, final int maxLookupKeys,
+			final UserLookupCollapser lookupCollapser, final CommandFallbacks fallbacks, final int maxBatchSize, final List<UUID> adminUserUuids) {
 		this.userDao = userDao;
+		this.passwordHasher = passwordHasher;
+		this.tokenService = tokenService;
+		this.credentialCache = credentialCache;
+		this.loginThrottle = loginThrottle;
+		this.knownEmailFilter = knownEmailFilter;
+		this.passwordRehasher = passwordRehasher;
+		this.asyncUserDao = asyncUserDao;
+		this.profileCache = profileCache;
+		this.maxLookupKeys = maxLookupKeys;
+		this.lookupCollapser = lookupCollapser;
+		this.fallbacks = fallbacks;
+		this.maxBatchSize = maxBatchSize;
+		this.adminUserUuids = new HashSet<>(adminUserUuids);
 	}
 	
 	/**
-	 * Authenticate a user
+	 * Work out how many users a batch registration can take and still finish within its
+	 * deadline. Half of the deadline is left for the inserts and for other registrations
+	 * sharing the password hashing pool.
+	 * 
+	 * @param timeoutMillis default deadline of batch registrations, in milliseconds
+	 * @param hashMillis time to hash one password, in milliseconds
+	 * @return most users that can be registered in one batch
+	 */
+	public static int maxBatchSize(final long timeoutMillis, final long hashMillis) {
+		final long hashesWithinDeadline = timeoutMillis / 2 / Math.max(1, hashMillis) * BATCH_HASH_CONCURRENCY;
+		return (int) Math.max(1, Math.min(MAX_BATCH_SIZE, hashesWithinDeadline));
+	}
+	
+	/**
+	 * Authenticate a user. Attempts over the login rate limits are rejected before any
+	 * work is done, and recently verified credentials and email addresses that were never
+	 * registered are answered straight away. Otherwise the user is looked up on the database pool, or through the
+	 * asynchronous DAO, then the password is checked on the password hashing pool. Lookups on
+	 * the database pool are collapsed with concurrent lookups when collapsing is enabled.
 	 * 
 	 * @param authnRequest the authentication request
+	 * @param clientAddress address the request came from
+	 * @param deadline the request deadline
 	 * @param response the authentication response
 	 */
-	public void authenticateUser(final AuthenticationRequest authnRequest, final AsyncResponse response) {
+	public void authenticateUser(final AuthenticationRequest authnRequest, final String clientAddress, final Deadline deadline, final AsyncResponse response) {
 		if (authnRequest.getEmail() == null || authnRequest.getEmail().isEmpty()) {
 			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "Email address required"));
+			return;
 		}
 		
 		if (authnRequest.getPassword() == null || authnRequest.getPassword().isEmpty()) {
 			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "Password required"));
+			return;
+		}
+		
+		final long throttleNanos = loginThrottle.tryAdmit(authnRequest.getEmail(), clientAddress);
+		if (throttleNanos > 0) {
+			response.resume(Response.fromResponse(buildErrorResponse(HttpStatus.TOO_MANY_REQUESTS_429, StatusCode.THROTTLED, "Too many login attempts"))
+					.header(HttpHeaders.RETRY_AFTER, TimeUnit.NANOSECONDS.toSeconds(throttleNanos + TimeUnit.SECONDS.toNanos(1) - 1))
+					.build());
+			return;
+		}
+		
+		final Optional<User> verifiedUser = credentialCache.getVerifiedUser(authnRequest.getEmail(), authnRequest.getPassword());
+		if (verifiedUser.isPresent()) {
+			final UserResponse userResponse = new UserResponse(verifiedUser.get(), StatusCode.ALLOW);
+			userResponse.setToken(tokenService.issueToken(verifiedUser.get().getUuid()));
+			response.resume(userResponse);
+			return;
+		}
+		
+		if (!knownEmailFilter.mightContain(authnRequest.getEmail())) {
+			response.resume(new UserResponse("Authentication failed", StatusCode.DENY));
+			return;
+		}
+		
+		if (asyncUserDao != null) {
+			final CompletableFuture<UserResponse> authentication = asyncUserDao.lookupUserByEmail(authnRequest.getEmail())
+					.thenCompose(user -> CommandRunner.toFuture(CommandRunner.toObservable(new AuthenticateUserCommand(passwordHasher, tokenService, credentialCache, passwordRehasher, user, authnRequest.getPassword()), deadline)));
+			
+			CommandRunner.run(response, authentication, deadline, "authenticateUser", LOGGER);
+			return;
 		}
 		
-		final AuthenticateUserCommand command = new AuthenticateUserCommand(userDao, authnRequest.getEmail(), authnRequest.getPassword());
+		final Observable<UserResponse> authentication = lookupCollapser.lookupUserByEmail(authnRequest.getEmail(), deadline)
+				.flatMap(user -> CommandRunner.observe(new AuthenticateUserCommand(passwordHasher, tokenService, credentialCache, passwordRehasher, user, authnRequest.getPassword()), deadline));
 	
-		CommandRunner.run(response, command, LOGGER);
+		CommandRunner.run(response, authentication, deadline, "authenticateUser", LOGGER);
 	}
 
 	/**
-	 * Create a new user
+	 * Describe the session of a user whose token has already been validated
+	 * 
+	 * @param principal the user identified by the session token
+	 * @return the session response
+	 */
+	public UserResponse describeSession(final SessionPrincipal principal) {
+		final User user = new User();
+		user.setUuid(principal.getUuid());
+		
+		return new UserResponse(user, StatusCode.ALLOW);
+	}
+
+	/**
+	 * Get a user's profile. Users may only get their own profile. Cached profiles are
+	 * answered straight away; others are read on the database pool, or through the
+	 * asynchronous DAO, and cached. A request whose If-None-Match header matches the
+	 * profile's entity tag gets 304 Not Modified, without the profile being serialized.
+	 * If the database cannot be read, the last profile read is served stale, with a
+	 * Warning header, and is neither cached nor tagged.
+	 * 
+	 * @param uuid the user's UUID
+	 * @param principal the user identified by the session token
+	 * @param ifNoneMatch the If-None-Match request header, or null
+	 * @param deadline the request deadline
+	 * @param response the profile response
+	 */
+	public void findUser(final UUID uuid, final SessionPrincipal principal, final String ifNoneMatch, final Deadline deadline, final AsyncResponse response) {
+		if (!uuid.equals(principal.getUuid())) {
+			response.resume(buildErrorResponse(HttpStatus.FORBIDDEN_403, StatusCode.DENY, "Access denied"));
+			return;
+		}
+		
+		final Optional<CachedProfile> cachedProfile = profileCache.get(uuid);
+		if (cachedProfile.isPresent()) {
+			response.resume(buildProfileResponse(cachedProfile.get(), ifNoneMatch));
+			return;
+		}
+		
+		if (asyncUserDao != null) {
+			final CompletableFuture<Response> lookup = asyncUserDao.findByUuid(uuid)
+					.thenApply(user -> buildProfileResponse(user, ifNoneMatch));
+			
+			CommandRunner.run(response, lookup, deadline, "findUser", LOGGER);
+			return;
+		}
+		
+		final FindUserCommand command = new FindUserCommand(userDao, uuid, fallbacks.getStaleProfiles());
+		final Observable<Response> lookup = CommandRunner.observe(command, deadline)
+				.map(user -> command.isStale() ? buildStaleProfileResponse(user) : buildProfileResponse(user, ifNoneMatch));
+		
+		CommandRunner.run(response, lookup, deadline, "findUser", LOGGER);
+	}
+	
+	/**
+	 * Look up several users at once, by UUID or by email address, in one round trip per
+	 * chunk rather than one per user. Other users' profiles are not the caller's to read,
+	 * so each user found is returned with only its UUID and name.
+	 * 
+	 * @param lookupRequest the UUIDs or email addresses to look up
+	 * @param deadline the request deadline
+	 * @param response the result for each requested user, in request order
+	 */
+	public void lookupUsers(final UserLookupRequest lookupRequest, final Deadline deadline, final AsyncResponse response) {
+		final List<UUID> uuids = lookupRequest.getUuids();
+		final List<String> emails = lookupRequest.getEmails();
+		final boolean byUuid = uuids != null && !uuids.isEmpty();
+		final boolean byEmail = emails != null && !emails.isEmpty();
+		if (byUuid == byEmail) {
+			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "Either uuids or emails required"));
+			return;
+		}
+		
+		final int keyCount = byUuid ? uuids.size() : emails.size();
+		if (keyCount > maxLookupKeys) {
+			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "At most " + maxLookupKeys + " users may be looked up at once"));
+			return;
+		}
+		
+		if ((byUuid && uuids.contains(null)) || (byEmail && emails.contains(null))) {
+			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "Lookup keys must not be null"));
+			return;
+		}
+		
+		if (asyncUserDao != null) {
+			final CompletableFuture<BatchUserResponse> lookup = (byUuid ? asyncUserDao.findByUuids(uuids) : asyncUserDao.lookupUsersByEmail(emails))
+					.thenApply(UserController::buildLookupResponse);
+			
+			CommandRunner.run(response, lookup, deadline, "lookupUsers", LOGGER);
+			return;
+		}
+		
+		final Observable<BatchUserResponse> lookup = CommandRunner.observe(byUuid ? new FindUsersCommand(userDao, uuids) : new LookupUsersCommand(userDao, emails, fallbacks.getStaleLookups()), deadline)
+				.map(UserController::buildLookupResponse);
+		
+		CommandRunner.run(response, lookup, deadline, "lookupUsers", LOGGER);
+	}
+	
+	/**
+	 * Create a new user. The password is hashed on the password hashing pool, then the
+	 * user is inserted on the database pool, or through the asynchronous DAO. If the
+	 * database pool cannot insert the user, the registration is spooled for replay and
+	 * accepted with 202 Accepted.
 	 * 
 	 * @param user the user to create
+	 * @param deadline the request deadline
 	 * @param response the response
 	 */
-	public void createUser(final User user, final AsyncResponse response) {
+	public void createUser(final User user, final Deadline deadline, final AsyncResponse response) {
 		if (user.getUuid() != null) {
 			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "UUID may not be asserted when creating a user"));
+			return;
 		}
 		
 		if (user.getEmail() == null || user.getEmail().isEmpty()) {
 			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "Email address required"));
+			return;
+		}
+		
+		if (asyncUserDao != null) {
+			final CompletableFuture<UserResponse> creation = CommandRunner.toFuture(CommandRunner.toObservable(new HashPasswordCommand(passwordHasher, user.getPassword()), deadline))
+					.thenCompose(hashedPassword -> asyncUserDao.insertUser(user, hashedPassword))
+					.thenApply(createdUser -> new UserResponse(createdUser, StatusCode.SUCCESS))
+					.exceptionally(error -> {
+						if (error.getCause() instanceof EntityAlreadyExistsException) {
+							return new UserResponse("A user with the specified email address already exists", StatusCode.ENTITY_ALREADY_EXISTS);
+						}
+						throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+					});
+			
+			CommandRunner.run(response, creation, deadline, "createUser", LOGGER);
+			return;
+		}
+		
+		final Observable<Response> creation = CommandRunner.observe(new HashPasswordCommand(passwordHasher, user.getPassword()), deadline)
+				.flatMap(hashedPassword -> CommandRunner.observe(new CreateUserCommand(userDao, user, hashedPassword, fallbacks.getRegistrationSpool()), deadline))
+				.map(userResponse -> Response.status(userResponse.getStatus() == StatusCode.QUEUED ? Status.ACCEPTED : Status.OK).entity(userResponse).build());
+		
+		CommandRunner.run(response, creation, deadline, "createUser", LOGGER);
+	}
+	
+	/**
+	 * Register several users at once. Each user is validated on its own; the passwords
+	 * of the valid ones are hashed in parallel on the password hashing pool, and as they
+	 * complete, the users are inserted in chunks on the database pool, one transaction
+	 * per chunk. Every requested user gets its own result, so an invalid user, an email
+	 * address that is already registered, or a hash or chunk that fails does not fail the
+	 * rest of the batch. Restricted to admin users, since each user costs a password hash.
+	 * 
+	 * @param batchRequest the users to create
+	 * @param principal the user identified by the session token
+	 * @param deadline the request deadline
+	 * @param response the response
+	 */
+	public void createUsers(final BatchUserRequest batchRequest, final SessionPrincipal principal, final Deadline deadline, final AsyncResponse response) {
+		if (!adminUserUuids.contains(principal.getUuid())) {
+			response.resume(buildErrorResponse(HttpStatus.FORBIDDEN_403, StatusCode.DENY, "Access denied"));
+			return;
+		}
+		
+		final List<User> users = batchRequest.getUsers();
+		if (users == null || users.isEmpty()) {
+			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "At least one user required"));
+			return;
 		}
 		
-		final CreateUserCommand command = new CreateUserCommand(userDao, user);
+		if (users.size() > maxBatchSize) {
+			response.resume(buildErrorResponse(HttpStatus.UNPROCESSABLE_ENTITY_422, StatusCode.INVALID_ARGUMENTS, "At most " + maxBatchSize + " users may be created at once"));
+			return;
+		}
 		
-		CommandRunner.run(response,command, LOGGER);
+		final UserResponse[] results = new UserResponse[users.size()];
+		final List<Integer> validIndices = new ArrayList<>(users.size());
+		for (int i = 0; i < users.size(); i++) {
+			final String validationError = validateNewUser(users.get(i));
+			if (validationError != null) {
+				results[i] = new UserResponse(validationError, StatusCode.INVALID_ARGUMENTS);
+			} else {
+				validIndices.add(i);
+			}
+		}
+		
+		final Observable<BatchUserResponse> creation = Observable.from(validIndices)
+				.flatMap(index -> CommandRunner.toObservable(new HashPasswordCommand(passwordHasher, users.get(index).getPassword()), deadline)
+						.map(hashedPassword -> new SimpleImmutableEntry<>(index, hashedPassword))
+						.onErrorResumeNext(error -> {
+							LOGGER.warn("Failed to hash the password of batch user " + index, error);
+							results[index] = new UserResponse("Registration failed", StatusCode.FAILED);
+							return Observable.empty();
+						}), BATCH_HASH_CONCURRENCY)
+				.buffer(SqlDao.INSERT_CHUNK_SIZE)
+				.concatMap(hashedChunk -> {
+					final List<User> chunkUsers = new ArrayList<>(hashedChunk.size());
+					final List<String> chunkHashes = new ArrayList<>(hashedChunk.size());
+					for (final SimpleImmutableEntry<Integer, String> hashed : hashedChunk) {
+						chunkUsers.add(users.get(hashed.getKey()));
+						chunkHashes.add(hashed.getValue());
+					}
+					
+					return CommandRunner.toObservable(new CreateUsersCommand(userDao, chunkUsers, chunkHashes), deadline)
+							.doOnNext(createdUsers -> {
+								for (int i = 0; i < hashedChunk.size(); i++) {
+									results[hashedChunk.get(i).getKey()] = createdUsers.get(i).isPresent()
+											? new UserResponse(createdUsers.get(i).get(), StatusCode.SUCCESS)
+											: new UserResponse("A user with the specified email address already exists", StatusCode.ENTITY_ALREADY_EXISTS);
+								}
+							})
+							.onErrorResumeNext(error -> {
+								// the chunk's transaction rolled back, but earlier chunks are committed and keep their results
+								LOGGER.warn("Failed to insert a chunk of " + hashedChunk.size() + " batch users", error);
+								for (final SimpleImmutableEntry<Integer, String> hashed : hashedChunk) {
+									results[hashed.getKey()] = new UserResponse("Registration failed", StatusCode.FAILED);
+								}
+								return Observable.empty();
+							});
+				})
+				.toList()
+				.map(insertedChunks -> new BatchUserResponse(Arrays.asList(results), StatusCode.SUCCESS));
+		
+		CommandRunner.run(response, creation, deadline, "createUsers", LOGGER);
+	}
+	
+	/**
+	 * Validate a user to be created
+	 * 
+	 * @param user the user to create
+	 * @return the validation error, or null if the user is valid
+	 */
+	static String validateNewUser(final User user) {
+		if (user == null) {
+			return "User required";
+		}
+		
+		if (user.getUuid() != null) {
+			return "UUID may not be asserted when creating a user";
+		}
+		
+		if (user.getEmail() == null || user.getEmail().isEmpty()) {
+			return "Email address required";
+		}
+		
+		if (user.getPassword() == null || user.getPassword().isEmpty()) {
+			return "Password required";
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Cache a profile read from the database, and build its HTTP response
+	 * 
+	 * @param user the user, or empty if not found
+	 * @param ifNoneMatch the If-None-Match request header, or null
+	 * @return the HTTP response
+	 */
+	private Response buildProfileResponse(final Optional<User> user, final String ifNoneMatch) {
+		if (!user.isPresent()) {
+			return buildErrorResponse(HttpStatus.NOT_FOUND_404, StatusCode.NOT_FOUND, "User not found");
+		}
+		
+		return buildProfileResponse(profileCache.put(user.get()), ifNoneMatch);
+	}
+	
+	/**
+	 * Build the HTTP response of a profile served stale
+	 * 
+	 * @param user the user, or empty if not found
+	 * @return the HTTP response, marked stale
+	 */
+	private Response buildStaleProfileResponse(final Optional<User> user) {
+		if (!user.isPresent()) {
+			return Response.fromResponse(buildErrorResponse(HttpStatus.NOT_FOUND_404, StatusCode.NOT_FOUND, "User not found"))
+					.header("Warning", STALE_WARNING)
+					.build();
+		}
+		
+		final CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		cacheControl.setNoStore(true);
+		
+		return Response.ok(new UserResponse(new User(user.get()), StatusCode.SUCCESS))
+				.header("Warning", STALE_WARNING)
+				.cacheControl(cacheControl)
+				.build();
+	}
+	
+	/**
+	 * Build the HTTP response of a tagged profile
+	 * 
+	 * @param profile the profile and its entity tag
+	 * @param ifNoneMatch the If-None-Match request header, or null
+	 * @return the profile, or 304 Not Modified if the client already has it
+	 */
+	private Response buildProfileResponse(final CachedProfile profile, final String ifNoneMatch) {
+		final EntityTag etag = new EntityTag(profile.getETag());
+		final CacheControl cacheControl = new CacheControl();
+		cacheControl.setPrivate(true);
+		cacheControl.setNoCache(true);
+		
+		if (matchesETag(ifNoneMatch, profile.getETag())) {
+			return Response.notModified(etag).cacheControl(cacheControl).build();
+		}
+		
+		return Response.ok(new UserResponse(profile.getUser(), StatusCode.SUCCESS)).tag(etag).cacheControl(cacheControl).build();
+	}
+	
+	/**
+	 * Check an If-None-Match header against an entity tag, using the weak comparison that
+	 * If-None-Match calls for
+	 * 
+	 * @param ifNoneMatch the If-None-Match request header, or null
+	 * @param etag the entity tag value, without quotes
+	 * @return true if the header lists the entity tag, or is a wildcard
+	 */
+	static boolean matchesETag(final String ifNoneMatch, final String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		
+		final String quotedETag = "\"" + etag + "\"";
+		for (final String candidate : ifNoneMatch.split(",")) {
+			final String trimmed = candidate.trim();
+			final String opaqueTag = trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+			if (trimmed.equals("*") || opaqueTag.equals(quotedETag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Build the response to a multi-get lookup
+	 * 
+	 * @param users for each requested key, in order, the user found, or empty
+	 * @return the result for each requested key, in order
+	 */
+	private static BatchUserResponse buildLookupResponse(final List<Optional<User>> users) {
+		final List<UserResponse> results = new ArrayList<>(users.size());
+		for (final Optional<User> user : users) {
+			if (user.isPresent()) {
+				final User publicProfile = new User();
+				publicProfile.setUuid(user.get().getUuid());
+				publicProfile.setGivenName(user.get().getGivenName());
+				publicProfile.setSurname(user.get().getSurname());
+				results.add(new UserResponse(publicProfile, StatusCode.SUCCESS));
+			} else {
+				results.add(new UserResponse("User not found", StatusCode.NOT_FOUND));
+			}
+		}
+		return new BatchUserResponse(results, StatusCode.SUCCESS);
 	}
 	
 	/**
@@ -0,0 +1,372 @@
+package com.gitlab.rurouniwallace.notes.controllers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gitlab.rurouniwallace.notes.command.CreateUsersCommand;
+import com.gitlab.rurouniwallace.notes.command.HashPasswordCommand;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.dao.SqlDao;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.responses.ImportRecordResponse;
+import com.gitlab.rurouniwallace.notes.responses.StatusCode;
+import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+
+/**
+ * Imports a stream of newline-delimited JSON users, for migrations too large to post
+ * one user, or one batch, at a time. Restricted to admin users, since an import may be
+ * as long as its caller likes.
+ *
+ * Records are parsed one at a time from the request body. Their passwords are hashed on
+ * the password hashing pool, at most {@link #HASH_CONCURRENCY} at once across all imports,
+ * and the hashed users are inserted in chunks on the database pool. The request body is
+ * only read while there is room in the pipeline, so a slow pipeline pushes back on the
+ * client through the connection's flow control. One result is written per record as
+ * soon as it is known, so results arrive in completion order and carry their record
+ * number, followed by a summary.
+ *
+ */
+public class UserImporter {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserImporter.class);
+	
+	/**
+	 * Passwords hashed at once across all imports. Half the default size of the password
+	 * hashing pool, so imports leave room for logins and registrations.
+	 */
+	private static final int HASH_CONCURRENCY = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Password hashing algorithm
+	 */
+	private final IHashesPasswords passwordHasher;
+	
+	/**
+	 * JSON mapper for reading records and writing results
+	 */
+	private final ObjectMapper objectMapper;
+	
+	/**
+	 * Permits for passwords being hashed, shared by all imports
+	 */
+	private final Semaphore hashPermits = new Semaphore(HASH_CONCURRENCY);
+	
+	/**
+	 * Users whose sessions may import users
+	 */
+	private final Set<UUID> adminUserUuids;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param userDao user persistence layer
+	 * @param passwordHasher password hashing algorithm
+	 * @param objectMapper JSON mapper for reading records and writing results
+	 * @param adminUserUuids users whose sessions may import users
+	 */
+	public UserImporter(final IAccessesUsers userDao, final IHashesPasswords passwordHasher, final ObjectMapper objectMapper, final List<UUID> adminUserUuids) {
+		this.userDao = userDao;
+		this.passwordHasher = passwordHasher;
+		this.objectMapper = objectMapper;
+		this.adminUserUuids = new HashSet<>(adminUserUuids);
+	}
+	
+	/**
+	 * Import a stream of users
+	 *
+	 * @param input newline-delimited JSON users
+	 * @param principal the user identified by the session token
+	 * @return newline-delimited JSON results, written as the import progresses, or an error
+	 * response
+	 */
+	public Response importUsers(final InputStream input, final SessionPrincipal principal) {
+		if (!adminUserUuids.contains(principal.getUuid())) {
+			return Response.status(HttpStatus.FORBIDDEN_403).type(MediaType.APPLICATION_JSON_TYPE).entity(new UserResponse("Access denied", StatusCode.DENY)).build();
+		}
+		
+		final StreamingOutput results = output -> runImport(input, output);
+		return Response.ok(results).build();
+	}
+	
+	/**
+	 * Run an import. A record that isn't a valid user gets its own failed result; malformed
+	 * JSON ends the import, since the position of the next record can't be trusted.
+	 *
+	 * @param input newline-delimited JSON users
+	 * @param output stream to write newline-delimited JSON results to
+	 * @throws IOException if reading records or writing results fails
+	 */
+	private void runImport(final InputStream input, final OutputStream output) throws IOException {
+		final BlockingQueue<HashedRecord> hashedRecords = new LinkedBlockingQueue<>();
+		final List<HashedRecord> chunk = new ArrayList<>(SqlDao.INSERT_CHUNK_SIZE);
+		// results are separated by newlines, not the default root value separator
+		final ImportProgress progress = new ImportProgress(objectMapper.getFactory().createGenerator(output).setRootValueSeparator(null));
+		
+		int pendingHashes = 0;
+		try (final JsonParser parser = objectMapper.getFactory().createParser(input)) {
+			while (true) {
+				// insert every full chunk before reading further, so a slow database stops the input
+				for (HashedRecord hashed = hashedRecords.poll(); hashed != null; hashed = hashedRecords.poll()) {
+					pendingHashes--;
+					addToChunk(hashed, chunk, progress);
+				}
+				
+				acquireHashPermit();
+				
+				final long recordNumber = progress.read + 1;
+				final JsonNode record;
+				try {
+					if (parser.nextToken() == null) {
+						hashPermits.release();
+						break;
+					}
+					progress.read++;
+					record = parser.readValueAsTree();
+				} catch (final JsonProcessingException e) {
+					hashPermits.release();
+					progress.write(new ImportRecordResponse(recordNumber, "Malformed JSON, import stopped: " + e.getOriginalMessage(), StatusCode.INVALID_ARGUMENTS));
+					break;
+				}
+				
+				final User user;
+				try {
+					user = objectMapper.treeToValue(record, User.class);
+				} catch (final JsonProcessingException e) {
+					hashPermits.release();
+					progress.write(new ImportRecordResponse(recordNumber, "Invalid user: " + e.getOriginalMessage(), StatusCode.INVALID_ARGUMENTS));
+					continue;
+				}
+				
+				final String validationError = UserController.validateNewUser(user);
+				if (validationError != null) {
+					hashPermits.release();
+					progress.write(new ImportRecordResponse(recordNumber, validationError, StatusCode.INVALID_ARGUMENTS));
+					continue;
+				}
+				
+				pendingHashes++;
+				new HashPasswordCommand(passwordHasher, user.getPassword()).toObservable().subscribe(
+						hashedPassword -> hashedRecords.add(new HashedRecord(recordNumber, user, hashedPassword)),
+						error -> {
+							hashedRecords.add(new HashedRecord(recordNumber, user, null));
+							hashPermits.release();
+						},
+						hashPermits::release);
+			}
+			
+			while (pendingHashes > 0) {
+				pendingHashes--;
+				addToChunk(takeHashed(hashedRecords), chunk, progress);
+			}
+			insertChunk(chunk, progress);
+		} catch (final IOException e) {
+			LOGGER.warn("User import ended after " + progress.read + " records", e);
+			throw e;
+		}
+		
+		progress.write(new ImportRecordResponse(null, "Imported " + progress.imported + " of " + progress.read + " users", StatusCode.SUCCESS));
+		progress.generator.close();
+	}
+	
+	/**
+	 * Add a hashed record to the current chunk, inserting the chunk once it is full. A
+	 * record whose password could not be hashed is answered straight away.
+	 *
+	 * @param hashed the hashed record
+	 * @param chunk records waiting to be inserted
+	 * @param progress import progress
+	 * @throws IOException if writing results fails
+	 */
+	private void addToChunk(final HashedRecord hashed, final List<HashedRecord> chunk, final ImportProgress progress) throws IOException {
+		if (hashed.hashedPassword == null) {
+			progress.write(new ImportRecordResponse(hashed.recordNumber, "Failed to hash password", StatusCode.FAILED));
+			return;
+		}
+		
+		chunk.add(hashed);
+		if (chunk.size() >= SqlDao.INSERT_CHUNK_SIZE) {
+			insertChunk(chunk, progress);
+		}
+	}
+	
+	/**
+	 * Insert a chunk of hashed records in one database command, and write their results
+	 *
+	 * @param chunk records waiting to be inserted, cleared once inserted
+	 * @param progress import progress
+	 * @throws IOException if writing results fails
+	 */
+	private void insertChunk(final List<HashedRecord> chunk, final ImportProgress progress) throws IOException {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		
+		final List<User> users = new ArrayList<>(chunk.size());
+		final List<String> hashedPasswords = new ArrayList<>(chunk.size());
+		for (final HashedRecord hashed : chunk) {
+			users.add(hashed.user);
+			hashedPasswords.add(hashed.hashedPassword);
+		}
+		
+		List<Optional<User>> createdUsers;
+		try {
+			createdUsers = new CreateUsersCommand(userDao, users, hashedPasswords).execute();
+		} catch (final RuntimeException e) {
+			LOGGER.error("Failed to insert " + chunk.size() + " imported users", e);
+			createdUsers = null;
+		}
+		
+		for (int i = 0; i < chunk.size(); i++) {
+			final long recordNumber = chunk.get(i).recordNumber;
+			if (createdUsers == null) {
+				progress.write(new ImportRecordResponse(recordNumber, "Failed to insert user", StatusCode.FAILED));
+			} else if (createdUsers.get(i).isPresent()) {
+				progress.imported++;
+				progress.write(new ImportRecordResponse(recordNumber, createdUsers.get(i).get(), StatusCode.SUCCESS));
+			} else {
+				progress.write(new ImportRecordResponse(recordNumber, "A user with the specified email address already exists", StatusCode.ENTITY_ALREADY_EXISTS));
+			}
+		}
+		progress.generator.flush();
+		chunk.clear();
+	}
+	
+	/**
+	 * Wait for room in the hashing stage
+	 *
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	private void acquireHashPermit() throws InterruptedIOException {
+		try {
+			hashPermits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to hash a password");
+		}
+	}
+	
+	/**
+	 * Wait for the next hashed record
+	 *
+	 * @param hashedRecords records whose passwords have been hashed
+	 * @return the next hashed record
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	private static HashedRecord takeHashed(final BlockingQueue<HashedRecord> hashedRecords) throws InterruptedIOException {
+		try {
+			return hashedRecords.take();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a password hash");
+		}
+	}
+	
+	/**
+	 * Record whose password has been hashed
+	 */
+	private static class HashedRecord {
+		
+		/**
+		 * Position of the record in the import stream
+		 */
+		private final long recordNumber;
+		
+		/**
+		 * The user to import
+		 */
+		private final User user;
+		
+		/**
+		 * The hashed password, or null if hashing failed
+		 */
+		private final String hashedPassword;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param recordNumber position of the record in the import stream
+		 * @param user the user to import
+		 * @param hashedPassword the hashed password, or null if hashing failed
+		 */
+		HashedRecord(final long recordNumber, final User user, final String hashedPassword) {
+			this.recordNumber = recordNumber;
+			this.user = user;
+			this.hashedPassword = hashedPassword;
+		}
+	}
+	
+	/**
+	 * Counts and result output of one import
+	 */
+	private static class ImportProgress {
+		
+		/**
+		 * Writer of newline-delimited results
+		 */
+		private final JsonGenerator generator;
+		
+		/**
+		 * Records read so far
+		 */
+		private long read;
+		
+		/**
+		 * Users inserted so far
+		 */
+		private long imported;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param generator writer of newline-delimited results
+		 */
+		ImportProgress(final JsonGenerator generator) {
+			this.generator = generator;
+		}
+		
+		/**
+		 * Write one result line
+		 *
+		 * @param result the result
+		 * @throws IOException if writing fails
+		 */
+		void write(final ImportRecordResponse result) throws IOException {
+			generator.writeObject(result);
+			generator.writeRaw('\n');
+		}
+	}
+}
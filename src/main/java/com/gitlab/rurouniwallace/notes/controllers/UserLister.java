@@ -0,0 +1,249 @@
+package com.gitlab.rurouniwallace.notes.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.dao.IReceivesUsers;
+import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.responses.StatusCode;
+import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+
+/**
+ * Lists every user a page at a time, for admin tooling.
+ *
+ * Pages are keyed on the UUID of the last user listed, handed to the client as an
+ * opaque cursor, so every page costs the same however deep into the listing it is. Each
+ * user is written to the response as it is read from the database, so memory use stays
+ * flat whatever the page size.
+ *
+ */
+public class UserLister {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(UserLister.class);
+	
+	/**
+	 * Users per page when the client doesn't ask for a page size
+	 */
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	
+	/**
+	 * Most users per page
+	 */
+	private static final int MAX_PAGE_SIZE = 10000;
+	
+	/**
+	 * Cursor of the first page: the lowest UUID, which is never a user's
+	 */
+	private static final UUID FIRST_PAGE = new UUID(0, 0);
+	
+	/**
+	 * User persistence layer
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * JSON mapper for writing pages
+	 */
+	private final ObjectMapper objectMapper;
+	
+	/**
+	 * Users whose sessions may list every user
+	 */
+	private final Set<UUID> adminUserUuids;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param userDao user persistence layer
+	 * @param objectMapper JSON mapper for writing pages
+	 * @param adminUserUuids users whose sessions may list every user
+	 */
+	public UserLister(final IAccessesUsers userDao, final ObjectMapper objectMapper, final List<UUID> adminUserUuids) {
+		this.userDao = userDao;
+		this.objectMapper = objectMapper;
+		this.adminUserUuids = new HashSet<>(adminUserUuids);
+	}
+	
+	/**
+	 * List a page of users
+	 *
+	 * @param cursor cursor returned with the previous page, or null for the first page
+	 * @param limit the most users to list, or null for the default page size
+	 * @param principal the user identified by the session token
+	 * @return the page, streamed as it is read, or an error response
+	 */
+	public Response listUsers(final String cursor, final Integer limit, final SessionPrincipal principal) {
+		if (!adminUserUuids.contains(principal.getUuid())) {
+			return buildErrorResponse(HttpStatus.FORBIDDEN_403, StatusCode.DENY, "Access denied");
+		}
+		
+		final int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+		if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+			return buildErrorResponse(HttpStatus.BAD_REQUEST_400, StatusCode.INVALID_ARGUMENTS, "Limit must be between 1 and " + MAX_PAGE_SIZE);
+		}
+		
+		final UUID after;
+		try {
+			after = cursor == null ? FIRST_PAGE : decodeCursor(cursor);
+		} catch (final IllegalArgumentException e) {
+			return buildErrorResponse(HttpStatus.BAD_REQUEST_400, StatusCode.INVALID_ARGUMENTS, "Invalid cursor");
+		}
+		
+		final StreamingOutput page = output -> writePage(after, pageSize, output);
+		return Response.ok(page, MediaType.APPLICATION_JSON_TYPE).build();
+	}
+	
+	/**
+	 * Write a page of users. One more user than the page holds is read, to tell whether
+	 * there is a next page without a second query.
+	 *
+	 * @param after the UUID to start after
+	 * @param pageSize the most users to write
+	 * @param output stream to write the page to
+	 * @throws IOException if reading users or writing the page fails
+	 */
+	private void writePage(final UUID after, final int pageSize, final OutputStream output) throws IOException {
+		final PageWriter pageWriter = new PageWriter(objectMapper.getFactory().createGenerator(output), pageSize);
+		
+		pageWriter.generator.writeStartObject();
+		pageWriter.generator.writeStringField("status", StatusCode.SUCCESS.name());
+		pageWriter.generator.writeArrayFieldStart("users");
+		try {
+			userDao.listUsers(after, pageSize + 1, pageWriter);
+		} catch (final DataAccessException e) {
+			LOGGER.error("Failed to list users after " + after, e);
+			throw new IOException("Failed to list users", e);
+		}
+		pageWriter.generator.writeEndArray();
+		
+		if (pageWriter.hasNextPage) {
+			pageWriter.generator.writeStringField("nextCursor", encodeCursor(pageWriter.lastUuid));
+		}
+		pageWriter.generator.writeEndObject();
+		pageWriter.generator.close();
+	}
+	
+	/**
+	 * Encode a UUID as an opaque cursor
+	 *
+	 * @param uuid the UUID of the last user on a page
+	 * @return the cursor
+	 */
+	static String encodeCursor(final UUID uuid) {
+		final ByteBuffer bytes = ByteBuffer.allocate(16);
+		bytes.putLong(uuid.getMostSignificantBits());
+		bytes.putLong(uuid.getLeastSignificantBits());
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+	}
+	
+	/**
+	 * Decode an opaque cursor
+	 *
+	 * @param cursor the cursor
+	 * @return the UUID of the last user on the previous page
+	 * @throws IllegalArgumentException if the cursor is malformed
+	 */
+	static UUID decodeCursor(final String cursor) {
+		final byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+		if (bytes.length != 16) {
+			throw new IllegalArgumentException("Cursor must encode 16 bytes");
+		}
+		
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		return new UUID(buffer.getLong(), buffer.getLong());
+	}
+	
+	/**
+	 * Build an error HTTP response
+	 *
+	 * @param httpStatus the HTTP status code
+	 * @param statusCode the API status code
+	 * @param message the error message
+	 * @return the HTTP response
+	 */
+	private static Response buildErrorResponse(final int httpStatus, final StatusCode statusCode, final String message) {
+		return Response.status(httpStatus).type(MediaType.APPLICATION_JSON_TYPE).entity(new UserResponse(message, statusCode)).build();
+	}
+	
+	/**
+	 * Writes users to a page as they are read, holding back the one past the page
+	 */
+	private static class PageWriter implements IReceivesUsers {
+		
+		/**
+		 * Writer of the page
+		 */
+		private final JsonGenerator generator;
+		
+		/**
+		 * The most users to write
+		 */
+		private final int pageSize;
+		
+		/**
+		 * Users written so far
+		 */
+		private int written;
+		
+		/**
+		 * UUID of the last user written
+		 */
+		private UUID lastUuid;
+		
+		/**
+		 * Whether a user past the page was read
+		 */
+		private boolean hasNextPage;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param generator writer of the page
+		 * @param pageSize the most users to write
+		 */
+		PageWriter(final JsonGenerator generator, final int pageSize) {
+			this.generator = generator;
+			this.pageSize = pageSize;
+		}
+		
+		/**
+		 * Write a user, unless the page is already full
+		 *
+		 * @param user the user
+		 * @throws IOException if writing fails
+		 */
+		@Override
+		public void receive(final User user) throws IOException {
+			if (written == pageSize) {
+				hasNextPage = true;
+				return;
+			}
+			
+			generator.writeObject(user);
+			lastUuid = user.getUuid();
+			written++;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.throttling.BoundedExecutor;
+
+/**
+ * Runs the calls of a blocking user DAO on an executor, with at most a fixed number of
+ * calls running at once. Calls beyond the limit wait in a queue without holding a thread,
+ * so the executor only ever needs as many threads as the limit, and can create them on
+ * demand.
+ *
+ */
+public class AsyncUserDao implements IAccessesUsersAsync {
+	
+	/**
+	 * The blocking user DAO
+	 */
+	private final IAccessesUsers userDao;
+	
+	/**
+	 * Executor the DAO calls run on, bounded to the most calls run at once
+	 */
+	private final BoundedExecutor executor;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param userDao the blocking user DAO
+	 * @param executor executor to run DAO calls on
+	 * @param maxConcurrency most DAO calls run at once
+	 * @param metrics registry to report in-flight and queued calls to
+	 */
+	public AsyncUserDao(final IAccessesUsers userDao, final Executor executor, final int maxConcurrency, final MetricRegistry metrics) {
+		this.userDao = userDao;
+		this.executor = new BoundedExecutor(executor, maxConcurrency);
+		
+		metrics.register(MetricRegistry.name(AsyncUserDao.class, "in-flight"), (Gauge<Integer>) this.executor::getInFlight);
+		metrics.register(MetricRegistry.name(AsyncUserDao.class, "queued"), (Gauge<Integer>) this.executor::getQueued);
+	}
+	
+	/**
+	 * Authenticate a user with their email and password
+	 * 
+	 * @param email user email address
+	 * @param password user password
+	 * @return the user data
+	 */
+	@Override
+	public CompletableFuture<User> authenticateUser(final String email, final String password) {
+		return supply(() -> userDao.authenticateUser(email, password));
+	}
+	
+	/**
+	 * Register a new user
+	 * 
+	 * @param user the user to register
+	 * @return the created user
+	 */
+	@Override
+	public CompletableFuture<User> registerUser(final User user) {
+		return supply(() -> userDao.registerUser(user));
+	}
+	
+	/**
+	 * Look up a user by their email address
+	 * 
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 */
+	@Override
+	public CompletableFuture<Optional<User>> lookupUserByEmail(final String email) {
+		return supply(() -> userDao.lookupUserByEmail(email));
+	}
+	
+	/**
+	 * Find a user by their UUID
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the user data, without a password, or empty if no user has the UUID
+	 */
+	@Override
+	public CompletableFuture<Optional<User>> findByUuid(final UUID uuid) {
+		return supply(() -> userDao.findByUuid(uuid));
+	}
+	
+	/**
+	 * Find several users by their UUIDs
+	 * 
+	 * @param uuids the users' UUIDs
+	 * @return for each UUID, in order, the user data, without a password, or empty if no
+	 * user has the UUID
+	 */
+	@Override
+	public CompletableFuture<List<Optional<User>>> findByUuids(final List<UUID> uuids) {
+		return supply(() -> userDao.findByUuids(uuids));
+	}
+	
+	/**
+	 * Look up several users by their email addresses
+	 * 
+	 * @param emails the users' email addresses
+	 * @return for each email address, in order, the user data, or empty if no user has the
+	 * email address
+	 */
+	@Override
+	public CompletableFuture<List<Optional<User>>> lookupUsersByEmail(final List<String> emails) {
+		return supply(() -> userDao.lookupUsersByEmail(emails));
+	}
+	
+	/**
+	 * Insert a new user whose password has already been hashed
+	 * 
+	 * @param user the user to insert
+	 * @param hashedPassword the hashed password to store for the user
+	 * @return the created user
+	 */
+	@Override
+	public CompletableFuture<User> insertUser(final User user, final String hashedPassword) {
+		return supply(() -> userDao.insertUser(user, hashedPassword));
+	}
+	
+	/**
+	 * Insert several new users whose passwords have already been hashed
+	 * 
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 */
+	@Override
+	public CompletableFuture<List<Optional<User>>> insertUsers(final List<User> users, final List<String> hashedPasswords) {
+		return supply(() -> userDao.insertUsers(users, hashedPasswords));
+	}
+	
+	/**
+	 * Replace a user's stored password hash, if it has not changed since it was read
+	 * 
+	 * @param uuid the user's UUID
+	 * @param currentHashedPassword the stored hash the replacement was computed against
+	 * @param newHashedPassword the replacement hash
+	 * @return true if the hash was replaced, false if the user no longer has the current hash
+	 */
+	@Override
+	public CompletableFuture<Boolean> updatePasswordHash(final UUID uuid, final String currentHashedPassword, final String newHashedPassword) {
+		return supply(() -> userDao.updatePasswordHash(uuid, currentHashedPassword, newHashedPassword));
+	}
+	
+	/**
+	 * Run a blocking DAO call on the executor
+	 * 
+	 * @param <T> result type
+	 * @param call the DAO call
+	 * @return the result of the call, completed exceptionally with whatever the call threw
+	 */
+	private <T> CompletableFuture<T> supply(final Callable<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(call.call());
+				} catch (final Exception e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+}
@@ -0,0 +1,48 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Normalized forms of email addresses used to store and find users, so an address
+ * matches however its letters are cased
+ *
+ */
+public final class EmailKeys {
+	
+	/**
+	 * Hash of normalized email addresses. A fingerprint, so its values never change
+	 * between releases and can be stored.
+	 */
+	private static final HashFunction EMAIL_HASH = Hashing.farmHashFingerprint64();
+	
+	/**
+	 * Not instantiable
+	 */
+	private EmailKeys() {
+	}
+	
+	/**
+	 * Normalize an email address
+	 * 
+	 * @param email the email address as entered
+	 * @return the address without surrounding whitespace, in lower case
+	 */
+	public static String normalize(final String email) {
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Hash a normalized email address. Different addresses may share a hash, so a match
+	 * on the hash must be confirmed on the normalized address.
+	 * 
+	 * @param normalizedEmail the normalized email address
+	 * @return the 64-bit hash
+	 */
+	public static long hash(final String normalizedEmail) {
+		return EMAIL_HASH.hashString(normalizedEmail, StandardCharsets.UTF_8).asLong();
+	}
+}
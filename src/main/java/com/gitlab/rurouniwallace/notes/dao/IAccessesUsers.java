@@ -1,6 +1,9 @@
 package com.gitlab.rurouniwallace.notes.dao;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationException;
 import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
@@ -31,4 +34,88 @@ public interface IAccessesUsers {
 	 * @throws DataAccessException error occurred accessing datasource
 	 */
 	public User registerUser(final User user)  throws DataAccessException;
+	
+	/**
+	 * Look up a user by their email address
+	 * 
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public Optional<User> lookupUserByEmail(final String email) throws DataAccessException;
+	
+	/**
+	 * Find a user by their UUID
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the user data, without a password, or empty if no user has the UUID
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public Optional<User> findByUuid(final UUID uuid) throws DataAccessException;
+	
+	/**
+	 * Find several users by their UUIDs
+	 * 
+	 * @param uuids the users' UUIDs
+	 * @return for each UUID, in order, the user data, without a password, or empty if no
+	 * user has the UUID
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public List<Optional<User>> findByUuids(final List<UUID> uuids) throws DataAccessException;
+	
+	/**
+	 * Look up several users by their email addresses
+	 * 
+	 * @param emails the users' email addresses
+	 * @return for each email address, in order, the user data, or empty if no user has the
+	 * email address
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public List<Optional<User>> lookupUsersByEmail(final List<String> emails) throws DataAccessException;
+	
+	/**
+	 * List users in UUID order, starting after a given UUID, passing each one on as it
+	 * is read
+	 * 
+	 * @param after the UUID to start after
+	 * @param limit the most users to list
+	 * @param receiver receives each user, without a password
+	 * @return the number of users listed
+	 * @throws DataAccessException error occurred accessing datasource
+	 * @throws IOException the receiver failed to pass a user on
+	 */
+	public int listUsers(final UUID after, final int limit, final IReceivesUsers receiver) throws DataAccessException, IOException;
+	
+	/**
+	 * Inserts a new user whose password has already been hashed
+	 * 
+	 * @param user the user to insert
+	 * @param hashedPassword the hashed password to store for the user
+	 * @return the created user
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public User insertUser(final User user, final String hashedPassword) throws DataAccessException;
+	
+	/**
+	 * Inserts several new users whose passwords have already been hashed, in chunked
+	 * transactions. A user whose email address is already registered does not fail the others.
+	 * 
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public List<Optional<User>> insertUsers(final List<User> users, final List<String> hashedPasswords) throws DataAccessException;
+	
+	/**
+	 * Replace a user's stored password hash, if it has not changed since it was read
+	 * 
+	 * @param uuid the user's UUID
+	 * @param currentHashedPassword the stored hash the replacement was computed against
+	 * @param newHashedPassword the replacement hash
+	 * @return true if the hash was replaced, false if the user no longer has the current hash
+	 * @throws DataAccessException error occurred accessing datasource
+	 */
+	public boolean updatePasswordHash(final UUID uuid, final String currentHashedPassword, final String newHashedPassword) throws DataAccessException;
 }
@@ -0,0 +1,98 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * Data access object that accesses user data without blocking the caller. Each call
+ * returns straight away, and its future completes with the result, or exceptionally with
+ * the exception the matching {@link IAccessesUsers} call would have thrown.
+ *
+ */
+public interface IAccessesUsersAsync {
+	
+	/**
+	 * Authenticate a user with their email and password
+	 * 
+	 * @param email user email address
+	 * @param password user password
+	 * @return the user data
+	 */
+	public CompletableFuture<User> authenticateUser(final String email, final String password);
+	
+	/**
+	 * Registers a new user
+	 * 
+	 * @param user the user to register
+	 * @return the created user
+	 */
+	public CompletableFuture<User> registerUser(final User user);
+	
+	/**
+	 * Look up a user by their email address
+	 * 
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 */
+	public CompletableFuture<Optional<User>> lookupUserByEmail(final String email);
+	
+	/**
+	 * Find a user by their UUID
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the user data, without a password, or empty if no user has the UUID
+	 */
+	public CompletableFuture<Optional<User>> findByUuid(final UUID uuid);
+	
+	/**
+	 * Find several users by their UUIDs
+	 * 
+	 * @param uuids the users' UUIDs
+	 * @return for each UUID, in order, the user data, without a password, or empty if no
+	 * user has the UUID
+	 */
+	public CompletableFuture<List<Optional<User>>> findByUuids(final List<UUID> uuids);
+	
+	/**
+	 * Look up several users by their email addresses
+	 * 
+	 * @param emails the users' email addresses
+	 * @return for each email address, in order, the user data, or empty if no user has the
+	 * email address
+	 */
+	public CompletableFuture<List<Optional<User>>> lookupUsersByEmail(final List<String> emails);
+	
+	/**
+	 * Inserts a new user whose password has already been hashed
+	 * 
+	 * @param user the user to insert
+	 * @param hashedPassword the hashed password to store for the user
+	 * @return the created user
+	 */
+	public CompletableFuture<User> insertUser(final User user, final String hashedPassword);
+	
+	/**
+	 * Inserts several new users whose passwords have already been hashed, in chunked
+	 * transactions. A user whose email address is already registered does not fail the others.
+	 * 
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 */
+	public CompletableFuture<List<Optional<User>>> insertUsers(final List<User> users, final List<String> hashedPasswords);
+	
+	/**
+	 * Replace a user's stored password hash, if it has not changed since it was read
+	 * 
+	 * @param uuid the user's UUID
+	 * @param currentHashedPassword the stored hash the replacement was computed against
+	 * @param newHashedPassword the replacement hash
+	 * @return true if the hash was replaced, false if the user no longer has the current hash
+	 */
+	public CompletableFuture<Boolean> updatePasswordHash(final UUID uuid, final String currentHashedPassword, final String newHashedPassword);
+}
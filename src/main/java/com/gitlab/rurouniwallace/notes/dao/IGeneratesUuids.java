@@ -0,0 +1,17 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.util.UUID;
+
+/**
+ * Generates UUIDs for new records
+ *
+ */
+public interface IGeneratesUuids {
+	
+	/**
+	 * Generate a UUID. Safe to call from any thread.
+	 * 
+	 * @return a new UUID
+	 */
+	public UUID generate();
+}
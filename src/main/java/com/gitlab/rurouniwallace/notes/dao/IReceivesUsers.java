@@ -0,0 +1,21 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.io.IOException;
+
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * Receives users one at a time as they are read, so large reads need not be held in memory
+ *
+ */
+@FunctionalInterface
+public interface IReceivesUsers {
+	
+	/**
+	 * Receive the next user
+	 * 
+	 * @param user the user, without a password
+	 * @throws IOException if passing the user on fails
+	 */
+	public void receive(final User user) throws IOException;
+}
@@ -0,0 +1,247 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.dbcp2.DelegatingConnection;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.gitlab.rurouniwallace.notes.health.ConnectionPoolStats;
+
+/**
+ * Pooling datasource that reports how long callers wait for a connection and how long
+ * they hold it, and logs where any connection held past a threshold was borrowed
+ *
+ */
+public class InstrumentedDataSource extends PoolingDataSource<PoolableConnection> {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedDataSource.class);
+	
+	/**
+	 * Name of the pool, used in metric names
+	 */
+	private final String poolName;
+	
+	/**
+	 * The underlying connection pool
+	 */
+	private final GenericObjectPool<PoolableConnection> pool;
+	
+	/**
+	 * How long a connection may be held before it is reported as leaked, in nanoseconds, or
+	 * zero if leak detection is disabled
+	 */
+	private final long leakThresholdNanos;
+	
+	/**
+	 * Connections currently borrowed, when leak detection is enabled
+	 */
+	private final Map<LeasedConnection, Boolean> leases = new ConcurrentHashMap<>();
+	
+	/**
+	 * Time spent waiting for a connection
+	 */
+	private final Timer borrowWait;
+	
+	/**
+	 * Time between borrowing a connection and returning it
+	 */
+	private final Timer timeToReturn;
+	
+	/**
+	 * Connections reported as leaked
+	 */
+	private final Meter leaks;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param poolName name of the pool, used in metric names
+	 * @param pool the underlying connection pool
+	 * @param leakThresholdMillis how long a connection may be held before it is reported as
+	 * leaked, or zero to disable leak detection
+	 * @param metrics registry to report pool metrics to
+	 */
+	public InstrumentedDataSource(final String poolName, final GenericObjectPool<PoolableConnection> pool, final long leakThresholdMillis, final MetricRegistry metrics) {
+		super(pool);
+		this.poolName = poolName;
+		this.pool = pool;
+		this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+		
+		this.borrowWait = metrics.timer(MetricRegistry.name(InstrumentedDataSource.class, poolName, "borrow-wait"));
+		this.timeToReturn = metrics.timer(MetricRegistry.name(InstrumentedDataSource.class, poolName, "time-to-return"));
+		this.leaks = metrics.meter(MetricRegistry.name(InstrumentedDataSource.class, poolName, "leaks"));
+		metrics.register(MetricRegistry.name(InstrumentedDataSource.class, poolName, "active"), (Gauge<Integer>) pool::getNumActive);
+		metrics.register(MetricRegistry.name(InstrumentedDataSource.class, poolName, "idle"), (Gauge<Integer>) pool::getNumIdle);
+		metrics.register(MetricRegistry.name(InstrumentedDataSource.class, poolName, "waiters"), (Gauge<Integer>) pool::getNumWaiters);
+		metrics.register(MetricRegistry.name(InstrumentedDataSource.class, poolName, "max-total"), (Gauge<Integer>) pool::getMaxTotal);
+	}
+	
+	/**
+	 * Borrow a connection from the pool
+	 *
+	 * @return the connection, which returns to the pool when closed
+	 * @throws SQLException if no connection could be borrowed
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		final long start = System.nanoTime();
+		final Connection connection;
+		try {
+			connection = super.getConnection();
+		} finally {
+			borrowWait.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		
+		final LeasedConnection lease = new LeasedConnection(connection);
+		if (isLeakDetectionEnabled()) {
+			leases.put(lease, Boolean.TRUE);
+		}
+		return lease;
+	}
+	
+	/**
+	 * @return true if connections held past a threshold are logged
+	 */
+	public boolean isLeakDetectionEnabled() {
+		return leakThresholdNanos > 0;
+	}
+	
+	/**
+	 * @return how long a connection may be held before it is reported as leaked, in milliseconds
+	 */
+	public long getLeakThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(leakThresholdNanos);
+	}
+	
+	/**
+	 * Log every connection held past the leak threshold, with the stack it was borrowed
+	 * from. Each connection is reported once.
+	 */
+	public void checkForLeaks() {
+		final long now = System.nanoTime();
+		for (final LeasedConnection lease : leases.keySet()) {
+			final long heldNanos = now - lease.borrowedAt;
+			if (heldNanos > leakThresholdNanos && !lease.reported) {
+				lease.reported = true;
+				leaks.mark();
+				LOGGER.warn("Connection from pool " + poolName + " held for " + TimeUnit.NANOSECONDS.toMillis(heldNanos)
+						+ " ms by thread " + lease.borrowerThread, lease.borrowStack);
+			}
+		}
+	}
+	
+	/**
+	 * @return a snapshot of the pool's usage
+	 */
+	public ConnectionPoolStats getStats() {
+		final ConnectionPoolStats stats = new ConnectionPoolStats();
+		stats.setActive(pool.getNumActive());
+		stats.setIdle(pool.getNumIdle());
+		stats.setWaiters(pool.getNumWaiters());
+		stats.setMaxTotal(pool.getMaxTotal());
+		stats.setLeaks(leaks.getCount());
+		
+		final Snapshot borrowWaitSnapshot = borrowWait.getSnapshot();
+		stats.setBorrowWaitMeanMillis(toMillis(borrowWaitSnapshot.getMean()));
+		stats.setBorrowWaitP99Millis(toMillis(borrowWaitSnapshot.get99thPercentile()));
+		
+		final Snapshot timeToReturnSnapshot = timeToReturn.getSnapshot();
+		stats.setTimeToReturnMeanMillis(toMillis(timeToReturnSnapshot.getMean()));
+		stats.setTimeToReturnP99Millis(toMillis(timeToReturnSnapshot.get99thPercentile()));
+		
+		return stats;
+	}
+	
+	/**
+	 * @return the name of the pool
+	 */
+	public String getPoolName() {
+		return poolName;
+	}
+	
+	/**
+	 * @param nanos a duration in nanoseconds
+	 * @return the duration in milliseconds
+	 */
+	private static double toMillis(final double nanos) {
+		return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	
+	/**
+	 * Borrowed connection that records how long it was held when it is returned
+	 */
+	private class LeasedConnection extends DelegatingConnection<Connection> {
+		
+		/**
+		 * When the connection was borrowed
+		 */
+		private final long borrowedAt = System.nanoTime();
+		
+		/**
+		 * Name of the borrowing thread, when leak detection is enabled
+		 */
+		private final String borrowerThread;
+		
+		/**
+		 * Where the connection was borrowed, when leak detection is enabled
+		 */
+		private final Throwable borrowStack;
+		
+		/**
+		 * Whether the connection has been reported as leaked
+		 */
+		private volatile boolean reported;
+		
+		/**
+		 * Whether the connection has been returned
+		 */
+		private boolean returned;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param connection the pooled connection
+		 */
+		LeasedConnection(final Connection connection) {
+			super(connection);
+			if (isLeakDetectionEnabled()) {
+				this.borrowerThread = Thread.currentThread().getName();
+				this.borrowStack = new Throwable("Connection borrowed here");
+			} else {
+				this.borrowerThread = null;
+				this.borrowStack = null;
+			}
+		}
+		
+		/**
+		 * Return the connection to the pool
+		 */
+		@Override
+		public void close() throws SQLException {
+			synchronized (this) {
+				if (!returned) {
+					returned = true;
+					timeToReturn.update(System.nanoTime() - borrowedAt, TimeUnit.NANOSECONDS);
+					leases.remove(this);
+				}
+			}
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.gitlab.rurouniwallace.notes.config.EmailFilterConfiguration;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Bloom filter over registered email addresses, so that lookups of email addresses that
+ * were never registered can be answered without a database connection. Until the filter
+ * has been built every email address might be registered.
+ */
+public class KnownEmailFilter {
+
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(KnownEmailFilter.class);
+	
+	/**
+	 * True if the filter is enabled
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Number of email addresses the filter is sized for
+	 */
+	private final long expectedInsertions;
+	
+	/**
+	 * False positive rate at the expected number of email addresses
+	 */
+	private final double falsePositiveRate;
+	
+	/**
+	 * Filter in use, or null until the first build completes
+	 */
+	private volatile BloomFilter<String> filter;
+	
+	/**
+	 * Filter being rebuilt, if any. Email addresses registered during a rebuild are added
+	 * to both filters.
+	 */
+	private volatile BloomFilter<String> pendingFilter;
+	
+	/**
+	 * Lookups answered by the filter alone
+	 */
+	private final Meter definiteMisses;
+	
+	/**
+	 * Lookups the filter let through for email addresses that weren't registered
+	 */
+	private final Meter falsePositives;
+	
+	/**
+	 * Filter rebuild times
+	 */
+	private final Timer rebuilds;
+	
+	/**
+	 * Construct a disabled instance
+	 */
+	public KnownEmailFilter() {
+		this(new EmailFilterConfiguration(), new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param configuration filter settings
+	 * @param metrics metrics registry to report filter statistics to
+	 */
+	public KnownEmailFilter(final EmailFilterConfiguration configuration, final MetricRegistry metrics) {
+		this.enabled = configuration.isEnabled();
+		this.expectedInsertions = configuration.getExpectedInsertions();
+		this.falsePositiveRate = configuration.getFalsePositiveRate();
+		
+		this.definiteMisses = metrics.meter(MetricRegistry.name(KnownEmailFilter.class, "definite-misses"));
+		this.falsePositives = metrics.meter(MetricRegistry.name(KnownEmailFilter.class, "false-positives"));
+		this.rebuilds = metrics.timer(MetricRegistry.name(KnownEmailFilter.class, "rebuilds"));
+		metrics.register(MetricRegistry.name(KnownEmailFilter.class, "expected-false-positive-rate"), (Gauge<Double>) () -> filter == null ? 1.0 : filter.expectedFpp());
+		metrics.register(MetricRegistry.name(KnownEmailFilter.class, "observed-false-positive-rate"), (Gauge<Double>) this::observedFalsePositiveRate);
+		metrics.register(MetricRegistry.name(KnownEmailFilter.class, "approximate-size"), (Gauge<Long>) () -> filter == null ? 0L : filter.approximateElementCount());
+	}
+	
+	/**
+	 * @return true if the filter is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Check whether an email address might be registered, however it is cased
+	 * 
+	 * @param email the email address
+	 * @return false if the email address is definitely not registered
+	 */
+	public boolean mightContain(final String email) {
+		final BloomFilter<String> currentFilter = filter;
+		
+		if (!enabled || currentFilter == null || currentFilter.mightContain(EmailKeys.normalize(email))) {
+			return true;
+		}
+		
+		definiteMisses.mark();
+		return false;
+	}
+	
+	/**
+	 * Record that the filter let through an email address that wasn't registered
+	 */
+	public void recordFalsePositive() {
+		if (enabled && filter != null) {
+			falsePositives.mark();
+		}
+	}
+	
+	/**
+	 * Add a newly registered email address
+	 * 
+	 * @param email the email address
+	 */
+	public void put(final String email) {
+		if (!enabled) {
+			return;
+		}
+		
+		final String normalizedEmail = EmailKeys.normalize(email);
+		final BloomFilter<String> currentFilter = filter;
+		if (currentFilter != null) {
+			currentFilter.put(normalizedEmail);
+		}
+		
+		final BloomFilter<String> rebuildingFilter = pendingFilter;
+		if (rebuildingFilter != null) {
+			rebuildingFilter.put(normalizedEmail);
+		}
+	}
+	
+	/**
+	 * Start rebuilding the filter. Every registered email address must be added to the
+	 * returned filter, normalized with {@link EmailKeys#normalize(String)}, before passing
+	 * it to {@link #completeRebuild(BloomFilter, long)}.
+	 * 
+	 * @return the empty filter to fill
+	 */
+	public BloomFilter<String> startRebuild() {
+		final BloomFilter<String> rebuildingFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falsePositiveRate);
+		pendingFilter = rebuildingFilter;
+		
+		return rebuildingFilter;
+	}
+	
+	/**
+	 * Start using a rebuilt filter
+	 * 
+	 * @param rebuiltFilter the filter, filled with every registered email address
+	 * @param elapsedNanos how long the rebuild took, in nanoseconds
+	 */
+	public void completeRebuild(final BloomFilter<String> rebuiltFilter, final long elapsedNanos) {
+		filter = rebuiltFilter;
+		pendingFilter = null;
+		rebuilds.update(elapsedNanos, TimeUnit.NANOSECONDS);
+		
+		LOGGER.info(String.format("Rebuilt known email filter with about %d email addresses in %d ms. Size: %d bits; expected false positive rate: %f",
+				rebuiltFilter.approximateElementCount(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), optimalBits(), rebuiltFilter.expectedFpp()));
+	}
+	
+	/**
+	 * Stop rebuilding the filter after the rebuild failed, so that new email addresses are
+	 * no longer added to the abandoned filter
+	 * 
+	 * @param rebuildingFilter the filter that was being rebuilt
+	 */
+	public void abandonRebuild(final BloomFilter<String> rebuildingFilter) {
+		if (pendingFilter == rebuildingFilter) {
+			pendingFilter = null;
+		}
+	}
+	
+	/**
+	 * Calculate the fraction of unregistered email addresses that the filter let through
+	 * 
+	 * @return the observed false positive rate
+	 */
+	private double observedFalsePositiveRate() {
+		final long unregistered = falsePositives.getCount() + definiteMisses.getCount();
+		
+		return unregistered == 0 ? 0.0 : (double) falsePositives.getCount() / unregistered;
+	}
+	
+	/**
+	 * Calculate the number of bits in the filter
+	 * 
+	 * @return the filter size, in bits
+	 */
+	private long optimalBits() {
+		return (long) (-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+	}
+}
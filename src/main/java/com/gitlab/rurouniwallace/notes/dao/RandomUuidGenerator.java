@@ -0,0 +1,20 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.util.UUID;
+
+/**
+ * Generates random (version 4) UUIDs. New keys land anywhere in an index on them.
+ *
+ */
+public class RandomUuidGenerator implements IGeneratesUuids {
+	
+	/**
+	 * Generate a random UUID
+	 * 
+	 * @return a new UUID
+	 */
+	@Override
+	public UUID generate() {
+		return UUID.randomUUID();
+	}
+}
@@ -0,0 +1,285 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp2.DelegatingConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Routes read-only work to the read replica with the fewest outstanding connections,
+ * falling back to the primary when no replica is healthy. A replica that fails is skipped
+ * until its retry interval passes, after which the next read probes it again.
+ *
+ * Per-replica latency is reported by each replica's own pool, as its time-to-return
+ * timer.
+ *
+ */
+public class ReplicaRouter {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRouter.class);
+	
+	/**
+	 * Source of connections to the primary database
+	 */
+	private final DataSource primary;
+	
+	/**
+	 * Read replicas, in configured order
+	 */
+	private final List<Replica> replicas;
+	
+	/**
+	 * How long a failed replica is skipped, in nanoseconds
+	 */
+	private final long retryNanos;
+	
+	/**
+	 * Reads sent to the primary because no replica was healthy
+	 */
+	private final Meter primaryFallbacks;
+	
+	/**
+	 * Construct an instance that sends every read to the primary
+	 *
+	 * @param primary source of connections to the primary database
+	 */
+	public ReplicaRouter(final DataSource primary) {
+		this(primary, Collections.emptyList(), 0, new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param primary source of connections to the primary database
+	 * @param replicaDataSources connection pools of the read replicas
+	 * @param retryMillis how long a failed replica is skipped, in milliseconds
+	 * @param metrics registry to report routing metrics to
+	 */
+	public ReplicaRouter(final DataSource primary, final List<InstrumentedDataSource> replicaDataSources, final long retryMillis, final MetricRegistry metrics) {
+		this.primary = primary;
+		this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+		this.primaryFallbacks = metrics.meter(MetricRegistry.name(ReplicaRouter.class, "primary-fallbacks"));
+		
+		final List<Replica> replicas = new ArrayList<>(replicaDataSources.size());
+		for (final InstrumentedDataSource dataSource : replicaDataSources) {
+			replicas.add(new Replica(dataSource, metrics));
+		}
+		this.replicas = Collections.unmodifiableList(replicas);
+	}
+	
+	/**
+	 * Borrow a connection for read-only work. Replicas are tried from the least busy to the
+	 * most busy, and the primary is used if none of them can hand out a connection.
+	 *
+	 * @return a connection to a replica, or to the primary
+	 * @throws SQLException if no connection could be borrowed from the primary either
+	 */
+	public Connection getReadConnection() throws SQLException {
+		final boolean[] tried = new boolean[replicas.size()];
+		for (int attempt = 0; attempt < replicas.size(); attempt++) {
+			final long now = System.nanoTime();
+			final int index = leastOutstanding(tried, now);
+			if (index < 0) {
+				break;
+			}
+			tried[index] = true;
+			
+			final Replica replica = replicas.get(index);
+			replica.outstanding.incrementAndGet();
+			try {
+				return new RoutedConnection(replica.dataSource.getConnection(), replica);
+			} catch (final SQLException e) {
+				replica.outstanding.decrementAndGet();
+				markFailed(replica, e);
+			}
+		}
+		
+		if (!replicas.isEmpty()) {
+			primaryFallbacks.mark();
+		}
+		return primary.getConnection();
+	}
+	
+	/**
+	 * Report that work on a connection from {@link #getReadConnection()} failed, so its
+	 * replica is skipped until its retry interval passes
+	 *
+	 * @param connection the connection the work failed on
+	 * @param cause why the work failed
+	 * @return true if the connection was to a replica, and the work can be retried on the primary
+	 */
+	public boolean reportFailure(final Connection connection, final Exception cause) {
+		if (!(connection instanceof RoutedConnection)) {
+			return false;
+		}
+		
+		markFailed(((RoutedConnection) connection).replica, cause);
+		return true;
+	}
+	
+	/**
+	 * @param connection a connection from {@link #getReadConnection()}
+	 * @return true if the connection is to a replica, which may lag behind the primary
+	 */
+	public boolean isReplica(final Connection connection) {
+		return connection instanceof RoutedConnection;
+	}
+	
+	/**
+	 * @return connection pools of the read replicas
+	 */
+	public List<InstrumentedDataSource> getReplicaDataSources() {
+		final List<InstrumentedDataSource> dataSources = new ArrayList<>(replicas.size());
+		for (final Replica replica : replicas) {
+			dataSources.add(replica.dataSource);
+		}
+		return dataSources;
+	}
+	
+	/**
+	 * Find the healthy replica with the fewest outstanding connections
+	 *
+	 * @param tried replicas already tried for this read
+	 * @param now current time, in nanoseconds
+	 * @return index of the replica, or -1 if there is none left to try
+	 */
+	private int leastOutstanding(final boolean[] tried, final long now) {
+		int best = -1;
+		int bestOutstanding = Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.size(); i++) {
+			final Replica replica = replicas.get(i);
+			if (tried[i] || !replica.isHealthy(now)) {
+				continue;
+			}
+			
+			final int outstanding = replica.outstanding.get();
+			if (outstanding < bestOutstanding) {
+				best = i;
+				bestOutstanding = outstanding;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Skip a replica until its retry interval passes
+	 *
+	 * @param replica the replica that failed
+	 * @param cause why it failed
+	 */
+	private void markFailed(final Replica replica, final Exception cause) {
+		replica.failures.mark();
+		replica.retryAt = System.nanoTime() + retryNanos;
+		replica.failed = true;
+		LOGGER.warn("Read replica " + replica.dataSource.getPoolName() + " failed, skipping it for "
+				+ TimeUnit.NANOSECONDS.toMillis(retryNanos) + " ms", cause);
+	}
+	
+	/**
+	 * A read replica and its routing state
+	 */
+	private static class Replica {
+		
+		/**
+		 * Connection pool of the replica
+		 */
+		private final InstrumentedDataSource dataSource;
+		
+		/**
+		 * Connections currently borrowed through the router
+		 */
+		private final AtomicInteger outstanding = new AtomicInteger();
+		
+		/**
+		 * Failed borrows and reads
+		 */
+		private final Meter failures;
+		
+		/**
+		 * Whether the replica has failed, so that retryAt applies
+		 */
+		private volatile boolean failed;
+		
+		/**
+		 * When the replica may be tried again after a failure, in nanoseconds
+		 */
+		private volatile long retryAt;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param dataSource connection pool of the replica
+		 * @param metrics registry to report replica metrics to
+		 */
+		Replica(final InstrumentedDataSource dataSource, final MetricRegistry metrics) {
+			this.dataSource = dataSource;
+			this.failures = metrics.meter(MetricRegistry.name(ReplicaRouter.class, dataSource.getPoolName(), "failures"));
+			metrics.register(MetricRegistry.name(ReplicaRouter.class, dataSource.getPoolName(), "outstanding"), (Gauge<Integer>) outstanding::get);
+		}
+		
+		/**
+		 * @param now current time, in nanoseconds
+		 * @return true if reads may be routed to the replica
+		 */
+		boolean isHealthy(final long now) {
+			return !failed || now - retryAt >= 0;
+		}
+	}
+	
+	/**
+	 * Connection to a replica that stops counting as outstanding once closed
+	 */
+	private static class RoutedConnection extends DelegatingConnection<Connection> {
+		
+		/**
+		 * The replica the connection belongs to
+		 */
+		private final Replica replica;
+		
+		/**
+		 * Whether the connection has been closed
+		 */
+		private boolean released;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param connection the replica connection
+		 * @param replica the replica the connection belongs to
+		 */
+		RoutedConnection(final Connection connection, final Replica replica) {
+			super(connection);
+			this.replica = replica;
+		}
+		
+		/**
+		 * Return the connection to the replica's pool
+		 */
+		@Override
+		public void close() throws SQLException {
+			synchronized (this) {
+				if (!released) {
+					released = true;
+					replica.outstanding.decrementAndGet();
+				}
+			}
+			super.close();
+		}
+	}
+}
@@ -1,29 +1,45 @@
 package com.gitlab.rurouniwallace.notes.dao;
 
+import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.dbutils.DbUtils;
 
+import com.google.common.hash.BloomFilter;
+
 import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
 import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationDeniedException;
 import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationException;
 import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
 import com.gitlab.rurouniwallace.notes.exceptions.EntityAlreadyExistsException;
 import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.security.BcryptPasswordHasher;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.VerifiedCredentialCache;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
 
-import org.bouncycastle.crypto.generators.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,14 +49,92 @@ import org.slf4j.LoggerFactory;
 public class SqlDao implements IAccessesUsers {
 	
 	/**
-	 * Query for retrieving users from the database by email
+	 * Query for retrieving users from the database by exact email, for rows whose email
+	 * hash hasn't been backfilled
 	 */
 	private static final String LOOKUP_USER_BY_EMAIL_STATEMENT = "SELECT * FROM Users WHERE email = ?";
 	
+	/**
+	 * Query for retrieving users from the database by normalized email, through the
+	 * index on its hash
+	 */
+	private static final String LOOKUP_USER_BY_EMAIL_HASH_STATEMENT = "SELECT * FROM Users WHERE emailHash = ? AND emailNormalized = ?";
+	
+	/**
+	 * Query for retrieving a user from the database by UUID
+	 */
+	private static final String FIND_USER_BY_UUID_STATEMENT = "SELECT * FROM Users WHERE uuid = ?";
+	
 	/**
 	 * Query for inserting users into the database
 	 */
-	private static final String INSERT_USER_STATEMENT = "INSERT INTO Users(uuid, email, password, phone, givenName, surname) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_USER_STATEMENT = "INSERT INTO Users(uuid, email, emailNormalized, emailHash, password, phone, givenName, surname) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	/**
+	 * Most users inserted in one transaction by a batch insert
+	 */
+	public static final int INSERT_CHUNK_SIZE = 100;
+	
+	/**
+	 * SQL state of a uniqueness constraint violation
+	 */
+	private static final String UNIQUE_VIOLATION_STATE = "23505";
+	
+	/**
+	 * Statement for replacing a password hash that has not changed since it was read
+	 */
+	private static final String UPDATE_PASSWORD_HASH_STATEMENT = "UPDATE Users SET password = ? WHERE uuid = ? AND password = ?";
+	
+	/**
+	 * Query for streaming every registered email address
+	 */
+	private static final String SELECT_ALL_EMAILS_STATEMENT = "SELECT email FROM Users";
+	
+	/**
+	 * Query for a page of users whose email hash hasn't been backfilled, after a given UUID
+	 */
+	private static final String SELECT_UNHASHED_EMAILS_STATEMENT = "SELECT uuid, email FROM Users WHERE emailHash IS NULL AND uuid > ? ORDER BY uuid LIMIT ?";
+	
+	/**
+	 * Statement for backfilling the normalized email and its hash of one user
+	 */
+	private static final String BACKFILL_EMAIL_HASH_STATEMENT = "UPDATE Users SET emailNormalized = ?, emailHash = ? WHERE uuid = ? AND emailHash IS NULL";
+	
+	/**
+	 * Rows fetched per round trip when streaming email addresses
+	 */
+	private static final int EMAIL_FETCH_SIZE = 10000;
+	
+	/**
+	 * Statement to find users by UUID; formatted with one placeholder per UUID
+	 */
+	private static final String FIND_USERS_BY_UUIDS_STATEMENT = "SELECT * FROM Users WHERE uuid IN (%s)";
+	
+	/**
+	 * Statement to find users by normalized email hash; formatted with one placeholder per hash
+	 */
+	private static final String LOOKUP_USERS_BY_EMAIL_HASHES_STATEMENT = "SELECT * FROM Users WHERE emailHash IN (%s)";
+	
+	/**
+	 * Statement to find users by exact email; formatted with one placeholder per email
+	 */
+	private static final String LOOKUP_USERS_BY_EMAILS_STATEMENT = "SELECT * FROM Users WHERE email IN (%s)";
+	
+	/**
+	 * Keys looked up per IN statement. A power of two, so that it is also the largest
+	 * statement bucket.
+	 */
+	private static final int LOOKUP_CHUNK_SIZE = 64;
+	
+	/**
+	 * Statement to list a page of users after a given UUID, without their passwords
+	 */
+	private static final String LIST_USERS_STATEMENT = "SELECT uuid, email, phone, givenName, surname FROM Users WHERE uuid > ? ORDER BY uuid LIMIT ?";
+	
+	/**
+	 * Rows fetched per round trip when listing users
+	 */
+	private static final int LIST_FETCH_SIZE = 500;
 	
 	/**
 	 * Event logger
@@ -48,15 +142,40 @@ public class SqlDao implements IAccessesUsers {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqlDao.class);
 	
 	/**
-	 * Security configurations
+	 * Password hashing algorithm
 	 */
-	private final SecurityConfiguration securityConfiguration;
+	private final IHashesPasswords passwordHasher;
+	
+	/**
+	 * Recently verified credentials
+	 */
+	private final VerifiedCredentialCache credentialCache;
+	
+	/**
+	 * Filter of registered email addresses
+	 */
+	private final KnownEmailFilter knownEmailFilter;
 	
 	/**
 	 * SQL connection pool
 	 */
 	private final DataSource datasource;
 	
+	/**
+	 * Router of read-only work to the read replicas
+	 */
+	private final ReplicaRouter replicaRouter;
+	
+	/**
+	 * Generator of the UUIDs of new users
+	 */
+	private final IGeneratesUuids uuidGenerator;
+	
+	/**
+	 * True once every user has an email hash, so lookups no longer fall back to the exact email
+	 */
+	private volatile boolean emailHashesBackfilled;
+	
 	/**
 	 * Construct a new instance
 	 * 
@@ -64,12 +183,80 @@ public class SqlDao implements IAccessesUsers {
 	 * @param securityConfiguration application security settings
 	 */
 	public SqlDao(final DataSource datasource, final SecurityConfiguration securityConfiguration) {
+		this(datasource, new BcryptPasswordHasher(securityConfiguration));
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param datasource SQL connection source
+	 * @param passwordHasher password hashing algorithm
+	 */
+	public SqlDao(final DataSource datasource, final IHashesPasswords passwordHasher) {
+		this(datasource, passwordHasher, new VerifiedCredentialCache());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param datasource SQL connection source
+	 * @param passwordHasher password hashing algorithm
+	 * @param credentialCache recently verified credentials, invalidated whenever a stored hash changes
+	 */
+	public SqlDao(final DataSource datasource, final IHashesPasswords passwordHasher, final VerifiedCredentialCache credentialCache) {
+		this(datasource, passwordHasher, credentialCache, new KnownEmailFilter());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param datasource SQL connection source
+	 * @param passwordHasher password hashing algorithm
+	 * @param credentialCache recently verified credentials, invalidated whenever a stored hash changes
+	 * @param knownEmailFilter filter of registered email addresses, updated on every insert
+	 */
+	public SqlDao(final DataSource datasource, final IHashesPasswords passwordHasher, final VerifiedCredentialCache credentialCache, final KnownEmailFilter knownEmailFilter) {
+		this(datasource, passwordHasher, credentialCache, knownEmailFilter, new ReplicaRouter(datasource));
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param datasource SQL connection source for the primary database
+	 * @param passwordHasher password hashing algorithm
+	 * @param credentialCache recently verified credentials, invalidated whenever a stored hash changes
+	 * @param knownEmailFilter filter of registered email addresses, updated on every insert
+	 * @param replicaRouter router of read-only work to the read replicas
+	 */
+	public SqlDao(final DataSource datasource, final IHashesPasswords passwordHasher, final VerifiedCredentialCache credentialCache, final KnownEmailFilter knownEmailFilter,
+			final ReplicaRouter replicaRouter) {
+		this(datasource, passwordHasher, credentialCache, knownEmailFilter, replicaRouter, new RandomUuidGenerator());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param datasource SQL connection source for the primary database
+	 * @param passwordHasher password hashing algorithm
+	 * @param credentialCache recently verified credentials, invalidated whenever a stored hash changes
+	 * @param knownEmailFilter filter of registered email addresses, updated on every insert
+	 * @param replicaRouter router of read-only work to the read replicas
+	 * @param uuidGenerator generator of the UUIDs of new users
+	 */
+	public SqlDao(final DataSource datasource, final IHashesPasswords passwordHasher, final VerifiedCredentialCache credentialCache, final KnownEmailFilter knownEmailFilter,
+			final ReplicaRouter replicaRouter, final IGeneratesUuids uuidGenerator) {
 		this.datasource = datasource;
-		this.securityConfiguration = securityConfiguration;
+		this.passwordHasher = passwordHasher;
+		this.credentialCache = credentialCache;
+		this.knownEmailFilter = knownEmailFilter;
+		this.replicaRouter = replicaRouter;
+		this.uuidGenerator = uuidGenerator;
 	}
 
 	/**
-	 * Authenticate a user with their email and password
+	 * Authenticate a user with their email and password. Recently verified credentials are
+	 * accepted without a lookup or hash. Otherwise the database connection is released
+	 * before the password hash is checked.
 	 * 
 	 * @param email user email address
 	 * @param password user password
@@ -79,32 +266,31 @@ public class SqlDao implements IAccessesUsers {
 	 */
 	@Override
 	public User authenticateUser(final String email, final String password) throws DataAccessException, AuthenticationException {
-		final Connection connection = buildConnection();
+		final Optional<User> verifiedUser = credentialCache.getVerifiedUser(email, password);
+		if (verifiedUser.isPresent()) {
+			return verifiedUser.get();
+		}
 		
-		final ResultSet resultSet = runStatement(connection, LOOKUP_USER_BY_EMAIL_STATEMENT, Arrays.asList(email), true);
+		final Optional<User> userFromDatabase = lookupUserByEmail(email);
 		
-		final List<User> users = readUsersFromResultSet(resultSet);
-		
-		if (users.isEmpty()) {
-			DbUtils.closeQuietly(connection);
+		if (!userFromDatabase.isPresent()) {
 			throw new AuthenticationDeniedException("User not found");
 		}
 		
-		final User userFromDatabase = users.get(0);
-		
-		final String hashedPassword = userFromDatabase.getPassword();
-		if (!checkPassword(password, hashedPassword)) {
-			DbUtils.closeQuietly(connection);
+		final String hashedPassword = userFromDatabase.get().getPassword();
+		final long hashStart = System.nanoTime();
+		if (!passwordHasher.checkPassword(password, hashedPassword)) {
 			throw new AuthenticationDeniedException("Passwords don't match");
 		}
 		
-		DbUtils.closeQuietly(connection);
+		credentialCache.putVerifiedUser(userFromDatabase.get(), password, System.nanoTime() - hashStart);
 		
-		return userFromDatabase;
+		return userFromDatabase.get();
 	}
 	
 	/**
-	 * Submit a user to the database to be registered
+	 * Submit a user to the database to be registered. The password is hashed before a
+	 * database connection is acquired.
 	 * 
 	 * @param user the user to register
 	 * @return the registered user payload
@@ -112,13 +298,451 @@ public class SqlDao implements IAccessesUsers {
 	 */
 	@Override
 	public User registerUser(final User user) throws DataAccessException {
+		final String hashedPassword;
+		try {
+			hashedPassword = passwordHasher.hashPassword(user.getPassword());
+		} catch (final GeneralSecurityException e) {
+			throw new DataAccessException("Failed to hash password", e);
+		}
+		
+		return insertUser(user, hashedPassword);
+	}
+	
+	/**
+	 * Look up a user by their email address. Email addresses that were never registered
+	 * are answered by the known email filter, without a database connection. The lookup
+	 * runs on a read replica when one is healthy. It is retried on the primary if the
+	 * replica fails, or if the replica has no such user, since the user may have been
+	 * registered since the replica last caught up.
+	 * 
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	@Override
+	public Optional<User> lookupUserByEmail(final String email) throws DataAccessException {
+		if (!knownEmailFilter.mightContain(email)) {
+			return Optional.empty();
+		}
+		
+		final Optional<User> user = lookupUserByEmailOnReadConnection(email);
+		if (!user.isPresent()) {
+			knownEmailFilter.recordFalsePositive();
+		}
+		
+		return user;
+	}
+	
+	/**
+	 * Look up a user by their email address on a read replica, falling back to the primary
+	 * 
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	private Optional<User> lookupUserByEmailOnReadConnection(final String email) throws DataAccessException {
+		final Connection connection = buildReadConnection();
+		
+		try {
+			final Optional<User> user = lookupUserByEmail(connection, email);
+			if (user.isPresent() || !replicaRouter.isReplica(connection)) {
+				return user;
+			}
+		} catch (final DataAccessException e) {
+			if (!replicaRouter.reportFailure(connection, e)) {
+				throw e;
+			}
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+		
+		final Connection primaryConnection = buildConnection();
+		try {
+			return lookupUserByEmail(primaryConnection, email);
+		} finally {
+			DbUtils.closeQuietly(primaryConnection);
+		}
+	}
+	
+	/**
+	 * Find a user by their UUID. The lookup runs on a read replica when one is healthy. It
+	 * is retried on the primary if the replica fails, or if the replica has no such user,
+	 * since the user may have been registered since the replica last caught up.
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the user data, without a password, or empty if no user has the UUID
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	@Override
+	public Optional<User> findByUuid(final UUID uuid) throws DataAccessException {
+		final Connection connection = buildReadConnection();
+		
+		try {
+			final Optional<User> user = findByUuid(connection, uuid);
+			if (user.isPresent() || !replicaRouter.isReplica(connection)) {
+				return user;
+			}
+		} catch (final DataAccessException e) {
+			if (!replicaRouter.reportFailure(connection, e)) {
+				throw e;
+			}
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+		
+		final Connection primaryConnection = buildConnection();
+		try {
+			return findByUuid(primaryConnection, uuid);
+		} finally {
+			DbUtils.closeQuietly(primaryConnection);
+		}
+	}
+	
+	/**
+	 * Find a user by their UUID on a given connection
+	 * 
+	 * @param connection the database connection to run the lookup on
+	 * @param uuid the user's UUID
+	 * @return the user data, without a password, or empty if no user has the UUID
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	private Optional<User> findByUuid(final Connection connection, final UUID uuid) throws DataAccessException {
+		final ResultSet resultSet = runStatement(connection, FIND_USER_BY_UUID_STATEMENT, Arrays.asList(uuid), true);
+		
+		final List<User> users = readUsersFromResultSet(resultSet);
+		if (users.isEmpty()) {
+			return Optional.empty();
+		}
+		
+		final User user = users.get(0);
+		user.setPassword(null);
+		return Optional.of(user);
+	}
+	
+	/**
+	 * Find several users by UUID. The lookup runs on a read replica when one is healthy.
+	 * UUIDs the replica has no user for are retried on the primary, as are all of them if
+	 * the replica fails.
+	 * 
+	 * @param uuids the users' UUIDs
+	 * @return for each UUID, in order, the user data, without a password, or empty if no
+	 * user has the UUID
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	@Override
+	public List<Optional<User>> findByUuids(final List<UUID> uuids) throws DataAccessException {
+		final List<UUID> distinctUuids = uuids.stream().distinct().collect(Collectors.toList());
+		final Map<UUID, User> foundUsers = new HashMap<>();
+		
+		final Connection connection = buildReadConnection();
+		boolean retryOnPrimary;
+		try {
+			for (final User user : selectUsersIn(connection, FIND_USERS_BY_UUIDS_STATEMENT, distinctUuids)) {
+				foundUsers.put(user.getUuid(), user);
+			}
+			retryOnPrimary = foundUsers.size() < distinctUuids.size() && replicaRouter.isReplica(connection);
+		} catch (final DataAccessException e) {
+			if (!replicaRouter.reportFailure(connection, e)) {
+				throw e;
+			}
+			retryOnPrimary = true;
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+		
+		if (retryOnPrimary) {
+			final List<UUID> missingUuids = distinctUuids.stream().filter(uuid -> !foundUsers.containsKey(uuid)).collect(Collectors.toList());
+			final Connection primaryConnection = buildConnection();
+			try {
+				for (final User user : selectUsersIn(primaryConnection, FIND_USERS_BY_UUIDS_STATEMENT, missingUuids)) {
+					foundUsers.put(user.getUuid(), user);
+				}
+			} finally {
+				DbUtils.closeQuietly(primaryConnection);
+			}
+		}
+		
+		final List<Optional<User>> results = new ArrayList<>(uuids.size());
+		for (final UUID uuid : uuids) {
+			results.add(Optional.ofNullable(foundUsers.get(uuid)));
+		}
+		for (final User user : foundUsers.values()) {
+			user.setPassword(null);
+		}
+		return results;
+	}
+	
+	/**
+	 * Look up several users by email address. Email addresses that were never registered
+	 * are answered by the known email filter. The lookup runs on a read replica when one
+	 * is healthy. Email addresses the replica has no user for are retried on the primary,
+	 * as are all of them if the replica fails.
+	 * 
+	 * @param emails the users' email addresses
+	 * @return for each email address, in order, the user data, or empty if no user has the
+	 * email address
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	@Override
+	public List<Optional<User>> lookupUsersByEmail(final List<String> emails) throws DataAccessException {
+		final Map<String, String> candidateEmails = new LinkedHashMap<>();
+		for (final String email : emails) {
+			if (knownEmailFilter.mightContain(email)) {
+				candidateEmails.putIfAbsent(EmailKeys.normalize(email), email);
+			}
+		}
+		
+		final Map<String, User> foundUsers = new HashMap<>();
+		final Connection connection = buildReadConnection();
+		boolean retryOnPrimary;
+		try {
+			foundUsers.putAll(lookupUsersByEmail(connection, candidateEmails));
+			retryOnPrimary = foundUsers.size() < candidateEmails.size() && replicaRouter.isReplica(connection);
+		} catch (final DataAccessException e) {
+			if (!replicaRouter.reportFailure(connection, e)) {
+				throw e;
+			}
+			retryOnPrimary = true;
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+		
+		if (retryOnPrimary) {
+			final Map<String, String> missingEmails = new LinkedHashMap<>(candidateEmails);
+			missingEmails.keySet().removeAll(foundUsers.keySet());
+			final Connection primaryConnection = buildConnection();
+			try {
+				foundUsers.putAll(lookupUsersByEmail(primaryConnection, missingEmails));
+			} finally {
+				DbUtils.closeQuietly(primaryConnection);
+			}
+		}
+		
+		for (final String normalizedEmail : candidateEmails.keySet()) {
+			if (!foundUsers.containsKey(normalizedEmail)) {
+				knownEmailFilter.recordFalsePositive();
+			}
+		}
+		
+		final List<Optional<User>> results = new ArrayList<>(emails.size());
+		for (final String email : emails) {
+			results.add(Optional.ofNullable(foundUsers.get(EmailKeys.normalize(email))));
+		}
+		return results;
+	}
+	
+	/**
+	 * Look up several users by email address on a given connection. Users are found by the
+	 * hashes of their normalized emails, confirmed on the normalized emails themselves;
+	 * until every hash has been backfilled, misses are retried on the exact emails.
+	 * 
+	 * @param connection the database connection to run the lookup on
+	 * @param emails the email addresses as given, keyed by normalized email address
+	 * @return the users found, keyed by normalized email address
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	private Map<String, User> lookupUsersByEmail(final Connection connection, final Map<String, String> emails) throws DataAccessException {
+		final List<Long> emailHashes = emails.keySet().stream().map(EmailKeys::hash).distinct().collect(Collectors.toList());
+		
+		final Map<String, User> foundUsers = new HashMap<>();
+		for (final User user : selectUsersIn(connection, LOOKUP_USERS_BY_EMAIL_HASHES_STATEMENT, emailHashes)) {
+			final String normalizedEmail = EmailKeys.normalize(user.getEmail());
+			if (emails.containsKey(normalizedEmail)) {
+				foundUsers.put(normalizedEmail, user);
+			}
+		}
+		
+		if (foundUsers.size() < emails.size() && !emailHashesBackfilled) {
+			final List<String> missingEmails = emails.entrySet().stream()
+					.filter(email -> !foundUsers.containsKey(email.getKey()))
+					.map(Map.Entry::getValue)
+					.collect(Collectors.toList());
+			for (final User user : selectUsersIn(connection, LOOKUP_USERS_BY_EMAILS_STATEMENT, missingEmails)) {
+				foundUsers.put(EmailKeys.normalize(user.getEmail()), user);
+			}
+		}
+		return foundUsers;
+	}
+	
+	/**
+	 * Select the users whose column matches any of a list of keys, {@value #LOOKUP_CHUNK_SIZE}
+	 * keys per statement. Each chunk is padded up to the next power of two by repeating its
+	 * last key, so that lookups of any size share a handful of statement texts. Each
+	 * statement is prepared once per call and reused for every chunk of its size, and the
+	 * fixed set of texts lets the driver and the statement pool reuse their plans.
+	 * 
+	 * @param connection the database connection to run the lookup on
+	 * @param statementTemplate the statement, with a %s where the IN placeholders go
+	 * @param keys the keys to look up, without duplicates
+	 * @return the users found
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	private List<User> selectUsersIn(final Connection connection, final String statementTemplate, final List<?> keys) throws DataAccessException {
+		final List<User> users = new ArrayList<>(keys.size());
+		final Map<Integer, PreparedStatement> statementsByArity = new HashMap<>();
+		try {
+			for (int start = 0; start < keys.size(); start += LOOKUP_CHUNK_SIZE) {
+				final List<?> chunk = keys.subList(start, Math.min(keys.size(), start + LOOKUP_CHUNK_SIZE));
+				// the smallest power of two that holds the chunk
+				final int arity = Integer.highestOneBit(chunk.size() * 2 - 1);
+				
+				PreparedStatement statement = statementsByArity.get(arity);
+				if (statement == null) {
+					statement = connection.prepareStatement(String.format(statementTemplate, String.join(", ", Collections.nCopies(arity, "?"))));
+					applyDeadline(statement);
+					statementsByArity.put(arity, statement);
+				}
+				
+				for (int i = 0; i < arity; i++) {
+					setBoundVariable(statement, i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+				}
+				users.addAll(readUsersFromResultSet(statement.executeQuery()));
+			}
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			throw new DataAccessException("Failed to look up users", e);
+		} finally {
+			for (final PreparedStatement statement : statementsByArity.values()) {
+				DbUtils.closeQuietly(statement);
+			}
+		}
+		return users;
+	}
+	
+	/**
+	 * Look up a user by their email address on a given connection. Users are found by the
+	 * hash of their normalized email, confirmed on the normalized email itself; until every
+	 * hash has been backfilled, a miss is retried on the exact email.
+	 * 
+	 * @param connection the database connection to run the lookup on
+	 * @param email user email address
+	 * @return the user data, or empty if no user has the email address
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	private Optional<User> lookupUserByEmail(final Connection connection, final String email) throws DataAccessException {
+		final String normalizedEmail = EmailKeys.normalize(email);
+		final ResultSet resultSet = runStatement(connection, LOOKUP_USER_BY_EMAIL_HASH_STATEMENT, Arrays.asList(EmailKeys.hash(normalizedEmail), normalizedEmail), true);
+		
+		List<User> users = readUsersFromResultSet(resultSet);
+		
+		if (users.isEmpty() && !emailHashesBackfilled) {
+			final ResultSet legacyResultSet = runStatement(connection, LOOKUP_USER_BY_EMAIL_STATEMENT, Arrays.asList(email), true);
+			users = readUsersFromResultSet(legacyResultSet);
+		}
+		
+		if (users.isEmpty()) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(users.get(0));
+	}
+	
+	/**
+	 * List users in UUID order, starting after a given UUID. Users are read on a read
+	 * connection with a bounded fetch size and passed on one row at a time, so memory use
+	 * does not grow with the page size. Pages are keyed on the UUID rather than skipped to
+	 * with an offset, so later pages cost the same as the first. The listing is retried on
+	 * the primary if the replica fails before any user has been passed on.
+	 * 
+	 * @param after the UUID to start after
+	 * @param limit the most users to list
+	 * @param receiver receives each user, without a password
+	 * @return the number of users listed
+	 * @throws DataAccessException if reading the users fails
+	 * @throws IOException if the receiver fails to pass a user on
+	 */
+	@Override
+	public int listUsers(final UUID after, final int limit, final IReceivesUsers receiver) throws DataAccessException, IOException {
+		final AtomicInteger received = new AtomicInteger();
+		final Connection connection = buildReadConnection();
+		try {
+			return listUsers(connection, after, limit, user -> {
+				receiver.receive(user);
+				received.incrementAndGet();
+			});
+		} catch (final DataAccessException e) {
+			// users already passed on cannot be taken back, so only a listing that has not started is retried
+			if (!replicaRouter.reportFailure(connection, e) || received.get() > 0) {
+				throw e;
+			}
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+		
+		final Connection primaryConnection = buildConnection();
+		try {
+			return listUsers(primaryConnection, after, limit, receiver);
+		} finally {
+			DbUtils.closeQuietly(primaryConnection);
+		}
+	}
+	
+	/**
+	 * List users in UUID order, starting after a given UUID, on a given connection
+	 * 
+	 * @param connection the database connection to list users on
+	 * @param after the UUID to start after
+	 * @param limit the most users to list
+	 * @param receiver receives each user, without a password
+	 * @return the number of users listed
+	 * @throws DataAccessException if reading the users fails
+	 * @throws IOException if the receiver fails to pass a user on
+	 */
+	private int listUsers(final Connection connection, final UUID after, final int limit, final IReceivesUsers receiver) throws DataAccessException, IOException {
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		int listed = 0;
+		try {
+			// some drivers, PostgreSQL among them, only honour the fetch size inside a
+			// transaction; the pool restores auto-commit when the connection is returned
+			connection.setAutoCommit(false);
+			statement = connection.prepareStatement(LIST_USERS_STATEMENT, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(Math.min(limit, LIST_FETCH_SIZE));
+			statement.setObject(1, after);
+			statement.setInt(2, limit);
+			
+			resultSet = statement.executeQuery();
+			while (resultSet.next()) {
+				final User user = new User();
+				user.setUuid((UUID) resultSet.getObject("uuid"));
+				user.setEmail(resultSet.getString("email"));
+				user.setPhone(resultSet.getString("phone"));
+				user.setGivenName(resultSet.getString("givenName"));
+				user.setSurname(resultSet.getString("surname"));
+				
+				receiver.receive(user);
+				listed++;
+			}
+			connection.commit();
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			throw new DataAccessException("Failed to list users", e);
+		} finally {
+			DbUtils.closeQuietly(resultSet);
+			DbUtils.closeQuietly(statement);
+		}
+		
+		return listed;
+	}
+	
+	/**
+	 * Insert a user whose password has already been hashed
+	 * 
+	 * @param user the user to insert
+	 * @param hashedPassword the hashed password to store for the user
+	 * @return the inserted user, without a password
+	 * @throws DataAccessException if adding the user to the database fails
+	 */
+	@Override
+	public User insertUser(final User user, final String hashedPassword) throws DataAccessException {
 		
 		final Connection connection = buildConnection();
 		
-		final UUID uuid = UUID.randomUUID();
+		final UUID uuid = uuidGenerator.generate();
 		
 		try {
-			runStatement(connection, INSERT_USER_STATEMENT, Arrays.asList(uuid, user.getEmail(), hashPassword(user.getPassword()), user.getPhone(), user.getGivenName(), user.getSurname()), false, new IHandlesSqlErrors() {
+			final String normalizedEmail = EmailKeys.normalize(user.getEmail());
+			runStatement(connection, INSERT_USER_STATEMENT, Arrays.asList(uuid, user.getEmail(), normalizedEmail, EmailKeys.hash(normalizedEmail), hashedPassword, user.getPhone(), user.getGivenName(), user.getSurname()), false, new IHandlesSqlErrors() {
 
 				/**
 				 * Check for the SQL state to see if  a uniqueness constraint was violated
@@ -133,12 +757,13 @@ public class SqlDao implements IAccessesUsers {
 
 				}
 			});
-		}catch (final GeneralSecurityException e) {
-			throw new DataAccessException("Failed to hash password", e);
 		} finally {
 			DbUtils.closeQuietly(connection);
 		}
 		
+		credentialCache.invalidate(user.getEmail());
+		knownEmailFilter.put(user.getEmail());
+		
 		final User createdUser = new User(user);
 		createdUser.setUuid(uuid);
 		
@@ -147,46 +772,341 @@ public class SqlDao implements IAccessesUsers {
 		
 		return createdUser;
 	}
-	
+
 	/**
-	 * Hash a password using the Blowfish cipher, random salt, and a configured cost factor
+	 * Inserts several new users whose passwords have already been hashed. Each chunk of
+	 * users is inserted with one JDBC batch in its own transaction. If the batch hits an
+	 * email address that is already registered, the chunk is rolled back and retried one
+	 * row at a time, with a savepoint per row, so only the duplicates are skipped.
 	 * 
-	 * @param password the password to hash
-	 * @return the hashed value, with the cost factor and salt appended
-	 * @throws GeneralSecurityException if generating the hash fails
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 * @throws DataAccessException error occurred accessing database
 	 */
-	private String hashPassword(final String password) throws GeneralSecurityException {
-		
-		final byte[] salt = new byte[16];
-		
-		SecureRandom.getInstanceStrong().nextBytes(salt);
-		
-		final int cost = securityConfiguration.getHashCost();
-		
-		final String hash = Base64.getEncoder().encodeToString(BCrypt.generate(password.getBytes(), salt, securityConfiguration.getHashCost()));
+	@Override
+	public List<Optional<User>> insertUsers(final List<User> users, final List<String> hashedPasswords) throws DataAccessException {
+		final List<Optional<User>> createdUsers = new ArrayList<>(users.size());
+		for (int start = 0; start < users.size(); start += INSERT_CHUNK_SIZE) {
+			final int end = Math.min(start + INSERT_CHUNK_SIZE, users.size());
+			final List<Optional<User>> createdChunk = insertUserChunk(users.subList(start, end), hashedPasswords.subList(start, end));
+			
+			// the chunk is committed, so its users can log in even if a later chunk fails
+			for (final Optional<User> createdUser : createdChunk) {
+				if (createdUser.isPresent()) {
+					credentialCache.invalidate(createdUser.get().getEmail());
+					knownEmailFilter.put(createdUser.get().getEmail());
+				}
+			}
+			createdUsers.addAll(createdChunk);
+		}
 		
-		return String.format("$%s$%s$%s", cost, Base64.getEncoder().encodeToString(salt), hash);
+		return createdUsers;
 	}
 	
 	/**
-	 * Check a user's password against a hashed password entry from the database
+	 * Insert one chunk of users in a single transaction
 	 * 
-	 * @param password user password entered
-	 * @param hashedPassword hashed password from database
-	 * @return true if passwords match, false if not
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @return for each user, in order, the created user, or empty if a user with the email
+	 * address already exists
+	 * @throws DataAccessException error occurred accessing database
 	 */
-	private boolean checkPassword(final String password, final String hashedPassword) {
-		final String[] parts = hashedPassword.split("\\$");
+	private List<Optional<User>> insertUserChunk(final List<User> users, final List<String> hashedPasswords) throws DataAccessException {
+		final List<UUID> uuids = new ArrayList<>(users.size());
+		for (int i = 0; i < users.size(); i++) {
+			uuids.add(uuidGenerator.generate());
+		}
 		
-		final int cost = Integer.parseInt(parts[1]);
+		final Connection connection = buildConnection();
+		PreparedStatement statement = null;
+		try {
+			connection.setAutoCommit(false);
+			statement = connection.prepareStatement(INSERT_USER_STATEMENT);
+			applyDeadline(statement);
+			
+			List<Boolean> inserted;
+			try {
+				for (int i = 0; i < users.size(); i++) {
+					bindInsertUser(statement, uuids.get(i), users.get(i), hashedPasswords.get(i));
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				inserted = Collections.nCopies(users.size(), Boolean.TRUE);
+			} catch (final BatchUpdateException e) {
+				if (!isUniqueViolation(e)) {
+					throw e;
+				}
+				
+				connection.rollback();
+				statement.clearBatch();
+				inserted = insertUsersOneAtATime(connection, statement, users, hashedPasswords, uuids);
+			}
+			
+			connection.commit();
+			
+			final List<Optional<User>> createdUsers = new ArrayList<>(users.size());
+			for (int i = 0; i < users.size(); i++) {
+				if (inserted.get(i)) {
+					final User createdUser = new User(users.get(i));
+					createdUser.setUuid(uuids.get(i));
+					
+					// for security purposes, don't return the user's password
+					createdUser.setPassword(null);
+					createdUsers.add(Optional.of(createdUser));
+				} else {
+					createdUsers.add(Optional.empty());
+				}
+			}
+			return createdUsers;
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			try {
+				connection.rollback();
+			} catch (final SQLException rollbackError) {
+				e.addSuppressed(rollbackError);
+			}
+			throw new DataAccessException("Failed to insert users", e);
+		} finally {
+			DbUtils.closeQuietly(statement);
+			try {
+				connection.setAutoCommit(true);
+			} catch (final SQLException e) {
+				LOGGER.warn("Failed to restore auto-commit on pooled connection", e);
+			}
+			DbUtils.closeQuietly(connection);
+		}
+	}
+	
+	/**
+	 * Insert users one row at a time within the current transaction, skipping rows whose
+	 * email address is already registered
+	 * 
+	 * @param connection connection with an open transaction
+	 * @param statement prepared insert statement
+	 * @param users the users to insert
+	 * @param hashedPasswords the hashed password to store for each user, in the same order
+	 * @param uuids the UUID to assign each user, in the same order
+	 * @return for each user, in order, whether it was inserted
+	 * @throws SQLException if any insert fails for another reason
+	 */
+	private List<Boolean> insertUsersOneAtATime(final Connection connection, final PreparedStatement statement, final List<User> users,
+			final List<String> hashedPasswords, final List<UUID> uuids) throws SQLException {
+		final List<Boolean> inserted = new ArrayList<>(users.size());
+		for (int i = 0; i < users.size(); i++) {
+			final Savepoint savepoint = connection.setSavepoint();
+			try {
+				bindInsertUser(statement, uuids.get(i), users.get(i), hashedPasswords.get(i));
+				statement.executeUpdate();
+				connection.releaseSavepoint(savepoint);
+				inserted.add(Boolean.TRUE);
+			} catch (final SQLException e) {
+				if (!isUniqueViolation(e)) {
+					throw e;
+				}
+				// rolling back to a savepoint ends it on some drivers, so it isn't released here
+				connection.rollback(savepoint);
+				inserted.add(Boolean.FALSE);
+			}
+		}
+		return inserted;
+	}
+	
+	/**
+	 * Bind a user's values to the insert statement
+	 * 
+	 * @param statement prepared insert statement
+	 * @param uuid the UUID to assign the user
+	 * @param user the user to insert
+	 * @param hashedPassword the hashed password to store for the user
+	 * @throws SQLException if binding fails
+	 */
+	private void bindInsertUser(final PreparedStatement statement, final UUID uuid, final User user, final String hashedPassword) throws SQLException {
+		final String normalizedEmail = EmailKeys.normalize(user.getEmail());
+		final List<Object> boundData = Arrays.asList(uuid, user.getEmail(), normalizedEmail, EmailKeys.hash(normalizedEmail), hashedPassword, user.getPhone(), user.getGivenName(), user.getSurname());
+		int parameterIndex = 1;
+		for (final Object boundVar : boundData) {
+			setBoundVariable(statement, parameterIndex, boundVar);
+			parameterIndex++;
+		}
+	}
+	
+	/**
+	 * Check whether an exception, or any exception chained to it, is a uniqueness
+	 * constraint violation
+	 * 
+	 * @param e the exception to check
+	 * @return true if a uniqueness constraint was violated
+	 */
+	private static boolean isUniqueViolation(final SQLException e) {
+		for (SQLException current = e; current != null; current = current.getNextException()) {
+			if (UNIQUE_VIOLATION_STATE.equals(current.getSQLState())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Replace a user's stored password hash, if it has not changed since it was read. Used to
+	 * move hashes to new parameters after a successful login, so losing a race with a
+	 * password change simply keeps the newer hash. Verified credentials of the user are
+	 * forgotten once the hash is replaced.
+	 * 
+	 * @param uuid the user's UUID
+	 * @param currentHashedPassword the stored hash the replacement was computed against
+	 * @param newHashedPassword the replacement hash
+	 * @return true if the hash was replaced, false if the user no longer has the current hash
+	 * @throws DataAccessException error occurred accessing database
+	 */
+	@Override
+	public boolean updatePasswordHash(final UUID uuid, final String currentHashedPassword, final String newHashedPassword) throws DataAccessException {
+		final Connection connection = buildConnection();
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement(UPDATE_PASSWORD_HASH_STATEMENT);
+			applyDeadline(statement);
+			statement.setString(1, newHashedPassword);
+			statement.setObject(2, uuid);
+			statement.setString(3, currentHashedPassword);
+			
+			final boolean updated = statement.executeUpdate() > 0;
+			if (updated) {
+				credentialCache.invalidate(uuid);
+			}
+			return updated;
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			throw new DataAccessException("Failed to update password hash", e);
+		} finally {
+			DbUtils.closeQuietly(statement);
+			DbUtils.closeQuietly(connection);
+		}
+	}
+	
+	/**
+	 * Rebuild the known email filter by streaming every registered email address from the
+	 * primary. A replica may not have replayed a registration yet, and one committed before
+	 * the rebuild started is only in the old filter, so the rebuilt filter would lose it.
+	 * 
+	 * @throws DataAccessException if reading the email addresses fails
+	 */
+	public void rebuildKnownEmailFilter() throws DataAccessException {
+		if (!knownEmailFilter.isEnabled()) {
+			return;
+		}
 		
-		final byte[] salt = Base64.getDecoder().decode(parts[2]);
+		final long start = System.nanoTime();
+		final BloomFilter<String> rebuiltFilter = knownEmailFilter.startRebuild();
 		
-		final byte[] hashedCheckPassword = BCrypt.generate(password.getBytes(), salt, cost);
+		boolean rebuilt = false;
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		try {
+			connection = buildConnection();
+			statement = connection.prepareStatement(SELECT_ALL_EMAILS_STATEMENT, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(EMAIL_FETCH_SIZE);
+			
+			resultSet = statement.executeQuery();
+			while (resultSet.next()) {
+				rebuiltFilter.put(EmailKeys.normalize(resultSet.getString(1)));
+			}
+			rebuilt = true;
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			throw new DataAccessException("Failed to read registered email addresses", e);
+		} finally {
+			DbUtils.closeQuietly(connection, statement, resultSet);
+			if (!rebuilt) {
+				knownEmailFilter.abandonRebuild(rebuiltFilter);
+			}
+		}
 		
-		return parts[3].equals(Base64.getEncoder().encodeToString(hashedCheckPassword));
+		knownEmailFilter.completeRebuild(rebuiltFilter, System.nanoTime() - start);
 	}
 
+	/**
+	 * Backfill the normalized email and its hash of every user that has none, a page at a
+	 * time, on the primary. Each row is updated in its own short transaction and the
+	 * connection is released between pages, so the backfill can run while the service
+	 * takes traffic. A user whose normalized email is already taken by another user, which
+	 * only happens for users registered under differently cased addresses before
+	 * normalization, is left as it is and logged.
+	 * 
+	 * @param batchSize users read per page
+	 * @param pauseMillis pause between pages, in milliseconds
+	 * @return number of users backfilled
+	 * @throws DataAccessException if reading or updating users fails
+	 */
+	public int backfillEmailHashes(final int batchSize, final long pauseMillis) throws DataAccessException {
+		int backfilled = 0;
+		int conflicts = 0;
+		UUID lastUuid = new UUID(0, 0);
+		
+		while (true) {
+			final List<UUID> uuids = new ArrayList<>(batchSize);
+			final List<String> emails = new ArrayList<>(batchSize);
+			
+			final Connection connection = buildConnection();
+			PreparedStatement statement = null;
+			ResultSet resultSet = null;
+			try {
+				statement = connection.prepareStatement(SELECT_UNHASHED_EMAILS_STATEMENT);
+				statement.setObject(1, lastUuid);
+				statement.setInt(2, batchSize);
+				resultSet = statement.executeQuery();
+				while (resultSet.next()) {
+					uuids.add((UUID) resultSet.getObject(1));
+					emails.add(resultSet.getString(2));
+				}
+				DbUtils.closeQuietly(resultSet);
+				DbUtils.closeQuietly(statement);
+				
+				statement = connection.prepareStatement(BACKFILL_EMAIL_HASH_STATEMENT);
+				for (int i = 0; i < uuids.size(); i++) {
+					final String normalizedEmail = EmailKeys.normalize(emails.get(i));
+					statement.setString(1, normalizedEmail);
+					statement.setLong(2, EmailKeys.hash(normalizedEmail));
+					statement.setObject(3, uuids.get(i));
+					try {
+						backfilled += statement.executeUpdate();
+					} catch (final SQLException e) {
+						if (!isUniqueViolation(e)) {
+							throw e;
+						}
+						conflicts++;
+						LOGGER.warn("Normalized email of user " + uuids.get(i) + " is already taken by another user; leaving it unhashed");
+					}
+				}
+			} catch (final SQLException e) {
+				LOGGER.error("SQL error state: " + e.getSQLState());
+				throw new DataAccessException("Failed to backfill email hashes", e);
+			} finally {
+				DbUtils.closeQuietly(connection, statement, resultSet);
+			}
+			
+			if (uuids.size() < batchSize) {
+				break;
+			}
+			lastUuid = uuids.get(uuids.size() - 1);
+			
+			try {
+				Thread.sleep(pauseMillis);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.info("Email hash backfill interrupted after " + backfilled + " users");
+				return backfilled;
+			}
+		}
+		
+		emailHashesBackfilled = conflicts == 0;
+		LOGGER.info("Backfilled email hashes of " + backfilled + " users; " + conflicts + " conflicting users left unhashed");
+		return backfilled;
+	}
+	
 	/**
 	 * Read users from a result set. The result set will be closed before the method
 	 * completes execution.
@@ -225,8 +1145,10 @@ public class SqlDao implements IAccessesUsers {
 	 * 
 	 * @return a new database connection
 	 * @throws DataAccessException error occurred building the connection
+	 * @throws DeadlineExceededException if the current request deadline has passed
 	 */
 	private Connection buildConnection() throws DataAccessException {
+		Deadline.current().check("Database access");
 		
 		Connection connection;
 		try {
@@ -239,6 +1161,25 @@ public class SqlDao implements IAccessesUsers {
 		return connection;
 	}
 	
+	/**
+	 * Build an SQL connection for read-only work, to a read replica if one is healthy.
+	 * Don't forget to close it after you're done!
+	 * 
+	 * @return a new database connection
+	 * @throws DataAccessException error occurred building the connection
+	 * @throws DeadlineExceededException if the current request deadline has passed
+	 */
+	private Connection buildReadConnection() throws DataAccessException {
+		Deadline.current().check("Database access");
+		
+		try {
+			return replicaRouter.getReadConnection();
+		} catch (final SQLException e) {
+			LOGGER.error("SQL error state: " + e.getSQLState());
+			throw new DataAccessException("SQL Error Occurred", e);
+		}
+	}
+	
 	/**
 	 * Run a database query using a prepared statement and bound variables
 	 * 
@@ -291,6 +1232,8 @@ public class SqlDao implements IAccessesUsers {
 		
 		ResultSet resultSet = null;
 		try {
+			applyDeadline(statement);
+			
 			int parameterIndex = 1;
 			for (final Object boundVar : boundData) {
 				setBoundVariable(statement, parameterIndex, boundVar);
@@ -314,6 +1257,32 @@ public class SqlDao implements IAccessesUsers {
 		return resultSet;
 	}
 	
+	/**
+	 * Bound a statement by what is left of the current request deadline, if there is one, and
+	 * cancel it if the deadline is cancelled while it runs, so its connection is freed early
+	 * 
+	 * @param statement the statement about to run
+	 * @throws SQLException if the timeout could not be set
+	 */
+	private static void applyDeadline(final Statement statement) throws SQLException {
+		final Deadline deadline = Deadline.current();
+		if (deadline.isBounded()) {
+			// query timeouts are in whole seconds, and zero would mean none
+			final long remainingMillis = deadline.remaining(TimeUnit.MILLISECONDS);
+			statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(1, (remainingMillis + 999) / 1000)));
+		}
+		
+		deadline.whenCancelled(() -> {
+			try {
+				if (!statement.isClosed()) {
+					statement.cancel();
+				}
+			} catch (final SQLException e) {
+				LOGGER.debug("Could not cancel statement of cancelled request", e);
+			}
+		});
+	}
+	
 	/**
 	 * Bind a variable to a prepared statement
 	 * 
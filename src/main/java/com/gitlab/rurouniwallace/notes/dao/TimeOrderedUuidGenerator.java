@@ -0,0 +1,67 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time-ordered (version 7) UUIDs, so new keys are appended to the end of an
+ * index on them instead of landing anywhere in it.
+ *
+ * The top 48 bits are the Unix time in milliseconds, followed by the version and a 12-bit
+ * sequence, then the variant and 62 random bits. The time and sequence together come
+ * from one atomic counter that is at least the current time and always moves forward, so
+ * the UUIDs generated by one instance are strictly increasing across all threads without
+ * a lock. If more than 4096 UUIDs are generated in a millisecond, or the clock moves back,
+ * the counter runs ahead of the clock until it catches up.
+ *
+ * The random bits come from a fast, non-cryptographic generator. The UUIDs also reveal
+ * when they were generated, so they must not be used as secrets.
+ *
+ */
+public class TimeOrderedUuidGenerator implements IGeneratesUuids {
+	
+	/**
+	 * Bits of the sequence that follows the timestamp
+	 */
+	private static final int SEQUENCE_BITS = 12;
+	
+	/**
+	 * Version 7, in place in the most significant bits
+	 */
+	private static final long VERSION = 0x7000L;
+	
+	/**
+	 * Variant 2 (RFC 4122), in place in the least significant bits
+	 */
+	private static final long VARIANT = 0x8000000000000000L;
+	
+	/**
+	 * Mask of the random bits in the least significant bits
+	 */
+	private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+	
+	/**
+	 * Last timestamp and sequence handed out, the timestamp shifted above the sequence
+	 */
+	private final AtomicLong lastTimeAndSequence = new AtomicLong();
+	
+	/**
+	 * Generate a time-ordered UUID
+	 * 
+	 * @return a new UUID, greater than every UUID this instance generated before
+	 */
+	@Override
+	public UUID generate() {
+		final long now = System.currentTimeMillis() << SEQUENCE_BITS;
+		final long timeAndSequence = lastTimeAndSequence.updateAndGet(last -> Math.max(now, last + 1));
+		
+		final long timestamp = timeAndSequence >>> SEQUENCE_BITS;
+		final long sequence = timeAndSequence & ((1L << SEQUENCE_BITS) - 1);
+		
+		final long mostSignificantBits = (timestamp << 16) | VERSION | sequence;
+		final long leastSignificantBits = VARIANT | (ThreadLocalRandom.current().nextLong() & RANDOM_MASK);
+		
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+}
@@ -0,0 +1,172 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.DaoConfiguration;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Recently read user profiles, by UUID, each with the strong entity tag of its
+ * representation, so conditional requests can be answered without a database lookup or
+ * serializing the profile. The cache is bounded by size and time to live.
+ *
+ */
+public class UserProfileCache {
+	
+	/**
+	 * Separates fields in the entity tag hash, so field boundaries can't shift between values
+	 */
+	private static final char FIELD_SEPARATOR = '\u001f';
+	
+	/**
+	 * Bits of the profile hash used as the entity tag
+	 */
+	private static final int ETAG_BITS = 128;
+	
+	/**
+	 * True if the cache is enabled
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Cached profiles, by UUID
+	 */
+	private final Cache<UUID, CachedProfile> profiles;
+	
+	/**
+	 * Construct a disabled instance
+	 */
+	public UserProfileCache() {
+		this(new DaoConfiguration(), new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param daoConfiguration user data access settings
+	 * @param metrics metrics registry to report cache statistics to
+	 */
+	public UserProfileCache(final DaoConfiguration daoConfiguration, final MetricRegistry metrics) {
+		this.enabled = daoConfiguration.isProfileCacheEnabled();
+		this.profiles = CacheBuilder.newBuilder()
+				.maximumSize(daoConfiguration.getProfileCacheMaxSize())
+				.expireAfterWrite(daoConfiguration.getProfileCacheTtlSeconds(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		
+		metrics.register(MetricRegistry.name(UserProfileCache.class, "hit-rate"), (Gauge<Double>) () -> profiles.stats().hitRate());
+		metrics.register(MetricRegistry.name(UserProfileCache.class, "hits"), (Gauge<Long>) () -> profiles.stats().hitCount());
+		metrics.register(MetricRegistry.name(UserProfileCache.class, "misses"), (Gauge<Long>) () -> profiles.stats().missCount());
+		metrics.register(MetricRegistry.name(UserProfileCache.class, "evictions"), (Gauge<Long>) () -> profiles.stats().evictionCount());
+		metrics.register(MetricRegistry.name(UserProfileCache.class, "size"), (Gauge<Long>) profiles::size);
+	}
+	
+	/**
+	 * Get a cached profile
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the profile, or empty if it isn't cached
+	 */
+	public Optional<CachedProfile> get(final UUID uuid) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		
+		return Optional.ofNullable(profiles.getIfPresent(uuid));
+	}
+	
+	/**
+	 * Tag a profile read from the database, and cache it
+	 * 
+	 * @param user the user, without a password
+	 * @return the tagged profile
+	 */
+	public CachedProfile put(final User user) {
+		final CachedProfile profile = new CachedProfile(new User(user), computeETag(user));
+		if (enabled) {
+			profiles.put(user.getUuid(), profile);
+		}
+		return profile;
+	}
+	
+	/**
+	 * Forget a cached profile. Must be called whenever the user's profile fields change.
+	 * 
+	 * @param uuid the user's UUID
+	 */
+	public void invalidate(final UUID uuid) {
+		profiles.invalidate(uuid);
+	}
+	
+	/**
+	 * Compute the strong entity tag of a profile, from every field in its representation
+	 * 
+	 * @param user the user
+	 * @return the entity tag value, without quotes
+	 */
+	private static String computeETag(final User user) {
+		final Hasher hasher = Hashing.sha256().newHasher();
+		for (final Object field : new Object[] { user.getUuid(), user.getEmail(), user.getPhone(), user.getGivenName(), user.getSurname() }) {
+			hasher.putBoolean(field != null);
+			hasher.putString(field == null ? "" : field.toString(), StandardCharsets.UTF_8);
+			hasher.putChar(FIELD_SEPARATOR);
+		}
+		
+		final byte[] hash = hasher.hash().asBytes();
+		final StringBuilder etag = new StringBuilder(ETAG_BITS / 4);
+		for (int i = 0; i < ETAG_BITS / 8; i++) {
+			etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return etag.toString();
+	}
+	
+	/**
+	 * A user profile and the entity tag of its representation
+	 */
+	public static class CachedProfile {
+		
+		/**
+		 * The user, without a password
+		 */
+		private final User user;
+		
+		/**
+		 * Strong entity tag value, without quotes
+		 */
+		private final String etag;
+		
+		/**
+		 * Construct a new instance
+		 * 
+		 * @param user the user, without a password
+		 * @param etag strong entity tag value, without quotes
+		 */
+		CachedProfile(final User user, final String etag) {
+			this.user = user;
+			this.etag = etag;
+		}
+		
+		/**
+		 * @return a copy of the user
+		 */
+		public User getUser() {
+			return new User(user);
+		}
+		
+		/**
+		 * @return the strong entity tag value, without quotes
+		 */
+		public String getETag() {
+			return etag;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.gitlab.rurouniwallace.notes.exceptions;
+
+/**
+ * Work was refused for being over its adaptive concurrency limit
+ *
+ */
+@SuppressWarnings("serial")
+public class ConcurrencyLimitExceededException extends Exception {
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param message error message
+	 */
+	public ConcurrencyLimitExceededException(final String message) {
+		super(message);
+	}
+}
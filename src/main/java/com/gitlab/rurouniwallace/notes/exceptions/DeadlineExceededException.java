@@ -0,0 +1,32 @@
+package com.gitlab.rurouniwallace.notes.exceptions;
+
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+
+/**
+ * The deadline of a request passed before its work was done. It says nothing about the
+ * health of a dependency, so as a bad request to Hystrix it neither falls back nor counts
+ * towards opening a circuit.
+ *
+ */
+@SuppressWarnings("serial")
+public class DeadlineExceededException extends HystrixBadRequestException {
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param message error message
+	 */
+	public DeadlineExceededException(final String message) {
+		super(message);
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param message error message
+	 * @param cause the failure the deadline passing led to
+	 */
+	public DeadlineExceededException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+}
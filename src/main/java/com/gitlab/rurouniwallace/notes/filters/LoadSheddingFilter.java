@@ -0,0 +1,112 @@
+package com.gitlab.rurouniwallace.notes.filters;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.gitlab.rurouniwallace.notes.responses.StandardResponse;
+import com.gitlab.rurouniwallace.notes.responses.StatusCode;
+import com.gitlab.rurouniwallace.notes.throttling.PriorityLoadShedder;
+import com.gitlab.rurouniwallace.notes.throttling.RequestPriority;
+
+/**
+ * Classifies requests by the {@link Prioritized} priority class of their resource method and
+ * sheds them, lowest class first, while the service is overloaded. Runs ahead of
+ * authentication, so a shed request costs no more than its classification. Shed requests
+ * get 503 Service Unavailable, with a Retry-After of how long load should take to drop.
+ */
+@Priority(Priorities.AUTHENTICATION - 100)
+public class LoadSheddingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+	
+	/**
+	 * Request property holding when an admitted request was admitted
+	 */
+	private static final String ADMITTED_AT_PROPERTY = LoadSheddingFilter.class.getName() + ".admittedAt";
+	
+	/**
+	 * Admission control by request priority
+	 */
+	private final PriorityLoadShedder shedder;
+	
+	/**
+	 * Resource method the request was matched to
+	 */
+	@Context
+	private ResourceInfo resourceInfo;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param shedder admission control by request priority
+	 */
+	public LoadSheddingFilter(final PriorityLoadShedder shedder) {
+		this.shedder = shedder;
+	}
+	
+	/**
+	 * Admit the request, or shed it if the service is too loaded for its priority class
+	 *
+	 * @param requestContext the request
+	 */
+	@Override
+	public void filter(final ContainerRequestContext requestContext) {
+		final long waitNanos = shedder.tryAdmit(classify());
+		if (waitNanos == 0) {
+			requestContext.setProperty(ADMITTED_AT_PROPERTY, shedder.now());
+			return;
+		}
+		
+		final StandardResponse overloaded = new StandardResponse();
+		overloaded.setMessage("Service overloaded");
+		overloaded.setStatus(StatusCode.OVERLOADED);
+		requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+				.type(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.RETRY_AFTER, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1))
+				.entity(overloaded)
+				.build());
+	}
+	
+	/**
+	 * Finish an admitted request once its response is ready
+	 *
+	 * @param requestContext the request
+	 * @param responseContext the response
+	 */
+	@Override
+	public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) {
+		final Object admittedAt = requestContext.getProperty(ADMITTED_AT_PROPERTY);
+		if (admittedAt != null) {
+			requestContext.removeProperty(ADMITTED_AT_PROPERTY);
+			shedder.finish((Long) admittedAt);
+		}
+	}
+	
+	/**
+	 * Find the priority class of the request from its resource method, or failing that its
+	 * resource class
+	 *
+	 * @return the priority class
+	 */
+	private RequestPriority classify() {
+		final Method method = resourceInfo.getResourceMethod();
+		if (method == null) {
+			return RequestPriority.STANDARD;
+		}
+		
+		final Prioritized prioritized = method.isAnnotationPresent(Prioritized.class)
+				? method.getAnnotation(Prioritized.class)
+				: resourceInfo.getResourceClass().getAnnotation(Prioritized.class);
+		return prioritized == null ? RequestPriority.STANDARD : prioritized.value();
+	}
+}
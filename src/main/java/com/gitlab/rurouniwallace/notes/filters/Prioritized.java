@@ -0,0 +1,22 @@
+package com.gitlab.rurouniwallace.notes.filters;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.gitlab.rurouniwallace.notes.throttling.RequestPriority;
+
+/**
+ * Sets the priority class of requests to a resource method, for load shedding. Requests to
+ * methods without it are {@link RequestPriority#STANDARD}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Prioritized {
+	
+	/**
+	 * @return priority class of the requests
+	 */
+	RequestPriority value();
+}
@@ -0,0 +1,95 @@
+package com.gitlab.rurouniwallace.notes.filters;
+
+import java.security.Principal;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+import com.gitlab.rurouniwallace.notes.responses.StatusCode;
+import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+import com.gitlab.rurouniwallace.notes.security.SessionTokenService;
+
+/**
+ * Validates the bearer session token of requests to {@link TokenAuthenticated} resources.
+ * Validation only checks the token signature and expiry, so it never touches the database.
+ */
+@TokenAuthenticated
+@Priority(Priorities.AUTHENTICATION)
+public class TokenAuthenticationFilter implements ContainerRequestFilter {
+
+	/**
+	 * Authorization header scheme prefix
+	 */
+	private static final String BEARER_PREFIX = "Bearer ";
+	
+	/**
+	 * Session token issuer and validator
+	 */
+	private final SessionTokenService tokenService;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param tokenService session token issuer and validator
+	 */
+	public TokenAuthenticationFilter(final SessionTokenService tokenService) {
+		this.tokenService = tokenService;
+	}
+
+	/**
+	 * Validate the request's session token, and reject the request if it isn't valid
+	 * 
+	 * @param requestContext the request
+	 */
+	@Override
+	public void filter(final ContainerRequestContext requestContext) {
+		final String authorization = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
+		
+		final Optional<UUID> uuid = authorization != null && authorization.startsWith(BEARER_PREFIX)
+				? tokenService.validateToken(authorization.substring(BEARER_PREFIX.length()).trim())
+				: Optional.empty();
+		
+		if (!uuid.isPresent()) {
+			requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED)
+					.type(MediaType.APPLICATION_JSON)
+					.entity(new UserResponse("Valid session token required", StatusCode.DENY))
+					.build());
+			return;
+		}
+		
+		final SessionPrincipal principal = new SessionPrincipal(uuid.get());
+		final boolean secure = requestContext.getSecurityContext().isSecure();
+		
+		requestContext.setSecurityContext(new SecurityContext() {
+
+			@Override
+			public Principal getUserPrincipal() {
+				return principal;
+			}
+
+			@Override
+			public boolean isUserInRole(final String role) {
+				return false;
+			}
+
+			@Override
+			public boolean isSecure() {
+				return secure;
+			}
+
+			@Override
+			public String getAuthenticationScheme() {
+				return "Bearer";
+			}
+		});
+	}
+}
@@ -0,0 +1,189 @@
+package com.gitlab.rurouniwallace.notes.health;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Snapshot of a SQL connection pool's usage
+ */
+public class ConnectionPoolStats {
+	
+	/**
+	 * Connections currently borrowed
+	 */
+	@JsonProperty("active")
+	private int active;
+	
+	/**
+	 * Connections idle in the pool
+	 */
+	@JsonProperty("idle")
+	private int idle;
+	
+	/**
+	 * Callers waiting for a connection
+	 */
+	@JsonProperty("waiters")
+	private int waiters;
+	
+	/**
+	 * Most connections the pool will open
+	 */
+	@JsonProperty("maxTotal")
+	private int maxTotal;
+	
+	/**
+	 * Connections reported as held past the leak threshold
+	 */
+	@JsonProperty("leaks")
+	private long leaks;
+	
+	/**
+	 * Mean time spent waiting for a connection, in milliseconds
+	 */
+	@JsonProperty("borrowWaitMeanMillis")
+	private double borrowWaitMeanMillis;
+	
+	/**
+	 * 99th percentile time spent waiting for a connection, in milliseconds
+	 */
+	@JsonProperty("borrowWaitP99Millis")
+	private double borrowWaitP99Millis;
+	
+	/**
+	 * Mean time a connection is held before it is returned, in milliseconds
+	 */
+	@JsonProperty("timeToReturnMeanMillis")
+	private double timeToReturnMeanMillis;
+	
+	/**
+	 * 99th percentile time a connection is held before it is returned, in milliseconds
+	 */
+	@JsonProperty("timeToReturnP99Millis")
+	private double timeToReturnP99Millis;
+	
+	/**
+	 * @return the active
+	 */
+	public int getActive() {
+		return active;
+	}
+	
+	/**
+	 * @param active the active to set
+	 */
+	public void setActive(int active) {
+		this.active = active;
+	}
+	
+	/**
+	 * @return the idle
+	 */
+	public int getIdle() {
+		return idle;
+	}
+	
+	/**
+	 * @param idle the idle to set
+	 */
+	public void setIdle(int idle) {
+		this.idle = idle;
+	}
+	
+	/**
+	 * @return the waiters
+	 */
+	public int getWaiters() {
+		return waiters;
+	}
+	
+	/**
+	 * @param waiters the waiters to set
+	 */
+	public void setWaiters(int waiters) {
+		this.waiters = waiters;
+	}
+	
+	/**
+	 * @return the maxTotal
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+	
+	/**
+	 * @param maxTotal the maxTotal to set
+	 */
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+	
+	/**
+	 * @return the leaks
+	 */
+	public long getLeaks() {
+		return leaks;
+	}
+	
+	/**
+	 * @param leaks the leaks to set
+	 */
+	public void setLeaks(long leaks) {
+		this.leaks = leaks;
+	}
+	
+	/**
+	 * @return the borrowWaitMeanMillis
+	 */
+	public double getBorrowWaitMeanMillis() {
+		return borrowWaitMeanMillis;
+	}
+	
+	/**
+	 * @param borrowWaitMeanMillis the borrowWaitMeanMillis to set
+	 */
+	public void setBorrowWaitMeanMillis(double borrowWaitMeanMillis) {
+		this.borrowWaitMeanMillis = borrowWaitMeanMillis;
+	}
+	
+	/**
+	 * @return the borrowWaitP99Millis
+	 */
+	public double getBorrowWaitP99Millis() {
+		return borrowWaitP99Millis;
+	}
+	
+	/**
+	 * @param borrowWaitP99Millis the borrowWaitP99Millis to set
+	 */
+	public void setBorrowWaitP99Millis(double borrowWaitP99Millis) {
+		this.borrowWaitP99Millis = borrowWaitP99Millis;
+	}
+	
+	/**
+	 * @return the timeToReturnMeanMillis
+	 */
+	public double getTimeToReturnMeanMillis() {
+		return timeToReturnMeanMillis;
+	}
+	
+	/**
+	 * @param timeToReturnMeanMillis the timeToReturnMeanMillis to set
+	 */
+	public void setTimeToReturnMeanMillis(double timeToReturnMeanMillis) {
+		this.timeToReturnMeanMillis = timeToReturnMeanMillis;
+	}
+	
+	/**
+	 * @return the timeToReturnP99Millis
+	 */
+	public double getTimeToReturnP99Millis() {
+		return timeToReturnP99Millis;
+	}
+	
+	/**
+	 * @param timeToReturnP99Millis the timeToReturnP99Millis to set
+	 */
+	public void setTimeToReturnP99Millis(double timeToReturnP99Millis) {
+		this.timeToReturnP99Millis = timeToReturnP99Millis;
+	}
+}
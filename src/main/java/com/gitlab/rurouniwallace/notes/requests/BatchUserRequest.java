@@ -0,0 +1,32 @@
+package com.gitlab.rurouniwallace.notes.requests;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * Request to register several users at once
+ */
+public class BatchUserRequest {
+
+	/**
+	 * Users to register
+	 */
+	@JsonProperty
+	private List<User> users;
+
+	/**
+	 * @return the users
+	 */
+	public List<User> getUsers() {
+		return users;
+	}
+
+	/**
+	 * @param users the users to set
+	 */
+	public void setUsers(List<User> users) {
+		this.users = users;
+	}
+}
@@ -0,0 +1,52 @@
+package com.gitlab.rurouniwallace.notes.requests;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Request to look up several users at once, either by UUID or by email address
+ */
+public class UserLookupRequest {
+	
+	/**
+	 * UUIDs of the users to look up
+	 */
+	@JsonProperty
+	private List<UUID> uuids;
+	
+	/**
+	 * Email addresses of the users to look up
+	 */
+	@JsonProperty
+	private List<String> emails;
+	
+	/**
+	 * @return the uuids
+	 */
+	public List<UUID> getUuids() {
+		return uuids;
+	}
+	
+	/**
+	 * @param uuids the uuids to set
+	 */
+	public void setUuids(List<UUID> uuids) {
+		this.uuids = uuids;
+	}
+	
+	/**
+	 * @return the emails
+	 */
+	public List<String> getEmails() {
+		return emails;
+	}
+	
+	/**
+	 * @param emails the emails to set
+	 */
+	public void setEmails(List<String> emails) {
+		this.emails = emails;
+	}
+}
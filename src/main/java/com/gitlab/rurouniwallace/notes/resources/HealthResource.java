@@ -1,5 +1,7 @@
 package com.gitlab.rurouniwallace.notes.resources;
 
+import java.util.Collection;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -13,7 +15,10 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.annotation.Timed;
 import com.gitlab.rurouniwallace.notes.command.CommandRunner;
 import com.gitlab.rurouniwallace.notes.command.HealthCommand;
+import com.gitlab.rurouniwallace.notes.dao.InstrumentedDataSource;
+import com.gitlab.rurouniwallace.notes.filters.Prioritized;
 import com.gitlab.rurouniwallace.notes.health.Health;
+import com.gitlab.rurouniwallace.notes.throttling.RequestPriority;
 import io.dropwizard.setup.Environment;
 
 import io.swagger.annotations.Api;
@@ -26,6 +31,7 @@ import io.swagger.annotations.ApiOperation;
 @Api("/health")
 @Path("/health")
 @Produces(MediaType.APPLICATION_JSON)
+@Prioritized(RequestPriority.HEALTH)
 public class HealthResource {
 
 	/**
@@ -38,13 +44,20 @@ public class HealthResource {
 	 */
 	private final Environment environment;
 	
+	/**
+	 * SQL connection pools to report usage of
+	 */
+	private final Collection<InstrumentedDataSource> dataSources;
+	
 	/**
 	 * Construct a new instance
 	 * 
 	 * @param environment Dropwizard runtime environment/bootstrapping
+	 * @param dataSources SQL connection pools to report usage of
 	 */
-	public HealthResource(final Environment environment) {
+	public HealthResource(final Environment environment, final Collection<InstrumentedDataSource> dataSources) {
 		this.environment = environment;
+		this.dataSources = dataSources;
 	}
 	
 	/**
@@ -56,6 +69,6 @@ public class HealthResource {
 	@Timed
 	@ApiOperation(value = "Perform a health check on the service", response = Health.class)
 	public void checkHealth(@Suspended final AsyncResponse response) {
-		CommandRunner.<Health>run(response, new HealthCommand(environment), LOGGER);
+		CommandRunner.<Health>run(response, new HealthCommand(environment, dataSources), LOGGER);
 	}
 }
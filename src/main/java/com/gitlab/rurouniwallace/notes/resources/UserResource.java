@@ -1,18 +1,44 @@
 package com.gitlab.rurouniwallace.notes.resources;
 
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
 
 import com.codahale.metrics.annotation.Timed;
+import com.gitlab.rurouniwallace.notes.config.RequestDeadlineConfiguration;
 import com.gitlab.rurouniwallace.notes.controllers.UserController;
+import com.gitlab.rurouniwallace.notes.controllers.UserImporter;
+import com.gitlab.rurouniwallace.notes.controllers.UserLister;
+import com.gitlab.rurouniwallace.notes.filters.Prioritized;
+import com.gitlab.rurouniwallace.notes.filters.TokenAuthenticated;
 import com.gitlab.rurouniwallace.notes.models.User;
 import com.gitlab.rurouniwallace.notes.requests.AuthenticationRequest;
+import com.gitlab.rurouniwallace.notes.requests.BatchUserRequest;
+import com.gitlab.rurouniwallace.notes.requests.UserLookupRequest;
+import com.gitlab.rurouniwallace.notes.responses.BatchUserResponse;
+import com.gitlab.rurouniwallace.notes.responses.ImportRecordResponse;
 import com.gitlab.rurouniwallace.notes.responses.UserResponse;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.gitlab.rurouniwallace.notes.throttling.DisconnectWatcher;
+import com.gitlab.rurouniwallace.notes.throttling.RequestPriority;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -25,45 +51,234 @@ import io.swagger.annotations.ApiOperation;
 @Produces(MediaType.APPLICATION_JSON)
 public class UserResource {
 	
+	/**
+	 * Media type of newline-delimited JSON
+	 */
+	private static final String NDJSON = "application/x-ndjson";
+	
+	/**
+	 * Request header with the client's timeout, in milliseconds
+	 */
+	public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+	
 	/**
 	 * Logic controller for user operations
 	 */
 	private final UserController controller;
 	
+	/**
+	 * Streaming user importer
+	 */
+	private final UserImporter importer;
+	
+	/**
+	 * Paginated user listing
+	 */
+	private final UserLister lister;
+	
+	/**
+	 * Request deadline settings
+	 */
+	private final RequestDeadlineConfiguration deadlineConfig;
+	
+	/**
+	 * Watches for clients that disconnect before their response is sent
+	 */
+	private final DisconnectWatcher disconnectWatcher;
+	
 	/**
 	 * Construct a new instance
 	 * 
 	 * @param controller logic controller
+	 * @param importer streaming user importer
+	 * @param lister paginated user listing
+	 * @param deadlineConfig request deadline settings
+	 * @param disconnectWatcher watches for clients that disconnect before their response is sent
 	 */
-	public UserResource(final UserController controller) {
+	public UserResource(final UserController controller, final UserImporter importer, final UserLister lister, final RequestDeadlineConfiguration deadlineConfig,
+			final DisconnectWatcher disconnectWatcher) {
 		this.controller = controller;
+		this.importer = importer;
+		this.lister = lister;
+		this.deadlineConfig = deadlineConfig;
+		this.disconnectWatcher = disconnectWatcher;
 	}
 	
 	/**
 	 * Authenticate a user
 	 * 
 	 * @param authnRequest authentication request
+	 * @param request the underlying HTTP request
+	 * @param timeoutMillis the client's timeout, or null for the endpoint default
 	 * @param response asynchronous API response
 	 */
 	@POST
 	@Path("/authn")
+	@Prioritized(RequestPriority.AUTHENTICATION)
 	@Consumes(MediaType.APPLICATION_JSON)
 	@ApiOperation(value = "Authenticate a user", response = UserResponse.class)
-	public void authenticateUser(final AuthenticationRequest authnRequest, @Suspended final AsyncResponse response) {
-		controller.authenticateUser(authnRequest, response);
+	public void authenticateUser(final AuthenticationRequest authnRequest, @Context final HttpServletRequest request,
+			@HeaderParam(REQUEST_TIMEOUT_HEADER) final Long timeoutMillis, @Suspended final AsyncResponse response) {
+		controller.authenticateUser(authnRequest, request.getRemoteAddr(), deadline(timeoutMillis, deadlineConfig.getAuthenticationTimeoutMillis(), request), response);
+	}
+
+	/**
+	 * Check a session token issued by authentication. The token is validated by its
+	 * signature alone, without a password check or database lookup.
+	 * 
+	 * @param securityContext security context holding the validated session
+	 * @return the session's user
+	 */
+	@GET
+	@Path("/authn")
+	@Timed
+	@TokenAuthenticated
+	@Prioritized(RequestPriority.AUTHENTICATION)
+	@ApiOperation(value = "Check a session token", response = UserResponse.class)
+	public UserResponse checkSession(@Context final SecurityContext securityContext) {
+		return controller.describeSession((SessionPrincipal) securityContext.getUserPrincipal());
+	}
+
+	/**
+	 * List every user, a page at a time. Restricted to admin users.
+	 * 
+	 * @param cursor cursor returned with the previous page, or absent for the first page
+	 * @param limit the most users to list
+	 * @param securityContext security context holding the validated session
+	 * @return the page, with a cursor for the next page if there is one
+	 */
+	@GET
+	@Timed
+	@TokenAuthenticated
+	@ApiOperation(value = "List users, a page at a time", notes = "Restricted to admin users")
+	public Response listUsers(@QueryParam("cursor") final String cursor, @QueryParam("limit") final Integer limit,
+			@Context final SecurityContext securityContext) {
+		return lister.listUsers(cursor, limit, (SessionPrincipal) securityContext.getUserPrincipal());
+	}
+
+	/**
+	 * Look up several users at once
+	 * 
+	 * @param lookupRequest the UUIDs or email addresses to look up
+	 * @param timeoutMillis the client's timeout, or null for the endpoint default
+	 * @param request the underlying HTTP request
+	 * @param response the result for each requested user, in request order
+	 */
+	@POST
+	@Path("/lookup")
+	@Timed
+	@TokenAuthenticated
+	@Consumes(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Look up several users at once", response = BatchUserResponse.class)
+	public void lookupUsers(final UserLookupRequest lookupRequest, @HeaderParam(REQUEST_TIMEOUT_HEADER) final Long timeoutMillis,
+			@Context final HttpServletRequest request, @Suspended final AsyncResponse response) {
+		controller.lookupUsers(lookupRequest, deadline(timeoutMillis, deadlineConfig.getLookupTimeoutMillis(), request), response);
+	}
+
+	/**
+	 * Get a user's profile
+	 * 
+	 * @param uuid the user's UUID
+	 * @param ifNoneMatch entity tags of representations the client already has
+	 * @param timeoutMillis the client's timeout, or null for the endpoint default
+	 * @param securityContext security context holding the validated session
+	 * @param request the underlying HTTP request
+	 * @param response the profile, or 304 Not Modified
+	 */
+	@GET
+	@Path("/{uuid}")
+	@Timed
+	@TokenAuthenticated
+	@ApiOperation(value = "Get a user's profile", response = UserResponse.class)
+	public void findUser(@PathParam("uuid") final UUID uuid, @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+			@HeaderParam(REQUEST_TIMEOUT_HEADER) final Long timeoutMillis, @Context final SecurityContext securityContext,
+			@Context final HttpServletRequest request, @Suspended final AsyncResponse response) {
+		controller.findUser(uuid, (SessionPrincipal) securityContext.getUserPrincipal(), ifNoneMatch,
+				deadline(timeoutMillis, deadlineConfig.getProfileReadTimeoutMillis(), request), response);
 	}
 
 	/**
 	 * Create a new user
 	 * 
 	 * @param user user to create
+	 * @param timeoutMillis the client's timeout, or null for the endpoint default
+	 * @param request the underlying HTTP request
 	 * @param response created user
 	 */
 	@POST
 	@Timed
+	@Prioritized(RequestPriority.REGISTRATION)
 	@Consumes(MediaType.APPLICATION_JSON)
 	@ApiOperation(value = "Create a new user", response = UserResponse.class)
-	public void createUser(final User user, @Suspended final AsyncResponse response) {
-		controller.createUser(user, response);
+	public void createUser(final User user, @HeaderParam(REQUEST_TIMEOUT_HEADER) final Long timeoutMillis,
+			@Context final HttpServletRequest request, @Suspended final AsyncResponse response) {
+		controller.createUser(user, deadline(timeoutMillis, deadlineConfig.getRegistrationTimeoutMillis(), request), response);
+	}
+	
+	/**
+	 * Create several users at once. Restricted to admin users.
+	 * 
+	 * @param batchRequest users to create
+	 * @param timeoutMillis the client's timeout, or null for the endpoint default
+	 * @param securityContext security context holding the validated session
+	 * @param request the underlying HTTP request
+	 * @param response the result for each user, in request order
+	 */
+	@POST
+	@Path("/batch")
+	@Timed
+	@TokenAuthenticated
+	@Prioritized(RequestPriority.REGISTRATION)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@ApiOperation(value = "Create several users at once", response = BatchUserResponse.class, notes = "Restricted to admin users")
+	public void createUsers(final BatchUserRequest batchRequest, @HeaderParam(REQUEST_TIMEOUT_HEADER) final Long timeoutMillis,
+			@Context final SecurityContext securityContext, @Context final HttpServletRequest request, @Suspended final AsyncResponse response) {
+		controller.createUsers(batchRequest, (SessionPrincipal) securityContext.getUserPrincipal(), deadline(timeoutMillis, deadlineConfig.getBatchRegistrationTimeoutMillis(), request), response);
+	}
+	
+	/**
+	 * Import a stream of users, one JSON object per line. Results are streamed back, one
+	 * JSON object per line, as records are imported. Restricted to admin users.
+	 * 
+	 * @param input newline-delimited JSON users
+	 * @param securityContext security context holding the validated session
+	 * @return newline-delimited JSON results
+	 */
+	@POST
+	@Path("/import")
+	@Timed
+	@TokenAuthenticated
+	@Prioritized(RequestPriority.REGISTRATION)
+	@Consumes(NDJSON)
+	@Produces(NDJSON)
+	@ApiOperation(value = "Import a stream of newline-delimited JSON users", response = ImportRecordResponse.class, notes = "Restricted to admin users")
+	public Response importUsers(final InputStream input, @Context final SecurityContext securityContext) {
+		return importer.importUsers(input, (SessionPrincipal) securityContext.getUserPrincipal());
+	}
+	
+	/**
+	 * Work out the deadline of a request, from the client's timeout if it sent one, and
+	 * cancel it if the client disconnects
+	 * 
+	 * @param timeoutMillis the client's timeout, or null
+	 * @param defaultTimeoutMillis the endpoint's default timeout
+	 * @param request the suspended request
+	 * @return the deadline, which if requests are not given deadlines passes only if it is
+	 * cancelled, or never if requests are not cancelled either
+	 */
+	private Deadline deadline(final Long timeoutMillis, final long defaultTimeoutMillis, final HttpServletRequest request) {
+		final Deadline deadline;
+		if (deadlineConfig.isEnabled()) {
+			deadline = Deadline.after(timeoutMillis == null ? defaultTimeoutMillis : Math.min(timeoutMillis, deadlineConfig.getMaxTimeoutMillis()), TimeUnit.MILLISECONDS);
+		} else if (deadlineConfig.isCancelOnDisconnect()) {
+			deadline = Deadline.unbounded();
+		} else {
+			return Deadline.none();
+		}
+		
+		if (deadlineConfig.isCancelOnDisconnect()) {
+			disconnectWatcher.watch(request, deadline::cancel);
+		}
+		return deadline;
 	}
 }
@@ -0,0 +1,52 @@
+package com.gitlab.rurouniwallace.notes.responses;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Response to a batch user request, with one result per requested user
+ */
+@JsonInclude(Include.NON_NULL)
+public class BatchUserResponse extends StandardResponse {
+	
+	/**
+	 * Construct a new instance
+	 */
+	public BatchUserResponse() {
+		// empty constructor
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param results the result for each requested user, in request order
+	 * @param status the response status
+	 */
+	public BatchUserResponse(final List<UserResponse> results, final StatusCode status) {
+		this.results = results;
+		this.status = status;
+	}
+	
+	/**
+	 * Result for each requested user, in request order
+	 */
+	@JsonProperty
+	private List<UserResponse> results;
+
+	/**
+	 * @return the results
+	 */
+	public List<UserResponse> getResults() {
+		return results;
+	}
+
+	/**
+	 * @param results the results to set
+	 */
+	public void setResults(List<UserResponse> results) {
+		this.results = results;
+	}
+}
@@ -0,0 +1,64 @@
+package com.gitlab.rurouniwallace.notes.responses;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.gitlab.rurouniwallace.notes.models.User;
+
+/**
+ * Result of importing one record of a user import stream
+ */
+@JsonInclude(Include.NON_NULL)
+public class ImportRecordResponse extends UserResponse {
+	
+	/**
+	 * Position of the record in the import stream, starting at 1
+	 */
+	@JsonProperty
+	private Long record;
+	
+	/**
+	 * Construct a new instance
+	 */
+	public ImportRecordResponse() {
+		// empty constructor
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param record position of the record in the import stream
+	 * @param message the response message
+	 * @param status the response status
+	 */
+	public ImportRecordResponse(final Long record, final String message, final StatusCode status) {
+		super(message, status);
+		this.record = record;
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param record position of the record in the import stream
+	 * @param user the imported user
+	 * @param status the response status
+	 */
+	public ImportRecordResponse(final Long record, final User user, final StatusCode status) {
+		super(user, status);
+		this.record = record;
+	}
+
+	/**
+	 * @return the record
+	 */
+	public Long getRecord() {
+		return record;
+	}
+
+	/**
+	 * @param record the record to set
+	 */
+	public void setRecord(Long record) {
+		this.record = record;
+	}
+}
@@ -5,5 +5,5 @@ package com.gitlab.rurouniwallace.notes.responses;
  *
  */
 public enum StatusCode {
-	SUCCESS, INVALID_ARGUMENTS, ENTITY_ALREADY_EXISTS, ALLOW, DENY
+	SUCCESS, INVALID_ARGUMENTS, ENTITY_ALREADY_EXISTS, ALLOW, DENY, THROTTLED, FAILED, NOT_FOUND, QUEUED, OVERLOADED, DEADLINE_EXCEEDED
 }
@@ -45,6 +45,12 @@ public class UserResponse extends StandardResponse {
 	 */
 	@JsonProperty
 	private User user;
+	
+	/**
+	 * Signed session token issued on successful authentication
+	 */
+	@JsonProperty
+	private String token;
 
 	/**
 	 * @return the user
@@ -59,6 +65,20 @@ public class UserResponse extends StandardResponse {
 	public void setUser(User user) {
 		this.user = user;
 	}
+
+	/**
+	 * @return the token
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @param token the token to set
+	 */
+	public void setToken(String token) {
+		this.token = token;
+	}
 	
 	
 }
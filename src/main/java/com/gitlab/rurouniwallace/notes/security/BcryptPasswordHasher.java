@@ -0,0 +1,185 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.generators.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+/**
+ * Hashes passwords using the Blowfish cipher, a random salt and a configured cost factor
+ */
+public class BcryptPasswordHasher implements IHashesPasswords {
+	
+	/**
+	 * Highest cost factor Blowfish accepts
+	 */
+	private static final int MAX_COST = 31;
+	
+	/**
+	 * Password hashed while calibrating the cost factor
+	 */
+	private static final byte[] CALIBRATION_PASSWORD = "calibration password".getBytes();
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(BcryptPasswordHasher.class);
+	
+	/**
+	 * Cost factor new hashes are generated with
+	 */
+	private final int cost;
+	
+	/**
+	 * Password salt source
+	 */
+	private final SaltGenerator saltGenerator;
+	
+	/**
+	 * Construct a new instance with an unmanaged salt generator, which generates every
+	 * salt on the caller's thread
+	 * 
+	 * @param securityConfiguration application security settings
+	 */
+	public BcryptPasswordHasher(final SecurityConfiguration securityConfiguration) {
+		this(securityConfiguration, new SaltGenerator(securityConfiguration, new MetricRegistry()));
+	}
+	
+	/**
+	 * Construct a new instance. If no cost factor is configured, it is calibrated on this
+	 * machine before the constructor returns.
+	 * 
+	 * @param securityConfiguration application security settings
+	 * @param saltGenerator password salt source
+	 */
+	public BcryptPasswordHasher(final SecurityConfiguration securityConfiguration, final SaltGenerator saltGenerator) {
+		this.saltGenerator = saltGenerator;
+		
+		if (securityConfiguration.getHashCost() != null) {
+			this.cost = securityConfiguration.getHashCost();
+		} else {
+			this.cost = calibrateCost(TimeUnit.MILLISECONDS.toNanos(securityConfiguration.getHashTargetMillis()), securityConfiguration.getMinHashCost());
+		}
+	}
+	
+	/**
+	 * Find the highest cost factor that hashes a password within a target time on this
+	 * machine. Each step up doubles the work, so the search stops at the first cost that
+	 * misses the target.
+	 * 
+	 * @param targetNanos target time to hash one password
+	 * @param minCost lowest cost factor to return, however fast the machine
+	 * @return the calibrated cost factor
+	 */
+	public static int calibrateCost(final long targetNanos, final int minCost) {
+		final byte[] salt = new byte[StoredPasswordHash.SALT_LENGTH];
+		
+		// warm up, so that the first timed hash is not interpreted
+		BCrypt.generate(CALIBRATION_PASSWORD, salt, 4);
+		
+		int chosenCost = minCost;
+		long chosenNanos = 0;
+		for (int candidateCost = minCost; candidateCost <= MAX_COST; candidateCost++) {
+			final long start = System.nanoTime();
+			BCrypt.generate(CALIBRATION_PASSWORD, salt, candidateCost);
+			final long elapsedNanos = System.nanoTime() - start;
+			
+			if (elapsedNanos > targetNanos && candidateCost > minCost) {
+				break;
+			}
+			
+			chosenCost = candidateCost;
+			chosenNanos = elapsedNanos;
+			if (elapsedNanos > targetNanos) {
+				break;
+			}
+		}
+		
+		LOGGER.info("Calibrated password hash cost factor to " + chosenCost + " (" + TimeUnit.NANOSECONDS.toMillis(chosenNanos)
+				+ " ms per hash, target " + TimeUnit.NANOSECONDS.toMillis(targetNanos) + " ms)");
+		return chosenCost;
+	}
+	
+	/**
+	 * @return the algorithm id, <code>bcrypt</code>
+	 */
+	@Override
+	public String getAlgorithmId() {
+		return StoredPasswordHash.ALGORITHM_ID;
+	}
+	
+	/**
+	 * @return the cost factor new hashes are generated with
+	 */
+	public int getCost() {
+		return cost;
+	}
+	
+	/**
+	 * Hash a password using the Blowfish cipher, random salt, and a configured cost factor
+	 * 
+	 * @param password the password to hash
+	 * @return the hashed value, with the cost factor and salt appended
+	 * @throws GeneralSecurityException if generating the hash fails
+	 */
+	@Override
+	public String hashPassword(final String password) throws GeneralSecurityException {
+		
+		final byte[] salt = saltGenerator.nextSalt();
+		
+		return StoredPasswordHash.format(cost, salt, BCrypt.generate(password.getBytes(), salt, cost));
+	}
+	
+	/**
+	 * Check a user's password against a hashed password entry from the database. The entry
+	 * is parsed in place and the hashes are compared in constant time.
+	 * 
+	 * @param password user password entered
+	 * @param hashedPassword hashed password from database
+	 * @return true if passwords match, false if not or if the entry is malformed
+	 */
+	@Override
+	public boolean checkPassword(final String password, final String hashedPassword) {
+		final StoredPasswordHash storedHash = StoredPasswordHash.forCurrentThread();
+		if (!storedHash.parse(hashedPassword)) {
+			return false;
+		}
+		
+		final byte[] hashedCheckPassword = BCrypt.generate(password.getBytes(), storedHash.getSalt(), storedHash.getCost());
+		
+		return storedHash.matches(hashedCheckPassword);
+	}
+	
+	/**
+	 * Check whether a stored hash is a Bcrypt hash, with or without the algorithm id
+	 * 
+	 * @param hashedPassword stored password hash
+	 * @return true if the hash is a Bcrypt hash
+	 */
+	@Override
+	public boolean recognizes(final String hashedPassword) {
+		return StoredPasswordHash.recognizes(hashedPassword);
+	}
+	
+	/**
+	 * Check whether a stored hash was generated with a lower cost factor than the current
+	 * one, or was stored before algorithm ids were
+	 * 
+	 * @param hashedPassword stored password hash
+	 * @return true if the password should be hashed again
+	 */
+	@Override
+	public boolean needsRehash(final String hashedPassword) {
+		final StoredPasswordHash storedHash = StoredPasswordHash.forCurrentThread();
+		if (!storedHash.parse(hashedPassword)) {
+			return false;
+		}
+		
+		return !storedHash.hasAlgorithmId() || storedHash.getCost() < cost;
+	}
+}
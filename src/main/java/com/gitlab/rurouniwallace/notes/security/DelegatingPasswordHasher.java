@@ -0,0 +1,116 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * Hashes new passwords with one configured algorithm and checks stored hashes with
+ * whichever registered algorithm generated them. Hashes generated by any algorithm other
+ * than the configured one are reported as needing a rehash, so users move to the
+ * configured algorithm as they log in.
+ *
+ */
+public class DelegatingPasswordHasher implements IHashesPasswords {
+
+	/**
+	 * Algorithm new passwords are hashed with
+	 */
+	private final IHashesPasswords primaryHasher;
+
+	/**
+	 * All registered algorithms, including the primary one
+	 */
+	private final List<IHashesPasswords> hashers;
+
+	/**
+	 * Construct a new instance
+	 *
+	 * @param algorithmId id of the algorithm new passwords are hashed with
+	 * @param hashers registered algorithms, which must include the one identified by algorithmId
+	 */
+	public DelegatingPasswordHasher(final String algorithmId, final List<IHashesPasswords> hashers) {
+		this.hashers = hashers;
+		this.primaryHasher = hashers.stream()
+				.filter(hasher -> hasher.getAlgorithmId().equals(algorithmId))
+				.findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Unknown password hash algorithm: " + algorithmId));
+	}
+
+	/**
+	 * @return the id of the algorithm new passwords are hashed with
+	 */
+	@Override
+	public String getAlgorithmId() {
+		return primaryHasher.getAlgorithmId();
+	}
+
+	/**
+	 * Hash a password with the configured algorithm
+	 *
+	 * @param password the password to hash
+	 * @return the hashed value, starting with the algorithm id
+	 * @throws GeneralSecurityException if generating the hash fails
+	 */
+	@Override
+	public String hashPassword(final String password) throws GeneralSecurityException {
+		return primaryHasher.hashPassword(password);
+	}
+
+	/**
+	 * Check a user's password with the algorithm that generated the stored hash
+	 *
+	 * @param password user password entered
+	 * @param hashedPassword stored password hash
+	 * @return true if passwords match, false if not or if no registered algorithm recognizes the hash
+	 */
+	@Override
+	public boolean checkPassword(final String password, final String hashedPassword) {
+		final IHashesPasswords hasher = findHasher(hashedPassword);
+		return hasher != null && hasher.checkPassword(password, hashedPassword);
+	}
+
+	/**
+	 * @param hashedPassword stored password hash
+	 * @return true if any registered algorithm recognizes the hash
+	 */
+	@Override
+	public boolean recognizes(final String hashedPassword) {
+		return findHasher(hashedPassword) != null;
+	}
+
+	/**
+	 * Check whether a stored hash was generated by another algorithm than the configured
+	 * one, or with outdated parameters
+	 *
+	 * @param hashedPassword stored password hash
+	 * @return true if the password should be hashed again
+	 */
+	@Override
+	public boolean needsRehash(final String hashedPassword) {
+		final IHashesPasswords hasher = findHasher(hashedPassword);
+		if (hasher == null) {
+			return false;
+		}
+
+		return hasher != primaryHasher || hasher.needsRehash(hashedPassword);
+	}
+
+	/**
+	 * Find the algorithm that generated a stored hash
+	 *
+	 * @param hashedPassword stored password hash
+	 * @return the algorithm, or null if none is registered
+	 */
+	private IHashesPasswords findHasher(final String hashedPassword) {
+		if (hashedPassword == null) {
+			return null;
+		}
+
+		for (final IHashesPasswords hasher : hashers) {
+			if (hasher.recognizes(hashedPassword)) {
+				return hasher;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,52 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Hashes user passwords and checks passwords against stored hashes. Stored hashes start
+ * with the id of the algorithm that generated them, <code>$id$...</code>, so several
+ * algorithms can be registered side by side with a {@link DelegatingPasswordHasher}.
+ *
+ */
+public interface IHashesPasswords {
+	
+	/**
+	 * @return the id this algorithm writes at the start of its stored hashes
+	 */
+	public String getAlgorithmId();
+
+	/**
+	 * Hash a password for storage
+	 * 
+	 * @param password the password to hash
+	 * @return the hashed value, including any parameters needed to check it later
+	 * @throws GeneralSecurityException if generating the hash fails
+	 */
+	public String hashPassword(final String password) throws GeneralSecurityException;
+	
+	/**
+	 * Check a user's password against a stored hash
+	 * 
+	 * @param password user password entered
+	 * @param hashedPassword stored password hash
+	 * @return true if passwords match, false if not
+	 */
+	public boolean checkPassword(final String password, final String hashedPassword);
+	
+	/**
+	 * Check whether a stored hash was generated by this algorithm
+	 * 
+	 * @param hashedPassword stored password hash
+	 * @return true if this algorithm can check passwords against the hash
+	 */
+	public boolean recognizes(final String hashedPassword);
+	
+	/**
+	 * Check whether a stored hash was generated with outdated parameters and should be
+	 * replaced the next time the password is known
+	 * 
+	 * @param hashedPassword stored password hash, which must be recognized by this algorithm
+	 * @return true if the password should be hashed again
+	 */
+	public boolean needsRehash(final String hashedPassword);
+}
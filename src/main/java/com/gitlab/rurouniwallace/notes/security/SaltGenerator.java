@@ -0,0 +1,258 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Generates password salts without blocking on the system entropy source. Each thread
+ * draws from its own DRBG instance, which is reseeded with fresh seed material gathered
+ * in the background, and a bounded pool of salts is kept filled ahead of demand.
+ */
+public class SaltGenerator implements Managed {
+
+	/**
+	 * Length of generated salts, in bytes
+	 */
+	public static final int SALT_LENGTH = 16;
+	
+	/**
+	 * Length of seed material gathered for reseeding, in bytes
+	 */
+	private static final int SEED_LENGTH = 32;
+	
+	/**
+	 * How often the background thread tops up the salt pool
+	 */
+	private static final long REFILL_INTERVAL_MILLIS = 50;
+	
+	/**
+	 * Per-thread random number generators, in order of preference
+	 */
+	private static final String[] DRBG_ALGORITHMS = {"DRBG", "SHA1PRNG"};
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SaltGenerator.class);
+	
+	/**
+	 * Salts generated ahead of demand
+	 */
+	private final BlockingQueue<byte[]> saltPool;
+	
+	/**
+	 * How often fresh seed material is gathered, in seconds
+	 */
+	private final long reseedIntervalSeconds;
+	
+	/**
+	 * Non-blocking source of seed material
+	 */
+	private final SecureRandom seedSource;
+	
+	/**
+	 * Most recently gathered seed material
+	 */
+	private final AtomicReference<byte[]> freshSeed = new AtomicReference<>();
+	
+	/**
+	 * Incremented every time fresh seed material is gathered
+	 */
+	private final AtomicLong seedEpoch = new AtomicLong();
+	
+	/**
+	 * Per-thread random number generators
+	 */
+	private final ThreadLocal<ThreadRandom> threadRandoms;
+	
+	/**
+	 * Salts served from the pool
+	 */
+	private final Meter poolHits;
+	
+	/**
+	 * Salts that had to be generated on the caller's thread because the pool was empty
+	 */
+	private final Meter poolMisses;
+	
+	/**
+	 * Background pool refill and reseed thread
+	 */
+	private ScheduledExecutorService scheduler;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param securityConfiguration application security settings
+	 * @param metrics metrics registry to report pool usage to
+	 */
+	public SaltGenerator(final SecurityConfiguration securityConfiguration, final MetricRegistry metrics) {
+		this.saltPool = new ArrayBlockingQueue<byte[]>(securityConfiguration.getSaltPoolSize());
+		this.reseedIntervalSeconds = securityConfiguration.getSaltReseedIntervalSeconds();
+		this.seedSource = buildSeedSource();
+		this.threadRandoms = ThreadLocal.withInitial(() -> new ThreadRandom(buildThreadRandom()));
+		
+		this.poolHits = metrics.meter(MetricRegistry.name(SaltGenerator.class, "pool-hits"));
+		this.poolMisses = metrics.meter(MetricRegistry.name(SaltGenerator.class, "pool-misses"));
+		metrics.register(MetricRegistry.name(SaltGenerator.class, "pool-size"), (Gauge<Integer>) saltPool::size);
+	}
+	
+	/**
+	 * Get a new salt, from the pool if one is available
+	 * 
+	 * @return a new salt
+	 */
+	public byte[] nextSalt() {
+		final byte[] salt = saltPool.poll();
+		
+		if (salt != null) {
+			poolHits.mark();
+			return salt;
+		}
+		
+		poolMisses.mark();
+		return generateSalt();
+	}
+	
+	/**
+	 * Start filling the salt pool and reseeding in the background
+	 */
+	@Override
+	public void start() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "salt-generator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		scheduler.scheduleAtFixedRate(this::reseed, 0, reseedIntervalSeconds, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(this::refill, 0, REFILL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stop the background thread
+	 */
+	@Override
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Generate a salt using the calling thread's random number generator
+	 * 
+	 * @return a new salt
+	 */
+	private byte[] generateSalt() {
+		final ThreadRandom threadRandom = threadRandoms.get();
+		
+		final long epoch = seedEpoch.get();
+		if (threadRandom.epoch != epoch) {
+			final byte[] seed = freshSeed.get();
+			if (seed != null) {
+				threadRandom.random.setSeed(seed);
+			}
+			threadRandom.epoch = epoch;
+		}
+		
+		final byte[] salt = new byte[SALT_LENGTH];
+		threadRandom.random.nextBytes(salt);
+		
+		return salt;
+	}
+	
+	/**
+	 * Top up the salt pool
+	 */
+	private void refill() {
+		while (saltPool.remainingCapacity() > 0) {
+			if (!saltPool.offer(generateSalt())) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Gather fresh seed material for the per-thread generators to mix in
+	 */
+	private void reseed() {
+		freshSeed.set(seedSource.generateSeed(SEED_LENGTH));
+		seedEpoch.incrementAndGet();
+	}
+	
+	/**
+	 * Build a non-blocking source of seed material
+	 * 
+	 * @return the seed source
+	 */
+	private static SecureRandom buildSeedSource() {
+		try {
+			return SecureRandom.getInstance("NativePRNGNonBlocking");
+		} catch (final NoSuchAlgorithmException e) {
+			LOGGER.info("NativePRNGNonBlocking not available, seeding from the default SecureRandom");
+			return new SecureRandom();
+		}
+	}
+	
+	/**
+	 * Build a random number generator for a single thread
+	 * 
+	 * @return the random number generator
+	 */
+	private SecureRandom buildThreadRandom() {
+		for (final String algorithm : DRBG_ALGORITHMS) {
+			try {
+				final SecureRandom random = SecureRandom.getInstance(algorithm);
+				random.setSeed(seedSource.generateSeed(SEED_LENGTH));
+				return random;
+			} catch (final NoSuchAlgorithmException e) {
+				LOGGER.debug(algorithm + " not available");
+			}
+		}
+		
+		return new SecureRandom();
+	}
+	
+	/**
+	 * A thread's random number generator and the seed epoch it last mixed in
+	 */
+	private static class ThreadRandom {
+		
+		/**
+		 * The random number generator
+		 */
+		private final SecureRandom random;
+		
+		/**
+		 * Seed epoch last mixed in
+		 */
+		private long epoch;
+		
+		/**
+		 * Construct a new instance
+		 * 
+		 * @param random the random number generator
+		 */
+		private ThreadRandom(final SecureRandom random) {
+			this.random = random;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.Principal;
+import java.util.UUID;
+
+/**
+ * A user identified by a validated session token
+ */
+public class SessionPrincipal implements Principal {
+
+	/**
+	 * The user's unique identifier
+	 */
+	private final UUID uuid;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param uuid the user's unique identifier
+	 */
+	public SessionPrincipal(final UUID uuid) {
+		this.uuid = uuid;
+	}
+	
+	/**
+	 * @return the uuid
+	 */
+	public UUID getUuid() {
+		return uuid;
+	}
+
+	/**
+	 * @return the user's unique identifier, as a string
+	 */
+	@Override
+	public String getName() {
+		return uuid.toString();
+	}
+}
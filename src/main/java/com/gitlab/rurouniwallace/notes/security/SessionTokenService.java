@@ -0,0 +1,278 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+/**
+ * Issues and validates stateless, HMAC-signed session tokens. A token carries the user's
+ * UUID and an expiry time, so validating it needs neither the database nor a password hash.
+ * <p>
+ * Signing keys rotate in memory: the key for each rotation epoch is derived from the
+ * configured secret, so every instance sharing the secret agrees on the keys without
+ * coordination. Tokens are accepted for as many past epochs as the token lifetime spans.
+ * Tokens have the form {@code <epoch>.<payload>.<signature>}.
+ */
+public class SessionTokenService {
+
+	/**
+	 * Token signature algorithm
+	 */
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	
+	/**
+	 * Length of a token payload: UUID plus expiry time, in bytes
+	 */
+	private static final int PAYLOAD_LENGTH = 24;
+	
+	/**
+	 * Length of a generated secret, in bytes
+	 */
+	private static final int SECRET_LENGTH = 32;
+	
+	/**
+	 * Token part separator
+	 */
+	private static final char SEPARATOR = '.';
+	
+	/**
+	 * Token part encoder
+	 */
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+	
+	/**
+	 * Token part decoder
+	 */
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(SessionTokenService.class);
+	
+	/**
+	 * Secret that signing keys are derived from
+	 */
+	private final SecretKeySpec masterKey;
+	
+	/**
+	 * How long issued tokens are valid for, in seconds
+	 */
+	private final long tokenTtlSeconds;
+	
+	/**
+	 * How long each signing key is used for, in seconds
+	 */
+	private final long keyRotationSeconds;
+	
+	/**
+	 * Number of past epochs whose keys are still accepted
+	 */
+	private final long acceptedPastEpochs;
+	
+	/**
+	 * Source of the current time
+	 */
+	private final Clock clock;
+	
+	/**
+	 * Derived signing keys, by epoch
+	 */
+	private final ConcurrentMap<Long, SecretKeySpec> signingKeys = new ConcurrentHashMap<>();
+	
+	/**
+	 * Per-thread MAC instances
+	 */
+	private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(SessionTokenService::buildMac);
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param securityConfiguration application security settings
+	 */
+	public SessionTokenService(final SecurityConfiguration securityConfiguration) {
+		this(securityConfiguration, Clock.systemUTC());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param securityConfiguration application security settings
+	 * @param clock source of the current time
+	 */
+	public SessionTokenService(final SecurityConfiguration securityConfiguration, final Clock clock) {
+		this.masterKey = new SecretKeySpec(readSecret(securityConfiguration.getTokenSecret()), HMAC_ALGORITHM);
+		this.tokenTtlSeconds = securityConfiguration.getTokenTtlSeconds();
+		this.keyRotationSeconds = securityConfiguration.getTokenKeyRotationSeconds();
+		this.acceptedPastEpochs = (tokenTtlSeconds + keyRotationSeconds - 1) / keyRotationSeconds;
+		this.clock = clock;
+	}
+	
+	/**
+	 * Issue a token for a user
+	 * 
+	 * @param uuid the user's unique identifier
+	 * @return the signed token
+	 */
+	public String issueToken(final UUID uuid) {
+		final long now = clock.instant().getEpochSecond();
+		final long epoch = now / keyRotationSeconds;
+		
+		final ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_LENGTH);
+		payload.putLong(uuid.getMostSignificantBits());
+		payload.putLong(uuid.getLeastSignificantBits());
+		payload.putLong(now + tokenTtlSeconds);
+		
+		final String signedPart = epoch + String.valueOf(SEPARATOR) + ENCODER.encodeToString(payload.array());
+		
+		return signedPart + SEPARATOR + ENCODER.encodeToString(sign(epoch, signedPart));
+	}
+	
+	/**
+	 * Validate a token
+	 * 
+	 * @param token the token to validate
+	 * @return the UUID of the user the token was issued to, or empty if the token is
+	 * malformed, forged, signed with a retired key or expired
+	 */
+	public Optional<UUID> validateToken(final String token) {
+		if (token == null) {
+			return Optional.empty();
+		}
+		
+		final int epochEnd = token.indexOf(SEPARATOR);
+		final int payloadEnd = token.indexOf(SEPARATOR, epochEnd + 1);
+		if (epochEnd <= 0 || payloadEnd < 0) {
+			return Optional.empty();
+		}
+		
+		final long now = clock.instant().getEpochSecond();
+		final long currentEpoch = now / keyRotationSeconds;
+		
+		final long epoch;
+		final byte[] payload;
+		final byte[] signature;
+		try {
+			epoch = Long.parseLong(token.substring(0, epochEnd));
+			payload = DECODER.decode(token.substring(epochEnd + 1, payloadEnd));
+			signature = DECODER.decode(token.substring(payloadEnd + 1));
+		} catch (final IllegalArgumentException e) {
+			return Optional.empty();
+		}
+		
+		if (epoch > currentEpoch || epoch < currentEpoch - acceptedPastEpochs || payload.length != PAYLOAD_LENGTH) {
+			return Optional.empty();
+		}
+		
+		if (!MessageDigest.isEqual(signature, sign(epoch, token.substring(0, payloadEnd)))) {
+			return Optional.empty();
+		}
+		
+		final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+		final UUID uuid = new UUID(payloadBuffer.getLong(), payloadBuffer.getLong());
+		final long expiry = payloadBuffer.getLong();
+		
+		if (expiry <= now) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(uuid);
+	}
+	
+	/**
+	 * Sign part of a token with the key of an epoch
+	 * 
+	 * @param epoch the key rotation epoch
+	 * @param signedPart the token text to sign
+	 * @return the signature
+	 */
+	private byte[] sign(final long epoch, final String signedPart) {
+		return hmac(signingKey(epoch), signedPart.getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	/**
+	 * Get the signing key of an epoch, deriving it if needed. Keys of epochs that can no
+	 * longer be accepted are dropped.
+	 * 
+	 * @param epoch the key rotation epoch
+	 * @return the signing key
+	 */
+	private SecretKeySpec signingKey(final long epoch) {
+		SecretKeySpec key = signingKeys.get(epoch);
+		
+		if (key == null) {
+			key = new SecretKeySpec(hmac(masterKey, ("session-token-key:" + epoch).getBytes(StandardCharsets.US_ASCII)), HMAC_ALGORITHM);
+			signingKeys.putIfAbsent(epoch, key);
+			signingKeys.keySet().removeIf(existingEpoch -> existingEpoch < epoch - acceptedPastEpochs);
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * Compute an HMAC
+	 * 
+	 * @param key the key
+	 * @param data the data to authenticate
+	 * @return the HMAC
+	 */
+	private byte[] hmac(final SecretKeySpec key, final byte[] data) {
+		final Mac mac = macs.get();
+		
+		try {
+			mac.init(key);
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException("Invalid token signing key", e);
+		}
+		
+		return mac.doFinal(data);
+	}
+	
+	/**
+	 * Read the configured secret, generating one if none was configured
+	 * 
+	 * @param secret Base64-encoded secret, or null
+	 * @return the secret
+	 */
+	private static byte[] readSecret(final String secret) {
+		if (secret != null && !secret.isEmpty()) {
+			return Base64.getDecoder().decode(secret);
+		}
+		
+		LOGGER.warn("No token secret configured. Generating one; tokens will not be valid across restarts or instances");
+		
+		final byte[] generatedSecret = new byte[SECRET_LENGTH];
+		new SecureRandom().nextBytes(generatedSecret);
+		
+		return generatedSecret;
+	}
+	
+	/**
+	 * Build a MAC instance
+	 * 
+	 * @return the MAC instance
+	 */
+	private static Mac buildMac() {
+		try {
+			return Mac.getInstance(HMAC_ALGORITHM);
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException(HMAC_ALGORITHM + " not available", e);
+		}
+	}
+}
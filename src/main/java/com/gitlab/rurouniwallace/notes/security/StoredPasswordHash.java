@@ -0,0 +1,326 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.security.MessageDigest;
+
+/**
+ * Reusable, mutable view of a stored Bcrypt password hash in the <code>$bcrypt$cost$salt$hash</code>
+ * format, where the salt and hash are standard padded Base64. Hashes stored before algorithm ids
+ * were introduced, <code>$cost$salt$hash</code>, are also read. Parsing decodes straight from the stored
+ * string into fixed buffers, so that verifying a password does not allocate for the stored value.
+ *
+ * Instances are not thread-safe; use {@link #forCurrentThread()} to borrow one.
+ */
+public final class StoredPasswordHash {
+	
+	/**
+	 * Algorithm id written at the start of stored hashes
+	 */
+	public static final String ALGORITHM_ID = "bcrypt";
+	
+	/**
+	 * Length of a Blowfish salt, in bytes
+	 */
+	public static final int SALT_LENGTH = 16;
+	
+	/**
+	 * Length of a Blowfish hash, in bytes
+	 */
+	public static final int HASH_LENGTH = 24;
+	
+	/**
+	 * Lowest cost factor Blowfish accepts
+	 */
+	private static final int MIN_COST = 4;
+	
+	/**
+	 * Highest cost factor Blowfish accepts
+	 */
+	private static final int MAX_COST = 31;
+	
+	/**
+	 * Separator between the fields of a stored hash
+	 */
+	private static final char SEPARATOR = '$';
+	
+	/**
+	 * Base64 padding character
+	 */
+	private static final char PADDING = '=';
+	
+	/**
+	 * Standard Base64 alphabet
+	 */
+	private static final char[] ENCODE_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	
+	/**
+	 * Base64 character to six bit value, or -1 for characters outside the alphabet
+	 */
+	private static final byte[] DECODE_TABLE = new byte[128];
+	
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = -1;
+		}
+		for (int i = 0; i < ENCODE_TABLE.length; i++) {
+			DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+		}
+	}
+	
+	/**
+	 * Per-thread instances
+	 */
+	private static final ThreadLocal<StoredPasswordHash> THREAD_INSTANCES = ThreadLocal.withInitial(StoredPasswordHash::new);
+	
+	/**
+	 * Whether the parsed hash started with the algorithm id
+	 */
+	private boolean hasAlgorithmId;
+	
+	/**
+	 * Hash cost factor
+	 */
+	private int cost;
+	
+	/**
+	 * Decoded salt
+	 */
+	private final byte[] salt = new byte[SALT_LENGTH];
+	
+	/**
+	 * Decoded hash
+	 */
+	private final byte[] hash = new byte[HASH_LENGTH];
+	
+	/**
+	 * Borrow the calling thread's instance. Its contents are overwritten by the next call to
+	 * {@link #parse(CharSequence)} on the same thread.
+	 *
+	 * @return the calling thread's instance
+	 */
+	public static StoredPasswordHash forCurrentThread() {
+		return THREAD_INSTANCES.get();
+	}
+	
+	/**
+	 * Format a stored hash
+	 *
+	 * @param cost hash cost factor
+	 * @param salt salt the hash was generated with
+	 * @param hash generated hash
+	 * @return the stored form, <code>$bcrypt$cost$salt$hash</code>
+	 */
+	public static String format(final int cost, final byte[] salt, final byte[] hash) {
+		final StringBuilder builder = new StringBuilder(ALGORITHM_ID.length() + 5 + encodedLength(salt.length) + encodedLength(hash.length) + 3);
+		builder.append(SEPARATOR).append(ALGORITHM_ID).append(SEPARATOR).append(cost).append(SEPARATOR);
+		encode(salt, builder);
+		builder.append(SEPARATOR);
+		encode(hash, builder);
+		return builder.toString();
+	}
+	
+	/**
+	 * Check whether a stored hash is in this format, without parsing it
+	 * 
+	 * @param storedHash stored hash
+	 * @return true if the hash starts with this algorithm's id, or with a cost factor as
+	 * hashes stored before algorithm ids did
+	 */
+	public static boolean recognizes(final String storedHash) {
+		if (storedHash.length() < 2 || storedHash.charAt(0) != SEPARATOR) {
+			return false;
+		}
+		
+		final char first = storedHash.charAt(1);
+		if (first >= '0' && first <= '9') {
+			return true;
+		}
+		return storedHash.startsWith(ALGORITHM_ID, 1) && storedHash.length() > ALGORITHM_ID.length() + 1
+				&& storedHash.charAt(ALGORITHM_ID.length() + 1) == SEPARATOR;
+	}
+	
+	/**
+	 * Parse a stored hash into this instance
+	 *
+	 * @param storedHash stored hash, <code>$bcrypt$cost$salt$hash</code> or <code>$cost$salt$hash</code>
+	 * @return true if the stored hash was well formed, false if not, in which case the contents
+	 * of this instance are undefined
+	 */
+	public boolean parse(final CharSequence storedHash) {
+		final int length = storedHash.length();
+		if (length < 2 || storedHash.charAt(0) != SEPARATOR) {
+			return false;
+		}
+		
+		int costStart = 1;
+		final char first = storedHash.charAt(1);
+		hasAlgorithmId = first < '0' || first > '9';
+		if (hasAlgorithmId) {
+			final int idEnd = costStart + ALGORITHM_ID.length();
+			if (idEnd >= length || storedHash.charAt(idEnd) != SEPARATOR) {
+				return false;
+			}
+			for (int i = 0; i < ALGORITHM_ID.length(); i++) {
+				if (storedHash.charAt(costStart + i) != ALGORITHM_ID.charAt(i)) {
+					return false;
+				}
+			}
+			costStart = idEnd + 1;
+		}
+		
+		final int costEnd = indexOf(storedHash, costStart);
+		if (costEnd < 0) {
+			return false;
+		}
+		final int saltEnd = indexOf(storedHash, costEnd + 1);
+		if (saltEnd < 0) {
+			return false;
+		}
+		
+		cost = parseCost(storedHash, costStart, costEnd);
+		if (cost < MIN_COST || cost > MAX_COST) {
+			return false;
+		}
+		
+		return decode(storedHash, costEnd + 1, saltEnd, salt)
+				&& decode(storedHash, saltEnd + 1, length, hash);
+	}
+	
+	/**
+	 * Compare a freshly generated hash with the parsed hash, in time that does not depend on
+	 * where the two differ
+	 *
+	 * @param candidateHash freshly generated hash
+	 * @return true if the hashes are equal
+	 */
+	public boolean matches(final byte[] candidateHash) {
+		return MessageDigest.isEqual(hash, candidateHash);
+	}
+	
+	/**
+	 * @return true if the parsed hash started with the algorithm id
+	 */
+	public boolean hasAlgorithmId() {
+		return hasAlgorithmId;
+	}
+	
+	/**
+	 * @return the cost
+	 */
+	public int getCost() {
+		return cost;
+	}
+	
+	/**
+	 * @return the salt buffer, which is reused by later parses
+	 */
+	public byte[] getSalt() {
+		return salt;
+	}
+	
+	/**
+	 * Find the next field separator
+	 *
+	 * @param value text to search
+	 * @param from index to start at
+	 * @return the index of the separator, or -1 if there is none
+	 */
+	private static int indexOf(final CharSequence value, final int from) {
+		for (int i = from; i < value.length(); i++) {
+			if (value.charAt(i) == SEPARATOR) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parse a decimal cost factor
+	 *
+	 * @param value text to parse
+	 * @param start first index, inclusive
+	 * @param end last index, exclusive
+	 * @return the cost factor, or -1 if it is not a number from 0 to 99
+	 */
+	private static int parseCost(final CharSequence value, final int start, final int end) {
+		if (end <= start || end - start > 2) {
+			return -1;
+		}
+		int parsed = 0;
+		for (int i = start; i < end; i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			parsed = parsed * 10 + (c - '0');
+		}
+		return parsed;
+	}
+	
+	/**
+	 * Decode padded Base64 into a buffer, which must be filled exactly
+	 *
+	 * @param value text to decode
+	 * @param start first index, inclusive
+	 * @param end last index, exclusive
+	 * @param out buffer to decode into
+	 * @return true if the text was valid Base64 of exactly the buffer's length
+	 */
+	private static boolean decode(final CharSequence value, final int start, final int end, final byte[] out) {
+		if (end - start != encodedLength(out.length)) {
+			return false;
+		}
+		
+		int written = 0;
+		for (int i = start; i < end; i += 4) {
+			int bits = 0;
+			int padding = 0;
+			for (int j = 0; j < 4; j++) {
+				final char c = value.charAt(i + j);
+				bits <<= 6;
+				if (c == PADDING && i + 4 == end && j >= 2) {
+					padding++;
+				} else if (padding > 0 || c >= DECODE_TABLE.length || DECODE_TABLE[c] < 0) {
+					return false;
+				} else {
+					bits |= DECODE_TABLE[c];
+				}
+			}
+			
+			final int bytes = 3 - padding;
+			if (written + bytes > out.length) {
+				return false;
+			}
+			for (int k = 0; k < bytes; k++) {
+				out[written++] = (byte) (bits >>> (16 - 8 * k));
+			}
+		}
+		return written == out.length;
+	}
+	
+	/**
+	 * Append padded Base64
+	 *
+	 * @param bytes bytes to encode
+	 * @param builder builder to append to
+	 */
+	private static void encode(final byte[] bytes, final StringBuilder builder) {
+		for (int i = 0; i < bytes.length; i += 3) {
+			final int remaining = Math.min(3, bytes.length - i);
+			int bits = 0;
+			for (int k = 0; k < 3; k++) {
+				bits = (bits << 8) | (k < remaining ? bytes[i + k] & 0xff : 0);
+			}
+			for (int j = 0; j < 4; j++) {
+				builder.append(j <= remaining ? ENCODE_TABLE[(bits >>> (18 - 6 * j)) & 0x3f] : PADDING);
+			}
+		}
+	}
+	
+	/**
+	 * @param byteLength number of bytes to encode
+	 * @return the length of their padded Base64 encoding
+	 */
+	private static int encodedLength(final int byteLength) {
+		return (byteLength + 2) / 3 * 4;
+	}
+}
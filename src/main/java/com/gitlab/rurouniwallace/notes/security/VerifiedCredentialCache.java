@@ -0,0 +1,219 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers recent successful password verifications so that repeat logins can skip both
+ * the user lookup and the password hash. Entries are keyed by normalized email address
+ * and hold an HMAC of the verified password under a key that only exists in memory, never
+ * the password itself. The cache is bounded by size and time to live, and entries must be
+ * invalidated whenever the user's stored hash changes.
+ */
+public class VerifiedCredentialCache {
+
+	/**
+	 * Password HMAC algorithm
+	 */
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	
+	/**
+	 * Length of the in-memory HMAC key, in bytes
+	 */
+	private static final int KEY_LENGTH = 32;
+	
+	/**
+	 * True if the cache is enabled
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Verified credentials, by normalized email address
+	 */
+	private final Cache<String, VerifiedCredential> credentials;
+	
+	/**
+	 * In-memory password HMAC key
+	 */
+	private final SecretKeySpec hmacKey;
+	
+	/**
+	 * Per-thread MAC instances
+	 */
+	private final ThreadLocal<Mac> macs;
+	
+	/**
+	 * Estimated password hashing time saved by cache hits, in nanoseconds
+	 */
+	private final Counter savedHashNanos;
+	
+	/**
+	 * Construct a disabled instance
+	 */
+	public VerifiedCredentialCache() {
+		this(new SecurityConfiguration(), new MetricRegistry());
+	}
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param securityConfiguration application security settings
+	 * @param metrics metrics registry to report cache statistics to
+	 */
+	public VerifiedCredentialCache(final SecurityConfiguration securityConfiguration, final MetricRegistry metrics) {
+		this.enabled = securityConfiguration.isCredentialCacheEnabled();
+		this.credentials = CacheBuilder.newBuilder()
+				.maximumSize(securityConfiguration.getCredentialCacheMaxSize())
+				.expireAfterWrite(securityConfiguration.getCredentialCacheTtlSeconds(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		
+		final byte[] key = new byte[KEY_LENGTH];
+		new SecureRandom().nextBytes(key);
+		this.hmacKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+		this.macs = ThreadLocal.withInitial(this::buildMac);
+		
+		this.savedHashNanos = metrics.counter(MetricRegistry.name(VerifiedCredentialCache.class, "saved-hash-nanos"));
+		metrics.register(MetricRegistry.name(VerifiedCredentialCache.class, "hit-rate"), (Gauge<Double>) () -> credentials.stats().hitRate());
+		metrics.register(MetricRegistry.name(VerifiedCredentialCache.class, "evictions"), (Gauge<Long>) () -> credentials.stats().evictionCount());
+		metrics.register(MetricRegistry.name(VerifiedCredentialCache.class, "size"), (Gauge<Long>) credentials::size);
+	}
+	
+	/**
+	 * Get the user whose credentials were recently verified
+	 * 
+	 * @param email user email address
+	 * @param password user password
+	 * @return the user, or empty if these credentials haven't been verified recently
+	 */
+	public Optional<User> getVerifiedUser(final String email, final String password) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		
+		final VerifiedCredential credential = credentials.getIfPresent(EmailKeys.normalize(email));
+		
+		if (credential == null || !MessageDigest.isEqual(credential.passwordHmac, hmac(password))) {
+			return Optional.empty();
+		}
+		
+		savedHashNanos.inc(credential.hashNanos);
+		
+		return Optional.of(new User(credential.user));
+	}
+	
+	/**
+	 * Remember a successful verification
+	 * 
+	 * @param user the verified user
+	 * @param password the verified password
+	 * @param hashNanos how long the password hash took, in nanoseconds
+	 */
+	public void putVerifiedUser(final User user, final String password, final long hashNanos) {
+		if (!enabled) {
+			return;
+		}
+		
+		credentials.put(EmailKeys.normalize(user.getEmail()), new VerifiedCredential(new User(user), hmac(password), hashNanos));
+	}
+	
+	/**
+	 * Forget any verification of a user's credentials. Must be called whenever the user's
+	 * stored password hash changes.
+	 * 
+	 * @param email user email address
+	 */
+	public void invalidate(final String email) {
+		if (enabled && email != null) {
+			credentials.invalidate(EmailKeys.normalize(email));
+		}
+	}
+	
+	/**
+	 * Forget any verification of a user's credentials, for changes to the stored password
+	 * hash made knowing only the user's UUID
+	 * 
+	 * @param uuid user UUID
+	 */
+	public void invalidate(final UUID uuid) {
+		if (enabled && uuid != null) {
+			credentials.asMap().values().removeIf(credential -> uuid.equals(credential.user.getUuid()));
+		}
+	}
+	
+	/**
+	 * Compute the HMAC of a password
+	 * 
+	 * @param password the password
+	 * @return the HMAC
+	 */
+	private byte[] hmac(final String password) {
+		return macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Build a MAC instance keyed with the in-memory key
+	 * 
+	 * @return the MAC instance
+	 */
+	private Mac buildMac() {
+		try {
+			final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(hmacKey);
+			return mac;
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException(HMAC_ALGORITHM + " not available", e);
+		}
+	}
+	
+	/**
+	 * A verified user and password
+	 */
+	private static class VerifiedCredential {
+		
+		/**
+		 * The verified user
+		 */
+		private final User user;
+		
+		/**
+		 * HMAC of the verified password
+		 */
+		private final byte[] passwordHmac;
+		
+		/**
+		 * How long the password hash took, in nanoseconds
+		 */
+		private final long hashNanos;
+		
+		/**
+		 * Construct a new instance
+		 * 
+		 * @param user the verified user
+		 * @param passwordHmac HMAC of the verified password
+		 * @param hashNanos how long the password hash took, in nanoseconds
+		 */
+		private VerifiedCredential(final User user, final byte[] passwordHmac, final long hashNanos) {
+			this.user = user;
+			this.passwordHmac = passwordHmac;
+			this.hashNanos = hashNanos;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.gitlab.rurouniwallace.notes.tenacity;
+
+import java.util.concurrent.Callable;
+
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+
+/**
+ * Carries the request deadline of a command onto the pool thread that runs it. Registered
+ * with Hystrix as its concurrency strategy, so the deadline current where a command is
+ * started is current while it runs, and the thread is interrupted if the deadline is
+ * cancelled.
+ *
+ */
+public class DeadlineConcurrencyStrategy extends HystrixConcurrencyStrategy {
+	
+	/**
+	 * Wrap work handed to a command pool so that it runs within the submitting thread's deadline
+	 * 
+	 * @param <T> result type
+	 * @param callable the work
+	 * @return the wrapped work
+	 */
+	@Override
+	public <T> Callable<T> wrapCallable(final Callable<T> callable) {
+		final Deadline deadline = Deadline.current();
+		if (!deadline.isCancellable()) {
+			return callable;
+		}
+		return () -> {
+			try (final Deadline.Scope scope = deadline.enterInterruptibly()) {
+				return callable.call();
+			}
+		};
+	}
+}
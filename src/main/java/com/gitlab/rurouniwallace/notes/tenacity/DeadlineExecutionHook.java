@@ -0,0 +1,40 @@
+package com.gitlab.rurouniwallace.notes.tenacity;
+
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+import com.netflix.hystrix.HystrixInvokable;
+import com.netflix.hystrix.HystrixInvokableInfo;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
+
+/**
+ * Blames on the request deadline the failures of commands whose deadline passed or was
+ * cancelled while they ran, such as a query cancelled or a pool wait interrupted because the
+ * client went away. Registered with Hystrix as its command execution hook, so such failures
+ * are bad requests, which neither fall back nor count towards opening a circuit.
+ *
+ */
+public class DeadlineExecutionHook extends HystrixCommandExecutionHook {
+	
+	/**
+	 * Replace the failure of a command whose deadline has passed with a
+	 * {@link DeadlineExceededException}
+	 * 
+	 * @param <T> result type
+	 * @param commandInstance the command that failed
+	 * @param e the failure
+	 * @return the failure to report
+	 */
+	@Override
+	public <T> Exception onExecutionError(final HystrixInvokable<T> commandInstance, final Exception e) {
+		final Deadline deadline = Deadline.current();
+		if (e instanceof HystrixBadRequestException || !deadline.isExpired()) {
+			return e;
+		}
+		
+		final String work = commandInstance instanceof HystrixInvokableInfo
+				? ((HystrixInvokableInfo<?>) commandInstance).getCommandKey().name()
+				: commandInstance.getClass().getSimpleName();
+		return new DeadlineExceededException(work + (deadline.isCancelled() ? " stopped; the request was cancelled" : " failed past the request deadline"), e);
+	}
+}
@@ -0,0 +1,69 @@
+package com.gitlab.rurouniwallace.notes.tenacity;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixEventType;
+import com.netflix.hystrix.strategy.eventnotifier.HystrixEventNotifier;
+
+/**
+ * Reports, per dependency key, how often commands fell back and how their fallbacks went.
+ * Registered with Hystrix as its event notifier, so every command is counted, whether or
+ * not it has a fallback.
+ *
+ */
+public class FallbackMetrics extends HystrixEventNotifier {
+	
+	/**
+	 * Fallback outcomes reported, with their metric names
+	 */
+	private static final Map<HystrixEventType, String> OUTCOMES = ImmutableMap.of(
+			HystrixEventType.FALLBACK_SUCCESS, "successes",
+			HystrixEventType.FALLBACK_FAILURE, "failures",
+			HystrixEventType.FALLBACK_REJECTION, "rejections",
+			HystrixEventType.FALLBACK_MISSING, "missing");
+	
+	/**
+	 * Fallback outcome meters, by dependency key name
+	 */
+	private final Map<String, Map<HystrixEventType, Meter>> meters = new HashMap<>();
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param metrics registry to report fallback outcomes to
+	 */
+	public FallbackMetrics(final MetricRegistry metrics) {
+		for (final NotesApiDependencyKeys key : NotesApiDependencyKeys.values()) {
+			final Map<HystrixEventType, Meter> keyMeters = new EnumMap<>(HystrixEventType.class);
+			for (final Map.Entry<HystrixEventType, String> outcome : OUTCOMES.entrySet()) {
+				keyMeters.put(outcome.getKey(), metrics.meter(MetricRegistry.name(FallbackMetrics.class, key.name(), outcome.getValue())));
+			}
+			meters.put(key.name(), keyMeters);
+		}
+	}
+	
+	/**
+	 * Count a fallback outcome
+	 *
+	 * @param eventType what happened
+	 * @param key key of the command it happened to
+	 */
+	@Override
+	public void markEvent(final HystrixEventType eventType, final HystrixCommandKey key) {
+		final Map<HystrixEventType, Meter> keyMeters = meters.get(key.name());
+		if (keyMeters == null) {
+			return;
+		}
+		
+		final Meter meter = keyMeters.get(eventType);
+		if (meter != null) {
+			meter.mark();
+		}
+	}
+}
@@ -3,9 +3,49 @@ package com.gitlab.rurouniwallace.notes.tenacity;
 import com.yammer.tenacity.core.properties.TenacityPropertyKey;
 
 /**
- * Tenacity Dependency keys
+ * Tenacity Dependency keys, one per operation so that each gets its own bulkhead. Each
+ * key is configured under upstreamTenacity by its name in lower camel case.
  *
  */
 public enum NotesApiDependencyKeys implements TenacityPropertyKey {
-	HEALTH, SQL_DB
+	
+	/**
+	 * Health checks
+	 */
+	HEALTH,
+	
+	/**
+	 * User lookups by email address, for logins and multi-get lookups
+	 */
+	USER_LOOKUP,
+	
+	/**
+	 * User profile reads by UUID
+	 */
+	PROFILE_READ,
+	
+	/**
+	 * Single user inserts
+	 */
+	USER_REGISTRATION,
+	
+	/**
+	 * Chunked user inserts, for batch registrations and imports
+	 */
+	BULK_REGISTRATION,
+	
+	/**
+	 * Stored password hash replacements
+	 */
+	PASSWORD_UPDATE,
+	
+	/**
+	 * Password checks against stored hashes, for logins
+	 */
+	PASSWORD_VERIFY,
+	
+	/**
+	 * Password hashing, for registrations and rehashes
+	 */
+	PASSWORD_HASH
 }
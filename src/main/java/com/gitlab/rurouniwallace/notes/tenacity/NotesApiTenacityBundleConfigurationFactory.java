@@ -2,12 +2,17 @@ package com.gitlab.rurouniwallace.notes.tenacity;
 
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.gitlab.rurouniwallace.notes.config.NotesApiConfiguration;
 import com.gitlab.rurouniwallace.notes.config.UpstreamTenacityConfiguration;
+import com.google.common.base.CaseFormat;
 import com.google.common.collect.ImmutableMap;
 import com.yammer.tenacity.core.bundle.BaseTenacityBundleConfigurationFactory;
 import com.yammer.tenacity.core.bundle.TenacityBundleConfigurationFactory;
 import com.yammer.tenacity.core.config.TenacityConfiguration;
+import com.yammer.tenacity.core.config.ThreadPoolConfiguration;
 import com.yammer.tenacity.core.properties.TenacityPropertyKey;
 import com.yammer.tenacity.core.properties.TenacityPropertyKeyFactory;
 
@@ -19,6 +24,11 @@ import io.dropwizard.Configuration;
  */
 public class NotesApiTenacityBundleConfigurationFactory extends BaseTenacityBundleConfigurationFactory<NotesApiConfiguration>  {
 
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(NotesApiTenacityBundleConfigurationFactory.class);
+	
 	/**
 	 * Dependency key factory
 	 */
@@ -41,11 +51,51 @@ public class NotesApiTenacityBundleConfigurationFactory extends BaseTenacityBund
 final ImmutableMap.Builder<TenacityPropertyKey, TenacityConfiguration> builder = ImmutableMap.builder();
 		
 		final UpstreamTenacityConfiguration upstreamTenacityConfig = configuration.getUpstreamTenacity();
-		
-		builder.put(NotesApiDependencyKeys.HEALTH, upstreamTenacityConfig.getHealth());
-		builder.put(NotesApiDependencyKeys.SQL_DB, upstreamTenacityConfig.getSqlDb());
+
+		for (final Map.Entry<String, TenacityConfiguration> dependency : upstreamTenacityConfig.getDependencies().entrySet()) {
+			builder.put(toKey(dependency.getKey()), sizeToAvailableProcessors(dependency.getValue()));
+		}
+
+		final Map<TenacityPropertyKey, TenacityConfiguration> tenacityConfigs = builder.build();
+		for (final NotesApiDependencyKeys key : NotesApiDependencyKeys.values()) {
+			if (!tenacityConfigs.containsKey(key)) {
+				LOGGER.warn("No upstreamTenacity entry for " + key + "; it runs with the Hystrix defaults");
+			}
+		}
+
+		return tenacityConfigs;
+	}
 	
-		return builder.build();
+	/**
+	 * Resolve the dependency key of an upstreamTenacity entry
+	 * 
+	 * @param name the entry name, in lower camel case
+	 * @return the dependency key
+	 * @throws IllegalArgumentException if there is no such key
+	 */
+	private TenacityPropertyKey toKey(final String name) {
+		try {
+			return keyFactory.from(CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, name));
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown upstreamTenacity dependency: " + name, e);
+		}
+	}
+	
+	/**
+	 * Size a thread pool to the number of available processors if no positive core size
+	 * was configured, as suits CPU-bound work
+	 * 
+	 * @param tenacityConfig Tenacity configuration of the pool
+	 * @return the same configuration, with the core size filled in
+	 */
+	private TenacityConfiguration sizeToAvailableProcessors(final TenacityConfiguration tenacityConfig) {
+		final ThreadPoolConfiguration threadPoolConfig = tenacityConfig.getThreadpool();
+		
+		if (threadPoolConfig.getThreadPoolCoreSize() <= 0) {
+			threadPoolConfig.setThreadPoolCoreSize(Runtime.getRuntime().availableProcessors());
+		}
+		
+		return tenacityConfig;
 	}
 	
 	/**
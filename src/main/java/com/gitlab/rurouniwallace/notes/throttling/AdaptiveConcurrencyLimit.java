@@ -0,0 +1,282 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.ConcurrencyLimitConfiguration;
+
+/**
+ * Concurrency limit that follows latency, in the manner of TCP Vegas. The lowest latency
+ * seen recently is taken as the no-load latency, and the limit times the share of each
+ * sample's latency spent above it estimates how much work is queueing downstream. The
+ * limit grows while little is queueing, and shrinks while much is, or at once when work
+ * times out or is rejected. Work over the limit is refused without waiting.
+ *
+ */
+public class AdaptiveConcurrencyLimit {
+	
+	/**
+	 * How often the limit is sampled into its history, in nanoseconds
+	 */
+	private static final long HISTORY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+	
+	/**
+	 * Lowest limit
+	 */
+	private final int minLimit;
+	
+	/**
+	 * Highest limit
+	 */
+	private final int maxLimit;
+	
+	/**
+	 * Factor the limit is cut by when work times out or is rejected
+	 */
+	private final double backoffRatio;
+	
+	/**
+	 * How often the no-load latency is measured afresh, in nanoseconds
+	 */
+	private final long rttProbeNanos;
+	
+	/**
+	 * Source of the current time, in nanoseconds
+	 */
+	private final LongSupplier clock;
+	
+	/**
+	 * Work admitted and not yet released
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/**
+	 * Work refused for being over the limit
+	 */
+	private final Meter shed;
+	
+	/**
+	 * Most work admitted at once
+	 */
+	private volatile int limit;
+	
+	/**
+	 * Lowest latency seen since it was last measured afresh, in nanoseconds
+	 */
+	private long noLoadRttNanos = Long.MAX_VALUE;
+	
+	/**
+	 * When the no-load latency was last measured afresh, in nanoseconds
+	 */
+	private long noLoadRttMeasuredAt;
+	
+	/**
+	 * Per-second samples of the limit, as a ring
+	 */
+	private final int[] history;
+	
+	/**
+	 * Samples in the history
+	 */
+	private int historySize;
+	
+	/**
+	 * Ring index of the next sample
+	 */
+	private int historyNext;
+	
+	/**
+	 * When the limit was last sampled into its history, in nanoseconds
+	 */
+	private long historySampledAt;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param name name of the limited work, for metrics
+	 * @param config limit settings
+	 * @param maxLimit highest limit, such as the capacity of the work's bulkhead
+	 * @param metrics registry to report the limit to
+	 */
+	public AdaptiveConcurrencyLimit(final String name, final ConcurrencyLimitConfiguration config, final int maxLimit, final MetricRegistry metrics) {
+		this(name, config, maxLimit, metrics, System::nanoTime);
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param name name of the limited work, for metrics
+	 * @param config limit settings
+	 * @param maxLimit highest limit, such as the capacity of the work's bulkhead
+	 * @param metrics registry to report the limit to
+	 * @param clock source of the current time, in nanoseconds
+	 */
+	AdaptiveConcurrencyLimit(final String name, final ConcurrencyLimitConfiguration config, final int maxLimit, final MetricRegistry metrics, final LongSupplier clock) {
+		this.minLimit = Math.max(1, Math.min(config.getMinLimit(), maxLimit));
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.backoffRatio = config.getBackoffRatio();
+		this.rttProbeNanos = TimeUnit.SECONDS.toNanos(config.getRttProbeIntervalSeconds());
+		this.clock = clock;
+		this.limit = Math.max(this.minLimit, Math.min(config.getInitialLimit(), this.maxLimit));
+		this.history = new int[Math.max(1, config.getHistorySize())];
+		this.noLoadRttMeasuredAt = clock.getAsLong();
+		
+		this.shed = metrics.meter(MetricRegistry.name(AdaptiveConcurrencyLimit.class, name, "shed"));
+		metrics.register(MetricRegistry.name(AdaptiveConcurrencyLimit.class, name, "limit"), (Gauge<Integer>) this::getLimit);
+		metrics.register(MetricRegistry.name(AdaptiveConcurrencyLimit.class, name, "in-flight"), (Gauge<Integer>) inFlight::get);
+		metrics.register(MetricRegistry.name(AdaptiveConcurrencyLimit.class, name, "limit-history"), (Gauge<List<Integer>>) this::getHistory);
+	}
+	
+	/**
+	 * Admit work if the limit allows
+	 *
+	 * @return the permit to release once the work is done, or empty if the work is over
+	 * the limit and must be refused
+	 */
+	public Optional<Permit> tryAcquire() {
+		while (true) {
+			final int current = inFlight.get();
+			if (current >= limit) {
+				shed.mark();
+				return Optional.empty();
+			}
+			
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return Optional.of(new Permit(clock.getAsLong(), current + 1));
+			}
+		}
+	}
+	
+	/**
+	 * @return most work admitted at once
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @return work admitted and not yet released
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * @return per-second samples of the limit, oldest first
+	 */
+	public synchronized List<Integer> getHistory() {
+		final List<Integer> samples = new ArrayList<>(historySize);
+		for (int i = historySize; i > 0; i--) {
+			samples.add(history[Math.floorMod(historyNext - i, history.length)]);
+		}
+		return samples;
+	}
+	
+	/**
+	 * Move the limit after work finished
+	 *
+	 * @param startedAt when the work was admitted, in nanoseconds
+	 * @param inFlightAtStart work in flight once it was admitted
+	 * @param dropped true if the work timed out or was rejected
+	 */
+	private synchronized void update(final long startedAt, final int inFlightAtStart, final boolean dropped) {
+		final long now = clock.getAsLong();
+		if (dropped) {
+			limit = Math.max(minLimit, (int) (limit * backoffRatio));
+		} else {
+			final long rttNanos = Math.max(1, now - startedAt);
+			if (rttNanos < noLoadRttNanos || now - noLoadRttMeasuredAt >= rttProbeNanos) {
+				noLoadRttNanos = rttNanos;
+				noLoadRttMeasuredAt = now;
+			}
+			
+			final double queued = limit * (1 - (double) noLoadRttNanos / rttNanos);
+			final double threshold = Math.max(1, Math.log10(limit));
+			if (queued < 3 * threshold) {
+				// only grow a limit the work is actually pressing against
+				if (inFlightAtStart * 2 >= limit) {
+					limit = Math.min(maxLimit, limit + 1);
+				}
+			} else if (queued > 6 * threshold) {
+				limit = Math.max(minLimit, limit - 1);
+			}
+		}
+		
+		if (historySize == 0 || now - historySampledAt >= HISTORY_INTERVAL_NANOS) {
+			history[historyNext] = limit;
+			historyNext = (historyNext + 1) % history.length;
+			historySize = Math.min(historySize + 1, history.length);
+			historySampledAt = now;
+		}
+	}
+	
+	/**
+	 * Admission of one piece of work, released exactly once when the work finishes
+	 */
+	public class Permit {
+		
+		/**
+		 * When the work was admitted, in nanoseconds
+		 */
+		private final long startedAt;
+		
+		/**
+		 * Work in flight once it was admitted
+		 */
+		private final int inFlightAtStart;
+		
+		/**
+		 * Whether the permit was released
+		 */
+		private final AtomicBoolean released = new AtomicBoolean();
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param startedAt when the work was admitted, in nanoseconds
+		 * @param inFlightAtStart work in flight once it was admitted
+		 */
+		Permit(final long startedAt, final int inFlightAtStart) {
+			this.startedAt = startedAt;
+			this.inFlightAtStart = inFlightAtStart;
+		}
+		
+		/**
+		 * Release the permit of work that completed, sampling its latency
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+				update(startedAt, inFlightAtStart, false);
+			}
+		}
+		
+		/**
+		 * Release the permit of work that timed out or was rejected, cutting the limit
+		 */
+		public void releaseDropped() {
+			if (released.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+				update(startedAt, inFlightAtStart, true);
+			}
+		}
+		
+		/**
+		 * Release the permit of work whose latency says nothing about load, such as work
+		 * that failed fast or was cancelled
+		 */
+		public void releaseIgnored() {
+			if (released.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs at most a fixed number of tasks at once on another executor. Tasks
+ * beyond the limit wait in a queue without holding a thread, and are handed to the
+ * other executor as running tasks finish.
+ *
+ */
+public class BoundedExecutor implements Executor {
+	
+	/**
+	 * Executor the tasks run on
+	 */
+	private final Executor delegate;
+	
+	/**
+	 * Most tasks run at once
+	 */
+	private final int maxConcurrency;
+	
+	/**
+	 * Permits for running tasks
+	 */
+	private final Semaphore permits;
+	
+	/**
+	 * Tasks waiting for a permit
+	 */
+	private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Number of tasks waiting for a permit
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param delegate executor the tasks run on
+	 * @param maxConcurrency most tasks run at once
+	 */
+	public BoundedExecutor(final Executor delegate, final int maxConcurrency) {
+		this.delegate = delegate;
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency);
+	}
+	
+	/**
+	 * Run a task once a permit is free
+	 * 
+	 * @param task the task to run
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		queued.incrementAndGet();
+		waiting.add(task);
+		dispatch();
+	}
+	
+	/**
+	 * @return number of tasks running
+	 */
+	public int getInFlight() {
+		return maxConcurrency - permits.availablePermits();
+	}
+	
+	/**
+	 * @return number of tasks waiting for a permit
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+	
+	/**
+	 * Hand waiting tasks to the delegate while permits are free. Tasks are queued before
+	 * permits are tried, and permits are released before the queue is checked again, so
+	 * no task is left waiting while a permit is free. A task the delegate rejects, which
+	 * only happens once it is shut down, is dropped.
+	 */
+	private void dispatch() {
+		while (!waiting.isEmpty() && permits.tryAcquire()) {
+			final Runnable task = waiting.poll();
+			if (task == null) {
+				permits.release();
+				continue;
+			}
+			queued.decrementAndGet();
+			
+			try {
+				delegate.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						permits.release();
+						dispatch();
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+		}
+	}
+}
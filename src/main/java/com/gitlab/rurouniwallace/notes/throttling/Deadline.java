@@ -0,0 +1,317 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
+
+/**
+ * Point in time by which a request's work must be done, since its client gives up then.
+ * Work runs within a deadline while it is {@link #enter() entered}, which makes it the
+ * thread's {@link #current()} deadline, so that work further down, such as database queries, can
+ * be bounded by what remains of it. A deadline also passes early if it is cancelled, as when
+ * the client disconnects: threads running work {@link #enterInterruptibly() within it} are
+ * interrupted, and whatever was set to {@link #whenCancelled run on cancellation} is run.
+ *
+ */
+public final class Deadline {
+	
+	/**
+	 * Deadline of work that has none
+	 */
+	private static final Deadline NONE = new Deadline(false, 0, false);
+	
+	/**
+	 * Deadline of the work running on each thread
+	 */
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+	
+	/**
+	 * True if the deadline is a point in time, false if there is none
+	 */
+	private final boolean bounded;
+	
+	/**
+	 * When the deadline passes, in nanoseconds as of {@link System#nanoTime()}
+	 */
+	private final long expiresAt;
+	
+	/**
+	 * True if the deadline may be cancelled
+	 */
+	private final boolean cancellable;
+	
+	/**
+	 * True once the deadline has been cancelled
+	 */
+	private volatile boolean cancelled;
+	
+	/**
+	 * Actions to run once the deadline is cancelled, guarded by this deadline
+	 */
+	private final List<Runnable> cancellationActions = new ArrayList<>();
+	
+	/**
+	 * Threads running work within the deadline, interrupted if it is cancelled, guarded by
+	 * this deadline
+	 */
+	private final Set<Thread> workers = new HashSet<>();
+	
+	/**
+	 * Threads interrupted by cancellation, guarded by this deadline
+	 */
+	private int interrupted;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param bounded true if the deadline is a point in time, false if there is none
+	 * @param expiresAt when the deadline passes, in nanoseconds as of {@link System#nanoTime()}
+	 * @param cancellable true if the deadline may be cancelled
+	 */
+	private Deadline(final boolean bounded, final long expiresAt, final boolean cancellable) {
+		this.bounded = bounded;
+		this.expiresAt = expiresAt;
+		this.cancellable = cancellable;
+	}
+	
+	/**
+	 * @return a deadline that never passes
+	 */
+	public static Deadline none() {
+		return NONE;
+	}
+	
+	/**
+	 * Construct a deadline some time from now
+	 * 
+	 * @param timeout time until the deadline
+	 * @param unit unit of the timeout
+	 * @return the deadline
+	 */
+	public static Deadline after(final long timeout, final TimeUnit unit) {
+		return new Deadline(true, System.nanoTime() + unit.toNanos(timeout), true);
+	}
+	
+	/**
+	 * @return a deadline that passes only if it is cancelled
+	 */
+	public static Deadline unbounded() {
+		return new Deadline(false, 0, true);
+	}
+	
+	/**
+	 * @return the deadline of the work running on this thread, or {@link #none()}
+	 */
+	public static Deadline current() {
+		final Deadline current = CURRENT.get();
+		return current == null ? NONE : current;
+	}
+	
+	/**
+	 * @return true if the deadline is a point in time, false if there is none
+	 */
+	public boolean isBounded() {
+		return bounded;
+	}
+	
+	/**
+	 * @return true if the deadline may be cancelled, which is so of all but {@link #none()}
+	 */
+	public boolean isCancellable() {
+		return cancellable;
+	}
+	
+	/**
+	 * @return true if the deadline has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * @return true if the deadline has passed, or has been cancelled
+	 */
+	public boolean isExpired() {
+		return cancelled || bounded && System.nanoTime() - expiresAt >= 0;
+	}
+	
+	/**
+	 * Time left until the deadline
+	 * 
+	 * @param unit unit to return the time in
+	 * @return time left, zero if the deadline has passed, or {@link Long#MAX_VALUE} if
+	 * there is no deadline
+	 */
+	public long remaining(final TimeUnit unit) {
+		if (cancelled) {
+			return 0;
+		}
+		if (!bounded) {
+			return Long.MAX_VALUE;
+		}
+		return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Skip work whose deadline has passed
+	 * 
+	 * @param work the work about to start, for the error message
+	 * @throws DeadlineExceededException if the deadline has passed
+	 */
+	public void check(final String work) {
+		if (cancelled) {
+			throw new DeadlineExceededException(work + " skipped; the request was cancelled");
+		}
+		if (isExpired()) {
+			throw new DeadlineExceededException(work + " skipped; the request deadline passed");
+		}
+	}
+	
+	/**
+	 * Cancel the deadline, so that it passes now. Threads running work within it are
+	 * interrupted, then the actions set to run on cancellation are run. Only the first
+	 * cancellation has any effect.
+	 * 
+	 * @return true if the deadline was cancelled, false if it had been already or may not be
+	 */
+	public boolean cancel() {
+		final List<Runnable> actions;
+		synchronized (this) {
+			if (!cancellable || cancelled) {
+				return false;
+			}
+			cancelled = true;
+			
+			for (final Thread worker : workers) {
+				worker.interrupt();
+			}
+			interrupted = workers.size();
+			actions = new ArrayList<>(cancellationActions);
+			cancellationActions.clear();
+		}
+		
+		for (final Runnable action : actions) {
+			action.run();
+		}
+		return true;
+	}
+	
+	/**
+	 * Run an action once the deadline is cancelled, or now if it already has been. Nothing
+	 * is run for a deadline that may not be cancelled.
+	 * 
+	 * @param action the action, such as cancelling a database query
+	 */
+	public void whenCancelled(final Runnable action) {
+		synchronized (this) {
+			if (!cancellable) {
+				return;
+			}
+			if (!cancelled) {
+				cancellationActions.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+	
+	/**
+	 * @return the number of threads that were running work within the deadline, and were
+	 * interrupted, when it was cancelled
+	 */
+	public synchronized int getInterrupted() {
+		return interrupted;
+	}
+	
+	/**
+	 * Make this the thread's current deadline until the returned scope is closed
+	 * 
+	 * @return the scope, which restores the previous deadline when closed
+	 */
+	public Scope enter() {
+		final Deadline previous = CURRENT.get();
+		CURRENT.set(this);
+		return new Scope(this, previous, false);
+	}
+	
+	/**
+	 * Make this the thread's current deadline until the returned scope is closed, and
+	 * interrupt the thread if the deadline is cancelled in the meantime. Meant for pool
+	 * threads running work for a request, not for threads the request arrived on.
+	 * 
+	 * @return the scope, which restores the previous deadline when closed
+	 */
+	public Scope enterInterruptibly() {
+		if (!cancellable) {
+			return enter();
+		}
+		
+		synchronized (this) {
+			workers.add(Thread.currentThread());
+		}
+		final Deadline previous = CURRENT.get();
+		CURRENT.set(this);
+		return new Scope(this, previous, true);
+	}
+	
+	/**
+	 * Span of work with a deadline current, ended by closing it
+	 */
+	public static final class Scope implements AutoCloseable {
+		
+		/**
+		 * Deadline the scope was entered for
+		 */
+		private final Deadline deadline;
+		
+		/**
+		 * Deadline current before the scope was entered, or null if there was none
+		 */
+		private final Deadline previous;
+		
+		/**
+		 * True if the thread is interrupted if the deadline is cancelled
+		 */
+		private final boolean interruptible;
+		
+		/**
+		 * Construct a new instance
+		 * 
+		 * @param deadline deadline the scope was entered for
+		 * @param previous deadline current before the scope was entered, or null if there was none
+		 * @param interruptible true if the thread is interrupted if the deadline is cancelled
+		 */
+		private Scope(final Deadline deadline, final Deadline previous, final boolean interruptible) {
+			this.deadline = deadline;
+			this.previous = previous;
+			this.interruptible = interruptible;
+		}
+		
+		/**
+		 * Restore the deadline current before the scope was entered. An interruptible scope
+		 * also clears an interrupt its cancellation left behind, since the thread goes on to
+		 * other work.
+		 */
+		@Override
+		public void close() {
+			if (interruptible) {
+				synchronized (deadline) {
+					deadline.workers.remove(Thread.currentThread());
+					if (deadline.cancelled) {
+						Thread.interrupted();
+					}
+				}
+			}
+			
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Notices clients that disconnect while their request is still being worked on. Jetty only
+ * finds a closed connection when it next reads from or writes to it, which it does not do
+ * for a suspended request until the response is ready, so the connections of watched
+ * requests are polled for readability on a selector of their own. A request is only watched
+ * once all of it has been read, so its connection turning readable means the client
+ * closed it, unless its response is already being sent, after which clients may close as
+ * they please. A client pipelining another request behind one still in flight would look
+ * the same, but clients have all but given pipelining up.
+ *
+ */
+public class DisconnectWatcher implements Managed {
+	
+	/**
+	 * Event logger
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(DisconnectWatcher.class);
+	
+	/**
+	 * Runs the actions of disconnected requests, off the selector thread
+	 */
+	private final Executor executor;
+	
+	/**
+	 * Requests whose clients disconnected
+	 */
+	private final Meter disconnects;
+	
+	/**
+	 * Requests being watched
+	 */
+	private final AtomicInteger watched = new AtomicInteger();
+	
+	/**
+	 * Watches waiting to be registered with the selector
+	 */
+	private final Queue<Watch> pending = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Selector polling the connections of watched requests, or null if stopped
+	 */
+	private volatile Selector selector;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param executor runs the actions of disconnected requests
+	 * @param metrics registry to report disconnects to
+	 */
+	public DisconnectWatcher(final Executor executor, final MetricRegistry metrics) {
+		this.executor = executor;
+		this.disconnects = metrics.meter(MetricRegistry.name(DisconnectWatcher.class, "disconnects"));
+		metrics.register(MetricRegistry.name(DisconnectWatcher.class, "watched"), (Gauge<Integer>) watched::get);
+	}
+	
+	/**
+	 * Start polling on a background thread
+	 *
+	 * @throws IOException if the selector could not be opened
+	 */
+	@Override
+	public void start() throws IOException {
+		selector = Selector.open();
+		final Thread thread = new Thread(this::poll, "disconnect-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stop polling
+	 *
+	 * @throws IOException if the selector could not be closed
+	 */
+	@Override
+	public void stop() throws IOException {
+		final Selector stopped = selector;
+		selector = null;
+		if (stopped != null) {
+			stopped.close();
+		}
+	}
+	
+	/**
+	 * Run an action if the client of a suspended request disconnects before its response is
+	 * sent. The request is watched until its response is complete, and also counts as
+	 * disconnected if the servlet container reports an error or timeout on it.
+	 *
+	 * @param request the request, which must be suspended
+	 * @param onDisconnect the action, such as cancelling the request's work
+	 * @return true if the request is watched, false if its connection cannot be
+	 */
+	public boolean watch(final HttpServletRequest request, final Runnable onDisconnect) {
+		final Selector current = selector;
+		final Request baseRequest = Request.getBaseRequest(request);
+		if (current == null || baseRequest == null || !request.isAsyncStarted()) {
+			return false;
+		}
+		
+		final EndPoint endPoint = baseRequest.getHttpChannel().getEndPoint();
+		if (!(endPoint instanceof ChannelEndPoint) || !(endPoint.getConnection() instanceof HttpConnection)
+				|| !isFullyRead(((HttpConnection) endPoint.getConnection()).getParser())) {
+			return false;
+		}
+		
+		final Watch watch = new Watch(baseRequest, (ChannelEndPoint) endPoint, onDisconnect);
+		request.getAsyncContext().addListener(watch);
+		watched.incrementAndGet();
+		pending.add(watch);
+		current.wakeup();
+		return true;
+	}
+	
+	/**
+	 * Check that nothing of a request is left on its connection. Jetty hands a request over
+	 * as soon as its headers are parsed, and only parses the end of the request when next
+	 * asked to read, so the parser of a request without a body, or whose body has been read,
+	 * may not be complete yet.
+	 *
+	 * @param parser parser of the request's connection
+	 * @return true if the request has been read to its end, false if some of it may be unread
+	 */
+	private static boolean isFullyRead(final HttpParser parser) {
+		return parser.isComplete()
+				|| (parser.inContentState() && !parser.isChunking() && parser.getContentRead() >= parser.getContentLength());
+	}
+	
+	/**
+	 * Poll the connections of watched requests until stopped
+	 */
+	private void poll() {
+		final Selector polling = selector;
+		while (polling.isOpen()) {
+			try {
+				polling.select();
+				
+				// only those pending now, since a registration may be put back for the next round
+				for (int i = pending.size(); i > 0; i--) {
+					pending.poll().register(polling);
+				}
+				
+				final Iterator<SelectionKey> selected = polling.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					final SelectionKey key = selected.next();
+					selected.remove();
+					((Watch) key.attachment()).disconnected();
+				}
+			} catch (final IOException | RuntimeException e) {
+				if (polling.isOpen()) {
+					LOGGER.warn("Failed to poll watched connections", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Watch over one request, ended by its response completing or its client disconnecting
+	 */
+	private class Watch implements AsyncListener {
+		
+		/**
+		 * The watched request
+		 */
+		private final Request request;
+		
+		/**
+		 * Connection the request arrived on
+		 */
+		private final ChannelEndPoint endPoint;
+		
+		/**
+		 * Action to run if the client disconnects
+		 */
+		private final Runnable onDisconnect;
+		
+		/**
+		 * Whether the watch has ended
+		 */
+		private final AtomicBoolean ended = new AtomicBoolean();
+		
+		/**
+		 * Registration of the connection with the selector, or null until registered
+		 */
+		private volatile SelectionKey key;
+		
+		/**
+		 * Construct a new instance
+		 *
+		 * @param request the watched request
+		 * @param endPoint connection the request arrived on
+		 * @param onDisconnect action to run if the client disconnects
+		 */
+		Watch(final Request request, final ChannelEndPoint endPoint, final Runnable onDisconnect) {
+			this.request = request;
+			this.endPoint = endPoint;
+			this.onDisconnect = onDisconnect;
+		}
+		
+		/**
+		 * Register the connection with the selector, unless the watch already ended
+		 *
+		 * @param polling the selector
+		 */
+		void register(final Selector polling) {
+			if (ended.get()) {
+				return;
+			}
+			
+			try {
+				key = endPoint.getChannel().register(polling, SelectionKey.OP_READ, this);
+			} catch (final ClosedChannelException e) {
+				disconnected();
+				return;
+			} catch (final CancelledKeyException e) {
+				// the connection's key from its last request is still to be flushed, which the next select does
+				pending.add(this);
+				polling.wakeup();
+				return;
+			}
+			if (ended.get()) {
+				// ended while registering, so the key would otherwise be left behind
+				key.cancel();
+			}
+		}
+		
+		/**
+		 * End the watch as the client disconnected, and run its action unless the response is
+		 * already being sent
+		 */
+		void disconnected() {
+			if (end() && !request.getResponse().isCommitted()) {
+				disconnects.mark();
+				executor.execute(onDisconnect);
+			}
+		}
+		
+		/**
+		 * End the watch, deregistering the connection so Jetty has it to itself again
+		 *
+		 * @return true if this ended the watch, false if it had ended already
+		 */
+		private boolean end() {
+			if (!ended.compareAndSet(false, true)) {
+				return false;
+			}
+			
+			watched.decrementAndGet();
+			final SelectionKey registered = key;
+			if (registered != null) {
+				registered.cancel();
+				// flush the cancelled key now, so a close of the connection by Jetty is not held up
+				final Selector current = selector;
+				if (current != null) {
+					current.wakeup();
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * End the watch once the response is complete
+		 *
+		 * @param event the completion
+		 */
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			end();
+		}
+		
+		/**
+		 * Count a timeout of the request as a disconnect
+		 *
+		 * @param event the timeout
+		 */
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			disconnected();
+		}
+		
+		/**
+		 * Count an error on the request as a disconnect
+		 *
+		 * @param event the error
+		 */
+		@Override
+		public void onError(final AsyncEvent event) {
+			disconnected();
+		}
+		
+		/**
+		 * Nothing to do when the request is suspended again
+		 *
+		 * @param event the suspension
+		 */
+		@Override
+		public void onStartAsync(final AsyncEvent event) {
+			// empty
+		}
+	}
+}
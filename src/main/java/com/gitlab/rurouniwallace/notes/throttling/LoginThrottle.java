@@ -0,0 +1,95 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.LoginThrottleConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+
+/**
+ * Admission control for login attempts. Each attempt takes a token from the bucket of
+ * the client address and of the email address, so a burst of attempts is rejected before
+ * any password hashing or database work is done. Email addresses are normalized as user
+ * lookups normalize them, so every spelling that logs in to an account shares its bucket.
+ */
+public class LoginThrottle {
+
+	/**
+	 * True if throttling is enabled
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Buckets by email address
+	 */
+	private final TokenBucketTable emailBuckets;
+	
+	/**
+	 * Buckets by client address
+	 */
+	private final TokenBucketTable addressBuckets;
+	
+	/**
+	 * Attempts rejected by the email address limit
+	 */
+	private final Meter emailRejections;
+	
+	/**
+	 * Attempts rejected by the client address limit
+	 */
+	private final Meter addressRejections;
+	
+	/**
+	 * Attempts admitted
+	 */
+	private final Meter admissions;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param configuration throttling settings
+	 * @param metrics metrics registry to report throttling to
+	 */
+	public LoginThrottle(final LoginThrottleConfiguration configuration, final MetricRegistry metrics) {
+		this.enabled = configuration.isEnabled();
+		this.emailBuckets = new TokenBucketTable(configuration.getTableSize(), configuration.getEmailBurst(), configuration.getEmailPerMinute(), System::nanoTime);
+		this.addressBuckets = new TokenBucketTable(configuration.getTableSize(), configuration.getAddressBurst(), configuration.getAddressPerMinute(), System::nanoTime);
+		
+		this.emailRejections = metrics.meter(MetricRegistry.name(LoginThrottle.class, "email", "rejected"));
+		this.addressRejections = metrics.meter(MetricRegistry.name(LoginThrottle.class, "address", "rejected"));
+		this.admissions = metrics.meter(MetricRegistry.name(LoginThrottle.class, "admitted"));
+		metrics.register(MetricRegistry.name(LoginThrottle.class, "email", "tracked-keys"), (Gauge<Integer>) emailBuckets::trackedKeys);
+		metrics.register(MetricRegistry.name(LoginThrottle.class, "address", "tracked-keys"), (Gauge<Integer>) addressBuckets::trackedKeys);
+	}
+	
+	/**
+	 * Admit or reject a login attempt
+	 * 
+	 * @param email email address the attempt is for
+	 * @param clientAddress address the attempt came from
+	 * @return zero if the attempt is admitted, otherwise the number of nanoseconds to
+	 * wait before retrying
+	 */
+	public long tryAdmit(final String email, final String clientAddress) {
+		if (!enabled) {
+			return 0;
+		}
+		
+		if (clientAddress != null) {
+			final long addressWait = addressBuckets.tryAcquire(clientAddress);
+			if (addressWait > 0) {
+				addressRejections.mark();
+				return addressWait;
+			}
+		}
+		
+		final long emailWait = emailBuckets.tryAcquire(EmailKeys.normalize(email));
+		if (emailWait > 0) {
+			emailRejections.mark();
+			return emailWait;
+		}
+		
+		admissions.mark();
+		return 0;
+	}
+}
@@ -0,0 +1,189 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.LoadSheddingConfiguration;
+
+/**
+ * Admission control by request priority. Load is the greater of the requests in flight and
+ * the mean request latency, each as a share of what the service counts as fully loaded.
+ * Each priority class is shed once load reaches its share, so the lowest classes go first
+ * and health checks are always admitted. Shed requests are told how long until load is
+ * expected to fall back under their share.
+ */
+public class PriorityLoadShedder {
+	
+	/**
+	 * True if shedding is enabled
+	 */
+	private final boolean enabled;
+	
+	/**
+	 * Requests in flight at which the service counts as fully loaded
+	 */
+	private final int maxInFlight;
+	
+	/**
+	 * Mean request latency at which the service counts as fully loaded, in nanoseconds
+	 */
+	private final double targetLatencyNanos;
+	
+	/**
+	 * Time constant of the mean request latency, in nanoseconds
+	 */
+	private final double latencyWindowNanos;
+	
+	/**
+	 * Longest wait a shed request is told to retry after, in nanoseconds
+	 */
+	private final long maxRetryAfterNanos;
+	
+	/**
+	 * Load from which each priority class is shed
+	 */
+	private final Map<RequestPriority, Double> shedLoads = new EnumMap<>(RequestPriority.class);
+	
+	/**
+	 * Requests shed, by priority class
+	 */
+	private final Map<RequestPriority, Meter> shed = new EnumMap<>(RequestPriority.class);
+	
+	/**
+	 * Source of the current time, in nanoseconds
+	 */
+	private final LongSupplier clock;
+	
+	/**
+	 * Requests admitted and not yet finished
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/**
+	 * Mean request latency as of the last request finished, in nanoseconds
+	 */
+	private double meanLatencyNanos;
+	
+	/**
+	 * When the last request finished, in nanoseconds
+	 */
+	private long lastFinishedAt;
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param configuration shedding settings
+	 * @param metrics metrics registry to report shedding to
+	 */
+	public PriorityLoadShedder(final LoadSheddingConfiguration configuration, final MetricRegistry metrics) {
+		this(configuration, metrics, System::nanoTime);
+	}
+	
+	/**
+	 * Construct a new instance
+	 *
+	 * @param configuration shedding settings
+	 * @param metrics metrics registry to report shedding to
+	 * @param clock source of the current time, in nanoseconds
+	 */
+	PriorityLoadShedder(final LoadSheddingConfiguration configuration, final MetricRegistry metrics, final LongSupplier clock) {
+		this.enabled = configuration.isEnabled();
+		this.maxInFlight = Math.max(1, configuration.getMaxInFlight());
+		this.targetLatencyNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(configuration.getTargetLatencyMillis()));
+		this.latencyWindowNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(configuration.getLatencyWindowMillis()));
+		this.maxRetryAfterNanos = TimeUnit.SECONDS.toNanos(configuration.getMaxRetryAfterSeconds());
+		this.clock = clock;
+		this.lastFinishedAt = clock.getAsLong();
+		
+		shedLoads.put(RequestPriority.HEALTH, Double.POSITIVE_INFINITY);
+		shedLoads.put(RequestPriority.AUTHENTICATION, configuration.getAuthenticationShedLoad());
+		shedLoads.put(RequestPriority.STANDARD, configuration.getStandardShedLoad());
+		shedLoads.put(RequestPriority.REGISTRATION, configuration.getRegistrationShedLoad());
+		
+		for (final RequestPriority priority : RequestPriority.values()) {
+			shed.put(priority, metrics.meter(MetricRegistry.name(PriorityLoadShedder.class, priority.name(), "shed")));
+		}
+		metrics.register(MetricRegistry.name(PriorityLoadShedder.class, "in-flight"), (Gauge<Integer>) inFlight::get);
+		metrics.register(MetricRegistry.name(PriorityLoadShedder.class, "mean-latency-millis"),
+				(Gauge<Double>) () -> getMeanLatencyNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+		metrics.register(MetricRegistry.name(PriorityLoadShedder.class, "load"), (Gauge<Double>) this::getLoad);
+	}
+	
+	/**
+	 * Admit or shed a request
+	 *
+	 * @param priority priority class of the request
+	 * @return zero if the request is admitted, and must be finished with {@link #finish},
+	 * otherwise the number of nanoseconds to wait before retrying
+	 */
+	public long tryAdmit(final RequestPriority priority) {
+		if (!enabled) {
+			return 0;
+		}
+		
+		final double shedLoad = shedLoads.get(priority);
+		final int depth = inFlight.get();
+		final double meanLatency = getMeanLatencyNanos();
+		if (Math.max((double) depth / maxInFlight, meanLatency / targetLatencyNanos) < shedLoad) {
+			inFlight.incrementAndGet();
+			return 0;
+		}
+		
+		shed.get(priority).mark();
+		
+		// requests in flight drain at about depth / latency per nanosecond, and the mean latency decays by e per window
+		final double excessDepth = depth - shedLoad * maxInFlight;
+		final double drainNanos = excessDepth > 0 && depth > 0 ? excessDepth * meanLatency / depth : 0;
+		final double shedLatency = shedLoad * targetLatencyNanos;
+		final double decayNanos = meanLatency > shedLatency ? latencyWindowNanos * Math.log(meanLatency / shedLatency) : 0;
+		return Math.max(1, Math.min(maxRetryAfterNanos, (long) Math.max(drainNanos, decayNanos)));
+	}
+	
+	/**
+	 * Finish an admitted request, sampling its latency
+	 *
+	 * @param admittedAt when the request was admitted, in nanoseconds as of {@link #now}
+	 */
+	public void finish(final long admittedAt) {
+		if (!enabled) {
+			return;
+		}
+		
+		inFlight.decrementAndGet();
+		synchronized (this) {
+			final long finishedAt = clock.getAsLong();
+			final double weight = Math.exp(-(finishedAt - lastFinishedAt) / latencyWindowNanos);
+			meanLatencyNanos = weight * meanLatencyNanos + (1 - weight) * (finishedAt - admittedAt);
+			lastFinishedAt = finishedAt;
+		}
+	}
+	
+	/**
+	 * @return the current time, in nanoseconds, to pass to {@link #finish} once an admitted
+	 * request finishes
+	 */
+	public long now() {
+		return clock.getAsLong();
+	}
+	
+	/**
+	 * @return current load, as a share of full
+	 */
+	public double getLoad() {
+		return Math.max((double) inFlight.get() / maxInFlight, getMeanLatencyNanos() / targetLatencyNanos);
+	}
+	
+	/**
+	 * @return mean request latency, decayed for the time since the last request finished, in
+	 * nanoseconds
+	 */
+	private synchronized double getMeanLatencyNanos() {
+		return meanLatencyNanos * Math.exp(-(clock.getAsLong() - lastFinishedAt) / latencyWindowNanos);
+	}
+}
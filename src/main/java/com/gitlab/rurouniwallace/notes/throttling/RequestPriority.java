@@ -0,0 +1,29 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+/**
+ * Priority classes of requests, highest first. Under load, requests are shed from the
+ * lowest class up.
+ *
+ */
+public enum RequestPriority {
+	
+	/**
+	 * Health checks, which the orchestrator kills instances over if they time out. Never shed.
+	 */
+	HEALTH,
+	
+	/**
+	 * Logins and session checks, which keep signed-in users working
+	 */
+	AUTHENTICATION,
+	
+	/**
+	 * Other user traffic, such as profile reads and lookups
+	 */
+	STANDARD,
+	
+	/**
+	 * Registrations and imports, the costliest requests and the easiest to retry later
+	 */
+	REGISTRATION
+}
@@ -0,0 +1,180 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A fixed-size table of token buckets, one per key. Buckets are immutable and replaced
+ * with compare-and-set, so the table is lock-free. Each key may live in one of two slots;
+ * when both are taken by other keys, the one holding more tokens is evicted, so memory stays
+ * fixed no matter how many distinct keys are seen. A fuller bucket is the one whose loss
+ * forgives the least, while a bucket that is rejecting attempts is kept for as long as any
+ * neighbour is fuller, so churning through other keys does not reset a throttled one.
+ */
+public class TokenBucketTable {
+
+	/**
+	 * Bucket slots
+	 */
+	private final AtomicReferenceArray<Bucket> slots;
+	
+	/**
+	 * Slot index mask
+	 */
+	private final int mask;
+	
+	/**
+	 * Maximum number of tokens in a bucket
+	 */
+	private final double capacity;
+	
+	/**
+	 * Tokens added to a bucket per nanosecond
+	 */
+	private final double refillPerNano;
+	
+	/**
+	 * Source of the current time, in nanoseconds
+	 */
+	private final LongSupplier nanoClock;
+	
+	/**
+	 * Construct a new instance
+	 * 
+	 * @param size number of slots, rounded up to a power of two
+	 * @param capacity maximum number of tokens in a bucket
+	 * @param refillPerMinute tokens added to a bucket per minute
+	 * @param nanoClock source of the current time, in nanoseconds
+	 */
+	public TokenBucketTable(final int size, final double capacity, final double refillPerMinute, final LongSupplier nanoClock) {
+		final int slotCount = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		
+		this.slots = new AtomicReferenceArray<Bucket>(slotCount);
+		this.mask = slotCount - 1;
+		this.capacity = capacity;
+		this.refillPerNano = refillPerMinute / TimeUnit.MINUTES.toNanos(1);
+		this.nanoClock = nanoClock;
+	}
+	
+	/**
+	 * Take a token from a key's bucket
+	 * 
+	 * @param key the key
+	 * @return zero if a token was taken, otherwise the number of nanoseconds until one will
+	 * be available
+	 */
+	public long tryAcquire(final String key) {
+		final int hash = spread(key.hashCode());
+		final int firstIndex = hash & mask;
+		final int probedIndex = (Integer.rotateLeft(hash, 16) * 0x9E3779B9) & mask;
+		// two distinct slots, so a newcomer always has a choice of which to evict
+		final int secondIndex = probedIndex == firstIndex ? firstIndex ^ 1 : probedIndex;
+		
+		while (true) {
+			final long now = nanoClock.getAsLong();
+			
+			final Bucket first = slots.get(firstIndex);
+			final Bucket second = slots.get(secondIndex);
+			
+			final int index;
+			final Bucket current;
+			if (first != null && first.key.equals(key)) {
+				index = firstIndex;
+				current = first;
+			} else if (second != null && second.key.equals(key)) {
+				index = secondIndex;
+				current = second;
+			} else {
+				// not tracked yet; evict whichever slot holds more tokens
+				index = first == null || (second != null && refill(first, now) >= refill(second, now)) ? firstIndex : secondIndex;
+				if (slots.compareAndSet(index, index == firstIndex ? first : second, new Bucket(key, capacity - 1, now))) {
+					return 0;
+				}
+				continue;
+			}
+			
+			final double tokens = refill(current, now);
+			
+			if (tokens < 1) {
+				return (long) Math.ceil((1 - tokens) / refillPerNano);
+			}
+			
+			if (slots.compareAndSet(index, current, new Bucket(key, tokens - 1, now))) {
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * Count the tokens in a bucket once refilled up to a point in time
+	 * 
+	 * @param bucket the bucket
+	 * @param now the time, in nanoseconds
+	 * @return the tokens the bucket would hold
+	 */
+	private double refill(final Bucket bucket, final long now) {
+		return Math.min(capacity, bucket.tokens + (now - bucket.refilledAt) * refillPerNano);
+	}
+	
+	/**
+	 * Count the keys currently tracked
+	 * 
+	 * @return the number of occupied slots
+	 */
+	public int trackedKeys() {
+		int count = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Spread hash bits so that keys with similar hash codes land in different slots
+	 * 
+	 * @param hash the hash code
+	 * @return the spread hash
+	 */
+	private static int spread(final int hash) {
+		final int mixed = hash * 0x85EBCA6B;
+		return mixed ^ (mixed >>> 16);
+	}
+	
+	/**
+	 * The state of one key's bucket
+	 */
+	private static class Bucket {
+		
+		/**
+		 * The key
+		 */
+		private final String key;
+		
+		/**
+		 * Tokens left at the last refill
+		 */
+		private final double tokens;
+		
+		/**
+		 * Time of the last refill, in nanoseconds
+		 */
+		private final long refilledAt;
+		
+		/**
+		 * Construct a new instance
+		 * 
+		 * @param key the key
+		 * @param tokens tokens left at the last refill
+		 * @param refilledAt time of the last refill, in nanoseconds
+		 */
+		private Bucket(final String key, final double tokens, final long refilledAt) {
+			this.key = key;
+			this.tokens = tokens;
+			this.refilledAt = refilledAt;
+		}
+	}
+}
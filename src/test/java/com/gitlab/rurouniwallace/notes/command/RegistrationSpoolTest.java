@@ -0,0 +1,120 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.FallbackConfiguration;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.SqlDao;
+import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.models.User;
+
+import io.dropwizard.jackson.Jackson;
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.ClassLoaderResourceAccessor;
+
+public class RegistrationSpoolTest {
+	
+	private static final String MOCK_CONNECTION_URL = "jdbc:hsqldb:mem:spoolDb;sql.sql.syntax_pgs=true";
+	
+	@TempDir
+	public Path spoolParent;
+	
+	private BasicDataSource dataSource;
+	
+	@AfterEach
+	public void tearDown() throws SQLException {
+		if (dataSource != null) {
+			dataSource.close();
+		}
+	}
+	
+	@Test
+	public void replay_SpooledBeforeRestart_InsertInOrderAndDropDuplicates() throws IOException, SQLException, LiquibaseException, DataAccessException {
+		final SqlDao dao = buildDao();
+		final FallbackConfiguration config = new FallbackConfiguration();
+		config.setSpoolDirectory(spoolParent.resolve("spool").toString());
+		
+		final RegistrationSpool spool = new RegistrationSpool(config, dao, Jackson.newObjectMapper(), new MetricRegistry());
+		spool.spool(new User("spooled1@example.com", "plain1", null, "First", "Spooled"), "$hash1");
+		spool.spool(new User("spooled2@example.com", "plain2", null, "Second", "Spooled"), "$hash2");
+		spool.spool(new User("spooled1@example.com", "plain3", null, "Duplicate", "Spooled"), "$hash3");
+		
+		final MetricRegistry metrics = new MetricRegistry();
+		final RegistrationSpool restarted = new RegistrationSpool(config, dao, Jackson.newObjectMapper(), metrics);
+		assertEquals(3, metrics.getGauges().get(MetricRegistry.name(RegistrationSpool.class, "pending")).getValue(), "Spooled registrations survive a restart");
+		
+		assertEquals(2, restarted.replay());
+		
+		final Optional<User> first = dao.lookupUserByEmail("spooled1@example.com");
+		assertTrue(first.isPresent());
+		assertEquals("First", first.get().getGivenName(), "The registration spooled first wins");
+		assertEquals("$hash1", first.get().getPassword(), "The hashed password is spooled, not the plain one");
+		assertTrue(dao.lookupUserByEmail("spooled2@example.com").isPresent());
+		assertEquals(1, metrics.meter(MetricRegistry.name(RegistrationSpool.class, "duplicates")).getCount());
+		assertEquals(0, metrics.getGauges().get(MetricRegistry.name(RegistrationSpool.class, "pending")).getValue());
+		try (final Stream<Path> remaining = Files.list(Paths.get(config.getSpoolDirectory()))) {
+			assertEquals(0, remaining.count());
+		}
+	}
+	
+	@Test
+	public void spool_PosixFileSystem_RestrictToOwner() throws IOException, SQLException, LiquibaseException {
+		assumeTrue(spoolParent.getFileSystem().supportedFileAttributeViews().contains("posix"));
+		final FallbackConfiguration config = new FallbackConfiguration();
+		config.setSpoolDirectory(spoolParent.resolve("spool").toString());
+		
+		final RegistrationSpool spool = new RegistrationSpool(config, buildDao(), Jackson.newObjectMapper(), new MetricRegistry());
+		spool.spool(new User("private@example.com", "plain", "(716)888-8888", "Private", "Spooled"), "$hash");
+		
+		final Path directory = Paths.get(config.getSpoolDirectory());
+		assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+		try (final Stream<Path> entries = Files.list(directory)) {
+			entries.forEach(entry -> {
+				try {
+					assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(entry)), "Spooled registrations hold personal data");
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+	}
+	
+	private SqlDao buildDao() throws SQLException, LiquibaseException {
+		dataSource = new BasicDataSource();
+		dataSource.setUrl(MOCK_CONNECTION_URL);
+		
+		try (final Connection connection = dataSource.getConnection()) {
+			final Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+			final Liquibase liquibase = new Liquibase("liquibase/changelog.xml", new ClassLoaderResourceAccessor(), database);
+			liquibase.update(new Contexts(), new LabelExpression());
+		}
+		
+		final SecurityConfiguration securityConfig = new SecurityConfiguration();
+		securityConfig.setHashCost(5);
+		return new SqlDao(dataSource, securityConfig);
+	}
+}
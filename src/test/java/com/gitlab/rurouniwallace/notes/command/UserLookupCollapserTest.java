@@ -0,0 +1,231 @@
+package com.gitlab.rurouniwallace.notes.command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.ConcurrencyLimitConfiguration;
+import com.gitlab.rurouniwallace.notes.config.DaoConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.EmailKeys;
+import com.gitlab.rurouniwallace.notes.dao.IAccessesUsers;
+import com.gitlab.rurouniwallace.notes.dao.IReceivesUsers;
+import com.gitlab.rurouniwallace.notes.exceptions.ConcurrencyLimitExceededException;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.tenacity.NotesApiDependencyKeys;
+import com.gitlab.rurouniwallace.notes.throttling.AdaptiveConcurrencyLimit;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
+
+import rx.Observable;
+
+public class UserLookupCollapserTest {
+	
+	private static RecordingUserDao userDao;
+	
+	private static MetricRegistry metrics;
+	
+	/**
+	 * Hystrix keeps one global collapser per key, which builds every batch with the first
+	 * instance to use it, so the tests share one
+	 */
+	private static UserLookupCollapser collapser;
+	
+	@BeforeAll
+	public static void setUpBeforeClass() {
+		final DaoConfiguration config = new DaoConfiguration();
+		config.setLookupCollapsingEnabled(true);
+		config.setLookupCollapseWindowMillis(50);
+	
+		userDao = new RecordingUserDao();
+		metrics = new MetricRegistry();
+		collapser = new UserLookupCollapser(userDao, new StaleValueCache<>(), config, metrics);
+	}
+	
+	@BeforeEach
+	public void setUp() {
+		userDao.reset();
+	}
+	
+	@Test
+	public void lookupUserByEmail_IdenticalLookupInFlight_ShareQuery() throws InterruptedException {
+		final long sharedBefore = metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "shared")).getCount();
+		userDao.blockQueries();
+	
+		final Observable<Optional<User>> first = collapser.lookupUserByEmail("testuser1@example.com", Deadline.none());
+		assertTrue(userDao.queryStarted.await(5, TimeUnit.SECONDS), "The first lookup should start its query");
+		final Observable<Optional<User>> second = collapser.lookupUserByEmail(" TestUser1@Example.com", Deadline.none());
+		userDao.releaseQueries();
+	
+		assertEquals("testuser1@example.com", first.toBlocking().single().get().getEmail());
+		assertEquals("testuser1@example.com", second.toBlocking().single().get().getEmail());
+		assertEquals(1, userDao.queries.size(), "The identical lookup should join the one in flight");
+		assertEquals(sharedBefore + 1, metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "shared")).getCount());
+	}
+	
+	@Test
+	public void lookupUserByEmail_DistinctLookupsInWindow_BatchIntoOneQuery() {
+		final List<String> emails = Arrays.asList("testuser2@example.com", "testuser3@example.com", "testuser4@example.com");
+		final long queriesBefore = metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "queries")).getCount();
+	
+		final List<Observable<Optional<User>>> lookups = new ArrayList<>();
+		for (final String email : emails) {
+			lookups.add(collapser.lookupUserByEmail(email, Deadline.none()));
+		}
+		for (final Observable<Optional<User>> lookup : lookups) {
+			lookup.toBlocking().single();
+		}
+	
+		assertEquals(1, userDao.queries.size(), "Lookups within one window should be one query");
+		assertEquals(3, userDao.queries.get(0).size());
+		assertTrue(userDao.queries.get(0).containsAll(emails));
+		assertEquals(queriesBefore + 1, metrics.meter(MetricRegistry.name(UserLookupCollapser.class, "queries")).getCount());
+	}
+	
+	@Test
+	public void lookupUserByEmail_BatchAnswered_EachLookupGetsItsOwnUser() {
+		final List<String> emails = Arrays.asList("testuser5@example.com", "unregistered@example.com", "testuser6@example.com", "testuser7@example.com");
+	
+		final List<Observable<Optional<User>>> lookups = new ArrayList<>();
+		for (final String email : emails) {
+			lookups.add(collapser.lookupUserByEmail(email, Deadline.none()));
+		}
+	
+		for (int i = 0; i < emails.size(); i++) {
+			final Optional<User> user = lookups.get(i).toBlocking().single();
+			if (emails.get(i).startsWith("unregistered")) {
+				assertFalse(user.isPresent());
+			} else {
+				assertEquals(emails.get(i), user.get().getEmail(), "Each lookup should be answered with its own user");
+			}
+		}
+		assertEquals(1, userDao.queries.size());
+	}
+	
+	@Test
+	public void lookupUserByEmail_OverConcurrencyLimit_Shed() throws InterruptedException {
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("userLookup", new ConcurrencyLimitConfiguration(), 1, new MetricRegistry());
+		CommandRunner.limitConcurrency(Collections.singletonMap(NotesApiDependencyKeys.USER_LOOKUP, limit));
+		try {
+			userDao.blockQueries();
+			
+			final Observable<Optional<User>> admitted = collapser.lookupUserByEmail("testuser8@example.com", Deadline.none());
+			assertTrue(userDao.queryStarted.await(5, TimeUnit.SECONDS), "The admitted lookup should start its query");
+			final Observable<Optional<User>> shed = collapser.lookupUserByEmail("testuser9@example.com", Deadline.none());
+			userDao.releaseQueries();
+			
+			final RuntimeException error = assertThrows(RuntimeException.class, () -> shed.toBlocking().single());
+			assertTrue(error.getCause() instanceof ConcurrencyLimitExceededException, "The lookup over the limit should be shed");
+			assertEquals("testuser8@example.com", admitted.toBlocking().single().get().getEmail());
+			assertEquals(1, userDao.queries.size(), "The shed lookup should not be queried");
+			assertEquals(0, limit.getInFlight(), "The admitted lookup should release its permit");
+		} finally {
+			CommandRunner.limitConcurrency(Collections.emptyMap());
+		}
+	}
+	
+	/**
+	 * Answers batched lookups with a user for every registered-looking email address, and
+	 * records each batch it is asked for
+	 */
+	private static class RecordingUserDao implements IAccessesUsers {
+	
+		private final List<List<String>> queries = new CopyOnWriteArrayList<>();
+	
+		private volatile CountDownLatch queryStarted;
+	
+		private volatile CountDownLatch queryReleased;
+	
+		void reset() {
+			queries.clear();
+			queryStarted = new CountDownLatch(1);
+			queryReleased = new CountDownLatch(0);
+		}
+	
+		void blockQueries() {
+			queryReleased = new CountDownLatch(1);
+		}
+	
+		void releaseQueries() {
+			queryReleased.countDown();
+		}
+	
+		@Override
+		public List<Optional<User>> lookupUsersByEmail(final List<String> emails) {
+			queries.add(new ArrayList<>(emails));
+			queryStarted.countDown();
+			try {
+				queryReleased.await(5, TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+	
+			final List<Optional<User>> users = new ArrayList<>(emails.size());
+			for (final String email : emails) {
+				users.add(email.startsWith("unregistered") ? Optional.empty()
+						: Optional.of(new User(UUID.randomUUID(), EmailKeys.normalize(email), "$5$c2FsdA==$aGFzaA==", null, null, null)));
+			}
+			return users;
+		}
+	
+		@Override
+		public User authenticateUser(final String email, final String password) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public User registerUser(final User user) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public Optional<User> lookupUserByEmail(final String email) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public Optional<User> findByUuid(final UUID uuid) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public List<Optional<User>> findByUuids(final List<UUID> uuids) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public int listUsers(final UUID after, final int limit, final IReceivesUsers receiver) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public User insertUser(final User user, final String hashedPassword) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public List<Optional<User>> insertUsers(final List<User> users, final List<String> hashedPasswords) {
+			throw new UnsupportedOperationException();
+		}
+	
+		@Override
+		public boolean updatePasswordHash(final UUID uuid, final String currentHashedPassword, final String newHashedPassword) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
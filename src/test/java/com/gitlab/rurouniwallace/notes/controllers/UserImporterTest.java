@@ -0,0 +1,244 @@
+package com.gitlab.rurouniwallace.notes.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+import com.gitlab.rurouniwallace.notes.dao.SqlDao;
+import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.security.BcryptPasswordHasher;
+import com.gitlab.rurouniwallace.notes.security.IHashesPasswords;
+import com.gitlab.rurouniwallace.notes.security.SessionPrincipal;
+
+import io.dropwizard.jackson.Jackson;
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.ClassLoaderResourceAccessor;
+
+public class UserImporterTest {
+	
+	private static final String MOCK_CONNECTION_URL = "jdbc:hsqldb:mem:importDb;sql.sql.syntax_pgs=true";
+	
+	private static final UUID ADMIN_UUID = UUID.randomUUID();
+	
+	/**
+	 * Password the failing hasher refuses to hash
+	 */
+	private static final String UNHASHABLE_PASSWORD = "unhashable";
+	
+	private static SqlDao dao;
+	
+	private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+	
+	private IHashesPasswords passwordHasher;
+	
+	@BeforeAll
+	public static void setUpBeforeClass() throws SQLException, LiquibaseException {
+		final BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setUrl(MOCK_CONNECTION_URL);
+	
+		try (final Connection connection = dataSource.getConnection()) {
+			final Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+			final Liquibase liquibase = new Liquibase("liquibase/changelog.xml", new ClassLoaderResourceAccessor(), database);
+			liquibase.update(new Contexts(), new LabelExpression());
+		}
+	
+		final SecurityConfiguration securityConfig = new SecurityConfiguration();
+		securityConfig.setHashCost(5);
+		dao = new SqlDao(dataSource, securityConfig);
+	}
+	
+	@BeforeEach
+	public void setUp() {
+		final SecurityConfiguration securityConfig = new SecurityConfiguration();
+		securityConfig.setHashCost(5);
+		passwordHasher = new FailingPasswordHasher(new BcryptPasswordHasher(securityConfig));
+	}
+	
+	@Test
+	public void importUsers_ValidRecords_ResultPerRecordThenSummary() throws IOException, DataAccessException {
+		final UserImporter importer = new UserImporter(dao, passwordHasher, objectMapper, Collections.singletonList(ADMIN_UUID));
+		dao.insertUser(new User("imported0@example.com", null, null, "Existing", "User"), "$5$c2FsdA==$aGFzaA==");
+	
+		final List<JsonNode> results = runImport(importer,
+				"{\"email\":\"imported1@example.com\",\"password\":\"test1234\",\"givenName\":\"First\"}\n"
+				+ "{\"email\":\"imported0@example.com\",\"password\":\"test1234\"}\n"
+				+ "{\"email\":\"imported2@example.com\",\"password\":\"test1234\",\"givenName\":\"Second\"}\n");
+	
+		assertEquals(4, results.size(), "One result per record, then the summary");
+		assertEquals("SUCCESS", resultFor(results, 1).get("status").asText());
+		assertEquals("imported1@example.com", resultFor(results, 1).get("user").get("email").asText());
+		assertFalse(resultFor(results, 1).get("user").has("password"), "Results should not echo passwords");
+		assertEquals("ENTITY_ALREADY_EXISTS", resultFor(results, 2).get("status").asText());
+		assertEquals("SUCCESS", resultFor(results, 3).get("status").asText());
+	
+		final JsonNode summary = results.get(results.size() - 1);
+		assertFalse(summary.has("record"), "The summary belongs to no record");
+		assertEquals("SUCCESS", summary.get("status").asText());
+		assertEquals("Imported 2 of 3 users", summary.get("message").asText());
+		assertTrue(dao.lookupUserByEmail("imported2@example.com").isPresent());
+	}
+	
+	@Test
+	public void importUsers_InvalidRecords_FailOnlyThoseRecords() throws IOException, DataAccessException {
+		final UserImporter importer = new UserImporter(dao, passwordHasher, objectMapper, Collections.singletonList(ADMIN_UUID));
+	
+		final List<JsonNode> results = runImport(importer,
+				"{\"email\":\"imported3@example.com\"}\n"
+				+ "{\"email\":[\"imported4@example.com\"],\"password\":\"test1234\"}\n"
+				+ "{\"uuid\":\"" + UUID.randomUUID() + "\",\"email\":\"imported5@example.com\",\"password\":\"test1234\"}\n"
+				+ "{\"email\":\"imported6@example.com\",\"password\":\"test1234\"}\n");
+	
+		assertEquals(5, results.size());
+		assertEquals("INVALID_ARGUMENTS", resultFor(results, 1).get("status").asText());
+		assertEquals("Password required", resultFor(results, 1).get("message").asText());
+		assertEquals("INVALID_ARGUMENTS", resultFor(results, 2).get("status").asText());
+		assertTrue(resultFor(results, 2).get("message").asText().startsWith("Invalid user"));
+		assertEquals("INVALID_ARGUMENTS", resultFor(results, 3).get("status").asText());
+		assertEquals("SUCCESS", resultFor(results, 4).get("status").asText(), "Records after invalid ones should still be imported");
+		assertEquals("Imported 1 of 4 users", results.get(results.size() - 1).get("message").asText());
+	}
+	
+	@Test
+	public void importUsers_MalformedJson_StopImport() throws IOException, DataAccessException {
+		final UserImporter importer = new UserImporter(dao, passwordHasher, objectMapper, Collections.singletonList(ADMIN_UUID));
+	
+		final List<JsonNode> results = runImport(importer,
+				"{\"email\":\"imported7@example.com\",\"password\":\"test1234\"}\n"
+				+ "{\"email\":\"imported8@example.com\",\"password\n"
+				+ "{\"email\":\"imported9@example.com\",\"password\":\"test1234\"}\n");
+	
+		assertEquals(3, results.size());
+		assertEquals("INVALID_ARGUMENTS", resultFor(results, 2).get("status").asText());
+		assertTrue(resultFor(results, 2).get("message").asText().startsWith("Malformed JSON, import stopped"));
+		assertEquals("SUCCESS", resultFor(results, 1).get("status").asText(), "Records before the malformed one should be imported");
+		assertEquals("Imported 1 of 2 users", results.get(results.size() - 1).get("message").asText(), "The malformed record counts as read");
+		assertFalse(dao.lookupUserByEmail("imported9@example.com").isPresent(), "Nothing after malformed JSON should be imported");
+	}
+	
+	@Test
+	public void importUsers_HashingFails_ReleaseHashPermits() {
+		final UserImporter importer = new UserImporter(dao, passwordHasher, objectMapper, Collections.singletonList(ADMIN_UUID));
+	
+		// more failures than there are hash permits, so a permit kept by a failure would stall the imports
+		final int failures = Runtime.getRuntime().availableProcessors() + 1;
+		final StringBuilder records = new StringBuilder();
+		for (int i = 0; i < failures; i++) {
+			records.append("{\"email\":\"unhashable" + i + "@example.com\",\"password\":\"" + UNHASHABLE_PASSWORD + "\"}\n");
+		}
+	
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			final List<JsonNode> failedResults = runImport(importer, records.toString());
+			assertEquals(failures + 1, failedResults.size());
+			for (int i = 1; i <= failures; i++) {
+				assertEquals("FAILED", resultFor(failedResults, i).get("status").asText());
+			}
+	
+			final List<JsonNode> results = runImport(importer, "{\"email\":\"imported10@example.com\",\"password\":\"test1234\"}\n");
+			assertEquals("SUCCESS", resultFor(results, 1).get("status").asText(), "Imports after failed hashes should still get permits");
+		});
+	}
+	
+	@Test
+	public void importUsers_NotAdmin_Forbid() throws IOException {
+		final UserImporter importer = new UserImporter(dao, passwordHasher, objectMapper, Collections.singletonList(ADMIN_UUID));
+	
+		final Response response = importer.importUsers(new ByteArrayInputStream(new byte[0]), new SessionPrincipal(UUID.randomUUID()));
+	
+		assertEquals(403, response.getStatus());
+	}
+	
+	private List<JsonNode> runImport(final UserImporter importer, final String records) throws IOException {
+		final Response response = importer.importUsers(new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8)), new SessionPrincipal(ADMIN_UUID));
+		assertEquals(200, response.getStatus());
+	
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(output);
+	
+		final List<JsonNode> results = new ArrayList<>();
+		for (final String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			results.add(objectMapper.readTree(line));
+		}
+		return results;
+	}
+	
+	private static JsonNode resultFor(final List<JsonNode> results, final long record) {
+		for (final JsonNode result : results) {
+			if (result.has("record") && result.get("record").asLong() == record) {
+				return result;
+			}
+		}
+		throw new AssertionError("No result for record " + record);
+	}
+	
+	/**
+	 * Hashes passwords, except that it fails to hash {@link UserImporterTest#UNHASHABLE_PASSWORD}
+	 */
+	private static class FailingPasswordHasher implements IHashesPasswords {
+	
+		private final IHashesPasswords delegate;
+	
+		FailingPasswordHasher(final IHashesPasswords delegate) {
+			this.delegate = delegate;
+		}
+	
+		@Override
+		public String getAlgorithmId() {
+			return delegate.getAlgorithmId();
+		}
+	
+		@Override
+		public String hashPassword(final String password) throws GeneralSecurityException {
+			if (UNHASHABLE_PASSWORD.equals(password)) {
+				throw new GeneralSecurityException("Hashing failed");
+			}
+			return delegate.hashPassword(password);
+		}
+	
+		@Override
+		public boolean checkPassword(final String password, final String hashedPassword) {
+			return delegate.checkPassword(password, hashedPassword);
+		}
+	
+		@Override
+		public boolean recognizes(final String hashedPassword) {
+			return delegate.recognizes(hashedPassword);
+		}
+	
+		@Override
+		public boolean needsRehash(final String hashedPassword) {
+			return delegate.needsRehash(hashedPassword);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.health.ConnectionPoolStats;
+
+public class InstrumentedDataSourceTest {
+	
+	private static final String MOCK_CONNECTION_URL = "jdbc:hsqldb:mem:poolTest";
+	
+	@Test
+	public void checkForLeaks_ConnectionHeldPastThreshold_ReportOnce() throws SQLException, InterruptedException {
+		final MetricRegistry metrics = new MetricRegistry();
+		try (final InstrumentedDataSource dataSource = buildDataSource(1, metrics)) {
+			final Connection leaked = dataSource.getConnection();
+			
+			Thread.sleep(20);
+			dataSource.checkForLeaks();
+			dataSource.checkForLeaks();
+			
+			assertEquals(1, dataSource.getStats().getLeaks());
+			assertEquals(1, dataSource.getStats().getActive());
+			
+			leaked.close();
+			leaked.close();
+			
+			final ConnectionPoolStats stats = dataSource.getStats();
+			assertEquals(0, stats.getActive());
+			assertEquals(1, stats.getIdle());
+			assertEquals(1, metrics.timer(MetricRegistry.name(InstrumentedDataSource.class, "test", "time-to-return")).getCount(), "A connection closed twice is returned once");
+		}
+	}
+	
+	@Test
+	public void checkForLeaks_ConnectionReturnedInTime_NoReport() throws SQLException {
+		final MetricRegistry metrics = new MetricRegistry();
+		try (final InstrumentedDataSource dataSource = buildDataSource(60000, metrics)) {
+			dataSource.getConnection().close();
+			dataSource.checkForLeaks();
+			
+			assertEquals(0, dataSource.getStats().getLeaks());
+			assertEquals(1, metrics.timer(MetricRegistry.name(InstrumentedDataSource.class, "test", "borrow-wait")).getCount());
+		}
+	}
+	
+	private InstrumentedDataSource buildDataSource(final long leakThresholdMillis, final MetricRegistry metrics) {
+		final PoolableConnectionFactory connectionFactory = new PoolableConnectionFactory(new DriverManagerConnectionFactory(MOCK_CONNECTION_URL), null);
+		final GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<>(connectionFactory);
+		connectionFactory.setPool(pool);
+		
+		return new InstrumentedDataSource("test", pool, leakThresholdMillis, metrics);
+	}
+}
@@ -0,0 +1,73 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ReplicaRouterTest {
+	
+	private static final String PRIMARY_URL = "jdbc:hsqldb:mem:routerPrimary";
+	
+	private static final String REPLICA_A_URL = "jdbc:hsqldb:mem:routerReplicaA";
+	
+	private static final String REPLICA_B_URL = "jdbc:hsqldb:mem:routerReplicaB";
+	
+	private static final String UNREACHABLE_URL = "jdbc:hsqldb:hsql://localhost:1/unreachable";
+	
+	@Test
+	public void getReadConnection_ReplicaBusy_RouteToLeastOutstanding() throws SQLException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final ReplicaRouter router = new ReplicaRouter(buildDataSource("primary", PRIMARY_URL, metrics),
+				Arrays.asList(buildDataSource("a", REPLICA_A_URL, metrics), buildDataSource("b", REPLICA_B_URL, metrics)), 60000, metrics);
+		
+		final Connection first = router.getReadConnection();
+		final Connection second = router.getReadConnection();
+		assertEquals(REPLICA_A_URL, first.getMetaData().getURL());
+		assertEquals(REPLICA_B_URL, second.getMetaData().getURL());
+		
+		first.close();
+		try (final Connection third = router.getReadConnection()) {
+			assertEquals(REPLICA_A_URL, third.getMetaData().getURL());
+		}
+		second.close();
+		
+		assertEquals(0, metrics.getGauges().get(MetricRegistry.name(ReplicaRouter.class, "a", "outstanding")).getValue());
+		assertEquals(0, metrics.getGauges().get(MetricRegistry.name(ReplicaRouter.class, "b", "outstanding")).getValue());
+	}
+	
+	@Test
+	public void getReadConnection_ReplicaUnreachable_FallBackToPrimaryAndSkipReplica() throws SQLException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final ReplicaRouter router = new ReplicaRouter(buildDataSource("primary", PRIMARY_URL, metrics),
+				Collections.singletonList(buildDataSource("down", UNREACHABLE_URL, metrics)), 60000, metrics);
+		
+		try (final Connection connection = router.getReadConnection()) {
+			assertEquals(PRIMARY_URL, connection.getMetaData().getURL());
+		}
+		try (final Connection connection = router.getReadConnection()) {
+			assertEquals(PRIMARY_URL, connection.getMetaData().getURL());
+		}
+		
+		assertEquals(1, metrics.meter(MetricRegistry.name(ReplicaRouter.class, "down", "failures")).getCount(), "A failed replica is skipped until its retry interval passes");
+		assertEquals(2, metrics.meter(MetricRegistry.name(ReplicaRouter.class, "primary-fallbacks")).getCount());
+	}
+	
+	private InstrumentedDataSource buildDataSource(final String poolName, final String url, final MetricRegistry metrics) {
+		final PoolableConnectionFactory connectionFactory = new PoolableConnectionFactory(new DriverManagerConnectionFactory(url), null);
+		final GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<>(connectionFactory);
+		connectionFactory.setPool(pool);
+		
+		return new InstrumentedDataSource(poolName, pool, 0, metrics);
+	}
+}
@@ -1,33 +1,53 @@
 package com.gitlab.rurouniwallace.notes.dao;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.bouncycastle.crypto.generators.BCrypt;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.EmailFilterConfiguration;
 import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
 import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationDeniedException;
 import com.gitlab.rurouniwallace.notes.exceptions.AuthenticationException;
 import com.gitlab.rurouniwallace.notes.exceptions.DataAccessException;
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
 import com.gitlab.rurouniwallace.notes.exceptions.EntityAlreadyExistsException;
 import com.gitlab.rurouniwallace.notes.models.User;
+import com.gitlab.rurouniwallace.notes.security.BcryptPasswordHasher;
+import com.gitlab.rurouniwallace.notes.security.VerifiedCredentialCache;
+import com.gitlab.rurouniwallace.notes.throttling.Deadline;
 
 import liquibase.Contexts;
 import liquibase.LabelExpression;
@@ -109,11 +129,12 @@ public class SqlDaoTest {
 		
 		final String[] parts = hashedPassword.split("\\$");
 		
-		final int costFactor = Integer.parseInt(parts[1]);
-		final byte[] salt = Base64.getDecoder().decode(parts[2]);
+		assertEquals("bcrypt", parts[1], "Hash in database should start with the algorithm id");
+		final int costFactor = Integer.parseInt(parts[2]);
+		final byte[] salt = Base64.getDecoder().decode(parts[3]);
 		
 		final String expectedHash = Base64.getEncoder().encodeToString(BCrypt.generate(password.getBytes(), salt, costFactor));
-		final String hashFromDatabase = parts[3];
+		final String hashFromDatabase = parts[4];
 		
 		assertEquals(expectedHash, hashFromDatabase, "Hash in database doesn't match what was expected");
 	}
@@ -171,6 +192,364 @@ public class SqlDaoTest {
 		});
 	}
 	
+	@Test
+	public void lookupUserByEmail_EmailAddressNotFound_ReturnEmpty() throws DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		assertFalse(dao.lookupUserByEmail("nonexistent@example.com").isPresent());
+	}
+	
+	@Test
+	public void lookupUserByEmail_DeadlinePassed_SkipQuery() {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		try (final Deadline.Scope scope = Deadline.after(0, TimeUnit.MILLISECONDS).enter()) {
+			assertThrows(DeadlineExceededException.class, () -> dao.lookupUserByEmail("nonexistent@example.com"));
+		}
+		
+		assertFalse(Deadline.current().isBounded(), "The deadline should end with its scope");
+	}
+	
+	@Test
+	public void insertUser_InsertSuccess_HashedPasswordStoredAsGiven() throws DataAccessException, SQLException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final User createdUser = dao.insertUser(new User("testuser6@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		
+		assertEquals("$5$c2FsdA==$aGFzaA==", readUserFromDatabase(createdUser.getUuid()).getPassword());
+	}
+	
+	@Test
+	public void authenticateUser_CredentialsCached_SkipDatabase() throws GeneralSecurityException, SQLException, DataAccessException, AuthenticationException {
+		securityConfig.setCredentialCacheEnabled(true);
+		final MetricRegistry metrics = new MetricRegistry();
+		final VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(securityConfig, metrics);
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), credentialCache);
+		
+		final String email = "testuser7@example.com";
+		final String password = "test1234";
+		
+		final User user = new User(UUID.randomUUID(), email, hashPassword(password), "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(user);
+		
+		dao.authenticateUser(email, password);
+		deleteUserFromDatabase(user.getUuid());
+		
+		assertEquals(user, dao.authenticateUser(email, password), "Cached credentials should be accepted without a lookup");
+		assertTrue(metrics.counter(MetricRegistry.name(VerifiedCredentialCache.class, "saved-hash-nanos")).getCount() > 0);
+		
+		assertThrows(AuthenticationDeniedException.class, () -> {
+			dao.authenticateUser(email, "different password");
+		});
+	}
+	
+	@Test
+	public void insertUser_CredentialsCached_InvalidateCache() throws GeneralSecurityException, SQLException, DataAccessException, AuthenticationException {
+		securityConfig.setCredentialCacheEnabled(true);
+		final VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(securityConfig, new MetricRegistry());
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), credentialCache);
+		
+		final String email = "testuser8@example.com";
+		final String password = "test1234";
+		
+		final User user = new User(UUID.randomUUID(), email, hashPassword(password), "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(user);
+		
+		dao.authenticateUser(email, password);
+		deleteUserFromDatabase(user.getUuid());
+		dao.insertUser(user, hashPassword("new password"));
+		
+		assertThrows(AuthenticationDeniedException.class, () -> {
+			dao.authenticateUser(email, password);
+		});
+	}
+	
+	@Test
+	public void lookupUserByEmail_EmailFilterRebuilt_SkipUnknownAndFindRegistered() throws GeneralSecurityException, SQLException, DataAccessException {
+		final EmailFilterConfiguration emailFilterConfig = new EmailFilterConfiguration();
+		emailFilterConfig.setEnabled(true);
+		emailFilterConfig.setExpectedInsertions(1000);
+		final KnownEmailFilter knownEmailFilter = new KnownEmailFilter(emailFilterConfig, new MetricRegistry());
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), new VerifiedCredentialCache(), knownEmailFilter);
+		
+		final User existingUser = new User(UUID.randomUUID(), "testuser9@example.com", hashPassword("test1234"), "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(existingUser);
+		
+		dao.rebuildKnownEmailFilter();
+		final User insertedUser = dao.insertUser(new User("testuser10@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), hashPassword("test1234"));
+		
+		assertTrue(dao.lookupUserByEmail(existingUser.getEmail()).isPresent(), "Rebuilt filter should contain existing users");
+		assertTrue(dao.lookupUserByEmail(insertedUser.getEmail()).isPresent(), "Inserted users should be added to the filter");
+		assertFalse(knownEmailFilter.mightContain("nonexistent-filtered@example.com"));
+		assertFalse(dao.lookupUserByEmail("nonexistent-filtered@example.com").isPresent());
+	}
+	
+	@Test
+	public void updatePasswordHash_CurrentHashMatches_ReplaceOnlyOnce() throws GeneralSecurityException, SQLException, DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final String oldHash = hashPassword("test1234");
+		final User user = new User(UUID.randomUUID(), "testuser11@example.com", oldHash, "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(user);
+		
+		final String newHash = new BcryptPasswordHasher(securityConfig).hashPassword("test1234");
+		
+		assertTrue(dao.updatePasswordHash(user.getUuid(), oldHash, newHash));
+		assertFalse(dao.updatePasswordHash(user.getUuid(), oldHash, hashPassword("test1234")), "A stale current hash should not be replaced");
+		assertEquals(newHash, readUserFromDatabase(user.getUuid()).getPassword());
+	}
+	
+	@Test
+	public void updatePasswordHash_CredentialsCached_InvalidateCache() throws GeneralSecurityException, SQLException, DataAccessException, AuthenticationException {
+		securityConfig.setCredentialCacheEnabled(true);
+		final VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(securityConfig, new MetricRegistry());
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), credentialCache);
+		
+		final String oldHash = hashPassword("test1234");
+		final User user = new User(UUID.randomUUID(), "testuser24@example.com", oldHash, "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(user);
+		dao.authenticateUser(user.getEmail(), "test1234");
+		assertTrue(credentialCache.getVerifiedUser(user.getEmail(), "test1234").isPresent());
+		
+		assertTrue(dao.updatePasswordHash(user.getUuid(), oldHash, hashPassword("test1234")));
+		
+		assertFalse(credentialCache.getVerifiedUser(user.getEmail(), "test1234").isPresent(), "Credentials verified against the old hash should be forgotten");
+	}
+	
+	@Test
+	public void insertUsers_DuplicateEmails_SkipOnlyDuplicates() throws SQLException, DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final User existingUser = new User(UUID.randomUUID(), "testuser12@example.com", "$5$c2FsdA==$aGFzaA==", "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(existingUser);
+		
+		final List<User> users = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			users.add(new User("batchuser" + i + "@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"));
+		}
+		users.add(new User(existingUser.getEmail(), "test1234", "(716)888-8888", "Testy", "Testerson"));
+		users.add(new User("batchuser3@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"));
+		users.add(new User("batchuser150@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"));
+		
+		final List<Optional<User>> createdUsers = dao.insertUsers(users, Collections.nCopies(users.size(), "$5$c2FsdA==$aGFzaA=="));
+		
+		assertEquals(users.size(), createdUsers.size());
+		for (int i = 0; i < 150; i++) {
+			assertTrue(createdUsers.get(i).isPresent());
+			assertEquals(users.get(i).getEmail(), createdUsers.get(i).get().getEmail(), "Results should be in request order");
+			assertEquals(users.get(i).getEmail(), readUserFromDatabase(createdUsers.get(i).get().getUuid()).getEmail());
+		}
+		assertFalse(createdUsers.get(150).isPresent(), "Already registered email should be skipped");
+		assertFalse(createdUsers.get(151).isPresent(), "Email repeated within the batch should be skipped");
+		assertTrue(createdUsers.get(152).isPresent(), "Users after a duplicate in the same chunk should still be inserted");
+		assertTrue(dao.lookupUserByEmail("batchuser150@example.com").isPresent());
+	}
+	
+	@Test
+	public void lookupUserByEmail_ReplicaFails_RetryOnPrimary() throws SQLException, DataAccessException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final PoolableConnectionFactory connectionFactory = new PoolableConnectionFactory(new DriverManagerConnectionFactory("jdbc:hsqldb:mem:emptyReplica"), null);
+		final GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<>(connectionFactory);
+		connectionFactory.setPool(pool);
+		final ReplicaRouter replicaRouter = new ReplicaRouter(dataSource, Collections.singletonList(new InstrumentedDataSource("empty", pool, 0, metrics)), 60000, metrics);
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), new VerifiedCredentialCache(), new KnownEmailFilter(), replicaRouter);
+		
+		final User user = new User(UUID.randomUUID(), "testuser13@example.com", "$5$c2FsdA==$aGFzaA==", "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(user);
+		
+		assertTrue(dao.lookupUserByEmail(user.getEmail()).isPresent(), "Lookup should be retried on the primary");
+		assertTrue(dao.lookupUserByEmail(user.getEmail()).isPresent());
+		assertEquals(1, metrics.meter(MetricRegistry.name(ReplicaRouter.class, "empty", "failures")).getCount(), "Failed replica should be skipped");
+		assertEquals(1, metrics.meter(MetricRegistry.name(ReplicaRouter.class, "primary-fallbacks")).getCount());
+	}
+	
+	@Test
+	public void lookupUserByEmail_ReplicaLagging_RetryOnPrimary() throws SQLException, LiquibaseException, DataAccessException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final ReplicaRouter replicaRouter = new ReplicaRouter(dataSource, Collections.singletonList(buildLaggingReplica("laggingReplica", metrics)), 60000, metrics);
+		final EmailFilterConfiguration emailFilterConfig = new EmailFilterConfiguration();
+		emailFilterConfig.setEnabled(true);
+		emailFilterConfig.setExpectedInsertions(1000);
+		final KnownEmailFilter knownEmailFilter = new KnownEmailFilter(emailFilterConfig, metrics);
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), new VerifiedCredentialCache(), knownEmailFilter, replicaRouter);
+		dao.rebuildKnownEmailFilter();
+		
+		final User insertedUser = dao.insertUser(new User("testuser20@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		
+		final Optional<User> foundUser = dao.lookupUserByEmail(insertedUser.getEmail());
+		assertTrue(foundUser.isPresent(), "A user the replica hasn't caught up with should be found on the primary");
+		assertEquals(insertedUser.getUuid(), foundUser.get().getUuid());
+		assertEquals(0, metrics.meter(MetricRegistry.name(KnownEmailFilter.class, "false-positives")).getCount(), "A replica miss is not a filter false positive");
+		assertEquals(0, metrics.meter(MetricRegistry.name(ReplicaRouter.class, "laggingReplica", "failures")).getCount(), "A replica miss is not a replica failure");
+	}
+	
+	@Test
+	public void lookupUsersByEmail_ReplicaLagging_RetryMissesOnPrimary() throws SQLException, LiquibaseException, DataAccessException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final ReplicaRouter replicaRouter = new ReplicaRouter(dataSource, Collections.singletonList(buildLaggingReplica("laggingBatchReplica", metrics)), 60000, metrics);
+		final EmailFilterConfiguration emailFilterConfig = new EmailFilterConfiguration();
+		emailFilterConfig.setEnabled(true);
+		emailFilterConfig.setExpectedInsertions(1000);
+		final KnownEmailFilter knownEmailFilter = new KnownEmailFilter(emailFilterConfig, metrics);
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), new VerifiedCredentialCache(), knownEmailFilter, replicaRouter);
+		dao.rebuildKnownEmailFilter();
+		
+		final User firstUser = dao.insertUser(new User("testuser21@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		final User secondUser = dao.insertUser(new User("testuser22@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		
+		final List<Optional<User>> foundUsers = dao.lookupUsersByEmail(Arrays.asList(secondUser.getEmail(), firstUser.getEmail()));
+		assertEquals(secondUser.getUuid(), foundUsers.get(0).get().getUuid(), "Users the replica hasn't caught up with should be found on the primary");
+		assertEquals(firstUser.getUuid(), foundUsers.get(1).get().getUuid());
+		assertEquals(0, metrics.meter(MetricRegistry.name(KnownEmailFilter.class, "false-positives")).getCount(), "Replica misses are not filter false positives");
+	}
+	
+	@Test
+	public void rebuildKnownEmailFilter_ReplicaLagging_KeepPrimaryRegistrations() throws SQLException, LiquibaseException, DataAccessException {
+		final MetricRegistry metrics = new MetricRegistry();
+		final ReplicaRouter replicaRouter = new ReplicaRouter(dataSource, Collections.singletonList(buildLaggingReplica("laggingRebuildReplica", metrics)), 60000, metrics);
+		final EmailFilterConfiguration emailFilterConfig = new EmailFilterConfiguration();
+		emailFilterConfig.setEnabled(true);
+		emailFilterConfig.setExpectedInsertions(1000);
+		final KnownEmailFilter knownEmailFilter = new KnownEmailFilter(emailFilterConfig, metrics);
+		final SqlDao dao = new SqlDao(dataSource, new BcryptPasswordHasher(securityConfig), new VerifiedCredentialCache(), knownEmailFilter, replicaRouter);
+		dao.rebuildKnownEmailFilter();
+		
+		final User insertedUser = dao.insertUser(new User("testuser23@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		dao.rebuildKnownEmailFilter();
+		
+		assertTrue(knownEmailFilter.mightContain(insertedUser.getEmail()), "A registration the replica hasn't caught up with should survive a rebuild");
+	}
+	
+	@Test
+	public void lookupUserByEmail_DifferentlyCased_FindUser() throws DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final User insertedUser = dao.insertUser(new User("TestUser14@Example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		
+		final Optional<User> foundUser = dao.lookupUserByEmail(" testuser14@EXAMPLE.com");
+		assertTrue(foundUser.isPresent());
+		assertEquals(insertedUser.getUuid(), foundUser.get().getUuid());
+		assertEquals("TestUser14@Example.com", foundUser.get().getEmail(), "Email should be returned as registered");
+		assertThrows(EntityAlreadyExistsException.class, () -> {
+			dao.insertUser(new User("testuser14@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		});
+	}
+	
+	@Test
+	public void backfillEmailHashes_LegacyRows_FindByNormalizedEmail() throws SQLException, DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final User legacyUser = new User(UUID.randomUUID(), "LegacyUser15@Example.com", "$5$c2FsdA==$aGFzaA==", "(716)888-8888", "Testy", "Testerson");
+		storeUserInDatabase(legacyUser);
+		assertFalse(dao.lookupUserByEmail("legacyuser15@example.com").isPresent(), "Legacy rows are only found by their exact email");
+		assertTrue(dao.lookupUserByEmail(legacyUser.getEmail()).isPresent());
+		
+		assertTrue(dao.backfillEmailHashes(2, 0) >= 1);
+		
+		final Optional<User> foundUser = dao.lookupUserByEmail("legacyuser15@example.com");
+		assertTrue(foundUser.isPresent());
+		assertEquals(legacyUser.getUuid(), foundUser.get().getUuid());
+		assertEquals(0, dao.backfillEmailHashes(2, 0), "Backfilled rows are skipped");
+	}
+	
+	@Test
+	public void findByUuid_UserExists_ReturnWithoutPassword() throws DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final User insertedUser = dao.insertUser(new User("testuser16@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==");
+		
+		final Optional<User> foundUser = dao.findByUuid(insertedUser.getUuid());
+		assertTrue(foundUser.isPresent());
+		assertEquals("testuser16@example.com", foundUser.get().getEmail());
+		assertNull(foundUser.get().getPassword(), "Profiles are read without the password hash");
+		assertFalse(dao.findByUuid(UUID.randomUUID()).isPresent());
+	}
+	
+	@Test
+	public void listUsers_PagedByKeyset_ListEachUserOnceInOrder() throws DataAccessException, IOException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final List<UUID> insertedUuids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			insertedUuids.add(dao.insertUser(new User("testuser17-" + i + "@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==").getUuid());
+		}
+		
+		final List<UUID> listedUuids = new ArrayList<>();
+		UUID after = new UUID(0, 0);
+		while (true) {
+			final List<User> page = new ArrayList<>();
+			dao.listUsers(after, 2, page::add);
+			for (final User user : page) {
+				assertNull(user.getPassword(), "Users are listed without their password hashes");
+				listedUuids.add(user.getUuid());
+			}
+			if (page.size() < 2) {
+				break;
+			}
+			after = page.get(page.size() - 1).getUuid();
+		}
+		
+		assertTrue(listedUuids.containsAll(insertedUuids));
+		assertEquals(listedUuids.size(), new HashSet<>(listedUuids).size(), "No user is listed twice");
+	}
+	
+	@Test
+	public void findByUuids_ManyKeysWithDuplicates_ReturnInRequestOrder() throws DataAccessException {
+		final SqlDao dao = new SqlDao(dataSource, securityConfig);
+		
+		final UUID first = dao.insertUser(new User("testuser18-a@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==").getUuid();
+		final UUID second = dao.insertUser(new User("testuser18-b@example.com", "test1234", "(716)888-8888", "Testy", "Testerson"), "$5$c2FsdA==$aGFzaA==").getUuid();
+		
+		// more keys than one IN statement holds, so the lookup spans chunks of different sizes
+		final List<UUID> uuids = new ArrayList<>();
+		uuids.add(second);
+		for (int i = 0; i < 70; i++) {
+			uuids.add(UUID.randomUUID());
+		}
+		uuids.add(first);
+		uuids.add(second);
+		
+		final List<Optional<User>> users = dao.findByUuids(uuids);
+		assertEquals(uuids.size(), users.size());
+		assertEquals(second, users.get(0).get().getUuid());
+		assertEquals(first, users.get(71).get().getUuid());
+		assertEquals(second, users.get(72).get().getUuid());
+		assertNull(users.get(71).get().getPassword());
+		for (int i = 1; i <= 70; i++) {
+			assertFalse(users.get(i).isPresent());
+		}
+		
+		final List<Optional<User>> usersByEmail = dao.lookupUsersByEmail(Arrays.asList("TestUser18-B@example.com", "nobody18@example.com", "testuser18-a@example.com"));
+		assertEquals(second, usersByEmail.get(0).get().getUuid());
+		assertFalse(usersByEmail.get(1).isPresent());
+		assertEquals(first, usersByEmail.get(2).get().getUuid());
+	}
+	
+	/**
+	 * Build a replica with the schema but none of the primary's users, as if it had fallen
+	 * behind
+	 * 
+	 * @param name name of the replica
+	 * @param metrics registry to report the replica's pool to
+	 * @return the replica
+	 * @throws SQLException if connecting to the replica fails
+	 * @throws LiquibaseException if creating the schema fails
+	 */
+	private static InstrumentedDataSource buildLaggingReplica(final String name, final MetricRegistry metrics) throws SQLException, LiquibaseException {
+		final PoolableConnectionFactory connectionFactory = new PoolableConnectionFactory(new DriverManagerConnectionFactory("jdbc:hsqldb:mem:" + name + ";sql.sql.syntax_pgs=true"), null);
+		final GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<>(connectionFactory);
+		connectionFactory.setPool(pool);
+		final InstrumentedDataSource replica = new InstrumentedDataSource(name, pool, 0, metrics);
+		
+		try (final Connection connection = replica.getConnection()) {
+			final Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+			final Liquibase liquibase = new Liquibase("liquibase/changelog.xml", new ClassLoaderResourceAccessor(), database);
+			liquibase.update(new Contexts(), new LabelExpression());
+		}
+		
+		return replica;
+	}
+	
 	/**
 	 * Hash a password using the Blowfish cipher, random salt, and a configured cost factor
 	 * 
@@ -205,6 +584,64 @@ public class SqlDaoTest {
 		insertUserStatement.executeUpdate();
 	}
 	
+	/**
+	 * Insert a user directly, returning the connection to the shared pool afterwards
+	 * 
+	 * @param user the user to insert
+	 * @throws SQLException if the insert fails
+	 */
+	private void storeUserInDatabase(final User user) throws SQLException {
+		try (final Connection connection = dataSource.getConnection()) {
+			final PreparedStatement insertUserStatement = connection.prepareStatement("INSERT INTO Users (uuid, email, password, phone, givenName, surname) VALUES (?, ?, ?, ?, ?, ?)");
+			insertUserStatement.setObject(1, user.getUuid());
+			insertUserStatement.setString(2, user.getEmail());
+			insertUserStatement.setString(3, user.getPassword());
+			insertUserStatement.setString(4, user.getPhone());
+			insertUserStatement.setString(5, user.getGivenName());
+			insertUserStatement.setString(6, user.getSurname());
+			
+			insertUserStatement.executeUpdate();
+		}
+	}
+	
+	/**
+	 * Read a user directly, returning the connection to the shared pool afterwards
+	 * 
+	 * @param uuid the user's UUID
+	 * @return the user as stored
+	 * @throws SQLException if the query fails
+	 */
+	private User readUserFromDatabase(final UUID uuid) throws SQLException {
+		try (final Connection connection = dataSource.getConnection()) {
+			final PreparedStatement getUserStatement = connection.prepareStatement("SELECT * FROM Users WHERE uuid = ?");
+			getUserStatement.setObject(1, uuid);
+			
+			final ResultSet queryResults = getUserStatement.executeQuery();
+			
+			queryResults.next();
+			
+			final User userFromDatabase = new User();
+			
+			userFromDatabase.setUuid((UUID)queryResults.getObject("uuid"));
+			userFromDatabase.setEmail(queryResults.getString("email"));
+			userFromDatabase.setPassword(queryResults.getString("password"));
+			userFromDatabase.setPhone(queryResults.getString("phone"));
+			userFromDatabase.setGivenName(queryResults.getString("givenName"));
+			userFromDatabase.setSurname(queryResults.getString("surname"));
+			
+			return userFromDatabase;
+		}
+	}
+	
+	private void deleteUserFromDatabase(final UUID uuid) throws SQLException {
+		try (final Connection connection = dataSource.getConnection()) {
+			final PreparedStatement deleteUserStatement = connection.prepareStatement("DELETE FROM Users WHERE uuid = ?");
+			deleteUserStatement.setObject(1, uuid);
+			
+			deleteUserStatement.executeUpdate();
+		}
+	}
+	
 	private User getUserFromDatabase(final UUID uuid) throws SQLException {
 		final Connection connection = dataSource.getConnection();
 		
@@ -0,0 +1,66 @@
+package com.gitlab.rurouniwallace.notes.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class TimeOrderedUuidGeneratorTest {
+	
+	@Test
+	public void generate_ManyInOneMillisecond_VersionSevenAndStrictlyIncreasing() {
+		final TimeOrderedUuidGenerator generator = new TimeOrderedUuidGenerator();
+		
+		final long before = System.currentTimeMillis();
+		UUID previous = generator.generate();
+		for (int i = 0; i < 100000; i++) {
+			final UUID uuid = generator.generate();
+			assertEquals(7, uuid.version());
+			assertEquals(2, uuid.variant());
+			assertTrue(uuid.compareTo(previous) > 0, "UUIDs should be strictly increasing");
+			previous = uuid;
+		}
+		
+		final long timestamp = previous.getMostSignificantBits() >>> 16;
+		assertTrue(timestamp >= before, "Timestamp should be the generation time in milliseconds");
+	}
+	
+	@Test
+	public void generate_ManyThreads_AllUniqueAndIncreasingPerThread() throws InterruptedException, ExecutionException {
+		final TimeOrderedUuidGenerator generator = new TimeOrderedUuidGenerator();
+		final ExecutorService threads = Executors.newFixedThreadPool(8);
+		
+		final List<Future<List<UUID>>> results = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			results.add(threads.submit(() -> {
+				final List<UUID> uuids = new ArrayList<>();
+				for (int i = 0; i < 20000; i++) {
+					uuids.add(generator.generate());
+				}
+				return uuids;
+			}));
+		}
+		
+		final Set<UUID> seen = new HashSet<>();
+		for (final Future<List<UUID>> result : results) {
+			final List<UUID> uuids = result.get();
+			for (int i = 0; i < uuids.size(); i++) {
+				assertTrue(seen.add(uuids.get(i)), "UUIDs should be unique across threads");
+				if (i > 0) {
+					assertTrue(uuids.get(i).compareTo(uuids.get(i - 1)) > 0);
+				}
+			}
+		}
+		threads.shutdown();
+	}
+}
@@ -0,0 +1,57 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+public class SaltGeneratorTest {
+	
+	private SecurityConfiguration securityConfig;
+	
+	private MetricRegistry metrics;
+	
+	@BeforeEach
+	public void setUp() {
+		securityConfig = new SecurityConfiguration();
+		securityConfig.setSaltPoolSize(8);
+		metrics = new MetricRegistry();
+	}
+
+	@Test
+	public void nextSalt_NotStarted_GeneratesDistinctSaltsOnCallerThread() {
+		final SaltGenerator saltGenerator = new SaltGenerator(securityConfig, metrics);
+		
+		final byte[] first = saltGenerator.nextSalt();
+		final byte[] second = saltGenerator.nextSalt();
+		
+		assertEquals(SaltGenerator.SALT_LENGTH, first.length);
+		assertFalse(Arrays.equals(first, second), "Consecutive salts should differ");
+		assertEquals(2, metrics.meter(MetricRegistry.name(SaltGenerator.class, "pool-misses")).getCount());
+	}
+	
+	@Test
+	public void nextSalt_Started_ServesSaltsFromPool() throws InterruptedException {
+		final SaltGenerator saltGenerator = new SaltGenerator(securityConfig, metrics);
+		saltGenerator.start();
+		
+		try {
+			for (int i = 0; i < 100 && metrics.getGauges().get(MetricRegistry.name(SaltGenerator.class, "pool-size")).getValue().equals(0); i++) {
+				Thread.sleep(10);
+			}
+			
+			saltGenerator.nextSalt();
+			
+			assertTrue(metrics.meter(MetricRegistry.name(SaltGenerator.class, "pool-hits")).getCount() > 0, "Salt should have been served from the pool");
+		} finally {
+			saltGenerator.stop();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+public class SessionTokenServiceTest {
+	
+	private static final Instant NOW = Instant.ofEpochSecond(1_700_000_000L);
+	
+	private SecurityConfiguration securityConfig;
+	
+	@BeforeEach
+	public void setUp() {
+		securityConfig = new SecurityConfiguration();
+		securityConfig.setTokenSecret(Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes()));
+		securityConfig.setTokenTtlSeconds(3600);
+		securityConfig.setTokenKeyRotationSeconds(600);
+	}
+
+	@Test
+	public void validateToken_IssuedToken_ReturnUuid() {
+		final SessionTokenService tokenService = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC));
+		final UUID uuid = UUID.randomUUID();
+		
+		assertEquals(Optional.of(uuid), tokenService.validateToken(tokenService.issueToken(uuid)));
+	}
+	
+	@Test
+	public void validateToken_IssuedBySameSecret_ReturnUuid() {
+		final UUID uuid = UUID.randomUUID();
+		final String token = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC)).issueToken(uuid);
+		
+		final SessionTokenService otherInstance = new SessionTokenService(securityConfig, Clock.fixed(NOW.plusSeconds(1800), ZoneOffset.UTC));
+		
+		assertEquals(Optional.of(uuid), otherInstance.validateToken(token), "Tokens signed with a rotated-out key should be accepted until they expire");
+	}
+	
+	@Test
+	public void validateToken_Expired_ReturnEmpty() {
+		final String token = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC)).issueToken(UUID.randomUUID());
+		
+		final SessionTokenService later = new SessionTokenService(securityConfig, Clock.fixed(NOW.plusSeconds(3600), ZoneOffset.UTC));
+		
+		assertFalse(later.validateToken(token).isPresent());
+	}
+	
+	@Test
+	public void validateToken_PayloadTampered_ReturnEmpty() {
+		final SessionTokenService tokenService = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC));
+		final String token = tokenService.issueToken(UUID.randomUUID());
+		final String otherToken = tokenService.issueToken(UUID.randomUUID());
+		
+		final String[] parts = token.split("\\.");
+		final String[] otherParts = otherToken.split("\\.");
+		
+		assertFalse(tokenService.validateToken(parts[0] + "." + otherParts[1] + "." + parts[2]).isPresent());
+	}
+	
+	@Test
+	public void validateToken_DifferentSecret_ReturnEmpty() {
+		final String token = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC)).issueToken(UUID.randomUUID());
+		
+		securityConfig.setTokenSecret(Base64.getEncoder().encodeToString("fedcba9876543210fedcba9876543210".getBytes()));
+		
+		assertFalse(new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC)).validateToken(token).isPresent());
+	}
+	
+	@Test
+	public void validateToken_Malformed_ReturnEmpty() {
+		final SessionTokenService tokenService = new SessionTokenService(securityConfig, Clock.fixed(NOW, ZoneOffset.UTC));
+		
+		assertFalse(tokenService.validateToken("not-a-token").isPresent());
+		assertFalse(tokenService.validateToken("1.%%%.abc").isPresent());
+		assertFalse(tokenService.validateToken(null).isPresent());
+	}
+}
@@ -0,0 +1,102 @@
+package com.gitlab.rurouniwallace.notes.security;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Random;
+
+import org.bouncycastle.crypto.generators.BCrypt;
+import org.junit.jupiter.api.Test;
+
+import com.gitlab.rurouniwallace.notes.config.SecurityConfiguration;
+
+public class StoredPasswordHashTest {
+	
+	@Test
+	public void format_RandomBytes_LegacyFormatWithAlgorithmId() {
+		final Random random = new Random(42);
+		for (int i = 0; i < 100; i++) {
+			final byte[] salt = new byte[StoredPasswordHash.SALT_LENGTH];
+			final byte[] hash = new byte[StoredPasswordHash.HASH_LENGTH];
+			random.nextBytes(salt);
+			random.nextBytes(hash);
+			
+			final String legacy = String.format("$%s$%s$%s", 10, Base64.getEncoder().encodeToString(salt), Base64.getEncoder().encodeToString(hash));
+			
+			assertEquals("$bcrypt" + legacy, StoredPasswordHash.format(10, salt, hash));
+		}
+	}
+	
+	@Test
+	public void parse_LegacyFormat_DecodesFields() {
+		final byte[] salt = new byte[StoredPasswordHash.SALT_LENGTH];
+		final byte[] hash = new byte[StoredPasswordHash.HASH_LENGTH];
+		new Random(7).nextBytes(salt);
+		new Random(8).nextBytes(hash);
+		
+		final StoredPasswordHash storedHash = StoredPasswordHash.forCurrentThread();
+		
+		assertTrue(storedHash.parse(String.format("$%s$%s$%s", 12, Base64.getEncoder().encodeToString(salt), Base64.getEncoder().encodeToString(hash))));
+		assertEquals(12, storedHash.getCost());
+		assertArrayEquals(salt, storedHash.getSalt());
+		assertTrue(storedHash.matches(hash));
+		assertFalse(storedHash.hasAlgorithmId());
+		
+		hash[hash.length - 1] ^= 1;
+		assertFalse(storedHash.matches(hash));
+	}
+	
+	@Test
+	public void parse_MalformedEntry_ReturnFalse() {
+		final StoredPasswordHash storedHash = StoredPasswordHash.forCurrentThread();
+		final String salt = Base64.getEncoder().encodeToString(new byte[StoredPasswordHash.SALT_LENGTH]);
+		final String hash = Base64.getEncoder().encodeToString(new byte[StoredPasswordHash.HASH_LENGTH]);
+		
+		assertFalse(storedHash.parse(""));
+		assertFalse(storedHash.parse("plaintext"));
+		assertFalse(storedHash.parse("$10$" + salt));
+		assertFalse(storedHash.parse("$x$" + salt + "$" + hash));
+		assertFalse(storedHash.parse("$3$" + salt + "$" + hash));
+		assertFalse(storedHash.parse("$10$" + salt.substring(1) + "$" + hash));
+		assertFalse(storedHash.parse("$10$" + salt + "$" + hash.replace('A', '!')));
+		assertFalse(storedHash.parse("$scrypt$10$" + salt + "$" + hash));
+		assertTrue(storedHash.parse("$10$" + salt + "$" + hash));
+		assertTrue(storedHash.parse("$bcrypt$10$" + salt + "$" + hash));
+	}
+	
+	@Test
+	public void checkPassword_LegacyEntry_AcceptCorrectPasswordOnly() throws GeneralSecurityException {
+		final SecurityConfiguration securityConfig = new SecurityConfiguration();
+		securityConfig.setHashCost(4);
+		final BcryptPasswordHasher hasher = new BcryptPasswordHasher(securityConfig);
+		
+		final byte[] salt = new byte[StoredPasswordHash.SALT_LENGTH];
+		new Random(9).nextBytes(salt);
+		final String legacy = String.format("$%s$%s$%s", 4, Base64.getEncoder().encodeToString(salt),
+				Base64.getEncoder().encodeToString(BCrypt.generate("test1234".getBytes(), salt, 4)));
+		
+		assertTrue(hasher.checkPassword("test1234", legacy));
+		assertFalse(hasher.checkPassword("test1235", legacy));
+		assertTrue(hasher.checkPassword("test1234", hasher.hashPassword("test1234")));
+	}
+	
+	@Test
+	public void needsRehash_LegacyOrCheaperEntry_ReturnTrue() throws GeneralSecurityException {
+		final SecurityConfiguration securityConfig = new SecurityConfiguration();
+		securityConfig.setHashCost(5);
+		final BcryptPasswordHasher hasher = new BcryptPasswordHasher(securityConfig);
+		
+		final String salt = Base64.getEncoder().encodeToString(new byte[StoredPasswordHash.SALT_LENGTH]);
+		final String hash = Base64.getEncoder().encodeToString(new byte[StoredPasswordHash.HASH_LENGTH]);
+		
+		assertTrue(hasher.needsRehash("$5$" + salt + "$" + hash));
+		assertTrue(hasher.needsRehash("$bcrypt$4$" + salt + "$" + hash));
+		assertFalse(hasher.needsRehash("$bcrypt$5$" + salt + "$" + hash));
+		assertFalse(hasher.needsRehash("$bcrypt$6$" + salt + "$" + hash));
+		assertFalse(hasher.needsRehash(hasher.hashPassword("test1234")));
+	}
+}
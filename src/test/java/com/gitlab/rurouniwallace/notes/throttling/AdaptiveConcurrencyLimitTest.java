@@ -0,0 +1,130 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.ConcurrencyLimitConfiguration;
+import com.gitlab.rurouniwallace.notes.throttling.AdaptiveConcurrencyLimit.Permit;
+
+public class AdaptiveConcurrencyLimitTest {
+	
+	private static final int MAX_LIMIT = 20;
+	
+	private AtomicLong now;
+	
+	private MetricRegistry metrics;
+	
+	private ConcurrencyLimitConfiguration config;
+	
+	@BeforeEach
+	public void setUp() {
+		now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+		metrics = new MetricRegistry();
+		config = new ConcurrencyLimitConfiguration();
+		config.setEnabled(true);
+	}
+	
+	@Test
+	public void tryAcquire_DatabaseSlowsDownAndRecovers_LimitTracksLatency() {
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", config, MAX_LIMIT, metrics, now::get);
+		
+		runSaturatingLoad(limit, TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(5));
+		assertEquals(MAX_LIMIT, limit.getLimit(), "Limit should grow to the bulkhead capacity while latency is flat");
+		final long shedBeforeSlowdown = metrics.meter(MetricRegistry.name(AdaptiveConcurrencyLimit.class, "test", "shed")).getCount();
+		
+		runSaturatingLoad(limit, TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(5));
+		final int slowLimit = limit.getLimit();
+		assertTrue(slowLimit <= MAX_LIMIT / 2, "Limit should fall while the database is slow, but was " + slowLimit);
+		assertTrue(metrics.meter(MetricRegistry.name(AdaptiveConcurrencyLimit.class, "test", "shed")).getCount() > shedBeforeSlowdown,
+				"Work over the lowered limit should be shed");
+		
+		runSaturatingLoad(limit, TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(5));
+		assertEquals(MAX_LIMIT, limit.getLimit(), "Limit should recover once the database does");
+		
+		@SuppressWarnings("unchecked")
+		final List<Integer> history = (List<Integer>) metrics.getGauges()
+				.get(MetricRegistry.name(AdaptiveConcurrencyLimit.class, "test", "limit-history")).getValue();
+		assertTrue(history.contains(slowLimit), "History should show the dip, but was " + history);
+		assertEquals(MAX_LIMIT, (int) history.get(history.size() - 1));
+	}
+	
+	@Test
+	public void releaseDropped_TimedOut_CutLimitToMinimum() {
+		config.setInitialLimit(10);
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", config, MAX_LIMIT, metrics, now::get);
+		
+		limit.tryAcquire().get().releaseDropped();
+		assertEquals(9, limit.getLimit());
+		
+		for (int i = 0; i < 20; i++) {
+			limit.tryAcquire().get().releaseDropped();
+		}
+		assertEquals(1, limit.getLimit());
+		assertEquals(0, limit.getInFlight());
+	}
+	
+	@Test
+	public void tryAcquire_AtLimit_RefuseUntilReleased() {
+		config.setInitialLimit(2);
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", config, MAX_LIMIT, metrics, now::get);
+		
+		final Permit first = limit.tryAcquire().get();
+		assertTrue(limit.tryAcquire().isPresent());
+		assertFalse(limit.tryAcquire().isPresent());
+		
+		first.releaseIgnored();
+		first.releaseIgnored();
+		
+		assertEquals(1, limit.getInFlight());
+		assertEquals(2, limit.getLimit());
+		assertTrue(limit.tryAcquire().isPresent());
+	}
+	
+	/**
+	 * Offer more work than the limit admits every millisecond, each piece taking the given
+	 * latency, then let the admitted work finish
+	 */
+	private void runSaturatingLoad(final AdaptiveConcurrencyLimit limit, final long latencyNanos, final long durationNanos) {
+		final PriorityQueue<Completion> completions = new PriorityQueue<>(Comparator.comparingLong(completion -> completion.at));
+		final long end = now.get() + durationNanos;
+		
+		while (now.get() < end || !completions.isEmpty()) {
+			while (!completions.isEmpty() && completions.peek().at <= now.get()) {
+				completions.poll().permit.release();
+			}
+			
+			if (now.get() < end) {
+				Optional<Permit> permit = limit.tryAcquire();
+				for (int i = 0; i < MAX_LIMIT * 2 && permit.isPresent(); i++) {
+					completions.add(new Completion(now.get() + latencyNanos, permit.get()));
+					permit = limit.tryAcquire();
+				}
+			}
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+	
+	private static class Completion {
+		
+		private final long at;
+		
+		private final Permit permit;
+		
+		Completion(final long at, final Permit permit) {
+			this.at = at;
+			this.permit = permit;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class BoundedExecutorTest {
+	
+	@Test
+	public void execute_MoreTasksThanPermits_RunAtMostMaxConcurrency() throws InterruptedException {
+		final ExecutorService threads = Executors.newCachedThreadPool();
+		final BoundedExecutor executor = new BoundedExecutor(threads, 3);
+		
+		final CountDownLatch started = new CountDownLatch(3);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(20);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger mostRunning = new AtomicInteger();
+		for (int i = 0; i < 20; i++) {
+			executor.execute(() -> {
+				mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				started.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				finished.countDown();
+			});
+		}
+		
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertEquals(3, executor.getInFlight());
+		assertEquals(17, executor.getQueued(), "Tasks beyond the limit should wait without a thread");
+		
+		release.countDown();
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		threads.shutdown();
+		assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+		
+		assertEquals(3, mostRunning.get());
+		assertEquals(0, executor.getInFlight());
+		assertEquals(0, executor.getQueued());
+	}
+}
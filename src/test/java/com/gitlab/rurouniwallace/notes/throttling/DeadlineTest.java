@@ -0,0 +1,64 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.gitlab.rurouniwallace.notes.exceptions.DeadlineExceededException;
+
+public class DeadlineTest {
+	
+	@Test
+	public void cancel_WorkRunning_InterruptWorkerAndSkipLaterWork() throws InterruptedException {
+		final Deadline deadline = Deadline.unbounded();
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		final AtomicBoolean interruptLeftBehind = new AtomicBoolean();
+		final AtomicInteger cancellations = new AtomicInteger();
+		deadline.whenCancelled(cancellations::incrementAndGet);
+		
+		final Thread worker = new Thread(() -> {
+			try (final Deadline.Scope scope = deadline.enterInterruptibly()) {
+				started.countDown();
+				Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+			} catch (final InterruptedException e) {
+				interrupted.set(true);
+			}
+			interruptLeftBehind.set(Thread.currentThread().isInterrupted());
+		});
+		worker.start();
+		started.await();
+		
+		assertTrue(deadline.cancel());
+		assertFalse(deadline.cancel(), "Only the first cancellation should count");
+		worker.join(TimeUnit.SECONDS.toMillis(5));
+		
+		assertTrue(interrupted.get(), "Work running within the deadline should be interrupted");
+		assertFalse(interruptLeftBehind.get(), "The interrupt should not outlive the work");
+		assertEquals(1, deadline.getInterrupted());
+		assertEquals(1, cancellations.get());
+		assertTrue(deadline.isExpired());
+		assertThrows(DeadlineExceededException.class, () -> deadline.check("Later work"));
+		
+		deadline.whenCancelled(cancellations::incrementAndGet);
+		assertEquals(2, cancellations.get(), "Actions added after cancellation should run at once");
+	}
+	
+	@Test
+	public void cancel_NoDeadline_Ignore() {
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		Deadline.none().whenCancelled(() -> cancelled.set(true));
+		
+		assertFalse(Deadline.none().cancel());
+		assertFalse(Deadline.none().isExpired());
+		assertFalse(cancelled.get());
+	}
+}
@@ -0,0 +1,186 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class DisconnectWatcherTest {
+	
+	/**
+	 * Body of every response
+	 */
+	private static final String RESPONSE_BODY = "done";
+	
+	private MetricRegistry metrics;
+	
+	private DisconnectWatcher watcher;
+	
+	private Server server;
+	
+	private int port;
+	
+	/**
+	 * Requests suspended by the servlet, in arrival order
+	 */
+	private final BlockingQueue<AsyncContext> suspended = new LinkedBlockingQueue<>();
+	
+	/**
+	 * Whether each request was watched, by request id
+	 */
+	private final Map<String, Boolean> watchedRequests = new ConcurrentHashMap<>();
+	
+	/**
+	 * Ids of the requests whose clients disconnected
+	 */
+	private final BlockingQueue<String> disconnected = new LinkedBlockingQueue<>();
+	
+	@BeforeEach
+	public void setUp() throws Exception {
+		metrics = new MetricRegistry();
+		watcher = new DisconnectWatcher(Runnable::run, metrics);
+		watcher.start();
+		
+		final ServletContextHandler context = new ServletContextHandler();
+		final ServletHolder holder = new ServletHolder(new SuspendingServlet());
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, "/*");
+		
+		server = new Server();
+		final ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		server.addConnector(connector);
+		server.setHandler(context);
+		server.start();
+		port = connector.getLocalPort();
+	}
+	
+	@AfterEach
+	public void tearDown() throws Exception {
+		server.stop();
+		watcher.stop();
+	}
+	
+	@Test
+	public void watch_ClientClosesMidRequest_RunAction() throws IOException, InterruptedException {
+		try (final Socket client = connect()) {
+			sendRequest(client, "1");
+			assertNotNull(suspended.poll(5, TimeUnit.SECONDS), "The request should be suspended");
+			assertTrue(watchedRequests.get("1"), "The request should be watched");
+		}
+		
+		assertEquals("1", disconnected.poll(5, TimeUnit.SECONDS), "Closing the connection mid-request should run the action");
+		assertEquals(1, metrics.meter(MetricRegistry.name(DisconnectWatcher.class, "disconnects")).getCount());
+	}
+	
+	@Test
+	public void watch_KeepAliveRequestCompleted_NotDisconnected() throws IOException, InterruptedException {
+		try (final Socket client = connect()) {
+			sendRequest(client, "1");
+			complete(suspended.poll(5, TimeUnit.SECONDS));
+			readResponse(client);
+			
+			// the connection stays open, idle, after its request is done
+			assertNull(disconnected.poll(500, TimeUnit.MILLISECONDS), "An idle keep-alive connection is not a disconnect");
+		}
+		
+		assertNull(disconnected.poll(500, TimeUnit.MILLISECONDS), "Closing the connection after its response is not a disconnect");
+		assertEquals(0, metrics.meter(MetricRegistry.name(DisconnectWatcher.class, "disconnects")).getCount());
+		assertEquals(0, metrics.getGauges().get(MetricRegistry.name(DisconnectWatcher.class, "watched")).getValue());
+	}
+	
+	@Test
+	public void watch_SecondRequestOnConnection_WatchAgain() throws IOException, InterruptedException {
+		try (final Socket client = connect()) {
+			sendRequest(client, "1");
+			complete(suspended.poll(5, TimeUnit.SECONDS));
+			readResponse(client);
+			
+			sendRequest(client, "2");
+			assertNotNull(suspended.poll(5, TimeUnit.SECONDS), "The second request should be suspended");
+			assertTrue(watchedRequests.get("2"), "The second request on the connection should be watched");
+		}
+		
+		assertEquals("2", disconnected.poll(5, TimeUnit.SECONDS), "Closing the connection should run the second request's action");
+		assertNull(disconnected.poll(500, TimeUnit.MILLISECONDS), "The first request's action should not run");
+	}
+	
+	private Socket connect() throws IOException {
+		final Socket client = new Socket();
+		client.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+		client.setSoTimeout(5000);
+		return client;
+	}
+	
+	private static void sendRequest(final Socket client, final String id) throws IOException {
+		final OutputStream output = client.getOutputStream();
+		output.write(("GET /?id=" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		output.flush();
+	}
+	
+	private static void readResponse(final Socket client) throws IOException {
+		final InputStream input = client.getInputStream();
+		final StringBuilder response = new StringBuilder();
+		while (!response.toString().endsWith("\r\n\r\n" + RESPONSE_BODY)) {
+			final int read = input.read();
+			if (read < 0) {
+				throw new IOException("Connection closed before the response ended: " + response);
+			}
+			response.append((char) read);
+		}
+		assertTrue(response.toString().startsWith("HTTP/1.1 200"), "Unexpected response: " + response);
+	}
+	
+	private static void complete(final AsyncContext context) throws IOException {
+		assertNotNull(context, "The request should be suspended");
+		final HttpServletResponse response = (HttpServletResponse) context.getResponse();
+		response.setContentLength(RESPONSE_BODY.length());
+		response.getOutputStream().write(RESPONSE_BODY.getBytes(StandardCharsets.US_ASCII));
+		context.complete();
+	}
+	
+	/**
+	 * Suspends every request and watches it for a disconnect, leaving the test to complete it
+	 */
+	private class SuspendingServlet extends HttpServlet {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected void doGet(final HttpServletRequest request, final HttpServletResponse response) {
+			final String id = request.getParameter("id");
+			final AsyncContext context = request.startAsync();
+			context.setTimeout(0);
+			watchedRequests.put(id, watcher.watch(request, () -> disconnected.add(id)));
+			suspended.add(context);
+		}
+	}
+}
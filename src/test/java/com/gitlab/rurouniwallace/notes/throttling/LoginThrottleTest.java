@@ -0,0 +1,24 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.LoginThrottleConfiguration;
+
+public class LoginThrottleTest {
+	
+	@Test
+	public void tryAdmit_EmailSpelledDifferently_ShareBucket() {
+		final LoginThrottleConfiguration config = new LoginThrottleConfiguration();
+		config.setEmailBurst(2);
+		final LoginThrottle throttle = new LoginThrottle(config, new MetricRegistry());
+		
+		assertEquals(0, throttle.tryAdmit("victim@example.com", "192.0.2.1"));
+		assertEquals(0, throttle.tryAdmit(" Victim@Example.com", "192.0.2.2"));
+		
+		assertTrue(throttle.tryAdmit("VICTIM@example.com ", "192.0.2.3") > 0, "Spellings that log in to the same account should share its bucket");
+	}
+}
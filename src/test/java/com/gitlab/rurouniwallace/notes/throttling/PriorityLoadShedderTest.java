@@ -0,0 +1,72 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.gitlab.rurouniwallace.notes.config.LoadSheddingConfiguration;
+
+public class PriorityLoadShedderTest {
+	
+	private AtomicLong now;
+	
+	private LoadSheddingConfiguration config;
+	
+	@BeforeEach
+	public void setUp() {
+		now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+		config = new LoadSheddingConfiguration();
+		config.setEnabled(true);
+		config.setMaxInFlight(10);
+		config.setTargetLatencyMillis(1000);
+		config.setLatencyWindowMillis(1000);
+	}
+	
+	@Test
+	public void tryAdmit_QueueDepthRising_ShedLowestPriorityFirst() {
+		final PriorityLoadShedder shedder = new PriorityLoadShedder(config, new MetricRegistry(), now::get);
+		
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, shedder.tryAdmit(RequestPriority.REGISTRATION));
+		}
+		
+		assertTrue(shedder.tryAdmit(RequestPriority.REGISTRATION) > 0, "Registrations should be shed at half load");
+		assertEquals(0, shedder.tryAdmit(RequestPriority.STANDARD));
+		assertEquals(0, shedder.tryAdmit(RequestPriority.STANDARD));
+		assertEquals(0, shedder.tryAdmit(RequestPriority.AUTHENTICATION));
+		assertTrue(shedder.tryAdmit(RequestPriority.STANDARD) > 0, "Standard requests should be shed at three quarters load");
+		assertEquals(0, shedder.tryAdmit(RequestPriority.AUTHENTICATION));
+		assertTrue(shedder.tryAdmit(RequestPriority.AUTHENTICATION) > 0, "Logins should be shed at nine tenths load");
+		
+		for (int i = 0; i < 20; i++) {
+			assertEquals(0, shedder.tryAdmit(RequestPriority.HEALTH), "Health checks should never be shed");
+		}
+	}
+	
+	@Test
+	public void tryAdmit_LatencyHigh_ShedUntilItDecays() {
+		final PriorityLoadShedder shedder = new PriorityLoadShedder(config, new MetricRegistry(), now::get);
+		
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, shedder.tryAdmit(RequestPriority.AUTHENTICATION));
+			final long admittedAt = now.get();
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(800));
+			shedder.finish(admittedAt);
+		}
+		
+		final long registrationWait = shedder.tryAdmit(RequestPriority.REGISTRATION);
+		final long standardWait = shedder.tryAdmit(RequestPriority.STANDARD);
+		assertTrue(registrationWait > standardWait && standardWait > 0,
+				"Lower priorities should be told to wait longer, but waited " + registrationWait + " and " + standardWait);
+		assertEquals(0, shedder.tryAdmit(RequestPriority.AUTHENTICATION));
+		
+		now.addAndGet(standardWait + TimeUnit.MILLISECONDS.toNanos(1));
+		assertEquals(0, shedder.tryAdmit(RequestPriority.STANDARD), "Standard requests should be admitted after their Retry-After");
+	}
+}
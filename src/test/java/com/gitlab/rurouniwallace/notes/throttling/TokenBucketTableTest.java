@@ -0,0 +1,82 @@
+package com.gitlab.rurouniwallace.notes.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTableTest {
+	
+	private AtomicLong now;
+	
+	@BeforeEach
+	public void setUp() {
+		now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+	}
+
+	@Test
+	public void tryAcquire_BurstExhausted_RejectWithWaitTime() {
+		final TokenBucketTable buckets = new TokenBucketTable(16, 3, 60, now::get);
+		
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, buckets.tryAcquire("testuser@example.com"), "Attempt " + i + " should be within the burst");
+		}
+		
+		final long wait = buckets.tryAcquire("testuser@example.com");
+		
+		assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1), "Should wait about one refill interval, but got " + wait);
+	}
+	
+	@Test
+	public void tryAcquire_TimePassed_Refill() {
+		final TokenBucketTable buckets = new TokenBucketTable(16, 1, 60, now::get);
+		
+		assertEquals(0, buckets.tryAcquire("testuser@example.com"));
+		assertTrue(buckets.tryAcquire("testuser@example.com") > 0);
+		
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		
+		assertEquals(0, buckets.tryAcquire("testuser@example.com"));
+	}
+	
+	@Test
+	public void tryAcquire_DifferentKeys_IndependentBuckets() {
+		final TokenBucketTable buckets = new TokenBucketTable(16, 1, 60, now::get);
+		
+		assertEquals(0, buckets.tryAcquire("testuser1@example.com"));
+		assertEquals(0, buckets.tryAcquire("testuser2@example.com"));
+	}
+	
+	@Test
+	public void tryAcquire_ManyKeys_MemoryStaysBounded() {
+		final TokenBucketTable buckets = new TokenBucketTable(16, 1, 60, now::get);
+		
+		for (int i = 0; i < 1000; i++) {
+			buckets.tryAcquire("testuser" + i + "@example.com");
+			now.incrementAndGet();
+		}
+		
+		assertTrue(buckets.trackedKeys() <= 16);
+	}
+	
+	@Test
+	public void tryAcquire_CollidingKeysChurn_KeepThrottledKey() {
+		final TokenBucketTable buckets = new TokenBucketTable(16, 3, 60, now::get);
+		
+		for (int i = 0; i < 3; i++) {
+			buckets.tryAcquire("testuser@example.com");
+		}
+		assertTrue(buckets.tryAcquire("testuser@example.com") > 0);
+		
+		// with 16 slots, a thousand keys collide with both of the throttled key's slots many times over
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(0, buckets.tryAcquire("attacker" + i + "@example.com"));
+		}
+		
+		assertTrue(buckets.tryAcquire("testuser@example.com") > 0, "Churning through other keys should not reset a throttled key");
+	}
+}